@@ -0,0 +1,111 @@
+/*
+   Copyright 2018 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.benchmarks;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nl.nn.adapterframework.configuration.IbisContext;
+import nl.nn.adapterframework.core.IAdapter;
+import nl.nn.adapterframework.receivers.JavaListener;
+import nl.nn.adapterframework.util.AppConstants;
+import nl.nn.adapterframework.util.RunStateEnum;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * End-to-end processing of a message by an adapter of the benchmark configuration: a
+ * JavaListener passes the message to the receiver, that runs it through the pipeline
+ * and returns the result, all within the JVM. This covers the ReceiverBase and
+ * CorePipeLineProcessor overhead together with the pipes of the adapter.
+ * <p>
+ * The adapters are defined in <code>Configuration.xml</code>; select one or more of them
+ * with <code>-p adapterName=Echo,Transform</code>.
+ *
+ * @since   7.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class AdapterBenchmark {
+
+	@Param({"Echo", "Transform", "Validate"})
+	public String adapterName;
+
+	private IbisContext ibisContext;
+	private JavaListener listener;
+	private String input;
+	private final AtomicLong messageCount = new AtomicLong();
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		System.setProperty("log.dir", "target/log");
+		System.setProperty("log.level", "WARN");
+		System.setProperty("otap.stage", "LOC");
+		System.setProperty("application.server.type", "IBISTEST");
+		System.setProperty("flow.create.url", "");
+		AppConstants.removeInstance();
+		AppConstants.getInstance().put("create.dbscript.location", "create_database_h2.sql");
+
+		ibisContext = new IbisContext();
+		ibisContext.init();
+		IAdapter adapter = ibisContext.getIbisManager().getRegisteredAdapter(adapterName);
+		if (adapter == null) {
+			throw new IllegalStateException("adapter ["+adapterName+"] not found in benchmark configuration");
+		}
+		int count = 30;
+		while (!RunStateEnum.STARTED.equals(adapter.getRunState())) {
+			if (count-- <= 0) {
+				throw new IllegalStateException("adapter ["+adapterName+"] has state ["+adapter.getRunState()+"]");
+			}
+			Thread.sleep(1000);
+		}
+		listener = JavaListener.getListener(adapterName);
+		if (listener == null) {
+			throw new IllegalStateException("no JavaListener registered with name ["+adapterName+"]");
+		}
+		input = BenchmarkUtils.getResource("Benchmark/Request.xml");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (ibisContext != null) {
+			ibisContext.destroy();
+		}
+	}
+
+	@Benchmark
+	public String processRequest() throws Exception {
+		return listener.processRequest("benchmark-" + messageCount.incrementAndGet(), input, new HashMap());
+	}
+
+	@Benchmark
+	@Threads(4)
+	public String processRequestConcurrent() throws Exception {
+		return listener.processRequest("benchmark-" + messageCount.incrementAndGet(), input, new HashMap());
+	}
+}
@@ -0,0 +1,38 @@
+/*
+   Copyright 2018 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.benchmarks;
+
+import java.io.IOException;
+import java.net.URL;
+
+import nl.nn.adapterframework.util.ClassUtils;
+import nl.nn.adapterframework.util.Misc;
+
+/**
+ * Helper methods shared by the benchmarks.
+ *
+ * @since   7.0
+ */
+class BenchmarkUtils {
+
+	static String getResource(String resource) throws IOException {
+		URL url = ClassUtils.getResourceURL(BenchmarkUtils.class, resource);
+		if (url == null) {
+			throw new IOException("cannot find resource ["+resource+"]");
+		}
+		return Misc.resourceToString(url);
+	}
+}
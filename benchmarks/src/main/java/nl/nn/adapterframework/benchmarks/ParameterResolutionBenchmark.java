@@ -0,0 +1,105 @@
+/*
+   Copyright 2018 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import nl.nn.adapterframework.core.IPipeLineSession;
+import nl.nn.adapterframework.core.PipeLineSessionBase;
+import nl.nn.adapterframework.parameters.Parameter;
+import nl.nn.adapterframework.parameters.ParameterList;
+import nl.nn.adapterframework.parameters.ParameterResolutionContext;
+import nl.nn.adapterframework.parameters.ParameterValueList;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Resolution of the parameters of a pipe or sender by a {@link ParameterResolutionContext}, for
+ * parameters with a fixed value, parameters taken from the session and parameters evaluated
+ * with an XPath expression on the input message.
+ *
+ * @since   7.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParameterResolutionBenchmark {
+
+	private ParameterList valueParameters;
+	private ParameterList sessionKeyParameters;
+	private ParameterList xpathParameters;
+	private IPipeLineSession session;
+	private String input;
+
+	@Setup
+	public void setUp() throws Exception {
+		input = BenchmarkUtils.getResource("Benchmark/Request.xml");
+		session = new PipeLineSessionBase();
+		session.put("customer", "Benchmark");
+		session.put("quantity", "42");
+
+		valueParameters = new ParameterList();
+		valueParameters.add(createParameter("customer", null, null, "Benchmark"));
+		valueParameters.add(createParameter("quantity", null, null, "42"));
+		valueParameters.configure();
+
+		sessionKeyParameters = new ParameterList();
+		sessionKeyParameters.add(createParameter("customer", "customer", null, null));
+		sessionKeyParameters.add(createParameter("quantity", "quantity", null, null));
+		sessionKeyParameters.configure();
+
+		xpathParameters = new ParameterList();
+		xpathParameters.add(createParameter("customer", null, "/request/customer", null));
+		xpathParameters.add(createParameter("quantity", null, "sum(/request/item/quantity)", null));
+		xpathParameters.configure();
+	}
+
+	private Parameter createParameter(String name, String sessionKey, String xpathExpression, String value) {
+		Parameter parameter = new Parameter();
+		parameter.setName(name);
+		if (sessionKey != null) {
+			parameter.setSessionKey(sessionKey);
+		}
+		if (xpathExpression != null) {
+			parameter.setXpathExpression(xpathExpression);
+		}
+		if (value != null) {
+			parameter.setValue(value);
+		}
+		return parameter;
+	}
+
+	@Benchmark
+	public ParameterValueList value() throws Exception {
+		return new ParameterResolutionContext(input, session).getValues(valueParameters);
+	}
+
+	@Benchmark
+	public ParameterValueList sessionKey() throws Exception {
+		return new ParameterResolutionContext(input, session).getValues(sessionKeyParameters);
+	}
+
+	@Benchmark
+	public ParameterValueList xpathExpression() throws Exception {
+		return new ParameterResolutionContext(input, session).getValues(xpathParameters);
+	}
+}
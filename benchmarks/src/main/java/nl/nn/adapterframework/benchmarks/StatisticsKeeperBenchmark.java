@@ -0,0 +1,59 @@
+/*
+   Copyright 2018 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import nl.nn.adapterframework.statistics.StatisticsKeeper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Cost of recording a duration in a {@link StatisticsKeeper}, as done for every pipe, sender
+ * and adapter call, by a single thread and by threads that share the keeper.
+ *
+ * @since   7.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StatisticsKeeperBenchmark {
+
+	private StatisticsKeeper statisticsKeeper;
+
+	@Setup
+	public void setUp() {
+		statisticsKeeper = new StatisticsKeeper("benchmark");
+	}
+
+	@Benchmark
+	public void addValue() {
+		statisticsKeeper.addValue(System.nanoTime() % 10000);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void addValueShared() {
+		statisticsKeeper.addValue(System.nanoTime() % 10000);
+	}
+}
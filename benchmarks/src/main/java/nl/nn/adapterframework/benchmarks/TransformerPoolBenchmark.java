@@ -0,0 +1,86 @@
+/*
+   Copyright 2018 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import nl.nn.adapterframework.util.TransformerPool;
+import nl.nn.adapterframework.util.XmlUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Transformations by a {@link TransformerPool}, as done by XsltPipes and by parameters with an
+ * XPath expression, by a single thread and by threads that share the pool.
+ *
+ * @since   7.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TransformerPoolBenchmark {
+
+	private static final String STYLESHEET =
+		"<xsl:stylesheet xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\" version=\"1.0\">" +
+			"<xsl:param name=\"customer\"/>" +
+			"<xsl:template match=\"/request\">" +
+				"<reply customer=\"{$customer}\">" +
+					"<xsl:for-each select=\"item\">" +
+						"<line id=\"{@id}\" amount=\"{quantity * price}\"/>" +
+					"</xsl:for-each>" +
+				"</reply>" +
+			"</xsl:template>" +
+		"</xsl:stylesheet>";
+
+	private TransformerPool stylesheetPool;
+	private TransformerPool xpathPool;
+	private Map<String, Object> parameters;
+	private String input;
+
+	@Setup
+	public void setUp() throws Exception {
+		input = BenchmarkUtils.getResource("Benchmark/Request.xml");
+		stylesheetPool = TransformerPool.getInstance(STYLESHEET);
+		xpathPool = TransformerPool.getInstance(XmlUtils.createXPathEvaluatorSource("sum(/request/item/quantity)"));
+		parameters = new HashMap<String, Object>();
+		parameters.put("customer", "Benchmark");
+	}
+
+	@Benchmark
+	public String stylesheet() throws Exception {
+		return stylesheetPool.transform(input, parameters);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public String stylesheetShared() throws Exception {
+		return stylesheetPool.transform(input, parameters);
+	}
+
+	@Benchmark
+	public String xpathExpression() throws Exception {
+		return xpathPool.transform(input, null);
+	}
+}
@@ -0,0 +1,71 @@
+/*
+   Copyright 2018 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import nl.nn.adapterframework.core.PipeForward;
+import nl.nn.adapterframework.core.PipeLineSessionBase;
+import nl.nn.adapterframework.core.PipeRunResult;
+import nl.nn.adapterframework.pipes.XmlValidator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Validation of a message against an XML Schema by an {@link XmlValidator}, by a single thread
+ * and by threads that share the validator.
+ *
+ * @since   7.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class XmlValidatorBenchmark {
+
+	private XmlValidator validator;
+	private String input;
+
+	@Setup
+	public void setUp() throws Exception {
+		input = BenchmarkUtils.getResource("Benchmark/Request.xml");
+		validator = new XmlValidator();
+		validator.setName("XmlValidatorBenchmark");
+		validator.setSchema("Benchmark/Request.xsd");
+		validator.setRoot("request");
+		validator.setThrowException(true);
+		validator.registerForward(new PipeForward("success", null));
+		validator.configure();
+		validator.start();
+	}
+
+	@Benchmark
+	public PipeRunResult validate() throws Exception {
+		return validator.doPipe(input, new PipeLineSessionBase());
+	}
+
+	@Benchmark
+	@Threads(4)
+	public PipeRunResult validateShared() throws Exception {
+		return validator.doPipe(input, new PipeLineSessionBase());
+	}
+}
@@ -0,0 +1,340 @@
+/*
+   Copyright 2018 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.compression;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+
+import nl.nn.adapterframework.util.LogUtil;
+
+import org.apache.log4j.Logger;
+import org.springframework.core.task.TaskExecutor;
+
+/**
+ * Writes a zip archive of which the entries are compressed in parallel.
+ * <p>
+ * Each entry is compressed in memory by a thread of the task executor. Entries are written to the
+ * archive in the order in which they were added, as soon as they and all entries before them have
+ * been compressed. At most <code>maxPendingEntries</code> entries are compressed or waiting to be written
+ * at the same time; when this number is reached, {@link #writeEntry(String, byte[], boolean)} waits
+ * until the eldest entry has been written.
+ * <p>
+ * The archive is written in the same format as by {@link java.util.zip.ZipOutputStream}, including
+ * the ZIP64 extensions for archives and entries larger than 4 GB or with more than 65535 entries.
+ *
+ * @since   7.0
+ */
+public class ParallelZipWriter {
+	protected Logger log = LogUtil.getLogger(this);
+
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+	private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+	private static final int END_SIGNATURE = 0x06054b50;
+	private static final int ZIP64_EXTRA_ID = 0x0001;
+	private static final int FLAG_UTF8 = 0x0800;
+	private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+	private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+	private OutputStream out;
+	private TaskExecutor taskExecutor;
+	private int maxPendingEntries;
+
+	private LinkedList<FutureTask<Entry>> pending = new LinkedList<FutureTask<Entry>>();
+	private List<Entry> entries = new ArrayList<Entry>();
+	private long written = 0;
+	private boolean finished = false;
+	private byte[] buffer = new byte[8];
+
+	private static class Entry {
+		byte[] name;
+		int method;
+		long dosTime;
+		long crc;
+		long size;
+		long compressedSize;
+		long offset;
+		byte[] data;
+
+		boolean isZip64Sizes() {
+			return size >= ZIP64_MAGIC || compressedSize >= ZIP64_MAGIC;
+		}
+		boolean isZip64() {
+			return isZip64Sizes() || offset >= ZIP64_MAGIC;
+		}
+		int getVersionNeeded() {
+			return isZip64() ? 45 : method == ZipEntry.STORED ? 10 : 20;
+		}
+	}
+
+	/**
+	 * @param taskExecutor executes the compression of the entries; when <code>null</code>, entries are compressed by the calling thread
+	 */
+	public ParallelZipWriter(OutputStream out, TaskExecutor taskExecutor, int maxPendingEntries) {
+		super();
+		this.out = new BufferedOutputStream(out, 65536);
+		this.taskExecutor = taskExecutor;
+		this.maxPendingEntries = Math.max(maxPendingEntries, 1);
+	}
+
+	/**
+	 * Adds an entry to the archive. It is compressed in parallel with the other entries, unless
+	 * <code>stored</code> is set, in which case it is only checksummed.
+	 */
+	public synchronized void writeEntry(String filename, final byte[] contents, final boolean stored) throws CompressionException {
+		if (finished) {
+			throw new CompressionException("cannot add zipentry for ["+filename+"], archive is already finished");
+		}
+		final Entry entry = new Entry();
+		try {
+			entry.name = filename.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new CompressionException("cannot encode name of zipentry ["+filename+"]",e);
+		}
+		entry.dosTime = toDosTime(System.currentTimeMillis());
+		while (pending.size() >= maxPendingEntries) {
+			writeEntry(pending.removeFirst());
+		}
+		FutureTask<Entry> task = new FutureTask<Entry>(new Callable<Entry>() {
+			public Entry call() throws Exception {
+				return compress(entry, contents, stored);
+			}
+		});
+		pending.add(task);
+		if (taskExecutor == null) {
+			task.run();
+		} else {
+			taskExecutor.execute(task);
+		}
+		// write the entries that are ready without waiting
+		while (!pending.isEmpty() && pending.getFirst().isDone()) {
+			writeEntry(pending.removeFirst());
+		}
+	}
+
+	private Entry compress(Entry entry, byte[] contents, boolean stored) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(contents);
+		entry.crc = crc.getValue();
+		entry.size = contents.length;
+		if (stored) {
+			entry.method = ZipEntry.STORED;
+			entry.data = contents;
+		} else {
+			entry.method = ZipEntry.DEFLATED;
+			Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+			try {
+				ByteArrayOutputStream compressed = new ByteArrayOutputStream(contents.length / 2 + 64);
+				DeflaterOutputStream dos = new DeflaterOutputStream(compressed, deflater, 8192);
+				dos.write(contents);
+				dos.finish();
+				entry.data = compressed.toByteArray();
+			} finally {
+				deflater.end();
+			}
+		}
+		entry.compressedSize = entry.data.length;
+		return entry;
+	}
+
+	private void writeEntry(FutureTask<Entry> task) throws CompressionException {
+		Entry entry;
+		try {
+			entry = task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CompressionException("interrupted while waiting for compression of zipentry",e);
+		} catch (ExecutionException e) {
+			throw new CompressionException("cannot compress zipentry",e.getCause());
+		}
+		try {
+			entry.offset = written;
+			boolean zip64 = entry.isZip64Sizes();
+			writeInt(LOCAL_HEADER_SIGNATURE);
+			writeShort(entry.getVersionNeeded());
+			writeShort(FLAG_UTF8);
+			writeShort(entry.method);
+			writeInt(entry.dosTime);
+			writeInt(entry.crc);
+			writeInt(zip64 ? ZIP64_MAGIC : entry.compressedSize);
+			writeInt(zip64 ? ZIP64_MAGIC : entry.size);
+			writeShort(entry.name.length);
+			writeShort(zip64 ? 20 : 0);
+			write(entry.name);
+			if (zip64) {
+				writeShort(ZIP64_EXTRA_ID);
+				writeShort(16);
+				writeLong(entry.size);
+				writeLong(entry.compressedSize);
+			}
+			write(entry.data);
+		} catch (IOException e) {
+			throw new CompressionException("cannot write zipentry",e);
+		}
+		entry.data = null;
+		entries.add(entry);
+	}
+
+	/**
+	 * Writes all pending entries and the central directory, without closing the underlying stream.
+	 */
+	public synchronized void finish() throws CompressionException {
+		if (finished) {
+			return;
+		}
+		while (!pending.isEmpty()) {
+			writeEntry(pending.removeFirst());
+		}
+		finished = true;
+		try {
+			long centralDirectoryOffset = written;
+			for (Entry entry : entries) {
+				writeCentralDirectoryHeader(entry);
+			}
+			long centralDirectorySize = written - centralDirectoryOffset;
+			int count = entries.size();
+			if (count >= ZIP64_MAGIC_COUNT || centralDirectoryOffset >= ZIP64_MAGIC || centralDirectorySize >= ZIP64_MAGIC) {
+				long zip64EndOffset = written;
+				writeInt(ZIP64_END_SIGNATURE);
+				writeLong(44);
+				writeShort(45);
+				writeShort(45);
+				writeInt(0);
+				writeInt(0);
+				writeLong(count);
+				writeLong(count);
+				writeLong(centralDirectorySize);
+				writeLong(centralDirectoryOffset);
+				writeInt(ZIP64_LOCATOR_SIGNATURE);
+				writeInt(0);
+				writeLong(zip64EndOffset);
+				writeInt(1);
+			}
+			writeInt(END_SIGNATURE);
+			writeShort(0);
+			writeShort(0);
+			writeShort(Math.min(count, ZIP64_MAGIC_COUNT));
+			writeShort(Math.min(count, ZIP64_MAGIC_COUNT));
+			writeInt(Math.min(centralDirectorySize, ZIP64_MAGIC));
+			writeInt(Math.min(centralDirectoryOffset, ZIP64_MAGIC));
+			writeShort(0);
+			out.flush();
+		} catch (IOException e) {
+			throw new CompressionException("cannot write central directory of zip",e);
+		}
+	}
+
+	private void writeCentralDirectoryHeader(Entry entry) throws IOException {
+		boolean zip64Sizes = entry.isZip64Sizes();
+		boolean zip64Offset = entry.offset >= ZIP64_MAGIC;
+		int extraLength = (zip64Sizes ? 16 : 0) + (zip64Offset ? 8 : 0);
+		writeInt(CENTRAL_HEADER_SIGNATURE);
+		writeShort(entry.getVersionNeeded());
+		writeShort(entry.getVersionNeeded());
+		writeShort(FLAG_UTF8);
+		writeShort(entry.method);
+		writeInt(entry.dosTime);
+		writeInt(entry.crc);
+		writeInt(zip64Sizes ? ZIP64_MAGIC : entry.compressedSize);
+		writeInt(zip64Sizes ? ZIP64_MAGIC : entry.size);
+		writeShort(entry.name.length);
+		writeShort(extraLength > 0 ? extraLength + 4 : 0);
+		writeShort(0); // comment length
+		writeShort(0); // disk number start
+		writeShort(0); // internal file attributes
+		writeInt(0);   // external file attributes
+		writeInt(zip64Offset ? ZIP64_MAGIC : entry.offset);
+		write(entry.name);
+		if (extraLength > 0) {
+			writeShort(ZIP64_EXTRA_ID);
+			writeShort(extraLength);
+			if (zip64Sizes) {
+				writeLong(entry.size);
+				writeLong(entry.compressedSize);
+			}
+			if (zip64Offset) {
+				writeLong(entry.offset);
+			}
+		}
+	}
+
+	public synchronized void close() throws CompressionException {
+		finish();
+		try {
+			out.close();
+		} catch (IOException e) {
+			throw new CompressionException("cannot close zip",e);
+		}
+	}
+
+	private void write(byte[] bytes) throws IOException {
+		out.write(bytes);
+		written += bytes.length;
+	}
+
+	private void writeShort(int value) throws IOException {
+		buffer[0] = (byte)value;
+		buffer[1] = (byte)(value >> 8);
+		out.write(buffer, 0, 2);
+		written += 2;
+	}
+
+	private void writeInt(long value) throws IOException {
+		for (int i = 0; i < 4; i++) {
+			buffer[i] = (byte)(value >> (8 * i));
+		}
+		out.write(buffer, 0, 4);
+		written += 4;
+	}
+
+	private void writeLong(long value) throws IOException {
+		for (int i = 0; i < 8; i++) {
+			buffer[i] = (byte)(value >> (8 * i));
+		}
+		out.write(buffer, 0, 8);
+		written += 8;
+	}
+
+	private static long toDosTime(long time) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(time);
+		int year = calendar.get(Calendar.YEAR);
+		if (year < 1980) {
+			return (1 << 21) | (1 << 16);
+		}
+		return ((long)(year - 1980) << 25)
+			| (calendar.get(Calendar.MONTH) + 1) << 21
+			| calendar.get(Calendar.DAY_OF_MONTH) << 16
+			| calendar.get(Calendar.HOUR_OF_DAY) << 11
+			| calendar.get(Calendar.MINUTE) << 5
+			| calendar.get(Calendar.SECOND) >> 1;
+	}
+}
@@ -16,9 +16,11 @@
 package nl.nn.adapterframework.compression;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Map;
@@ -48,6 +50,13 @@ import org.apache.commons.lang.StringUtils;
  * </ul>
  * The message sent each time to the sender is the filename of the entry found in the archive. 
  * The contents of the archive is available as a Stream or a String in a session variable. 
+ * The stream reads directly from the archive; closing it does not close the archive.
+ * <p>
+ * When <code>parallel=true</code>, the contents of each entry are read into memory before the entry is
+ * handed to the sender, so that the next entry can be read while the sender processes it. Each sender call
+ * finds the contents of its own entry in the session. Use <code>maxChildThreads</code> to limit the
+ * number of entries that are processed, and held in memory, at the same time.
+ * </p>
  *
  * <p><b>Configuration </b><i>(where deviating from IteratingPipe)</i><b>:</b>
  * <table border="1">
@@ -134,19 +143,19 @@ public class ZipIteratorPipe extends IteratingPipe {
 					log.debug(getLogPrefix(session)+"found zipEntry name ["+current.getName()+"] size ["+current.getSize()+"] compressed size ["+current.getCompressedSize()+"]");
 				}
 				String filename=current.getName();
-				if (isStreamingContents()) {
+				if (isStreamingContents() && !isParallel()) {
 					if (log.isDebugEnabled()) log.debug(getLogPrefix(session)+"storing stream to contents of zip entries under session key ["+getContentsSessionKey()+"]");
-					session.put(getContentsSessionKey(),source); // do this each time, to allow reuse of the session key when an item is optionally encoded
+					session.put(getContentsSessionKey(),new EntryInputStream(source)); // do this each time, to allow reuse of the session key when an item is optionally encoded
 				} else { 
 					if (log.isDebugEnabled()) log.debug(getLogPrefix(session)+"storing contents of zip entry under session key ["+getContentsSessionKey()+"]");
-					String content;
-					if (isSkipBOM()) {
-						byte contentBytes[] = StreamUtil.streamToByteArray(source, true);
-						content = Misc.byteArrayToString(contentBytes, null, false);
+					byte contentBytes[] = StreamUtil.streamToByteArray(source, isSkipBOM());
+					if (isStreamingContents()) {
+						session.put(getContentsSessionKey(),new ByteArrayInputStream(contentBytes));
+					} else if (isSkipBOM()) {
+						session.put(getContentsSessionKey(),Misc.byteArrayToString(contentBytes, null, false));
 					} else {
-						content = StreamUtil.streamToString(source,null,getCharset());
+						session.put(getContentsSessionKey(),new String(contentBytes,getCharset()));
 					}
-					session.put(getContentsSessionKey(),content);
 				}
 				return filename;
 			} catch (IOException e) {
@@ -166,6 +175,20 @@ public class ZipIteratorPipe extends IteratingPipe {
 		}
 	}
 	
+	/**
+	 * Stream to the contents of the current entry, that leaves the archive open when it is closed.
+	 */
+	private static class EntryInputStream extends FilterInputStream {
+
+		EntryInputStream(InputStream in) {
+			super(in);
+		}
+
+		public void close() {
+			// the remainder of the entry is skipped when the next entry is read
+		}
+	}
+
 	protected ZipInputStream getZipInputStream(Object input, IPipeLineSession session, String correlationID, Map threadContext) throws SenderException {
 		if (input==null) {
 			throw new SenderException("input is null. Must supply String (Filename), File or InputStream as input");
@@ -204,6 +227,13 @@ public class ZipIteratorPipe extends IteratingPipe {
 		return new ZipStreamIterator(source,session);
 	}
 
+	protected IPipeLineSession createItemSession(IPipeLineSession session) {
+		IPipeLineSession itemSession = super.createItemSession(session);
+		// the contents in the session of the pipeline are replaced when the next entry is read
+		itemSession.put(getContentsSessionKey(), session.get(getContentsSessionKey()));
+		return itemSession;
+	}
+
 
 
 
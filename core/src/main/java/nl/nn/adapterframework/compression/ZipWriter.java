@@ -31,9 +31,14 @@ import nl.nn.adapterframework.util.Misc;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
+import org.springframework.core.task.TaskExecutor;
 
 /**
  * Helper class to create Zip archives.
+ * <p>
+ * When created with a maximum number of pending entries, entries written with {@link #writeEntry(String, Object, boolean, String)}
+ * are compressed in parallel by a {@link ParallelZipWriter}, and are written to the archive in the order in which they were added.
+ * Entries can then be written from multiple threads, but {@link #openEntry(String)} cannot be used.
  * 
  * @author  Gerrit van Brakel
  * @since   4.9.10
@@ -42,13 +47,18 @@ public class ZipWriter {
 	protected Logger log = LogUtil.getLogger(this);
 	
 	private ZipOutputStream zipoutput;
+	private ParallelZipWriter parallelWriter;
 	private boolean entryOpen=false;
 	private boolean closeOnExit;
 
-	private ZipWriter(OutputStream resultStream, boolean closeOnExit) {
+	private ZipWriter(OutputStream resultStream, boolean closeOnExit, TaskExecutor taskExecutor, int maxPendingEntries) {
 		super();
 		this.closeOnExit=closeOnExit;
-		zipoutput=new ZipOutputStream(resultStream);
+		if (maxPendingEntries>0) {
+			parallelWriter=new ParallelZipWriter(resultStream,taskExecutor,maxPendingEntries);
+		} else {
+			zipoutput=new ZipOutputStream(resultStream);
+		}
 	}
 
 	public static ZipWriter getZipWriter(IPipeLineSession session, String handlekey) {
@@ -56,13 +66,23 @@ public class ZipWriter {
 	}
 
 	public static ZipWriter createZipWriter(IPipeLineSession session, String handlekey, OutputStream resultStream, boolean closeOnExit) {
-		ZipWriter handle=new ZipWriter(resultStream,closeOnExit);
+		return createZipWriter(session, handlekey, resultStream, closeOnExit, null, 0);
+	}
+
+	/**
+	 * @param maxPendingEntries when greater than 0, entries are compressed in parallel by threads of the taskExecutor, and this is the maximum number of entries that are compressed or wait to be written at the same time
+	 */
+	public static ZipWriter createZipWriter(IPipeLineSession session, String handlekey, OutputStream resultStream, boolean closeOnExit, TaskExecutor taskExecutor, int maxPendingEntries) {
+		ZipWriter handle=new ZipWriter(resultStream,closeOnExit,taskExecutor,maxPendingEntries);
 		session.put(handlekey,handle);
 		if (handle.log.isDebugEnabled()) handle.log.debug(handle.getLogPrefix(handlekey)+"opened new zipstream");
 		return handle;
 	}
 
-	public void openEntry(String filename) throws CompressionException {
+	public synchronized void openEntry(String filename) throws CompressionException {
+		if (parallelWriter!=null) {
+			throw new CompressionException("cannot open zipentry for ["+filename+"] to stream to when entries are compressed in parallel");
+		}
 		closeEntry();
 		ZipEntry entry = new ZipEntry(filename);
 		try {
@@ -73,7 +93,7 @@ public class ZipWriter {
 		}
 	}
 
-	public void closeEntry() throws CompressionException {
+	public synchronized void closeEntry() throws CompressionException {
 		if (entryOpen) {
 			entryOpen=false;
 			try {
@@ -85,7 +105,15 @@ public class ZipWriter {
 	}
 
 
-	protected void close() throws CompressionException {
+	protected synchronized void close() throws CompressionException {
+		if (parallelWriter!=null) {
+			if (isCloseOnExit()) {
+				parallelWriter.close();
+			} else {
+				parallelWriter.finish();
+			}
+			return;
+		}
 		closeEntry();
 		try {
 			if (isCloseOnExit()) {
@@ -102,6 +130,16 @@ public class ZipWriter {
 		if (StringUtils.isEmpty(filename)) {
 			throw new CompressionException("filename cannot be empty");		
 		}
+		if (parallelWriter!=null) {
+			parallelWriter.writeEntry(filename, getContentBytes(filename, contents, close, charset), false);
+			return;
+		}
+		synchronized (this) {
+			writeEntryContents(filename, contents, close, charset);
+		}
+	}
+
+	private void writeEntryContents(String filename, Object contents, boolean close, String charset) throws CompressionException, IOException {
 		openEntry(filename);
 		if (contents!=null) {
 			if (contents instanceof byte[]) {
@@ -128,7 +166,16 @@ public class ZipWriter {
 		if (StringUtils.isEmpty(filename)) {
 			throw new CompressionException("filename cannot be empty");		
 		}
-		
+		if (parallelWriter!=null) {
+			parallelWriter.writeEntry(filename, getContentBytes(filename, contents, close, charset), true);
+			return;
+		}
+		synchronized (this) {
+			writeEntryContentsWithCompletedHeader(filename, contents, charset);
+		}
+	}
+
+	private void writeEntryContentsWithCompletedHeader(String filename, Object contents, String charset) throws CompressionException, IOException {
 		byte[] contentBytes = null;
 		BufferedInputStream bis = null;
 		long size = 0;
@@ -173,6 +220,27 @@ public class ZipWriter {
 		}
 		getZipoutput().closeEntry();
 	}
+
+	private byte[] getContentBytes(String filename, Object contents, boolean close, String charset) throws IOException {
+		if (contents==null) {
+			log.warn("contents of zip entry ["+filename+"] is null");
+			return new byte[0];
+		}
+		if (contents instanceof byte[]) {
+			return (byte[])contents;
+		}
+		if (contents instanceof InputStream) {
+			InputStream is = (InputStream)contents;
+			try {
+				return Misc.streamToBytes(is);
+			} finally {
+				if (close) {
+					is.close();
+				}
+			}
+		}
+		return contents.toString().getBytes(charset);
+	}
 		
 	public String getLogPrefix(String handlekey) {
 		return "ZipWriterHandle ["+handlekey+"] ";
@@ -185,6 +253,9 @@ public class ZipWriter {
 		return closeOnExit;
 	}
 
+	/**
+	 * Returns the stream to write the contents of the current entry to, or <code>null</code> when entries are compressed in parallel.
+	 */
 	public ZipOutputStream getZipoutput() {
 		return zipoutput;
 	}
@@ -37,6 +37,7 @@ import nl.nn.adapterframework.pipes.FixedForwardPipe;
 import nl.nn.adapterframework.util.StreamUtil;
 
 import org.apache.commons.lang.StringUtils;
+import org.springframework.core.task.TaskExecutor;
 
 /**
  * Pipe that creates a ZipStream.
@@ -67,6 +68,7 @@ import org.apache.commons.lang.StringUtils;
  * </ul></td><td>&nbsp;</td></tr>
  * <tr><td>{@link #setZipWriterHandle(String) zipWriterHandle}</td>  <td>session key used to refer to zip session. Must be used if ZipWriterPipes are nested</td><td>"zipwriterhandle"</td></tr>
  * <tr><td>{@link #setCloseOutputstreamOnExit(boolean) closeOutputstreamOnExit}</td>  <td>only for action="open": when set to <code>false</code>, the outputstream is not closed after the zip creation is finished</td><td>true</td></tr>
+ * <tr><td>{@link #setMaxPendingEntries(int) maxPendingEntries}</td>  <td>only for action="open": when set to a value greater than 0, the entries written with action="write" are compressed in parallel by threads of the task executor. The entries are read into memory, and written to the zip in the order in which they were added. At most this number of entries are compressed or wait to be written at the same time, which bounds the memory that is used; adding an entry waits when this number is reached. Entries can then be written by parallel threads, for instance by a ZipWriterSender in an IteratingPipe with <code>parallel=true</code>, but action="stream" cannot be used</td><td>0</td></tr>
  * <tr><td>{@link #setCloseInputstreamOnExit(boolean) closeInputstreamOnExit}</td>  <td>only for action="write": when set to <code>false</code>, the inputstream is not closed after the zip entry is written</td><td>true</td></tr>
  * <tr><td>{@link #setCharset(String) charset}</td><td>only for action="write": charset used to write strings to zip entries</td><td>UTF-8</td></tr>
  * <tr><td>{@link #setCompleteFileHeader(boolean) completeFileHeader}</td><td>only for action="write": when set to <code>true</code>, the fields 'crc-32', 'compressed size' and 'uncompressed size' in the zip entry file header are set explicitly (note: compression ratio is zero)</td><td>false</td></tr>
@@ -103,6 +105,8 @@ public class ZipWriterPipe extends FixedForwardPipe {
 	private boolean closeOutputstreamOnExit=true;
 	private String charset=StreamUtil.DEFAULT_INPUT_STREAM_ENCODING;
 	private boolean completeFileHeader=false;
+	private int maxPendingEntries=0;
+	private TaskExecutor taskExecutor;
 	
 	private Parameter filenameParameter=null; //used for with action=open for main filename, with action=write for entryfilename
 
@@ -169,7 +173,7 @@ public class ZipWriterPipe extends FixedForwardPipe {
 		if (resultStream==null) {
 			throw new PipeRunException(this,getLogPrefix(session)+"Dit not find OutputStream or HttpResponse, and could not find filename");
 		}
-		ZipWriter sessionData=ZipWriter.createZipWriter(session,getZipWriterHandle(),resultStream,isCloseOutputstreamOnExit());
+		ZipWriter sessionData=ZipWriter.createZipWriter(session,getZipWriterHandle(),resultStream,isCloseOutputstreamOnExit(),getTaskExecutor(),getMaxPendingEntries());
 		return sessionData;
 	}
 
@@ -298,4 +302,18 @@ public class ZipWriterPipe extends FixedForwardPipe {
 	public boolean isCompleteFileHeader() {
 		return completeFileHeader;
 	}
+
+	public void setMaxPendingEntries(int i) {
+		maxPendingEntries = i;
+	}
+	public int getMaxPendingEntries() {
+		return maxPendingEntries;
+	}
+
+	public void setTaskExecutor(TaskExecutor executor) {
+		taskExecutor = executor;
+	}
+	public TaskExecutor getTaskExecutor() {
+		return taskExecutor;
+	}
 }
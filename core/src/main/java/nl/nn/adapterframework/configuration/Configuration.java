@@ -36,6 +36,7 @@ import nl.nn.adapterframework.util.AppConstants;
 import nl.nn.adapterframework.util.ClassUtils;
 import nl.nn.adapterframework.util.LogUtil;
 import nl.nn.adapterframework.util.RunStateEnum;
+import nl.nn.adapterframework.util.TransformerPool;
 
 import org.apache.log4j.Logger;
 
@@ -86,6 +87,7 @@ public class Configuration {
 				adapter.forEachStatisticsKeeperBody(hski,groupData,action);
 			}
 			IbisCacheManager.iterateOverStatistics(hski, groupData, action);
+			TransformerPool.iterateOverStatistics(hski, groupData, action);
 			hski.closeGroup(groupData);
 		} finally {
 			hski.end(root);
@@ -1,5 +1,5 @@
 /*
-   Copyright 2013, 2016 - 2017 Nationale-Nederlanden
+   Copyright 2013, 2016 - 2018 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -46,6 +46,7 @@ import nl.nn.adapterframework.core.Adapter;
 import nl.nn.adapterframework.core.IAdapter;
 import nl.nn.adapterframework.http.RestServiceDispatcher;
 import nl.nn.adapterframework.jdbc.migration.Migrator;
+import nl.nn.adapterframework.monitoring.MonitorManager;
 import nl.nn.adapterframework.receivers.JavaListener;
 import nl.nn.adapterframework.util.AppConstants;
 import nl.nn.adapterframework.util.ClassUtils;
@@ -206,6 +207,7 @@ public class IbisContext {
 		long start = System.currentTimeMillis();
 		if(ibisManager != null)
 			ibisManager.shutdown();
+		MonitorManager.getInstance().shutdown();
 		if(ibisContextReconnectThread != null)
 			ibisContextReconnectThread.interrupt();
 		log("shutdown in " + (System.currentTimeMillis() - start) + " ms");
@@ -216,6 +218,8 @@ public class IbisContext {
 		if (configuration != null) {
 			long start = System.currentTimeMillis();
 			ibisManager.unload(configurationName);
+			// deliver the pending events of the adapters that were unloaded
+			MonitorManager.getInstance().shutdown();
 			if (configuration.getAdapterService().getAdapters().size() > 0) {
 				log("Not all adapters are unregistered: "
 						+ configuration.getAdapterService().getAdapters(),
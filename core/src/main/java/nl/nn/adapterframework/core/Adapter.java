@@ -32,6 +32,7 @@ import nl.nn.adapterframework.errormessageformatters.ErrorMessageFormatter;
 import nl.nn.adapterframework.pipes.AbstractPipe;
 import nl.nn.adapterframework.receivers.ReceiverBase;
 import nl.nn.adapterframework.statistics.HasStatistics;
+import nl.nn.adapterframework.statistics.MessageTraceBuffer;
 import nl.nn.adapterframework.statistics.StatisticsKeeper;
 import nl.nn.adapterframework.statistics.StatisticsKeeperIterationHandler;
 import nl.nn.adapterframework.util.AppConstants;
@@ -135,6 +136,7 @@ public class Adapter implements IAdapter, NamedBean {
 	private long[] numOfMessagesStartProcessingByHour = new long[24];
 	
 	private StatisticsKeeper statsMessageProcessingDuration = null;
+	private MessageTraceBuffer messageTraceBuffer = new MessageTraceBuffer();
 
 	private long statsUpSince = System.currentTimeMillis();
 	private IErrorMessageFormatter errorMessageFormatter;
@@ -520,6 +522,13 @@ public class Adapter implements IAdapter, NamedBean {
 	public StatisticsKeeper getStatsMessageProcessingDuration() {
 		return statsMessageProcessingDuration;
 	}
+
+	/**
+	 * Returns the traces of messages processed by this adapter, only filled when <code>msg.trace.active=true</code>.
+	 */
+	public MessageTraceBuffer getMessageTraceBuffer() {
+		return messageTraceBuffer;
+	}
 	/**
 	 * return the date and time since active
 	 * Creation date: (19-02-2003 12:16:53)
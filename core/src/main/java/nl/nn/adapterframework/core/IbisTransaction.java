@@ -1,5 +1,5 @@
 /*
-   Copyright 2013 Nationale-Nederlanden
+   Copyright 2013, 2018 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -17,6 +17,8 @@ package nl.nn.adapterframework.core;
 
 import javax.transaction.TransactionManager;
 
+import nl.nn.adapterframework.statistics.MessageTrace;
+import nl.nn.adapterframework.statistics.MessageTracer;
 import nl.nn.adapterframework.util.LogUtil;
 import nl.nn.adapterframework.util.Misc;
 import nl.nn.adapterframework.util.SpringTxManagerProxy;
@@ -105,14 +107,24 @@ public class IbisTransaction {
 	}
 
 	public void commit() {
+		MessageTrace.Span span = null;
 		if (txIsNew) {
+			span = MessageTracer.startSpan(MessageTrace.KIND_COMMIT, object);
 			if (txStatus.isRollbackOnly()) {
 				log.debug("Transaction ["+txName+"] marked for rollback, so transaction manager ["+getRealTransactionManager()+"] is rolling back the transaction for " + object);
 			} else {
 				log.debug("Transaction ["+txName+"] is not marked for rollback, so transaction manager ["+getRealTransactionManager()+"] is committing the transaction for " + object);
 			}
 		}
-		txManager.commit(txStatus);
+		boolean error = txStatus.isRollbackOnly();
+		try {
+			txManager.commit(txStatus);
+		} catch (RuntimeException e) {
+			error = true;
+			throw e;
+		} finally {
+			MessageTracer.endSpan(span, error);
+		}
 		if (!txIsNew && txClientIsActive && !txIsActive) {
 			log.debug("Transaction manager ["+getRealTransactionManager()+"] resumed the transaction [" + txClientName + "] for " + object);
 		}
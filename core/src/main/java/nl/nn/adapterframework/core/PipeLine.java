@@ -1,5 +1,5 @@
 /*
-   Copyright 2013, 2015 Nationale-Nederlanden
+   Copyright 2013, 2015, 2018 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -425,6 +425,10 @@ public class PipeLine implements ICacheEnabled, HasStatistics {
 				}
 			}
 			pipeStatistics.put(pipe.getName(), new StatisticsKeeper(pipe.getName()));
+			if (pipe.getMaxThreads() > 0 && !pipeWaitingStatistics.containsKey(pipe.getName())) {
+				// pipes that are not added to the pipeline, like the nested pipes of a ForkJoinPipe
+				pipeWaitingStatistics.put(pipe.getName(), new StatisticsKeeper(pipe.getName()));
+			}
 			//congestionSensors.addSensor(pipe);
 		} catch (Throwable t) {
 			if (t instanceof ConfigurationException) {
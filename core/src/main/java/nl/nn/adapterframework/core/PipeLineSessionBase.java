@@ -1,5 +1,5 @@
 /*
-   Copyright 2013 Nationale-Nederlanden
+   Copyright 2013, 2018 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -15,10 +15,17 @@
 */
 package nl.nn.adapterframework.core;
 
+import java.io.ObjectStreamException;
+import java.io.Serializable;
 import java.security.Principal;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 import nl.nn.adapterframework.util.DateUtils;
 
@@ -27,28 +34,125 @@ import org.apache.commons.lang.NotImplementedException;
 
 /**
  * Basic implementation of <code>IPipeLineSession</code>.
- * 
+ * <p>
+ * The well-known session keys of the framework, like <code>messageId</code> and <code>cid</code>,
+ * are stored in fixed slots, all other keys in an open addressing hash table. A session can be
+ * {@link #createChildSession(Map) layered} on a parent map: it then reads through to the parent,
+ * while all modifications, including removals, are kept in the child. The parent is never modified,
+ * so it can be shared without copying it first. Modifications of the parent remain visible in the
+ * child, for the keys that the child does not override or remove. A serialized child session contains
+ * the entries of the parent as well, and is no longer layered after deserialization.
+ *
  * @author  Johan Verrips IOS
  * @since   version 3.2.2
  */
-public class PipeLineSessionBase extends HashMap<String,Object> implements IPipeLineSession {
+public class PipeLineSessionBase extends AbstractMap<String,Object> implements IPipeLineSession, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final String[] WELL_KNOWN_KEYS = {
+		messageIdKey,
+		originalMessageKey,
+		businessCorrelationIdKey,
+		technicalCorrelationIdKey,
+		tsReceivedKey,
+		tsSentKey,
+		securityHandlerKey,
+		"id",
+		HTTP_REQUEST_KEY,
+		HTTP_RESPONSE_KEY,
+		SERVLET_CONTEXT_KEY,
+		API_PRINCIPAL_KEY
+	};
+	private static final int[] WELL_KNOWN_HASHES = new int[WELL_KNOWN_KEYS.length];
+	static {
+		for (int i = 0; i < WELL_KNOWN_KEYS.length; i++) {
+			WELL_KNOWN_HASHES[i] = WELL_KNOWN_KEYS[i].hashCode();
+		}
+	}
+
+	private static final int DEFAULT_CAPACITY = 16;
+	private static final float DEFAULT_LOAD_FACTOR = 0.6f;
+
+	/*
+	 * Markers in the key and value arrays. An empty slot is represented by null.
+	 */
+	private enum Marker {
+		/** value of an entry with value <code>null</code> */
+		NULL_VALUE,
+		/** value of an entry that is removed in this session, but present in the parent */
+		REMOVED,
+		/** key of an entry that is removed from the hash table */
+		DELETED,
+		/** the <code>null</code> key */
+		NULL_KEY
+	}
+
+	private transient Map<String,Object> parent;
+
+	private Object[] slotValues = new Object[WELL_KNOWN_KEYS.length];
+
+	private Object[] keys;
+	private Object[] values;
+	private int used;        // number of keys in the hash table, including deleted ones
+	private int threshold;
+	private float loadFactor;
+
+	private int localSize;   // number of entries in this session, excluding removed ones
+	private int removedSize; // number of entries of the parent that are removed in this session
+	private transient int modCount;
+
+	private transient Set<Map.Entry<String,Object>> entrySet;
 
 	private ISecurityHandler securityHandler = null;
 
 	public PipeLineSessionBase() {
-		super();
+		this(DEFAULT_CAPACITY);
 	}
 
 	public PipeLineSessionBase(int initialCapacity) {
-		super(initialCapacity);
+		this(initialCapacity, DEFAULT_LOAD_FACTOR);
 	}
 
 	public PipeLineSessionBase(int initialCapacity, float loadFactor) {
-		super(initialCapacity, loadFactor);
+		super();
+		if (initialCapacity < 0) {
+			throw new IllegalArgumentException("Illegal initial capacity: " + initialCapacity);
+		}
+		if (loadFactor <= 0 || loadFactor >= 1 || Float.isNaN(loadFactor)) {
+			loadFactor = DEFAULT_LOAD_FACTOR;
+		}
+		this.loadFactor = loadFactor;
+		int capacity = 4;
+		while (capacity * loadFactor < initialCapacity) {
+			capacity <<= 1;
+		}
+		keys = new Object[capacity];
+		values = new Object[capacity];
+		threshold = (int) (capacity * loadFactor);
 	}
 
 	public PipeLineSessionBase(Map<String, Object> t) {
-		super(t);
+		this(Math.max(t.size(), DEFAULT_CAPACITY));
+		putAll(t);
+	}
+
+	/**
+	 * Creates a session that shares the entries of the parent without copying them.
+	 * Modifications of the session are not visible in the parent; modifications of the parent
+	 * are visible in the session, for keys that are not modified in the session.
+	 */
+	public static PipeLineSessionBase createChildSession(Map<String, Object> parent) {
+		PipeLineSessionBase session = new PipeLineSessionBase();
+		session.parent = parent;
+		return session;
+	}
+
+	/**
+	 * Returns the map this session is layered on, or <code>null</code>.
+	 */
+	public Map<String, Object> getParent() {
+		return parent;
 	}
 
 	@Override
@@ -108,4 +212,476 @@ public class PipeLineSessionBase extends HashMap<String,Object> implements IPipe
 		return handler.getPrincipal(this);
 	}
 
+
+	/**
+	 * For a child session, the entries of the parent that are overridden or removed in this session are
+	 * counted by looking up the keys of the smaller of both in the other.
+	 */
+	@Override
+	public int size() {
+		if (parent == null) {
+			return localSize;
+		}
+		int parentSize = parent.size();
+		if (parentSize == 0) {
+			return localSize;
+		}
+		int hidden = 0;
+		if (localSize + removedSize <= parentSize) {
+			for (int i = 0; i < slotValues.length; i++) {
+				if (slotValues[i] != null && parent.containsKey(WELL_KNOWN_KEYS[i])) {
+					hidden++;
+				}
+			}
+			for (Object key : keys) {
+				if (key != null && key != Marker.DELETED && parent.containsKey(key == Marker.NULL_KEY ? null : key)) {
+					hidden++;
+				}
+			}
+		} else {
+			for (Object key : parent.keySet()) {
+				if (getLocal(key) != null) {
+					hidden++;
+				}
+			}
+		}
+		return localSize + parentSize - hidden;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		if (localSize > 0) {
+			return false;
+		}
+		if (parent == null) {
+			return true;
+		}
+		if (removedSize == 0) {
+			return parent.isEmpty();
+		}
+		for (Object key : parent.keySet()) {
+			if (getLocal(key) == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		Object local = getLocal(key);
+		if (local != null) {
+			return local != Marker.REMOVED;
+		}
+		return parent != null && parent.containsKey(key);
+	}
+
+	@Override
+	public Object get(Object key) {
+		Object local = getLocal(key);
+		if (local != null) {
+			return decode(local);
+		}
+		return parent != null ? parent.get(key) : null;
+	}
+
+	@Override
+	public Object put(String key, Object value) {
+		Object previous = putLocal(key, value == null ? Marker.NULL_VALUE : value);
+		if (previous != null) {
+			return decode(previous);
+		}
+		return parent != null ? parent.get(key) : null;
+	}
+
+	@Override
+	public Object remove(Object key) {
+		if (parent != null && parent.containsKey(key)) {
+			Object previous = getLocal(key);
+			if (previous == Marker.REMOVED) {
+				return null;
+			}
+			Object result = previous != null ? decode(previous) : parent.get(key);
+			putLocal(key, Marker.REMOVED);
+			return result;
+		}
+		Object previous = removeLocal(key);
+		return previous != null ? decode(previous) : null;
+	}
+
+	@Override
+	public void putAll(Map<? extends String, ? extends Object> m) {
+		for (Map.Entry<? extends String, ? extends Object> entry : m.entrySet()) {
+			put(entry.getKey(), entry.getValue());
+		}
+	}
+
+	@Override
+	public void clear() {
+		parent = null;
+		for (int i = 0; i < slotValues.length; i++) {
+			slotValues[i] = null;
+		}
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = null;
+			values[i] = null;
+		}
+		used = 0;
+		localSize = 0;
+		removedSize = 0;
+		modCount++;
+	}
+
+	@Override
+	public Set<Map.Entry<String, Object>> entrySet() {
+		if (entrySet == null) {
+			entrySet = new EntrySet();
+		}
+		return entrySet;
+	}
+
+
+	/**
+	 * Serializes a child session as a copy that contains the entries of the parent as well, as the
+	 * parent itself is not serialized.
+	 */
+	private Object writeReplace() throws ObjectStreamException {
+		if (parent == null) {
+			return this;
+		}
+		PipeLineSessionBase copy = new PipeLineSessionBase(this);
+		copy.securityHandler = securityHandler;
+		return copy;
+	}
+
+	private static Object decode(Object value) {
+		return value == Marker.NULL_VALUE || value == Marker.REMOVED ? null : value;
+	}
+
+	/**
+	 * Returns the index of the fixed slot for the key, or -1 if it is not a well-known key.
+	 * Keys are usually the constants themselves, so they are compared on identity first.
+	 */
+	private static int slotIndex(Object key) {
+		for (int i = 0; i < WELL_KNOWN_KEYS.length; i++) {
+			if (WELL_KNOWN_KEYS[i] == key) {
+				return i;
+			}
+		}
+		if (key instanceof String) {
+			int hash = key.hashCode();
+			for (int i = 0; i < WELL_KNOWN_KEYS.length; i++) {
+				if (WELL_KNOWN_HASHES[i] == hash && WELL_KNOWN_KEYS[i].equals(key)) {
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	private static int spread(int hash) {
+		hash ^= (hash >>> 16);
+		return hash * 0x9E3779B9;
+	}
+
+	/**
+	 * Returns the index in the hash table of the key, or -1 if it is not present.
+	 */
+	private int findIndex(Object key) {
+		Object k = key == null ? Marker.NULL_KEY : key;
+		int mask = keys.length - 1;
+		int i = spread(k.hashCode()) & mask;
+		Object candidate;
+		while ((candidate = keys[i]) != null) {
+			if (candidate == k || candidate != Marker.DELETED && candidate.equals(k)) {
+				return i;
+			}
+			i = (i + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the encoded local value of the key, or <code>null</code> if this session has no entry for it.
+	 */
+	private Object getLocal(Object key) {
+		int slot = slotIndex(key);
+		if (slot >= 0) {
+			return slotValues[slot];
+		}
+		int index = findIndex(key);
+		return index >= 0 ? values[index] : null;
+	}
+
+	/**
+	 * Stores the encoded value and returns the previous encoded value, or <code>null</code> if there was none.
+	 */
+	private Object putLocal(Object key, Object value) {
+		int slot = slotIndex(key);
+		Object previous;
+		if (slot >= 0) {
+			previous = slotValues[slot];
+			slotValues[slot] = value;
+		} else {
+			int index = findIndex(key);
+			if (index >= 0) {
+				previous = values[index];
+				values[index] = value;
+			} else {
+				previous = null;
+				insert(key == null ? Marker.NULL_KEY : key, value);
+			}
+		}
+		updateCounts(previous, value);
+		return previous;
+	}
+
+	private Object removeLocal(Object key) {
+		int slot = slotIndex(key);
+		Object previous;
+		if (slot >= 0) {
+			previous = slotValues[slot];
+			slotValues[slot] = null;
+		} else {
+			int index = findIndex(key);
+			if (index < 0) {
+				return null;
+			}
+			previous = values[index];
+			keys[index] = Marker.DELETED;
+			values[index] = null;
+		}
+		updateCounts(previous, null);
+		return previous;
+	}
+
+	private void updateCounts(Object previous, Object value) {
+		boolean wasPresent = previous != null && previous != Marker.REMOVED;
+		boolean isPresent = value != null && value != Marker.REMOVED;
+		if (wasPresent != isPresent) {
+			localSize += isPresent ? 1 : -1;
+			modCount++;
+		}
+		if ((previous == Marker.REMOVED) != (value == Marker.REMOVED)) {
+			// hides or reveals an entry of the parent
+			removedSize += value == Marker.REMOVED ? 1 : -1;
+			modCount++;
+		}
+	}
+
+	private void insert(Object key, Object value) {
+		if (used >= threshold) {
+			rehash();
+		}
+		int mask = keys.length - 1;
+		int i = spread(key.hashCode()) & mask;
+		while (keys[i] != null && keys[i] != Marker.DELETED) {
+			i = (i + 1) & mask;
+		}
+		if (keys[i] == null) {
+			used++;
+		}
+		keys[i] = key;
+		values[i] = value;
+	}
+
+	/**
+	 * Rebuilds the hash table without the deleted keys, doubling its capacity when it is more than half full.
+	 */
+	private void rehash() {
+		Object[] oldKeys = keys;
+		Object[] oldValues = values;
+		int live = 0;
+		for (Object key : oldKeys) {
+			if (key != null && key != Marker.DELETED) {
+				live++;
+			}
+		}
+		int capacity = oldKeys.length;
+		if (live >= threshold / 2) {
+			capacity <<= 1;
+		}
+		keys = new Object[capacity];
+		values = new Object[capacity];
+		threshold = (int) (capacity * loadFactor);
+		used = 0;
+		int mask = capacity - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			Object key = oldKeys[j];
+			if (key != null && key != Marker.DELETED) {
+				int i = spread(key.hashCode()) & mask;
+				while (keys[i] != null) {
+					i = (i + 1) & mask;
+				}
+				keys[i] = key;
+				values[i] = oldValues[j];
+				used++;
+			}
+		}
+	}
+
+
+	private class EntrySet extends AbstractSet<Map.Entry<String,Object>> {
+
+		@Override
+		public Iterator<Map.Entry<String, Object>> iterator() {
+			return new EntryIterator();
+		}
+
+		@Override
+		public int size() {
+			return PipeLineSessionBase.this.size();
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			if (!(o instanceof Map.Entry)) {
+				return false;
+			}
+			Map.Entry<?,?> entry = (Map.Entry<?,?>) o;
+			Object key = entry.getKey();
+			if (!containsKey(key)) {
+				return false;
+			}
+			Object value = get(key);
+			return value == null ? entry.getValue() == null : value.equals(entry.getValue());
+		}
+
+		@Override
+		public boolean remove(Object o) {
+			if (!contains(o)) {
+				return false;
+			}
+			PipeLineSessionBase.this.remove(((Map.Entry<?,?>) o).getKey());
+			return true;
+		}
+
+		@Override
+		public void clear() {
+			PipeLineSessionBase.this.clear();
+		}
+	}
+
+	private class Entry implements Map.Entry<String,Object> {
+		private String key;
+		private Object value;
+
+		Entry(String key, Object value) {
+			this.key = key;
+			this.value = value;
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		public Object getValue() {
+			return value;
+		}
+
+		public Object setValue(Object value) {
+			Object previous = put(key, value);
+			this.value = value;
+			return previous;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Map.Entry)) {
+				return false;
+			}
+			Map.Entry<?,?> other = (Map.Entry<?,?>) o;
+			return (key == null ? other.getKey() == null : key.equals(other.getKey()))
+					&& (value == null ? other.getValue() == null : value.equals(other.getValue()));
+		}
+
+		@Override
+		public int hashCode() {
+			return (key == null ? 0 : key.hashCode()) ^ (value == null ? 0 : value.hashCode());
+		}
+
+		@Override
+		public String toString() {
+			return key + "=" + value;
+		}
+	}
+
+	/**
+	 * Iterates over the fixed slots, then over the hash table and finally over the entries of the parent
+	 * that are not overridden or removed in this session. The iterator of the parent is only created
+	 * when the local entries are exhausted, so the local entries can be copied to the parent while
+	 * iterating, like <code>parent.putAll(session)</code> does.
+	 */
+	private class EntryIterator implements Iterator<Map.Entry<String,Object>> {
+		private int slot = 0;
+		private int index = 0;
+		private Iterator<Map.Entry<String,Object>> parentIterator;
+		private Map<String,Object> iteratedParent = parent;
+		private Entry next;
+		private Entry current;
+		private int expectedModCount = modCount;
+
+		private void advance() {
+			while (slot < slotValues.length) {
+				Object value = slotValues[slot];
+				String key = WELL_KNOWN_KEYS[slot++];
+				if (value != null && value != Marker.REMOVED) {
+					next = new Entry(key, decode(value));
+					return;
+				}
+			}
+			while (index < keys.length) {
+				Object key = keys[index];
+				Object value = values[index++];
+				if (key != null && key != Marker.DELETED && value != Marker.REMOVED) {
+					next = new Entry(key == Marker.NULL_KEY ? null : (String) key, decode(value));
+					return;
+				}
+			}
+			if (iteratedParent == null) {
+				return;
+			}
+			if (parentIterator == null) {
+				parentIterator = iteratedParent.entrySet().iterator();
+			}
+			while (parentIterator.hasNext()) {
+				Map.Entry<String,Object> entry = parentIterator.next();
+				if (getLocal(entry.getKey()) == null) {
+					next = new Entry(entry.getKey(), entry.getValue());
+					return;
+				}
+			}
+		}
+
+		public boolean hasNext() {
+			if (next == null) {
+				advance();
+			}
+			return next != null;
+		}
+
+		public Map.Entry<String, Object> next() {
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			current = next;
+			next = null;
+			return current;
+		}
+
+		public void remove() {
+			if (current == null) {
+				throw new IllegalStateException();
+			}
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			PipeLineSessionBase.this.remove(current.getKey());
+			current = null;
+			expectedModCount = modCount;
+		}
+	}
 }
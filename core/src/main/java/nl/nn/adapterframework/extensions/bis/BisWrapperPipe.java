@@ -1,5 +1,5 @@
 /*
-   Copyright 2013 Nationale-Nederlanden
+   Copyright 2013, 2018 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -331,6 +331,8 @@ public class BisWrapperPipe extends SoapWrapperPipe {
 
 				result = wrapMessage(payload, isBisMessageHeaderInSoapBody() ? null : messageHeader);
 			} else {
+				// only the body is extracted by the single pass SoapEnvelopeParser; the expressions for the
+				// bis message header, the bis error and the inputXPath below each parse the whole message again
 				String body = unwrapMessage(input.toString());
 				if (StringUtils.isEmpty(body)) {
 					throw new PipeRunException(this, getLogPrefix(session) + "SOAP body is empty or message is not a SOAP message");
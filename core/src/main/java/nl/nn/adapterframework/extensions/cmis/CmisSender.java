@@ -1,5 +1,5 @@
 /*
-   Copyright 2016 Nationale-Nederlanden
+   Copyright 2016, 2018 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -16,7 +16,6 @@
 package nl.nn.adapterframework.extensions.cmis;
 
 import java.io.ByteArrayInputStream;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -29,6 +28,7 @@ import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import javax.servlet.http.HttpServletResponse;
@@ -58,14 +58,13 @@ import org.apache.chemistry.opencmis.client.api.OperationContext;
 import org.apache.chemistry.opencmis.client.api.Property;
 import org.apache.chemistry.opencmis.client.api.QueryResult;
 import org.apache.chemistry.opencmis.client.api.Session;
-import org.apache.chemistry.opencmis.client.api.SessionFactory;
-import org.apache.chemistry.opencmis.client.runtime.SessionFactoryImpl;
 import org.apache.chemistry.opencmis.commons.PropertyIds;
 import org.apache.chemistry.opencmis.commons.SessionParameter;
 import org.apache.chemistry.opencmis.commons.data.ContentStream;
 import org.apache.chemistry.opencmis.commons.data.PropertyData;
 import org.apache.chemistry.opencmis.commons.data.RepositoryInfo;
 import org.apache.chemistry.opencmis.commons.enums.BindingType;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisConnectionException;
 import org.apache.chemistry.opencmis.commons.exceptions.CmisObjectNotFoundException;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang.StringUtils;
@@ -93,14 +92,22 @@ import org.w3c.dom.Element;
  * <tr><td>{@link #setPassword(String) password}</td><td>&nbsp;</td><td>&nbsp;</td></tr>
  * <tr><td>{@link #setBindingType(String) bindingType}</td><td>"atompub" or "webservices"</td><td>"atompub"</td></tr>
  * <tr><td>{@link #setFileNameSessionKey(String) fileNameSessionKey}</td><td>(only used when <code>action=create</code>) The session key that contains the name of the file to use. If not set, the value of the property <code>fileName</code> from the input message is used</td><td>&nbsp;</td></tr>
- * <tr><td>{@link #setFileInputStreamSessionKey(String) fileInputStreamSessionKey}</td><td>When <code>action=create</code>: the session key that contains the input stream of the file to use. When <code>action=get</code> and <code>getProperties=true</code>: the session key in which the input stream of the document is stored</td><td>&nbsp;</td></tr>
+ * <tr><td>{@link #setFileInputStreamSessionKey(String) fileInputStreamSessionKey}</td><td>When <code>action=create</code>: the session key that contains the input stream of the file to use. When <code>action=get</code>: the session key in which the input stream of the document is stored, so that the content is streamed into the pipeline instead of passed as a String. The result is then empty, or the properties when <code>getProperties=true</code></td><td>&nbsp;</td></tr>
  * <tr><td>{@link #setFileContentSessionKey(String) fileContentSessionKey}</td><td>When <code>action=create</code>: the session key that contains the base64 encoded content of the file to use. When <code>action=get</code> and <code>getProperties=true</code>: the session key in which the base64 encoded content of the document is stored</td><td>&nbsp;</td></tr>
  * <tr><td>{@link #setDefaultMediaType(String) defaultMediaType}</td><td>(only used when <code>action=create</code>) The MIME type used to store the document when it's not set in the input message by a property</td><td>"application/octet-stream"</td></tr>
  * <tr><td>{@link #setStreamResultToServlet(boolean) streamResultToServlet}</td><td>(only used when <code>action=get</code>) if true, the content of the document is streamed to the HttpServletResponse object of the RestServiceDispatcher (instead of passed as a String)</td><td>false</td></tr>
  * <tr><td>{@link #setGetProperties(boolean) getProperties}</td><td>(only used when <code>action=get</code>) if true, the content of the document is streamed to <code>fileInputStreamSessionKey</code> and all document properties are put in the result as a xml string</td><td>false</td></tr>
  * <tr><td>{@link #setUseRootFolder(boolean) useRootFolder}</td><td>(only used when <code>action=create</code>) if true, the document is created in the root folder of the repository. Otherwise the document is created in the repository</td><td>true</td></tr>
  * <tr><td>{@link #setResultOnNotFound(String) resultOnNotFound}</td><td>(only used when <code>action=get</code>) result returned when no document was found for the given id (e.g. "[NOT_FOUND]"). If empty an exception is thrown</td><td>&nbsp;</td></tr>
- * <tr><td>{@link #setKeepSession(boolean) keepSession}</td><td>if true, the session is not closed at the end and it will be used in the next call</td><td>true</td></tr>
+ * <tr><td>{@link #setKeepSession(boolean) keepSession}</td><td>if true, the session is not closed at the end and it will be used in a next call. Sessions are kept in a pool that is shared by the senders with the same url, repository, credentials and other session settings, so that concurrent calls each use a session of their own</td><td>true</td></tr>
+ * <tr><td>{@link #setMaxSessions(int) maxSessions}</td><td>(only used when <code>keepSession=true</code>) maximum number of sessions in use at the same time, per pool of sessions</td><td>10</td></tr>
+ * <tr><td>{@link #setMaxIdleTime(long) maxIdleTime}</td><td>(only used when <code>keepSession=true</code>) time in ms after which a session that is not used is discarded, together with its cache</td><td>300000</td></tr>
+ * <tr><td>{@link #setMaxSessionPools(int) maxSessionPools}</td><td>(only used when <code>keepSession=true</code>) maximum number of pools of sessions this sender keeps open. A sender uses a pool per user when the credentials are set by parameters; when another pool is needed, the least recently used one is closed</td><td>10</td></tr>
+ * <tr><td>{@link #setSessionPoolTimeout(long) sessionPoolTimeout}</td><td>(only used when <code>keepSession=true</code>) maximum time in ms to wait for a session when <code>maxSessions</code> sessions are in use</td><td>20000</td></tr>
+ * <tr><td>{@link #setObjectCacheSize(int) objectCacheSize}</td><td>number of objects cached per session. When not set, the OpenCMIS default is used</td><td>&nbsp;</td></tr>
+ * <tr><td>{@link #setObjectCacheTtl(long) objectCacheTtl}</td><td>time in ms objects are cached. When not set, the OpenCMIS default is used</td><td>&nbsp;</td></tr>
+ * <tr><td>{@link #setPathCacheSize(int) pathCacheSize}</td><td>number of paths cached per session. When not set, the OpenCMIS default is used</td><td>&nbsp;</td></tr>
+ * <tr><td>{@link #setPathCacheTtl(long) pathCacheTtl}</td><td>time in ms paths are cached. When not set, the OpenCMIS default is used</td><td>&nbsp;</td></tr>
  * <tr><td>{@link #setCertificate(String) certificate}</td><td>resource URL to certificate to be used for authentication</td><td>&nbsp;</td></tr>
  * <tr><td>{@link #setCertificateAuthAlias(String) certificateAuthAlias}</td><td>alias used to obtain certificate password</td><td>&nbsp;</td></tr>
  * <tr><td>{@link #setCertificatePassword(String) certificatePassword}</td><td>&nbsp;</td><td>&nbsp;</td></tr>
@@ -234,8 +241,26 @@ public class CmisSender extends SenderWithParametersBase {
 	private boolean useRootFolder = true;
 	private String resultOnNotFound;
 	private boolean keepSession = true;
-
-	private Session session;
+	private int maxSessions = 10;
+	private long maxIdleTime = 300000;
+	private long sessionPoolTimeout = 20000;
+	private int maxSessionPools = 10;
+	private int objectCacheSize = -1;
+	private long objectCacheTtl = -1;
+	private int pathCacheSize = -1;
+	private long pathCacheTtl = -1;
+
+	private Map<Map<String, String>, CmisSessionPool> sessionPools = new LinkedHashMap<Map<String, String>, CmisSessionPool>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Map<String, String>, CmisSessionPool> eldest) {
+			if (size() > getMaxSessionPools()) {
+				// sessions of the pool that are still in use are discarded when they are released
+				eldest.getValue().close();
+				return true;
+			}
+			return false;
+		}
+	};
 
 	private boolean allowSelfSignedCertificates = false;
 	private boolean verifyHostname = true;
@@ -303,77 +328,110 @@ public class CmisSender extends SenderWithParametersBase {
 	}
 
 	public void close() throws SenderException {
-		if (session != null) {
-			session.clear();
-			session = null;
+		synchronized (sessionPools) {
+			for (CmisSessionPool sessionPool : sessionPools.values()) {
+				sessionPool.close();
+			}
+			sessionPools.clear();
+		}
+	}
+
+	/**
+	 * Returns the pool for the session parameters, opening it when this sender did not use it yet.
+	 * A sender can use more than one pool when the credentials are set by parameters. Of these, the
+	 * <code>maxSessionPools</code> most recently used ones are kept open.
+	 */
+	CmisSessionPool getSessionPool(Map<String, String> parameters) {
+		synchronized (sessionPools) {
+			CmisSessionPool sessionPool = sessionPools.get(parameters);
+			if (sessionPool == null) {
+				sessionPool = CmisSessionPool.open(parameters, getMaxSessions(), getMaxIdleTime());
+				sessionPools.put(parameters, sessionPool);
+			}
+			return sessionPool;
 		}
 	}
 
 	public String sendMessage(String correlationID, String message, ParameterResolutionContext prc) throws SenderException, TimeOutException {
+		String authAlias_work = null;
+		String userName_work = null;
+		String password_work = null;
+
+		ParameterValueList pvl = null;
 		try {
-			if (session == null || !isKeepSession()) {
-				String authAlias_work = null;
-				String userName_work = null;
-				String password_work = null;
-
-				ParameterValueList pvl = null;
-				try {
-					if (prc != null && paramList != null) {
-						pvl = prc.getValues(paramList);
-						if (pvl != null) {
-							ParameterValue pv = pvl .getParameterValue("authAlias");
-							if (pv != null) {
-								authAlias_work = (String) pv.getValue();
-							}
-							pv = pvl.getParameterValue("userName");
-							if (pv != null) {
-								userName_work = (String) pv.getValue();
-							}
-							pv = pvl.getParameterValue("password");
-							if (pv != null) {
-								password_work = (String) pv.getValue();
-							}
-						}
+			if (prc != null && paramList != null) {
+				pvl = prc.getValues(paramList);
+				if (pvl != null) {
+					ParameterValue pv = pvl .getParameterValue("authAlias");
+					if (pv != null) {
+						authAlias_work = (String) pv.getValue();
+					}
+					pv = pvl.getParameterValue("userName");
+					if (pv != null) {
+						userName_work = (String) pv.getValue();
+					}
+					pv = pvl.getParameterValue("password");
+					if (pv != null) {
+						password_work = (String) pv.getValue();
 					}
-				} catch (ParameterException e) {
-					throw new SenderException(getLogPrefix() + "Sender [" + getName() + "] caught exception evaluating parameters", e);
 				}
+			}
+		} catch (ParameterException e) {
+			throw new SenderException(getLogPrefix() + "Sender [" + getName() + "] caught exception evaluating parameters", e);
+		}
 
-				if (authAlias_work == null) {
-					authAlias_work = getAuthAlias();
-				}
-				if (userName_work == null) {
-					userName_work = getUserName();
-				}
-				if (password_work == null) {
-					password_work = getPassword();
-				}
+		if (authAlias_work == null) {
+			authAlias_work = getAuthAlias();
+		}
+		if (userName_work == null) {
+			userName_work = getUserName();
+		}
+		if (password_work == null) {
+			password_work = getPassword();
+		}
 
-				CredentialFactory cf = new CredentialFactory(authAlias_work, userName_work, password_work);
-				session = connect(cf.getUsername(), cf.getPassword());
-			}
+		CredentialFactory cf = new CredentialFactory(authAlias_work, userName_work, password_work);
+		Map<String, String> parameters = getSessionParameters(cf.getUsername(), cf.getPassword());
 
+		CmisSessionPool sessionPool = null;
+		Session session;
+		if (isKeepSession()) {
+			sessionPool = getSessionPool(parameters);
+			session = sessionPool.borrow(getSessionPoolTimeout());
+		} else {
+			session = connect(parameters);
+		}
+		boolean reusable = false;
+		try {
+			String result;
 			if (getAction().equalsIgnoreCase("get")) {
-				return sendMessageForActionGet(correlationID, message, prc);
+				result = sendMessageForActionGet(session, correlationID, message, prc);
 			} else if (getAction().equalsIgnoreCase("create")) {
-				return sendMessageForActionCreate(correlationID, message, prc);
+				result = sendMessageForActionCreate(session, correlationID, message, prc);
 			} else if (getAction().equalsIgnoreCase("find")) {
-				return sendMessageForActionFind(correlationID, message, prc);
+				result = sendMessageForActionFind(session, correlationID, message, prc);
 			} else if (getAction().equalsIgnoreCase("update")) {
-				return sendMessageForActionUpdate(correlationID, message, prc);
+				result = sendMessageForActionUpdate(session, correlationID, message, prc);
 			} else {
 				throw new SenderException(getLogPrefix() + "unknown action ["
 						+ getAction() + "]");
 			}
+			reusable = true;
+			return result;
+		} catch (SenderException e) {
+			// a session that could not reach the repository is not kept
+			reusable = !(e.getCause() instanceof CmisConnectionException);
+			throw e;
 		} finally {
-			if (session != null && !isKeepSession()) {
+			if (sessionPool != null) {
+				sessionPool.release(session, reusable);
+			} else {
 				session.clear();
-				session = null;
 			}
 		}
 	}
 
-	private String sendMessageForActionGet(String correlationID,
+	private String sendMessageForActionGet(Session session, String correlationID,
 			String message, ParameterResolutionContext prc)
 			throws SenderException, TimeOutException {
 		if (StringUtils.isEmpty(message)) {
@@ -425,7 +483,7 @@ public class CmisSender extends SenderWithParametersBase {
 						+ "]");
 				return "";
 			} else if (isGetProperties()) {
-				if (StringUtils.isNotEmpty(fileInputStreamSessionKey)) {
+				if (StringUtils.isNotEmpty(getFileInputStreamSessionKey())) {
 					prc.getSession().put(getFileInputStreamSessionKey(),
 							inputStream);
 				} else {
@@ -443,6 +501,9 @@ public class CmisSender extends SenderWithParametersBase {
 				}
 				cmisXml.addSubElement(propertiesXml);
 				return cmisXml.toXML();
+			} else if (StringUtils.isNotEmpty(getFileInputStreamSessionKey())) {
+				prc.getSession().put(getFileInputStreamSessionKey(), inputStream);
+				return "";
 			} else {
 				return Misc.streamToString(inputStream, null, false);
 			}
@@ -478,7 +539,7 @@ public class CmisSender extends SenderWithParametersBase {
 		return propertyXml;
 	}
 
-	private String sendMessageForActionCreate(String correlationID,
+	private String sendMessageForActionCreate(Session session, String correlationID,
 			String message, ParameterResolutionContext prc)
 			throws SenderException, TimeOutException {
 		String fileName = (String) prc.getSession()
@@ -486,7 +547,7 @@ public class CmisSender extends SenderWithParametersBase {
 
 		InputStream inputStream = null;
 		if (StringUtils.isNotEmpty(fileInputStreamSessionKey)) {
-			inputStream = (FileInputStream) prc.getSession().get(
+			inputStream = (InputStream) prc.getSession().get(
 					getFileInputStreamSessionKey());
 		} else {
 			String fileContent = (String) prc.getSession().get(
@@ -613,7 +674,7 @@ public class CmisSender extends SenderWithParametersBase {
 		}
 	}
 	
-	private String sendMessageForActionFind(String correlationID, String message, ParameterResolutionContext prc) throws SenderException, TimeOutException {
+	private String sendMessageForActionFind(Session session, String correlationID, String message, ParameterResolutionContext prc) throws SenderException, TimeOutException {
 		Element queryElement = null;
 		try {
 			if (XmlUtils.isWellFormed(message, "query")) {
@@ -664,7 +725,7 @@ public class CmisSender extends SenderWithParametersBase {
 		return cmisXml.toXML();
 	}
 
-	private String sendMessageForActionUpdate(String correlationID,
+	private String sendMessageForActionUpdate(Session session, String correlationID,
 			String message, ParameterResolutionContext prc)
 			throws SenderException, TimeOutException {
 		String objectId = null;
@@ -705,15 +766,16 @@ public class CmisSender extends SenderWithParametersBase {
 		return object.getId();
 	}
 
-	private Session connect() {
-		CredentialFactory cf = new CredentialFactory(getAuthAlias(), getUserName(), getPassword());
-		return connect(cf.getUsername(), cf.getPassword());
-	}
-
-	private Session connect(String userName, String password) {
+	private Session connect(Map<String, String> parameters) {
 		log.debug(getLogPrefix() + "connecting with url [" + getUrl()
 				+ "] repository [" + getRepository() + "]");
-		SessionFactory sessionFactory = SessionFactoryImpl.newInstance();
+		Session session = CmisSessionPool.createSession(parameters);
+		log.debug(getLogPrefix() + "connected with repository ["
+				+ getRepositoryInfo(session) + "]");
+		return session;
+	}
+
+	Map<String, String> getSessionParameters(String userName, String password) {
 		Map<String, String> parameter = new HashMap<String, String>();
 		parameter.put(SessionParameter.USER, userName);
 		parameter.put(SessionParameter.PASSWORD, password);
@@ -766,12 +828,19 @@ public class CmisSender extends SenderWithParametersBase {
 
 //		System.setProperty("org.apache.chemistry.opencmis.binding.webservices.jaxws.impl", "com.sun.xml.internal.ws.spi.ProviderImpl");
 		parameter.put(SessionParameter.AUTHENTICATION_PROVIDER_CLASS, "nl.nn.adapterframework.extensions.cmis.IbisAuthenticationProvider");
-
-
-		Session session = sessionFactory.createSession(parameter);
-		log.debug(getLogPrefix() + "connected with repository ["
-				+ getRepositoryInfo(session) + "]");
-		return session;
+		if (getObjectCacheSize() >= 0) {
+			parameter.put(SessionParameter.CACHE_SIZE_OBJECTS, "" + getObjectCacheSize());
+		}
+		if (getObjectCacheTtl() >= 0) {
+			parameter.put(SessionParameter.CACHE_TTL_OBJECTS, "" + getObjectCacheTtl());
+		}
+		if (getPathCacheSize() >= 0) {
+			parameter.put(SessionParameter.CACHE_SIZE_PATHTOID, "" + getPathCacheSize());
+		}
+		if (getPathCacheTtl() >= 0) {
+			parameter.put(SessionParameter.CACHE_TTL_PATHTOID, "" + getPathCacheTtl());
+		}
+		return parameter;
 	}
 
 	public void setAllowSelfSignedCertificates(boolean allowSelfSignedCertificates) {
@@ -1016,4 +1085,60 @@ public class CmisSender extends SenderWithParametersBase {
 	public boolean isKeepSession() {
 		return keepSession;
 	}
+
+	public void setMaxSessions(int maxSessions) {
+		this.maxSessions = maxSessions;
+	}
+	public int getMaxSessions() {
+		return maxSessions;
+	}
+
+	public void setMaxIdleTime(long maxIdleTime) {
+		this.maxIdleTime = maxIdleTime;
+	}
+	public long getMaxIdleTime() {
+		return maxIdleTime;
+	}
+
+	public void setMaxSessionPools(int maxSessionPools) {
+		this.maxSessionPools = Math.max(maxSessionPools, 1);
+	}
+	public int getMaxSessionPools() {
+		return maxSessionPools;
+	}
+
+	public void setSessionPoolTimeout(long sessionPoolTimeout) {
+		this.sessionPoolTimeout = sessionPoolTimeout;
+	}
+	public long getSessionPoolTimeout() {
+		return sessionPoolTimeout;
+	}
+
+	public void setObjectCacheSize(int objectCacheSize) {
+		this.objectCacheSize = objectCacheSize;
+	}
+	public int getObjectCacheSize() {
+		return objectCacheSize;
+	}
+
+	public void setObjectCacheTtl(long objectCacheTtl) {
+		this.objectCacheTtl = objectCacheTtl;
+	}
+	public long getObjectCacheTtl() {
+		return objectCacheTtl;
+	}
+
+	public void setPathCacheSize(int pathCacheSize) {
+		this.pathCacheSize = pathCacheSize;
+	}
+	public int getPathCacheSize() {
+		return pathCacheSize;
+	}
+
+	public void setPathCacheTtl(long pathCacheTtl) {
+		this.pathCacheTtl = pathCacheTtl;
+	}
+	public long getPathCacheTtl() {
+		return pathCacheTtl;
+	}
 }
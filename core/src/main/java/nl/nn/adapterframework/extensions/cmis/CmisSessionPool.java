@@ -0,0 +1,199 @@
+/*
+   Copyright 2018 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.extensions.cmis;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import nl.nn.adapterframework.core.SenderException;
+import nl.nn.adapterframework.core.TimeOutException;
+import nl.nn.adapterframework.util.LogUtil;
+
+import org.apache.chemistry.opencmis.client.api.Session;
+import org.apache.chemistry.opencmis.client.api.SessionFactory;
+import org.apache.chemistry.opencmis.client.runtime.SessionFactoryImpl;
+import org.apache.chemistry.opencmis.commons.SessionParameter;
+import org.apache.log4j.Logger;
+
+/**
+ * Pool of CMIS sessions, shared by the {@link CmisSender}s that use the same session parameters.
+ * <p>
+ * The key of a pool is the complete map of session parameters, including the url, the repository, the
+ * credentials, the certificate settings and the cache settings, so all senders that share a pool would
+ * have created the same session.
+ * <p>
+ * Creating a session fetches the repository info, which is expensive, and a session holds an object
+ * and path cache that is not meant to be used by all threads at the same time. Therefore each call
+ * borrows a session of its own. At most <code>maxSessions</code> sessions are in use at the same time,
+ * and sessions that have not been used for <code>maxIdleTime</code> ms are discarded, together with
+ * their cache. The <code>maxSessions</code> and <code>maxIdleTime</code> of the first sender that opens
+ * the pool are used.
+ *
+ * @since   7.0
+ */
+public class CmisSessionPool {
+	protected Logger log = LogUtil.getLogger(this);
+
+	private static Map<Map<String, String>, CmisSessionPool> pools = new HashMap<Map<String, String>, CmisSessionPool>();
+
+	private Map<String, String> parameters;
+	private SessionFactory sessionFactory;
+	private long maxIdleTime;
+
+	private Semaphore permits;
+	private LinkedList<PooledSession> idle = new LinkedList<PooledSession>();
+	private int users = 0;
+
+	private class PooledSession {
+		private Session session;
+		private long lastUsed;
+
+		private PooledSession(Session session) {
+			this.session = session;
+		}
+	}
+
+	private CmisSessionPool(Map<String, String> parameters, SessionFactory sessionFactory, int maxSessions, long maxIdleTime) {
+		super();
+		this.parameters = parameters;
+		this.sessionFactory = sessionFactory;
+		this.maxIdleTime = maxIdleTime;
+		permits = new Semaphore(Math.max(maxSessions, 1), true);
+	}
+
+	/**
+	 * Returns the pool for the session parameters, creating it when it does not exist yet. Each
+	 * call must be matched by a call to {@link #close()}.
+	 */
+	public static CmisSessionPool open(Map<String, String> parameters, int maxSessions, long maxIdleTime) {
+		return open(parameters, SessionFactoryImpl.newInstance(), maxSessions, maxIdleTime);
+	}
+
+	static synchronized CmisSessionPool open(Map<String, String> parameters, SessionFactory sessionFactory, int maxSessions, long maxIdleTime) {
+		CmisSessionPool pool = pools.get(parameters);
+		if (pool == null) {
+			// the parameters are copied, as they are the key of the pool
+			pool = new CmisSessionPool(new HashMap<String, String>(parameters), sessionFactory, maxSessions, maxIdleTime);
+			pools.put(pool.parameters, pool);
+		}
+		synchronized (pool) {
+			pool.users++;
+		}
+		return pool;
+	}
+
+	/**
+	 * Releases the pool. When it is no longer used by any sender, its idle sessions are discarded.
+	 */
+	public void close() {
+		List<PooledSession> sessions;
+		synchronized (CmisSessionPool.class) {
+			synchronized (this) {
+				if (--users > 0) {
+					return;
+				}
+				sessions = new ArrayList<PooledSession>(idle);
+				idle.clear();
+			}
+			pools.remove(parameters);
+		}
+		for (PooledSession pooledSession : sessions) {
+			pooledSession.session.clear();
+		}
+	}
+
+	/**
+	 * Returns a session, waiting at most <code>maxWait</code> ms when <code>maxSessions</code> sessions
+	 * are in use. The session must be returned with {@link #release(Session, boolean)}.
+	 */
+	public Session borrow(long maxWait) throws SenderException, TimeOutException {
+		try {
+			if (!permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS)) {
+				throw new TimeOutException("no session for repository ["+parameters.get(SessionParameter.REPOSITORY_ID)+"] available within ["+maxWait+"] ms");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SenderException("interrupted while waiting for session for repository ["+parameters.get(SessionParameter.REPOSITORY_ID)+"]", e);
+		}
+		try {
+			PooledSession pooledSession = takeIdle();
+			if (pooledSession != null) {
+				return pooledSession.session;
+			}
+			return sessionFactory.createSession(parameters);
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns a session to the pool.
+	 *
+	 * @param reusable <code>false</code> when an error occurred, to discard the session instead of keeping it for reuse
+	 */
+	public void release(Session session, boolean reusable) {
+		try {
+			if (reusable) {
+				PooledSession pooledSession = new PooledSession(session);
+				pooledSession.lastUsed = System.currentTimeMillis();
+				synchronized (this) {
+					if (users > 0) {
+						idle.addFirst(pooledSession);
+						return;
+					}
+				}
+			}
+			session.clear();
+		} finally {
+			permits.release();
+		}
+	}
+
+	private synchronized PooledSession takeIdle() {
+		long now = System.currentTimeMillis();
+		// the least recently used sessions are at the end of the list
+		for (Iterator<PooledSession> it = idle.descendingIterator(); it.hasNext();) {
+			PooledSession pooledSession = it.next();
+			if (now - pooledSession.lastUsed <= maxIdleTime) {
+				break;
+			}
+			it.remove();
+			pooledSession.session.clear();
+		}
+		return idle.pollFirst();
+	}
+
+	/**
+	 * Creates a session that is not pooled.
+	 */
+	public static Session createSession(Map<String, String> parameters) {
+		return SessionFactoryImpl.newInstance().createSession(parameters);
+	}
+
+	public synchronized int getIdleCount() {
+		return idle.size();
+	}
+	public int getAvailablePermits() {
+		return permits.availablePermits();
+	}
+}
@@ -0,0 +1,331 @@
+/*
+   Copyright 2018 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.extensions.esb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nl.nn.adapterframework.parameters.Parameter;
+import nl.nn.adapterframework.parameters.ParameterList;
+
+/**
+ * Builds the ESB Common Message Header, as /xml/xsl/esb/soapHeader.xsl and
+ * /xml/xsl/esb/bisSoapHeader.xsl do, without a transformation per message.
+ * <p>
+ * The template is compiled from the parameters of the pipe. The values of constant parameters,
+ * like those derived from the destination, are written into the template when it is compiled;
+ * only the other values, like conversationId, messageId and timestamp, are looked up and
+ * escaped per message. The output is serialized like the stylesheets serialize it, indented
+ * by three spaces.
+ */
+public class EsbMessageHeaderTemplate {
+
+	private static final String INDENT = "   ";
+	private static final String NAMESPACE = "namespace";
+
+	private interface Part {
+		void append(StringBuilder result, Map<String, Object> parameterValues);
+	}
+
+	private Map<String, Parameter> parameters = new HashMap<String, Parameter>();
+	private Map<String, String> defaults = new HashMap<String, String>();
+	private List<Part> parts = new ArrayList<Part>();
+	private StringBuilder text = new StringBuilder();
+	// capacity for the next header; format() is called by concurrent threads, it is only a hint
+	private volatile int expectedLength;
+
+	private EsbMessageHeaderTemplate(ParameterList parameterList) {
+		if (parameterList != null) {
+			// like in the value map of the parameters, the last parameter with a name wins
+			for (Parameter parameter : parameterList) {
+				parameters.put(parameter.getName(), parameter);
+			}
+		}
+	}
+
+	/**
+	 * Compiles the template for the stylesheet that would otherwise be used, or returns
+	 * <code>null</code> when the namespace or the CMH version is not known at configuration time.
+	 */
+	public static EsbMessageHeaderTemplate compile(ParameterList parameterList, boolean bis) {
+		EsbMessageHeaderTemplate template = new EsbMessageHeaderTemplate(parameterList);
+		if (template.isDynamic(NAMESPACE) || template.isDynamic(EsbSoapWrapperPipe.CMHVERSION)) {
+			return null;
+		}
+		if (bis) {
+			template.compileBisHeader();
+		} else {
+			template.compileHeader();
+		}
+		// like the serializer of the stylesheets, end with a newline
+		template.text.append('\n');
+		template.flushText();
+		return template;
+	}
+
+	public String format(Map<String, Object> parameterValues) {
+		int capacity = expectedLength;
+		StringBuilder result = new StringBuilder(capacity);
+		for (Part part : parts) {
+			part.append(result, parameterValues);
+		}
+		if (result.length() > capacity) {
+			expectedLength = result.length();
+		}
+		return result.toString();
+	}
+
+	private void compileHeader() {
+		defaults.put(EsbSoapWrapperPipe.SERVICECONTEXTVERSION, "1");
+		defaults.put(EsbSoapWrapperPipe.OPERATIONVERSION, "1");
+		defaults.put(EsbSoapWrapperPipe.MESSAGINGLAYER, "ESB");
+		boolean cmhVersion2 = "2".equals(getConstant(EsbSoapWrapperPipe.CMHVERSION).trim());
+		String namespace = getConstant(NAMESPACE);
+		if (namespace.length() == 0) {
+			namespace = cmhVersion2 ? "http://nn.nl/XSD/Generic/MessageHeader/2" : "http://nn.nl/XSD/Generic/MessageHeader/1";
+		}
+		startRoot(namespace);
+		startElement(1, "From");
+		element(2, "Id", EsbSoapWrapperPipe.FROMID, false);
+		endElement(1, "From");
+		startElement(1, "To");
+		location(2);
+		endElement(1, "To");
+		startElement(1, "HeaderFields");
+		element(2, "CPAId", EsbSoapWrapperPipe.CPAID, false);
+		element(2, "ConversationId", EsbSoapWrapperPipe.CONVERSATIONID, false);
+		element(2, "MessageId", EsbSoapWrapperPipe.MESSAGEID, false);
+		element(2, "CorrelationId", EsbSoapWrapperPipe.CORRELATIONID, true);
+		element(2, "ExternalRefToMessageId", EsbSoapWrapperPipe.EXTERNALREFTOMESSAGEID, true);
+		element(2, "Timestamp", EsbSoapWrapperPipe.TIMESTAMP, false);
+		if (cmhVersion2) {
+			element(2, "TransactionId", EsbSoapWrapperPipe.TRANSACTIONID, true);
+		}
+		endElement(1, "HeaderFields");
+		startElement(1, "Service");
+		element(2, "Name", EsbSoapWrapperPipe.SERVICENAME, false);
+		element(2, "Context", EsbSoapWrapperPipe.SERVICECONTEXT, false);
+		startElement(2, "Action");
+		element(3, "Paradigm", EsbSoapWrapperPipe.PARADIGM, false);
+		element(3, "Name", EsbSoapWrapperPipe.OPERATIONNAME, false);
+		element(3, "Version", EsbSoapWrapperPipe.OPERATIONVERSION, false);
+		endElement(2, "Action");
+		endElement(1, "Service");
+		endElement(0, "MessageHeader");
+	}
+
+	private void compileBisHeader() {
+		defaults.put(NAMESPACE, "http://www.ing.com/CSP/XSD/General/Message_2");
+		startRoot(getConstant(NAMESPACE));
+		startElement(1, "From");
+		element(2, "Id", EsbSoapWrapperPipe.FROMID, false);
+		endElement(1, "From");
+		startElement(1, "HeaderFields");
+		element(2, "ConversationId", EsbSoapWrapperPipe.CONVERSATIONID, false);
+		element(2, "MessageId", EsbSoapWrapperPipe.MESSAGEID, false);
+		element(2, "ExternalRefToMessageId", EsbSoapWrapperPipe.EXTERNALREFTOMESSAGEID, true);
+		element(2, "Timestamp", EsbSoapWrapperPipe.TIMESTAMP, false);
+		endElement(1, "HeaderFields");
+		endElement(0, "MessageHeader");
+	}
+
+	private boolean isDynamic(String name) {
+		Parameter parameter = parameters.get(name);
+		return parameter != null && !parameter.isConstant();
+	}
+
+	private String getConstant(String name) {
+		Parameter parameter = parameters.get(name);
+		if (parameter != null) {
+			return parameter.getValue();
+		}
+		String dflt = defaults.get(name);
+		return dflt == null ? "" : dflt;
+	}
+
+	private String getValue(String name, Map<String, Object> parameterValues) {
+		Object value = parameterValues == null ? null : parameterValues.get(name);
+		if (value == null) {
+			// parameters with a null value are not passed to a stylesheet either
+			String dflt = defaults.get(name);
+			return dflt == null ? "" : dflt;
+		}
+		return value.toString();
+	}
+
+	private void startRoot(String namespace) {
+		text.append("<MessageHeader xmlns=\"");
+		escape(text, namespace, true);
+		text.append("\">");
+	}
+
+	private void startElement(int level, String name) {
+		newLine(text, level);
+		text.append('<').append(name).append('>');
+	}
+
+	private void endElement(int level, String name) {
+		newLine(text, level);
+		text.append("</").append(name).append('>');
+	}
+
+	/**
+	 * Adds an element with the value of a parameter. Optional elements are only written when the
+	 * value is not empty.
+	 */
+	private void element(final int level, final String elementName, final String parameterName, final boolean optional) {
+		if (!isDynamic(parameterName)) {
+			String value = getConstant(parameterName);
+			if (!optional || value.length() > 0) {
+				newLine(text, level);
+				writeElement(text, elementName, value);
+			}
+			return;
+		}
+		if (!optional) {
+			newLine(text, level);
+		}
+		addPart(new Part() {
+			public void append(StringBuilder result, Map<String, Object> parameterValues) {
+				String value = getValue(parameterName, parameterValues);
+				if (optional) {
+					if (value.length() == 0) {
+						return;
+					}
+					newLine(result, level);
+				}
+				writeElement(result, elementName, value);
+			}
+		});
+	}
+
+	private void location(int level) {
+		final String[] names = {
+			EsbSoapWrapperPipe.MESSAGINGLAYER, EsbSoapWrapperPipe.BUSINESSDOMAIN,
+			EsbSoapWrapperPipe.APPLICATIONNAME, EsbSoapWrapperPipe.APPLICATIONFUNCTION,
+			EsbSoapWrapperPipe.SERVICELAYER, EsbSoapWrapperPipe.SERVICENAME,
+			EsbSoapWrapperPipe.SERVICECONTEXT, EsbSoapWrapperPipe.SERVICECONTEXTVERSION,
+			EsbSoapWrapperPipe.OPERATIONNAME, EsbSoapWrapperPipe.OPERATIONVERSION,
+			EsbSoapWrapperPipe.PARADIGM };
+		newLine(text, level);
+		boolean constant = true;
+		for (String name : names) {
+			if (isDynamic(name)) {
+				constant = false;
+			}
+		}
+		if (constant) {
+			writeElement(text, "Location", getLocation(null));
+		} else {
+			addPart(new Part() {
+				public void append(StringBuilder result, Map<String, Object> parameterValues) {
+					writeElement(result, "Location", getLocation(parameterValues));
+				}
+			});
+		}
+	}
+
+	/**
+	 * Returns the destination, for the constant values when parameterValues is <code>null</code>.
+	 */
+	private String getLocation(Map<String, Object> parameterValues) {
+		String messagingLayer = value(EsbSoapWrapperPipe.MESSAGINGLAYER, parameterValues);
+		StringBuilder location = new StringBuilder(messagingLayer);
+		location.append('.').append(value(EsbSoapWrapperPipe.BUSINESSDOMAIN, parameterValues));
+		if ("P2P".equals(messagingLayer)) {
+			location.append('.').append(value(EsbSoapWrapperPipe.APPLICATIONNAME, parameterValues));
+			location.append('.').append(value(EsbSoapWrapperPipe.APPLICATIONFUNCTION, parameterValues));
+		} else {
+			location.append('.').append(value(EsbSoapWrapperPipe.SERVICELAYER, parameterValues));
+			location.append('.').append(value(EsbSoapWrapperPipe.SERVICENAME, parameterValues));
+			String serviceContext = value(EsbSoapWrapperPipe.SERVICECONTEXT, parameterValues);
+			if (serviceContext.length() > 0) {
+				location.append('.').append(serviceContext);
+			}
+			location.append('.').append(value(EsbSoapWrapperPipe.SERVICECONTEXTVERSION, parameterValues));
+			location.append('.').append(value(EsbSoapWrapperPipe.OPERATIONNAME, parameterValues));
+			location.append('.').append(value(EsbSoapWrapperPipe.OPERATIONVERSION, parameterValues));
+		}
+		location.append('.').append(value(EsbSoapWrapperPipe.PARADIGM, parameterValues));
+		return location.toString();
+	}
+
+	private String value(String name, Map<String, Object> parameterValues) {
+		return parameterValues == null ? getConstant(name) : getValue(name, parameterValues);
+	}
+
+	private void addPart(Part part) {
+		flushText();
+		parts.add(part);
+	}
+
+	private void flushText() {
+		if (text.length() > 0) {
+			final String constantText = text.toString();
+			parts.add(new Part() {
+				public void append(StringBuilder result, Map<String, Object> parameterValues) {
+					result.append(constantText);
+				}
+			});
+			expectedLength += constantText.length();
+			text.setLength(0);
+		}
+	}
+
+	private static void newLine(StringBuilder result, int level) {
+		result.append('\n');
+		for (int i = 0; i < level; i++) {
+			result.append(INDENT);
+		}
+	}
+
+	private static void writeElement(StringBuilder result, String name, String value) {
+		if (value.length() == 0) {
+			result.append('<').append(name).append("/>");
+		} else {
+			result.append('<').append(name).append('>');
+			escape(result, value, false);
+			result.append("</").append(name).append('>');
+		}
+	}
+
+	private static void escape(StringBuilder result, String value, boolean attribute) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '&':
+				result.append("&amp;");
+				break;
+			case '<':
+				result.append("&lt;");
+				break;
+			case '>':
+				result.append("&gt;");
+				break;
+			case '\r':
+				result.append("&#xD;");
+				break;
+			case '"':
+				result.append(attribute ? "&quot;" : "\"");
+				break;
+			default:
+				result.append(c);
+			}
+		}
+	}
+}
@@ -15,6 +15,7 @@
 */
 package nl.nn.adapterframework.extensions.esb;
 
+import java.util.Map;
 import java.util.StringTokenizer;
 
 import org.apache.commons.lang.StringUtils;
@@ -23,6 +24,7 @@ import nl.nn.adapterframework.configuration.ConfigurationException;
 import nl.nn.adapterframework.configuration.ConfigurationUtils;
 import nl.nn.adapterframework.configuration.ConfigurationWarnings;
 import nl.nn.adapterframework.core.IListener;
+import nl.nn.adapterframework.core.IPipeLineSession;
 import nl.nn.adapterframework.core.ISender;
 import nl.nn.adapterframework.jms.JmsException;
 import nl.nn.adapterframework.parameters.Parameter;
@@ -228,6 +230,13 @@ import nl.nn.adapterframework.util.AppConstants;
  * <tr><td>paradigm</td><td>&nbsp;</td></tr>
  * </table>
  * </p>
+ * <p>
+ * When no soapHeaderStyleSheet is set and the parameters <code>namespace</code> and
+ * <code>cmhVersion</code> have a fixed value, the SOAP Header is not created by
+ * /xml/xsl/esb/soapHeader.xsl or /xml/xsl/esb/bisSoapHeader.xsl, but by an
+ * {@link EsbMessageHeaderTemplate} that produces the same result. The template is compiled when
+ * the pipe is configured, so only the values that differ per message are resolved per message.
+ * </p>
  * @author Peter Leeuwenburgh
  */
 public class EsbSoapWrapperPipe extends SoapWrapperPipe {
@@ -272,6 +281,7 @@ public class EsbSoapWrapperPipe extends SoapWrapperPipe {
 	private int cmhVersion = 0;
 	private boolean addOutputNamespace = false;
 	private boolean retrievePhysicalDestination = true;
+	private EsbMessageHeaderTemplate soapHeaderTemplate = null;
 	
 	@Override
 	public void configure() throws ConfigurationException {
@@ -302,13 +312,7 @@ public class EsbSoapWrapperPipe extends SoapWrapperPipe {
 			if (StringUtils.isEmpty(getSoapHeaderSessionKey())) {
 				setSoapHeaderSessionKey(DEFAULT_SOAP_HEADER_SESSION_KEY);
 			}
-			if (StringUtils.isEmpty(getSoapHeaderStyleSheet())) {
-				if (mode == Mode.BIS) {
-					setSoapHeaderStyleSheet("/xml/xsl/esb/bisSoapHeader.xsl");
-				} else {
-					setSoapHeaderStyleSheet("/xml/xsl/esb/soapHeader.xsl");
-				}
-			}
+			boolean defaultSoapHeader = StringUtils.isEmpty(getSoapHeaderStyleSheet());
 			if (StringUtils.isEmpty(getSoapBodyStyleSheet())) {
 				if (mode == Mode.REG) {
 					setSoapBodyStyleSheet("/xml/xsl/esb/soapBody.xsl");
@@ -336,6 +340,17 @@ public class EsbSoapWrapperPipe extends SoapWrapperPipe {
 				setOutputNamespace(ons);
 			}
 			addParameters();
+			if (defaultSoapHeader) {
+				soapHeaderTemplate = EsbMessageHeaderTemplate.compile(getParameterList(), mode == Mode.BIS);
+				if (soapHeaderTemplate == null) {
+					log.debug(getLogPrefix(null) + "namespace or cmhVersion not fixed, using stylesheet for SOAP Header");
+					if (mode == Mode.BIS) {
+						setSoapHeaderStyleSheet("/xml/xsl/esb/bisSoapHeader.xsl");
+					} else {
+						setSoapHeaderStyleSheet("/xml/xsl/esb/soapHeader.xsl");
+					}
+				}
+			}
 		}
 		super.configure();
 		if (isUseFixedValues()) {
@@ -538,6 +553,19 @@ public class EsbSoapWrapperPipe extends SoapWrapperPipe {
 		}
 	}
 
+	@Override
+	protected boolean isParameterValuesRequired() {
+		return soapHeaderTemplate != null || super.isParameterValuesRequired();
+	}
+
+	@Override
+	protected String getSoapHeader(Map parameterValues, IPipeLineSession session) {
+		if (soapHeaderTemplate != null) {
+			return soapHeaderTemplate.format(parameterValues);
+		}
+		return super.getSoapHeader(parameterValues, session);
+	}
+
 	private void addParameters() {
 		ParameterList parameterList = getParameterList();
 		Parameter p;
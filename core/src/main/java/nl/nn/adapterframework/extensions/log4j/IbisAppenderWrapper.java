@@ -7,9 +7,8 @@ import java.util.Iterator;
 import java.util.List;
 
 import nl.nn.adapterframework.util.LogUtil;
-import nl.nn.adapterframework.util.Misc;
+import nl.nn.adapterframework.util.RegexMasker;
 
-import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Appender;
 import org.apache.log4j.AppenderSkeleton;
 import org.apache.log4j.spi.AppenderAttachable;
@@ -27,7 +26,7 @@ public class IbisAppenderWrapper extends AppenderSkeleton implements
 	protected int maxMessageLength = -1;
 	protected String hideRegex;
 	
-	private final List<Appender> appenders = new ArrayList<Appender>();
+	protected final List<Appender> appenders = new ArrayList<Appender>();
 
 	public void close() {
 		synchronized (appenders) {
@@ -43,6 +42,14 @@ public class IbisAppenderWrapper extends AppenderSkeleton implements
 
 	@Override
 	protected void append(LoggingEvent event) {
+		appendToAppenders(modifyEvent(event, LogUtil.getThreadHideRegex()));
+	}
+
+	/**
+	 * Returns a copy of the event with the message truncated and masked, and the
+	 * stack trace masked.
+	 */
+	protected LoggingEvent modifyEvent(LoggingEvent event, String threadHideRegex) {
 		String modifiedMessage = event.getMessage().toString();
 		if (maxMessageLength >= 0
 				&& modifiedMessage.length() > maxMessageLength) {
@@ -55,37 +62,29 @@ public class IbisAppenderWrapper extends AppenderSkeleton implements
 			throwableStrReps = throwableInfo.getThrowableStrRep();
 		}
 
-		if (StringUtils.isNotEmpty(hideRegex)) {
-			modifiedMessage = Misc.hideAll(modifiedMessage, hideRegex);
-
-			if (throwableStrReps!=null) {
-				for (int i=0; i<throwableStrReps.length; i++) {
-					throwableStrReps[i] = Misc.hideAll(throwableStrReps[i], hideRegex);
-				}
-			}
-		}
-
-		String threadHideRegex = LogUtil.getThreadHideRegex();
-		if (StringUtils.isNotEmpty(threadHideRegex)) {
-			modifiedMessage = Misc.hideAll(modifiedMessage, threadHideRegex);
+		RegexMasker masker = RegexMasker.getInstance(hideRegex, threadHideRegex);
+		if (masker != null) {
+			modifiedMessage = masker.mask(modifiedMessage, false);
 
 			if (throwableStrReps!=null) {
 				for (int i=0; i<throwableStrReps.length; i++) {
-					throwableStrReps[i] = Misc.hideAll(throwableStrReps[i], threadHideRegex);
+					throwableStrReps[i] = masker.mask(throwableStrReps[i], false);
 				}
 			}
 		}
 		
-		LoggingEvent modifiedEvent = new LoggingEvent(
+		return new LoggingEvent(
 				event.getFQNOfLoggerClass(), event.getLogger(),
 				event.getTimeStamp(), event.getLevel(), modifiedMessage,
 				event.getThreadName(), new ThrowableInformation(throwableStrReps),
-				event.getNDC(), event.getLocationInformation(),
+				event.getNDC(), event.locationInformationExists() ? event.getLocationInformation() : null,
 				event.getProperties());
+	}
 
+	protected void appendToAppenders(LoggingEvent event) {
 		synchronized (appenders) {
 			for (Appender appender : appenders) {
-				appender.doAppend(modifiedEvent);
+				appender.doAppend(event);
 			}
 		}
 	}
@@ -0,0 +1,348 @@
+/*
+   Copyright 2018 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package nl.nn.adapterframework.extensions.log4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nl.nn.adapterframework.util.LogUtil;
+
+import org.apache.log4j.Appender;
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.WriterAppender;
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.Filter;
+import org.apache.log4j.spi.LoggingEvent;
+import org.apache.log4j.spi.ThrowableInformation;
+
+/**
+ * Asynchronous version of the {@link IbisAppenderWrapper}.
+ * <p>
+ * Logging threads only take a snapshot of the event and put it in a bounded buffer. A
+ * single dispatcher thread truncates and masks the events and writes them to the wrapped
+ * appenders in batches. File appenders are flushed once per batch instead of once per
+ * event. When the buffer is full, the <code>overflowPolicy</code> determines what happens:
+ * <ul>
+ * <li><code>block</code>: the logging thread waits until there is space in the buffer</li>
+ * <li><code>drop</code>: DEBUG and INFO events are discarded, more severe events wait</li>
+ * <li><code>summarise</code>: like <code>drop</code>, but a warning with the number of discarded events is logged when there is space again</li>
+ * </ul>
+ * When <code>bufferSize</code> is 0, events are written synchronously, like the
+ * IbisAppenderWrapper does.
+ * <p>
+ * Events that are logged after the appender has been closed cannot be written anymore. They
+ * are counted as dropped, and a warning is logged for the first of them.
+ *
+ * @since   7.0
+ */
+public class IbisAsyncAppender extends IbisAppenderWrapper implements Runnable {
+
+	public static final String OVERFLOW_POLICY_BLOCK = "block";
+	public static final String OVERFLOW_POLICY_DROP = "drop";
+	public static final String OVERFLOW_POLICY_SUMMARISE = "summarise";
+
+	private int bufferSize = 8192;
+	private int batchSize = 256;
+	private String overflowPolicy = OVERFLOW_POLICY_BLOCK;
+	private boolean locationInfo = false;
+	private boolean flushPerBatch = true;
+
+	private ArrayBlockingQueue<LoggingEvent> buffer;
+	private Thread dispatcher;
+	private volatile boolean running;
+
+	private AtomicLong eventsDropped = new AtomicLong();
+	private AtomicLong eventsBlocked = new AtomicLong();
+	private AtomicInteger droppedSinceSummary = new AtomicInteger();
+	private AtomicBoolean droppedAfterClose = new AtomicBoolean();
+
+	@Override
+	public void activateOptions() {
+		super.activateOptions();
+		if (!OVERFLOW_POLICY_BLOCK.equalsIgnoreCase(overflowPolicy)
+				&& !OVERFLOW_POLICY_DROP.equalsIgnoreCase(overflowPolicy)
+				&& !OVERFLOW_POLICY_SUMMARISE.equalsIgnoreCase(overflowPolicy)) {
+			LogLog.warn("unknown overflowPolicy [" + overflowPolicy + "] for appender [" + getName() + "], using [" + OVERFLOW_POLICY_BLOCK + "]");
+			overflowPolicy = OVERFLOW_POLICY_BLOCK;
+		}
+		if (bufferSize > 0 && dispatcher == null) {
+			buffer = new ArrayBlockingQueue<LoggingEvent>(bufferSize);
+			running = true;
+			dispatcher = new Thread(this, "IbisAsyncAppender-" + getName());
+			dispatcher.setDaemon(true);
+			dispatcher.start();
+		}
+	}
+
+	/**
+	 * Like {@link org.apache.log4j.AppenderSkeleton#doAppend(LoggingEvent)}, but without
+	 * synchronizing on the appender, so logging threads do not wait for each other.
+	 */
+	@Override
+	public void doAppend(LoggingEvent event) {
+		if (buffer == null) {
+			super.doAppend(event);
+			return;
+		}
+		if (!isAsSevereAsThreshold(event.getLevel())) {
+			return;
+		}
+		if (closed) {
+			dropAfterClose(1);
+			return;
+		}
+		Filter filter = getFirstFilter();
+		while (filter != null) {
+			switch (filter.decide(event)) {
+			case Filter.DENY:
+				return;
+			case Filter.ACCEPT:
+				filter = null;
+				break;
+			default:
+				filter = filter.getNext();
+			}
+		}
+		append(event);
+	}
+
+	@Override
+	protected void append(LoggingEvent event) {
+		if (buffer == null || !running || Thread.currentThread() == dispatcher) {
+			// synchronous, or logging by the wrapped appenders themselves
+			super.append(event);
+			return;
+		}
+		LoggingEvent snapshot = snapshot(event);
+		if (!buffer.offer(snapshot)) {
+			if (!OVERFLOW_POLICY_BLOCK.equalsIgnoreCase(overflowPolicy) && !event.getLevel().isGreaterOrEqual(Level.WARN)) {
+				eventsDropped.incrementAndGet();
+				droppedSinceSummary.incrementAndGet();
+				return;
+			}
+			eventsBlocked.incrementAndGet();
+			try {
+				while (!buffer.offer(snapshot, 100, TimeUnit.MILLISECONDS)) {
+					if (!running) {
+						// the dispatcher has stopped and will not make space anymore
+						writeRemaining();
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				appendToAppenders(modifyEvent(snapshot, getThreadHideRegex(snapshot)));
+				return;
+			}
+		}
+		if (!running) {
+			// close() might have emptied the buffer already
+			writeRemaining();
+		}
+	}
+
+	/**
+	 * Copies everything from the event that must be determined on the logging thread.
+	 */
+	private LoggingEvent snapshot(LoggingEvent event) {
+		Object message = event.getMessage();
+		ThrowableInformation throwableInfo = event.getThrowableInformation();
+		String[] throwableStrRep = throwableInfo == null ? null : throwableInfo.getThrowableStrRep();
+		return new LoggingEvent(
+				event.getFQNOfLoggerClass(), event.getLogger(),
+				event.getTimeStamp(), event.getLevel(),
+				message == null ? null : message.toString(),
+				event.getThreadName(), new ThrowableInformation(throwableStrRep),
+				event.getNDC(), locationInfo ? event.getLocationInformation() : null,
+				event.getProperties());
+	}
+
+	private String getThreadHideRegex(LoggingEvent event) {
+		return (String) event.getMDC(LogUtil.THREAD_HIDE_REGEX);
+	}
+
+	public void run() {
+		List<LoggingEvent> batch = new ArrayList<LoggingEvent>(batchSize);
+		while (running) {
+			try {
+				LoggingEvent first = buffer.poll(1, TimeUnit.SECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+				buffer.drainTo(batch, batchSize - 1);
+				writeBatch(batch);
+			} catch (InterruptedException e) {
+				running = false;
+			} catch (Throwable t) {
+				LogLog.error("exception writing log events in appender [" + getName() + "]", t);
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+
+	private void writeBatch(List<LoggingEvent> batch) {
+		if (OVERFLOW_POLICY_SUMMARISE.equalsIgnoreCase(overflowPolicy)) {
+			int dropped = droppedSinceSummary.getAndSet(0);
+			if (dropped > 0) {
+				LoggingEvent first = batch.get(0);
+				batch.add(0, new LoggingEvent(IbisAsyncAppender.class.getName(), first.getLogger(), first.getTimeStamp(), Level.WARN,
+						"log buffer of appender [" + getName() + "] was full, dropped [" + dropped + "] DEBUG and INFO events", null));
+			}
+		}
+		List<LoggingEvent> modifiedEvents = new ArrayList<LoggingEvent>(batch.size());
+		for (LoggingEvent event : batch) {
+			modifiedEvents.add(modifyEvent(event, getThreadHideRegex(event)));
+		}
+		synchronized (appenders) {
+			for (Appender appender : appenders) {
+				WriterAppender writerAppender = null;
+				int lastAccepted = -1;
+				if (flushPerBatch && appender instanceof WriterAppender) {
+					// only flush after the last event the appender will actually write
+					writerAppender = (WriterAppender) appender;
+					for (int i = modifiedEvents.size() - 1; i >= 0 && lastAccepted < 0; i--) {
+						if (isAccepted(writerAppender, modifiedEvents.get(i))) {
+							lastAccepted = i;
+						}
+					}
+				}
+				for (int i = 0; i < modifiedEvents.size(); i++) {
+					if (writerAppender != null) {
+						writerAppender.setImmediateFlush(i >= lastAccepted);
+					}
+					appender.doAppend(modifiedEvents.get(i));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the events that are left in the buffer after the dispatcher has stopped, or counts
+	 * them as dropped when the appender has been closed already.
+	 */
+	private void writeRemaining() {
+		List<LoggingEvent> remaining = new ArrayList<LoggingEvent>();
+		buffer.drainTo(remaining);
+		if (remaining.isEmpty()) {
+			return;
+		}
+		if (closed) {
+			dropAfterClose(remaining.size());
+		} else {
+			writeBatch(remaining);
+		}
+	}
+
+	private void dropAfterClose(int count) {
+		eventsDropped.addAndGet(count);
+		if (droppedAfterClose.compareAndSet(false, true)) {
+			LogLog.warn("appender [" + getName() + "] is closed, log events are dropped");
+		}
+	}
+
+	private boolean isAccepted(AppenderSkeleton appender, LoggingEvent event) {
+		if (!appender.isAsSevereAsThreshold(event.getLevel())) {
+			return false;
+		}
+		Filter filter = appender.getFirstFilter();
+		while (filter != null) {
+			switch (filter.decide(event)) {
+			case Filter.DENY:
+				return false;
+			case Filter.ACCEPT:
+				return true;
+			default:
+				filter = filter.getNext();
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void close() {
+		Thread thread = dispatcher;
+		if (thread != null) {
+			running = false;
+			try {
+				thread.join(5000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			dispatcher = null;
+			writeRemaining();
+		}
+		closed = true;
+		super.close();
+		if (buffer != null) {
+			// events that were put in the buffer while the appender was being closed
+			writeRemaining();
+		}
+	}
+
+	public int getQueueDepth() {
+		return buffer == null ? 0 : buffer.size();
+	}
+
+	public long getEventsDropped() {
+		return eventsDropped.get();
+	}
+
+	public long getEventsBlocked() {
+		return eventsBlocked.get();
+	}
+
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = Math.max(1, batchSize);
+	}
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setOverflowPolicy(String overflowPolicy) {
+		this.overflowPolicy = overflowPolicy;
+	}
+	public String getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	public void setLocationInfo(boolean locationInfo) {
+		this.locationInfo = locationInfo;
+	}
+	public boolean getLocationInfo() {
+		return locationInfo;
+	}
+
+	public void setFlushPerBatch(boolean flushPerBatch) {
+		this.flushPerBatch = flushPerBatch;
+	}
+	public boolean isFlushPerBatch() {
+		return flushPerBatch;
+	}
+}
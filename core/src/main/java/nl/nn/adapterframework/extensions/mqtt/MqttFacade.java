@@ -25,6 +25,7 @@ import org.apache.commons.lang.builder.ToStringBuilder;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
 import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttSecurityException;
@@ -79,12 +80,16 @@ public class MqttFacade implements HasPhysicalDestination {
 
 		MqttDefaultFilePersistence dataStore = new MqttDefaultFilePersistence(getPersistenceDirectory());
 		try {
-			client = new MqttClient(brokerUrl, clientId, dataStore);
+			createClient(dataStore);
 		} catch (MqttException e) {
 			throw new ConfigurationException("Could not create client", e);
 		}
 	}
 
+	protected void createClient(MqttClientPersistence dataStore) throws MqttException {
+		client = new MqttClient(getBrokerUrl(), getClientId(), dataStore);
+	}
+
 	public void open() throws Exception {
 		try {
 			client.connect(connectOptions);
@@ -1,5 +1,5 @@
 /*
-   Copyright 2017 Integration Partners
+   Copyright 2017 Integration Partners, 2018 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -16,15 +16,30 @@
 
 package nl.nn.adapterframework.extensions.mqtt;
 
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
+import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
 
 import nl.nn.adapterframework.configuration.ConfigurationException;
 import nl.nn.adapterframework.core.ISenderWithParameters;
+import nl.nn.adapterframework.core.ParameterException;
 import nl.nn.adapterframework.core.SenderException;
 import nl.nn.adapterframework.core.TimeOutException;
 import nl.nn.adapterframework.parameters.Parameter;
 import nl.nn.adapterframework.parameters.ParameterList;
 import nl.nn.adapterframework.parameters.ParameterResolutionContext;
+import nl.nn.adapterframework.statistics.HasStatistics;
+import nl.nn.adapterframework.statistics.StatisticsKeeper;
+import nl.nn.adapterframework.statistics.StatisticsKeeperIterationHandler;
 
 /**
  * MQTT listener which will connect to a broker and subscribe to a topic.
@@ -42,23 +57,68 @@ import nl.nn.adapterframework.parameters.ParameterResolutionContext;
  * <tr><td>{@link #setPersistenceDirectory(String) persistenceDirectory}</td><td>see <a href="https://www.eclipse.org/paho/files/javadoc/org/eclipse/paho/client/mqttv3/persist/MqttDefaultFilePersistence.html" target="_blank">MqttDefaultFilePersistence</a> and <a href="https://www.eclipse.org/paho/files/javadoc/org/eclipse/paho/client/mqttv3/MqttClient.html" target="_blank">MqttClient</a></td><td>true</td></tr>
  * <tr><td>{@link #setAutomaticReconnect(boolean) automaticReconnect}</td><td>see <a href="https://www.eclipse.org/paho/files/javadoc/org/eclipse/paho/client/mqttv3/MqttConnectOptions.html#setAutomaticReconnect-boolean-" target="_blank">MqttConnectOptions.setAutomaticReconnect(boolean automaticReconnect)</a> (apart from this recover job will also try to recover)</td><td>true</td></tr>
  * <tr><td>{@link #setCharset(String) charset}</td><td>character encoding of received messages</td><td>UTF-8</td></tr>
+ * <tr><td>{@link #setAsync(boolean) async}</td><td>when <code>true</code>, messages are published with a non-blocking client, so that up to <code>maxInflight</code> messages can await acknowledgement of the broker at the same time</td><td>false</td></tr>
+ * <tr><td>{@link #setMaxInflight(int) maxInflight}</td><td>maximum number of published messages that are not acknowledged by the broker yet. When reached, publishing waits until a message is acknowledged, at most <code>acknowledgeTimeout</code> ms (only used when <code>async=true</code>)</td><td>10</td></tr>
+ * <tr><td>{@link #setWaitForAcknowledgement(boolean) waitForAcknowledgement}</td><td>when <code>true</code>, sendMessage() returns when the broker has acknowledged the message (according to <code>qos</code>), otherwise as soon as the message is handed over to the client. Failed deliveries are then only logged and counted (only used when <code>async=true</code>)</td><td>true</td></tr>
+ * <tr><td>{@link #setAcknowledgeTimeout(long) acknowledgeTimeout}</td><td>maximum time in ms to wait for the acknowledgement of the broker, or for room in the in-flight window (only used when <code>async=true</code>)</td><td>30000</td></tr>
+ * </table>
+ * </p>
+ * <p><b>Parameters:</b>
+ * <table border="1">
+ * <tr><th>name</th><th>type</th><th>remarks</th></tr>
+ * <tr><td>waitForAcknowledgement</td><td>string</td><td><code>true</code> or <code>false</code>, overrides the attribute <code>waitForAcknowledgement</code> for a single message</td></tr>
  * </table>
+ * </p>
  * 
  * Links to <a href="https://www.eclipse.org/paho/files/javadoc" target="_blank">https://www.eclipse.org/paho/files/javadoc</a> are opened in a new window/tab because the response from eclipse.org contains header X-Frame-Options:SAMEORIGIN which will make the browser refuse to open the link inside this frame.
  * 
  * @author Niels Meijer
  */
 
-public class MqttSender extends MqttFacade implements ISenderWithParameters {
+public class MqttSender extends MqttFacade implements ISenderWithParameters, HasStatistics {
+	public static final String PARAMETER_WAIT_FOR_ACKNOWLEDGEMENT = "waitForAcknowledgement";
+
 	protected ParameterList paramList = null;
 
+	private boolean async = false;
+	private int maxInflight = 10;
+	private boolean waitForAcknowledgement = true;
+	private long acknowledgeTimeout = 30000;
+
+	protected MqttAsyncClient asyncClient;
+	private MqttClientPersistence asyncDataStore;
+	private Semaphore inflightWindow;
+	private AtomicLong acknowledged = new AtomicLong();
+	private AtomicLong failed = new AtomicLong();
+	private StatisticsKeeper publishStatistics = new StatisticsKeeper("publish");
+	private StatisticsKeeper acknowledgeStatistics = new StatisticsKeeper("acknowledge");
+
 	@Override
 	public void configure() throws ConfigurationException {
 		if (paramList!=null) {
 			paramList.configure();
 		}
 
+		if (isAsync()) {
+			if (getMaxInflight() < 1) {
+				throw new ConfigurationException("maxInflight must be at least 1");
+			}
+			inflightWindow = new Semaphore(getMaxInflight(), true);
+		}
 		super.configure();
+		if (isAsync()) {
+			connectOptions.setMaxInflight(getMaxInflight());
+		}
+	}
+
+	@Override
+	protected void createClient(MqttClientPersistence dataStore) throws MqttException {
+		if (isAsync()) {
+			asyncDataStore = dataStore;
+			asyncClient = new MqttAsyncClient(getBrokerUrl(), getClientId(), dataStore);
+		} else {
+			super.createClient(dataStore);
+		}
 	}
 
 	@Override
@@ -72,7 +132,44 @@ public class MqttSender extends MqttFacade implements ISenderWithParameters {
 
 	@Override
 	public void close() {
-		super.close();
+		if (isAsync()) {
+			closeAsync();
+		} else {
+			super.close();
+		}
+	}
+
+	private synchronized void closeAsync() {
+		if (asyncClient == null) {
+			return;
+		}
+		try {
+			if (asyncClient.isConnected()) {
+				asyncClient.disconnect().waitForCompletion(getAcknowledgeTimeout());
+			}
+		} catch (MqttException e) {
+			log.warn(getLogPrefix() + "caught exception stopping sender", e);
+		}
+		try {
+			// releases the threads and the persistence of the client; a closed client cannot be connected again
+			asyncClient.close();
+		} catch (MqttException e) {
+			log.warn(getLogPrefix() + "caught exception closing client", e);
+		}
+		asyncClient = null;
+	}
+
+	/**
+	 * Returns the connected non-blocking client, creating a new one when the sender has been closed before.
+	 */
+	private synchronized MqttAsyncClient getConnectedAsyncClient() throws MqttException {
+		if (asyncClient == null) {
+			createClient(asyncDataStore);
+		}
+		if (!asyncClient.isConnected()) {
+			asyncClient.connect(connectOptions).waitForCompletion();
+		}
+		return asyncClient;
 	}
 
 	@Override
@@ -94,25 +191,161 @@ public class MqttSender extends MqttFacade implements ISenderWithParameters {
 	}
 
 	public String sendMessage(String correlationID, String message, ParameterResolutionContext prc, String soapHeader) throws SenderException, TimeOutException {
+		long start = System.currentTimeMillis();
+		if (isAsync()) {
+			publishAsync(message, isWaitForAcknowledgement(prc));
+		} else {
+			try {
+				if(!client.isConnected()) {
+					super.open();
+				}
+
+				log.debug(message);
+				MqttMessage MqttMessage = new MqttMessage();
+				MqttMessage.setPayload(message.getBytes());
+				MqttMessage.setQos(getQos());
+				client.publish(getTopic(), MqttMessage);
+			}
+			catch (Exception e) {
+				throw new SenderException(e);
+			}
+		}
+		addStatistic(publishStatistics, System.currentTimeMillis() - start);
+		return message;
+	}
+
+	private boolean isWaitForAcknowledgement(ParameterResolutionContext prc) throws SenderException {
+		if (prc != null && paramList != null && paramList.findParameter(PARAMETER_WAIT_FOR_ACKNOWLEDGEMENT) != null) {
+			try {
+				Map<String,Object> paramValueMap = prc.getValueMap(paramList);
+				Object value = paramValueMap.get(PARAMETER_WAIT_FOR_ACKNOWLEDGEMENT);
+				if (value != null) {
+					return Boolean.valueOf(value.toString().trim()).booleanValue();
+				}
+			} catch (ParameterException e) {
+				throw new SenderException(getLogPrefix() + "cannot resolve parameter [" + PARAMETER_WAIT_FOR_ACKNOWLEDGEMENT + "]", e);
+			}
+		}
+		return isWaitForAcknowledgement();
+	}
+
+	/**
+	 * Publishes the message with the non-blocking client. A place in the in-flight window is taken
+	 * before the message is handed over, and given back when the broker has acknowledged the message
+	 * or the delivery has failed.
+	 */
+	private void publishAsync(String message, boolean waitForAcknowledgement) throws SenderException, TimeOutException {
 		try {
-			if(!client.isConnected()) {
-				super.open();
+			if (!inflightWindow.tryAcquire(getAcknowledgeTimeout(), TimeUnit.MILLISECONDS)) {
+				throw new TimeOutException(getLogPrefix() + "no room in in-flight window of [" + getMaxInflight() + "] messages within [" + getAcknowledgeTimeout() + "] ms");
 			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SenderException(getLogPrefix() + "interrupted while waiting for room in in-flight window", e);
+		}
+		IMqttDeliveryToken token;
+		try {
+			MqttAsyncClient publishClient = getConnectedAsyncClient();
+			if (log.isDebugEnabled()) log.debug(getLogPrefix() + "publishing message [" + message + "]");
+			MqttMessage mqttMessage = new MqttMessage();
+			mqttMessage.setPayload(message.getBytes());
+			mqttMessage.setQos(getQos());
+			token = publishClient.publish(getTopic(), mqttMessage, null, new DeliveryListener(System.currentTimeMillis()));
+		} catch (MqttException e) {
+			inflightWindow.release();
+			throw new SenderException(getLogPrefix() + "could not publish message", e);
+		} catch (RuntimeException e) {
+			inflightWindow.release();
+			throw e;
+		}
+		if (waitForAcknowledgement) {
+			try {
+				token.waitForCompletion(getAcknowledgeTimeout());
+			} catch (MqttException e) {
+				if (e.getReasonCode() == MqttException.REASON_CODE_CLIENT_TIMEOUT) {
+					throw new TimeOutException(getLogPrefix() + "message not acknowledged within [" + getAcknowledgeTimeout() + "] ms", e);
+				}
+				throw new SenderException(getLogPrefix() + "could not deliver message", e);
+			}
+		}
+	}
+
+	private class DeliveryListener implements IMqttActionListener {
+		private long published;
 
-			log.debug(message);
-			MqttMessage MqttMessage = new MqttMessage();
-			MqttMessage.setPayload(message.getBytes());
-			MqttMessage.setQos(getQos());
-			client.publish(getTopic(), MqttMessage);
+		DeliveryListener(long published) {
+			this.published = published;
 		}
-		catch (Exception e) {
-			throw new SenderException(e);
+
+		@Override
+		public void onSuccess(IMqttToken asyncActionToken) {
+			inflightWindow.release();
+			acknowledged.incrementAndGet();
+			addStatistic(acknowledgeStatistics, System.currentTimeMillis() - published);
+		}
+
+		@Override
+		public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+			inflightWindow.release();
+			failed.incrementAndGet();
+			log.warn(getLogPrefix() + "delivery of message failed", exception);
+		}
+	}
+
+	private void addStatistic(StatisticsKeeper sk, long duration) {
+		synchronized (sk) {
+			sk.addValue(duration);
+		}
+	}
+
+	/**
+	 * Returns the number of published messages that are not acknowledged by the broker yet.
+	 */
+	public int getInflightCount() {
+		return inflightWindow == null ? 0 : getMaxInflight() - inflightWindow.availablePermits();
+	}
+
+	@Override
+	public void iterateOverStatistics(StatisticsKeeperIterationHandler hski, Object data, int action) throws SenderException {
+		hski.handleStatisticsKeeper(data, publishStatistics);
+		if (isAsync()) {
+			hski.handleStatisticsKeeper(data, acknowledgeStatistics);
+			hski.handleScalar(data, "inflight", getInflightCount());
+			hski.handleScalar(data, "acknowledged", acknowledged.get());
+			hski.handleScalar(data, "failed", failed.get());
 		}
-		return message;
 	}
 
 	@Override
 	public boolean isSynchronous() {
 		return false;
 	}
+
+	public void setAsync(boolean async) {
+		this.async = async;
+	}
+	public boolean isAsync() {
+		return async;
+	}
+
+	public void setMaxInflight(int maxInflight) {
+		this.maxInflight = maxInflight;
+	}
+	public int getMaxInflight() {
+		return maxInflight;
+	}
+
+	public void setWaitForAcknowledgement(boolean waitForAcknowledgement) {
+		this.waitForAcknowledgement = waitForAcknowledgement;
+	}
+	public boolean isWaitForAcknowledgement() {
+		return waitForAcknowledgement;
+	}
+
+	public void setAcknowledgeTimeout(long acknowledgeTimeout) {
+		this.acknowledgeTimeout = acknowledgeTimeout;
+	}
+	public long getAcknowledgeTimeout() {
+		return acknowledgeTimeout;
+	}
 }
@@ -0,0 +1,143 @@
+/*
+   Copyright 2018 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.ftp;
+
+import java.io.IOException;
+
+import nl.nn.adapterframework.util.LogUtil;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPReply;
+import org.apache.log4j.Logger;
+
+import com.sshtools.j2ssh.SftpClient;
+import com.sshtools.j2ssh.SshClient;
+
+/**
+ * Connected and authenticated FTP, FTPS or SFTP client, as used by {@link FtpSession}.
+ * <p>
+ * A connection remembers its home directory and the remote directory it has changed to, so that
+ * a pooled connection can be used for another remote directory.
+ *
+ * @since   7.0
+ */
+class FtpConnection {
+	protected Logger log = LogUtil.getLogger(this);
+
+	FTPClient ftpClient;
+	SshClient sshClient;
+	SftpClient sftpClient;
+
+	private String homeDirectory;
+	private String remoteDirectory;
+	// time of the last use, updated while a stream of the connection is read
+	volatile long lastUsed;
+	// guarded by the pool the connection belongs to
+	boolean borrowed;
+
+	FtpConnection(FTPClient ftpClient) {
+		this.ftpClient = ftpClient;
+	}
+
+	FtpConnection(SshClient sshClient, SftpClient sftpClient) {
+		this.sshClient = sshClient;
+		this.sftpClient = sftpClient;
+	}
+
+	boolean isSftp() {
+		return sftpClient != null;
+	}
+
+	boolean isConnected() {
+		if (isSftp()) {
+			return sshClient.isConnected() && !sftpClient.isClosed();
+		}
+		return ftpClient != null && ftpClient.isConnected();
+	}
+
+	/**
+	 * Checks that the server still responds, which also keeps the connection from timing out
+	 * at the server side. For SFTP, that has no NOOP, the current directory is resolved again.
+	 */
+	boolean sendNoOp() {
+		try {
+			if (!isConnected()) {
+				return false;
+			}
+			if (isSftp()) {
+				sftpClient.cd(sftpClient.pwd());
+				return true;
+			}
+			return ftpClient.sendNoOp();
+		} catch (IOException e) {
+			log.debug("NOOP failed: " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Changes to the remote directory, relative to the home directory of the connection.
+	 */
+	void changeDirectory(String remoteDirectory) throws IOException {
+		if (StringUtils.equals(remoteDirectory, this.remoteDirectory)) {
+			return;
+		}
+		if (homeDirectory == null) {
+			homeDirectory = isSftp() ? sftpClient.pwd() : ftpClient.printWorkingDirectory();
+		} else if (StringUtils.isNotEmpty(this.remoteDirectory)) {
+			cd(homeDirectory);
+		}
+		this.remoteDirectory = null;
+		if (StringUtils.isNotEmpty(remoteDirectory)) {
+			cd(remoteDirectory);
+		}
+		this.remoteDirectory = remoteDirectory;
+	}
+
+	private void cd(String directory) throws IOException {
+		if (isSftp()) {
+			sftpClient.cd(directory);
+		} else {
+			ftpClient.changeWorkingDirectory(directory);
+			checkReply("changeWorkingDirectory "+directory);
+		}
+	}
+
+	void checkReply(String cmd) throws IOException  {
+		if (!FTPReply.isPositiveCompletion(ftpClient.getReplyCode())) {
+			throw new IOException("Command [" + cmd + "] returned error [" + ftpClient.getReplyCode() + "]: " + ftpClient.getReplyString());
+		}
+		if (log.isDebugEnabled()) log.debug("Command [" + cmd + "] returned " + ftpClient.getReplyString());
+	}
+
+	void close() {
+		if (isSftp()) {
+			if (sshClient.isConnected()) {
+				sshClient.disconnect();
+			}
+		} else if (ftpClient.isConnected()) {
+			try {
+				ftpClient.quit();
+				log.debug(ftpClient.getReplyString());
+				ftpClient.disconnect();
+			}
+			catch(Exception e) {
+				log.error("Error while closeing FtpClient", e);
+			}
+		}
+	}
+}
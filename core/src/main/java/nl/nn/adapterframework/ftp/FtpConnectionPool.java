@@ -0,0 +1,285 @@
+/*
+   Copyright 2018 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.ftp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import nl.nn.adapterframework.util.LogUtil;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Pool of authenticated connections of the {@link FtpSession}s that have the same connection settings.
+ * <p>
+ * The key of a pool contains every setting that is used to set up a connection, including the
+ * credentials, so all sessions that share a pool would have set up the same connection. At most
+ * <code>maxConnections</code> connections are in use at the same time. A connection is checked with
+ * a NOOP before it is handed out. Idle connections are kept alive with a NOOP every
+ * <code>keepAliveInterval</code> ms, and are closed when they have not been used for
+ * <code>maxIdleTime</code> ms. The pool settings of the first session that opens the pool are used.
+ * <p>
+ * A connection that is handed out for a stream is returned when the stream is closed. When the stream
+ * is not read from for <code>maxIdleTime</code> ms, it is considered abandoned: its connection is closed
+ * and its place in the pool is given to the next borrower.
+ *
+ * @since   7.0
+ */
+class FtpConnectionPool {
+	protected Logger log = LogUtil.getLogger(this);
+
+	private static Map<Object, FtpConnectionPool> pools = new HashMap<Object, FtpConnectionPool>();
+	private static Timer maintenanceTimer;
+
+	private Object key;
+	private FtpSession session;
+	private long maxIdleTime;
+	private long keepAliveInterval;
+
+	private Semaphore permits;
+	private LinkedList<FtpConnection> idle = new LinkedList<FtpConnection>();
+	private List<FtpConnection> streaming = new LinkedList<FtpConnection>();
+	private int users = 0;
+	private TimerTask maintenanceTask;
+
+	private FtpConnectionPool(Object key, FtpSession session, int maxConnections, long maxIdleTime, long keepAliveInterval) {
+		super();
+		this.key = key;
+		this.session = session;
+		this.maxIdleTime = maxIdleTime;
+		this.keepAliveInterval = keepAliveInterval;
+		permits = new Semaphore(Math.max(maxConnections, 1), true);
+	}
+
+	/**
+	 * Returns the pool for the key, creating it for the session when it does not exist yet. Each
+	 * call must be matched by a call to {@link #close()}.
+	 */
+	static synchronized FtpConnectionPool open(Object key, FtpSession session, int maxConnections, long maxIdleTime, long keepAliveInterval) {
+		FtpConnectionPool pool = pools.get(key);
+		if (pool == null) {
+			pool = new FtpConnectionPool(key, session, maxConnections, maxIdleTime, keepAliveInterval);
+			long interval = keepAliveInterval > 0 ? keepAliveInterval : maxIdleTime;
+			if (interval > 0) {
+				if (maintenanceTimer == null) {
+					maintenanceTimer = new Timer("FtpConnectionPool maintenance", true);
+				}
+				pool.maintenanceTask = pool.new MaintenanceTask();
+				maintenanceTimer.schedule(pool.maintenanceTask, interval, interval);
+			}
+			pools.put(key, pool);
+		}
+		synchronized (pool) {
+			pool.users++;
+		}
+		return pool;
+	}
+
+	/**
+	 * Releases the pool. When it is no longer used by any session, its idle connections are closed.
+	 */
+	void close() {
+		List<FtpConnection> connections;
+		synchronized (FtpConnectionPool.class) {
+			synchronized (this) {
+				if (--users > 0) {
+					return;
+				}
+				connections = new ArrayList<FtpConnection>(idle);
+				idle.clear();
+			}
+			pools.remove(key);
+			if (maintenanceTask != null) {
+				maintenanceTask.cancel();
+			}
+		}
+		for (FtpConnection connection : connections) {
+			connection.close();
+		}
+	}
+
+	/**
+	 * Returns a connection that has changed to the remote directory, waiting at most <code>maxWait</code> ms
+	 * when <code>maxConnections</code> connections are in use. The connection must be returned with
+	 * {@link #release(FtpConnection, boolean)}.
+	 */
+	FtpConnection borrow(String remoteDirectory, long maxWait) throws FtpConnectException {
+		try {
+			if (!permits.tryAcquire()) {
+				reclaimAbandonedStreams(System.currentTimeMillis());
+				if (!permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS)) {
+					throw new FtpConnectException("no connection to host ["+session.getHost()+"] available within ["+maxWait+"] ms");
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new FtpConnectException("interrupted while waiting for connection to host ["+session.getHost()+"]", e);
+		}
+		try {
+			FtpConnection connection;
+			while ((connection = takeIdle()) != null) {
+				if (connection.sendNoOp()) {
+					break;
+				}
+				log.debug("closing connection to host ["+session.getHost()+"] that does not respond");
+				connection.close();
+			}
+			if (connection == null) {
+				connection = session.connect();
+			}
+			try {
+				connection.changeDirectory(remoteDirectory);
+			} catch (Exception e) {
+				connection.close();
+				throw new FtpConnectException("cannot change to remote directory ["+remoteDirectory+"]", e);
+			}
+			connection.lastUsed = System.currentTimeMillis();
+			synchronized (this) {
+				connection.borrowed = true;
+			}
+			return connection;
+		} catch (FtpConnectException e) {
+			permits.release();
+			throw e;
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Registers that a borrowed connection is used by a stream, that is read by the caller of the
+	 * session. The connection is closed and its permit is released when the stream is abandoned.
+	 */
+	synchronized void markStreaming(FtpConnection connection) {
+		streaming.add(connection);
+	}
+
+	/**
+	 * Returns a connection to the pool.
+	 *
+	 * @param reusable <code>false</code> when an error occurred, to close the connection instead of keeping it for reuse
+	 */
+	void release(FtpConnection connection, boolean reusable) {
+		boolean reclaimed;
+		synchronized (this) {
+			streaming.remove(connection);
+			// a connection of an abandoned stream is no longer borrowed, its permit has been released then
+			reclaimed = !connection.borrowed;
+			connection.borrowed = false;
+			if (!reclaimed && reusable && users > 0) {
+				connection.lastUsed = System.currentTimeMillis();
+				idle.addFirst(connection);
+				permits.release();
+				return;
+			}
+		}
+		try {
+			connection.close();
+		} finally {
+			if (!reclaimed) {
+				permits.release();
+			}
+		}
+	}
+
+	private synchronized FtpConnection takeIdle() {
+		return idle.pollFirst();
+	}
+
+	/**
+	 * Closes the connections of streams that have not been read from for <code>maxIdleTime</code> ms.
+	 */
+	void reclaimAbandonedStreams(long now) {
+		if (maxIdleTime <= 0) {
+			return;
+		}
+		List<FtpConnection> abandoned = new ArrayList<FtpConnection>();
+		synchronized (this) {
+			for (Iterator<FtpConnection> it = streaming.iterator(); it.hasNext();) {
+				FtpConnection connection = it.next();
+				if (now - connection.lastUsed > maxIdleTime) {
+					it.remove();
+					connection.borrowed = false;
+					abandoned.add(connection);
+				}
+			}
+		}
+		for (FtpConnection connection : abandoned) {
+			log.warn("closing connection to host ["+session.getHost()+"] of stream that has not been read from or closed for ["+maxIdleTime+"] ms");
+			try {
+				connection.close();
+			} finally {
+				permits.release();
+			}
+		}
+	}
+
+	/**
+	 * Closes the idle connections that have not been used for <code>maxIdleTime</code> ms or that
+	 * do not respond to a NOOP, that is sent to keep them alive.
+	 */
+	void checkIdleConnections(long now) {
+		long interval = keepAliveInterval > 0 ? keepAliveInterval : maxIdleTime;
+		List<FtpConnection> checked = new ArrayList<FtpConnection>();
+		synchronized (this) {
+			for (Iterator<FtpConnection> it = idle.iterator(); it.hasNext();) {
+				FtpConnection connection = it.next();
+				if (now - connection.lastUsed >= interval) {
+					it.remove();
+					checked.add(connection);
+				}
+			}
+		}
+		// the NOOPs are sent outside the lock, so that borrowing does not wait for them
+		for (FtpConnection connection : checked) {
+			if ((maxIdleTime > 0 && now - connection.lastUsed > maxIdleTime) || (keepAliveInterval > 0 && !connection.sendNoOp())) {
+				connection.close();
+				continue;
+			}
+			synchronized (this) {
+				if (users > 0) {
+					idle.addLast(connection);
+					continue;
+				}
+			}
+			connection.close();
+		}
+	}
+
+	private class MaintenanceTask extends TimerTask {
+		public void run() {
+			long now = System.currentTimeMillis();
+			reclaimAbandonedStreams(now);
+			checkIdleConnections(now);
+		}
+	}
+
+	synchronized int getIdleCount() {
+		return idle.size();
+	}
+	int getAvailablePermits() {
+		return permits.availablePermits();
+	}
+}
@@ -1,5 +1,5 @@
 /*
-   Copyright 2013 Nationale-Nederlanden
+   Copyright 2013, 2018 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -20,10 +20,16 @@ import nl.nn.adapterframework.core.IPipeLineSession;
 import nl.nn.adapterframework.core.PipeForward;
 import nl.nn.adapterframework.core.PipeRunException;
 import nl.nn.adapterframework.core.PipeRunResult;
+import nl.nn.adapterframework.core.PipeStartException;
 import nl.nn.adapterframework.pipes.FixedForwardPipe;
 
+import org.apache.commons.lang.StringUtils;
+
 /**
  * Pipe for retreiving files via (s)ftp. The path of the created local file is returned.
+ * When <code>fileInputStreamSessionKey</code> is set, no local file is created; instead a stream to read the
+ * remote file is stored in the session, and the input is returned. That stream must be closed, as it holds
+ * the connection to the remote host until then.
  *
  * <p><b>Configuration:</b>
  * <table border="1">
@@ -34,6 +40,7 @@ import nl.nn.adapterframework.pipes.FixedForwardPipe;
  * <tr><td>{@link #setLocalDirectory(String) localDirectory}</td><td>local directory in which files have to be downloaded</td><td>&nbsp;</td></tr>
  * <tr><td>{@link #setRemoteDirectory(String) remoteDirectory}</td><td>remote directory</td><td>&nbsp;</td></tr>
  * <tr><td>{@link #setDeleteAfterGet(boolean) deleteAfterGet}</td><td>if true, the remote file is deleted after it is retrieved</td><td>false</td></tr>
+ * <tr><td>{@link #setFileInputStreamSessionKey(String) fileInputStreamSessionKey}</td><td>when set, a stream to read the remote file is stored in this session key, instead of downloading it to localDirectory. Cannot be combined with deleteAfterGet</td><td>&nbsp;</td></tr>
  * 
  * <tr><td>{@link #setHost(String) host}</td><td>name or ip adres of remote host</td><td>&nbsp;</td></tr>
  * <tr><td>{@link #setPort(int) port}</td><td>portnumber of remote host</td><td>21</td></tr>
@@ -72,6 +79,11 @@ import nl.nn.adapterframework.pipes.FixedForwardPipe;
  * <tr><td>{@link #setAllowSelfSignedCertificates(boolean) allowSelfSignedCertificates}</td><td>(FTPS) if true, the server certificate can be self signed</td><td>false</td></tr>
  * <tr><td>{@link #setProtP(boolean) protP}</td><td>(FTPS) if true, the server returns data via another socket</td><td>false</td></tr>
  * <tr><td>{@link #setKeyboardInteractive(boolean) keyboardInteractive}</td><td>when true, KeyboardInteractive is used to login</td><td>false</td></tr>
+ * <tr><td>{@link #setPooled(boolean) pooled}</td><td>when true, connections are kept open and shared by the senders, pipes and listeners that have the same settings for setting up a connection, from host and credentials to fileType, passive, proxy and certificates. The pool settings below are taken from the first one that is opened</td><td>false</td></tr>
+ * <tr><td>{@link #setMaxConnections(int) maxConnections}</td><td>(pooled) maximum number of connections to the host that are used at the same time</td><td>4</td></tr>
+ * <tr><td>{@link #setMaxIdleTime(long) maxIdleTime}</td><td>(pooled) time (in milliseconds) after which an unused connection is closed. A stream to read a remote file, that is not read from or closed within this time, is closed too</td><td>300000</td></tr>
+ * <tr><td>{@link #setKeepAliveInterval(long) keepAliveInterval}</td><td>(pooled) interval (in milliseconds) at which a NOOP is sent over unused connections, to prevent that the server closes them. 0 disables the keep-alive</td><td>60000</td></tr>
+ * <tr><td>{@link #setPoolTimeout(long) poolTimeout}</td><td>(pooled) maximum time (in milliseconds) to wait for a connection when maxConnections connections are in use</td><td>30000</td></tr>
  * </table>
  * </p>
  * <p><b>Exits:</b>
@@ -96,6 +108,7 @@ public class FtpFileRetrieverPipe extends FixedForwardPipe {
 	private String localDirectory=null;;
 	private String remoteDirectory=null;
 	private boolean deleteAfterGet=false;
+	private String fileInputStreamSessionKey=null;
 	
 
 	public FtpFileRetrieverPipe() {
@@ -109,6 +122,14 @@ public class FtpFileRetrieverPipe extends FixedForwardPipe {
 //			throw new ConfigurationException(getLogPrefix(null)+"must specify forward ["+EXCEPTIONFORWARD+"]"); 
 //		}
 		ftpSession.configure();
+		if (isDeleteAfterGet() && StringUtils.isNotEmpty(getFileInputStreamSessionKey())) {
+			throw new ConfigurationException(getLogPrefix(null)+"deleteAfterGet cannot be used in combination with fileInputStreamSessionKey");
+		}
+	}
+
+	public void start() throws PipeStartException {
+		super.start();
+		ftpSession.openConnectionPool();
 	}
 	
 	public void stop() {
@@ -118,6 +139,7 @@ public class FtpFileRetrieverPipe extends FixedForwardPipe {
 		} catch(Exception e) {
 			log.warn(getLogPrefix(null)+"exception closing ftpSession",e);
 		}
+		ftpSession.closeConnectionPool();
 	}
  
 	/** 
@@ -126,6 +148,10 @@ public class FtpFileRetrieverPipe extends FixedForwardPipe {
 	public PipeRunResult doPipe(Object input, IPipeLineSession session) throws PipeRunException {
 		String orgFilename = (String)input;
 		try {
+			if (StringUtils.isNotEmpty(getFileInputStreamSessionKey())) {
+				session.put(getFileInputStreamSessionKey(), ftpSession.getInputStream(remoteDirectory, orgFilename, true));
+				return new PipeRunResult(getForward(), input);
+			}
 			boolean close = ! deleteAfterGet;
 			String localFilename = ftpSession.get(getParameterList(), session, localDirectory, remoteDirectory, orgFilename, localFilenamePattern, close);
 			if (deleteAfterGet) {
@@ -183,6 +209,13 @@ public class FtpFileRetrieverPipe extends FixedForwardPipe {
 		return deleteAfterGet;
 	}
 
+	public void setFileInputStreamSessionKey(String string) {
+		fileInputStreamSessionKey = string;
+	}
+	public String getFileInputStreamSessionKey() {
+		return fileInputStreamSessionKey;
+	}
+
 
 
 
@@ -309,4 +342,20 @@ public class FtpFileRetrieverPipe extends FixedForwardPipe {
 		ftpSession.setKeyboardInteractive(keyboardInteractive);
 	}
 
+	public void setPooled(boolean pooled) {
+		ftpSession.setPooled(pooled);
+	}
+	public void setMaxConnections(int maxConnections) {
+		ftpSession.setMaxConnections(maxConnections);
+	}
+	public void setMaxIdleTime(long maxIdleTime) {
+		ftpSession.setMaxIdleTime(maxIdleTime);
+	}
+	public void setKeepAliveInterval(long keepAliveInterval) {
+		ftpSession.setKeepAliveInterval(keepAliveInterval);
+	}
+	public void setPoolTimeout(long poolTimeout) {
+		ftpSession.setPoolTimeout(poolTimeout);
+	}
+
 }
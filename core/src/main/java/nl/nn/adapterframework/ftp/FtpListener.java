@@ -1,5 +1,5 @@
 /*
-   Copyright 2013 Nationale-Nederlanden
+   Copyright 2013, 2018 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -83,6 +83,11 @@ import org.apache.commons.lang.builder.ToStringStyle;
  * <tr><td>{@link #setAllowSelfSignedCertificates(boolean) allowSelfSignedCertificates}</td><td>(FTPS) if true, the server certificate can be self signed</td><td>false</td></tr>
  * <tr><td>{@link #setProtP(boolean) protP}</td><td>(FTPS) if true, the server returns data via another socket</td><td>false</td></tr>
  * <tr><td>{@link #setKeyboardInteractive(boolean) keyboardInteractive}</td><td>when true, KeyboardInteractive is used to login</td><td>false</td></tr>
+ * <tr><td>{@link #setPooled(boolean) pooled}</td><td>when true, connections are kept open and shared by the senders, pipes and listeners that have the same settings for setting up a connection, from host and credentials to fileType, passive, proxy and certificates. The pool settings below are taken from the first one that is opened</td><td>false</td></tr>
+ * <tr><td>{@link #setMaxConnections(int) maxConnections}</td><td>(pooled) maximum number of connections to the host that are used at the same time</td><td>4</td></tr>
+ * <tr><td>{@link #setMaxIdleTime(long) maxIdleTime}</td><td>(pooled) time (in milliseconds) after which an unused connection is closed</td><td>300000</td></tr>
+ * <tr><td>{@link #setKeepAliveInterval(long) keepAliveInterval}</td><td>(pooled) interval (in milliseconds) at which a NOOP is sent over unused connections, to prevent that the server closes them. 0 disables the keep-alive</td><td>60000</td></tr>
+ * <tr><td>{@link #setPoolTimeout(long) poolTimeout}</td><td>(pooled) maximum time (in milliseconds) to wait for a connection when maxConnections connections are in use</td><td>30000</td></tr>
  * </table>
  * </p>
  *
@@ -104,9 +109,11 @@ public class FtpListener extends FtpSession implements IPullingListener, INamedO
 	}
 
 	public void open() throws ListenerException {
+		openConnectionPool();
 	}
 
 	public void close() throws ListenerException {
+		closeConnectionPool();
 	}
 
 	public Map openThread() throws ListenerException {
@@ -146,7 +153,6 @@ public class FtpListener extends FtpSession implements IPullingListener, INamedO
 		log.debug("FtpListener [" + getName() + "] in getRawMessage, retrieving contents of directory [" +remoteDirectory+ "]");
 		if (remoteFilenames.isEmpty()) {
 			try {
-				openClient(remoteDirectory);
 				List names = ls(remoteDirectory, true, true);
 				log.debug("FtpListener [" + getName() + "] received ls result of ["+names.size()+"] files");
 				if (names != null && names.size() > 0) {
@@ -156,9 +162,6 @@ public class FtpListener extends FtpSession implements IPullingListener, INamedO
 			catch(Exception e) {
 				throw new ListenerException("Exception retrieving contents of directory [" +remoteDirectory+ "]", e); 
 			}
-			finally {
-				closeClient();
-			}
 		}
 		if (! remoteFilenames.isEmpty()) {
 			Object result = remoteFilenames.removeFirst();
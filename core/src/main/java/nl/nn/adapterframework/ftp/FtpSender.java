@@ -1,5 +1,5 @@
 /*
-   Copyright 2013 Nationale-Nederlanden
+   Copyright 2013, 2018 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -15,6 +15,8 @@
 */
 package nl.nn.adapterframework.ftp;
 
+import java.io.InputStream;
+
 import nl.nn.adapterframework.configuration.ConfigurationException;
 import nl.nn.adapterframework.core.IPipeLineSession;
 import nl.nn.adapterframework.core.SenderException;
@@ -22,6 +24,8 @@ import nl.nn.adapterframework.core.SenderWithParametersBase;
 import nl.nn.adapterframework.core.TimeOutException;
 import nl.nn.adapterframework.parameters.ParameterResolutionContext;
 
+import org.apache.commons.lang.StringUtils;
+
 /**
  * FTP client voor het versturen van files via FTP.
  *
@@ -32,6 +36,7 @@ import nl.nn.adapterframework.parameters.ParameterResolutionContext;
  * <tr><td>{@link #setName(String) name}</td><td>name of the sender</td><td>&nbsp;</td></tr>
  * <tr><td>{@link #setRemoteDirectory(String) directory}</td><td>remote directory in which files have to be uploaded</td><td>&nbsp;</td></tr>
  * <tr><td>{@link #setRemoteFilenamePattern(String) filenamePattern}</td><td>filename pattern for uploaded files</td><td>&nbsp;</td></tr>
+ * <tr><td>{@link #setFileInputStreamSessionKey(String) fileInputStreamSessionKey}</td><td>when set, the contents of the InputStream in this session key are streamed to the remote file, and the name of the remote file is returned</td><td>&nbsp;</td></tr>
  * 
  * <tr><td>{@link #setHost(String) host}</td><td>name or ip adres of remote host</td><td>&nbsp;</td></tr>
  * <tr><td>{@link #setPort(int) port}</td><td>portnumber of remote host</td><td>21</td></tr>
@@ -70,6 +75,11 @@ import nl.nn.adapterframework.parameters.ParameterResolutionContext;
  * <tr><td>{@link #setAllowSelfSignedCertificates(boolean) allowSelfSignedCertificates}</td><td>(FTPS) if true, the server certificate can be self signed</td><td>false</td></tr>
  * <tr><td>{@link #setProtP(boolean) protP}</td><td>(FTPS) if true, the server returns data via another socket</td><td>false</td></tr>
  * <tr><td>{@link #setKeyboardInteractive(boolean) keyboardInteractive}</td><td>when true, KeyboardInteractive is used to login</td><td>false</td></tr>
+ * <tr><td>{@link #setPooled(boolean) pooled}</td><td>when true, connections are kept open and shared by the senders, pipes and listeners that have the same settings for setting up a connection, from host and credentials to fileType, passive, proxy and certificates. The pool settings below are taken from the first one that is opened</td><td>false</td></tr>
+ * <tr><td>{@link #setMaxConnections(int) maxConnections}</td><td>(pooled) maximum number of connections to the host that are used at the same time</td><td>4</td></tr>
+ * <tr><td>{@link #setMaxIdleTime(long) maxIdleTime}</td><td>(pooled) time (in milliseconds) after which an unused connection is closed</td><td>300000</td></tr>
+ * <tr><td>{@link #setKeepAliveInterval(long) keepAliveInterval}</td><td>(pooled) interval (in milliseconds) at which a NOOP is sent over unused connections, to prevent that the server closes them. 0 disables the keep-alive</td><td>60000</td></tr>
+ * <tr><td>{@link #setPoolTimeout(long) poolTimeout}</td><td>(pooled) maximum time (in milliseconds) to wait for a connection when maxConnections connections are in use</td><td>30000</td></tr>
  * </table>
  * </p>
  *  
@@ -81,6 +91,7 @@ public class FtpSender extends SenderWithParametersBase {
 	
 	private String remoteDirectory;
 	private String remoteFilenamePattern=null;
+	private String fileInputStreamSessionKey=null;
 	
 	public FtpSender() {
 		this.ftpSession = new FtpSession();
@@ -91,6 +102,15 @@ public class FtpSender extends SenderWithParametersBase {
 		ftpSession.configure();
 	}
 
+	public void open() throws SenderException {
+		ftpSession.openConnectionPool();
+	}
+
+	public void close() throws SenderException {
+		ftpSession.closeClient();
+		ftpSession.closeConnectionPool();
+	}
+
 	public boolean isSynchronous() {
 		return true;
 	}
@@ -101,6 +121,13 @@ public class FtpSender extends SenderWithParametersBase {
 			if (prc!=null) {
 				session=prc.getSession();
 			}
+			if (StringUtils.isNotEmpty(getFileInputStreamSessionKey())) {
+				Object contents = session==null ? null : session.get(getFileInputStreamSessionKey());
+				if (!(contents instanceof InputStream)) {
+					throw new SenderException("session key ["+getFileInputStreamSessionKey()+"] does not contain an InputStream");
+				}
+				return ftpSession.put(paramList, session, (InputStream)contents, remoteDirectory, remoteFilenamePattern, true);
+			}
 			ftpSession.put(paramList, session, message, remoteDirectory, remoteFilenamePattern, true);
 		} catch(SenderException e) {
 			throw e;
@@ -127,6 +154,13 @@ public class FtpSender extends SenderWithParametersBase {
 		return remoteFilenamePattern;
 	}
 
+	public void setFileInputStreamSessionKey(String string) {
+		fileInputStreamSessionKey = string;
+	}
+	public String getFileInputStreamSessionKey() {
+		return fileInputStreamSessionKey;
+	}
+
 
 	
 
@@ -264,4 +298,20 @@ public class FtpSender extends SenderWithParametersBase {
 	public void setKeyboardInteractive(boolean keyboardInteractive) {
 		ftpSession.setKeyboardInteractive(keyboardInteractive);
 	}
+
+	public void setPooled(boolean pooled) {
+		ftpSession.setPooled(pooled);
+	}
+	public void setMaxConnections(int maxConnections) {
+		ftpSession.setMaxConnections(maxConnections);
+	}
+	public void setMaxIdleTime(long maxIdleTime) {
+		ftpSession.setMaxIdleTime(maxIdleTime);
+	}
+	public void setKeepAliveInterval(long keepAliveInterval) {
+		ftpSession.setKeepAliveInterval(keepAliveInterval);
+	}
+	public void setPoolTimeout(long poolTimeout) {
+		ftpSession.setPoolTimeout(poolTimeout);
+	}
 }
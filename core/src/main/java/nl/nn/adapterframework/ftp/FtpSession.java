@@ -1,5 +1,5 @@
 /*
-   Copyright 2013 Nationale-Nederlanden
+   Copyright 2013, 2018 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -20,12 +20,14 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.security.GeneralSecurityException;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -39,10 +41,8 @@ import nl.nn.adapterframework.util.LogUtil;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.net.ftp.FTPClient;
-import org.apache.commons.net.ftp.FTPReply;
 import org.apache.log4j.Logger;
 
-import com.sshtools.j2ssh.SftpClient;
 import com.sshtools.j2ssh.SshClient;
 import com.sshtools.j2ssh.authentication.AuthenticationProtocolState;
 import com.sshtools.j2ssh.authentication.KBIAuthenticationClient;
@@ -103,6 +103,11 @@ import com.sshtools.j2ssh.transport.publickey.SshPrivateKeyFile;
  * <tr><td>{@link #setAllowSelfSignedCertificates(boolean) allowSelfSignedCertificates}</td><td>(FTPS) if true, the server certificate can be self signed</td><td>false</td></tr>
  * <tr><td>{@link #setProtP(boolean) protP}</td><td>(FTPS) if true, the server returns data via another socket</td><td>false</td></tr>
  * <tr><td>{@link #setKeyboardInteractive(boolean) keyboardInteractive}</td><td>when true, KeyboardInteractive is used to login</td><td>false</td></tr>
+ * <tr><td>{@link #setPooled(boolean) pooled}</td><td>when true, connections are kept open and shared by the senders, pipes and listeners that have the same settings for setting up a connection, from host and credentials to fileType, passive, proxy and certificates. The pool settings below are taken from the first one that is opened</td><td>false</td></tr>
+ * <tr><td>{@link #setMaxConnections(int) maxConnections}</td><td>(pooled) maximum number of connections to the host that are used at the same time</td><td>4</td></tr>
+ * <tr><td>{@link #setMaxIdleTime(long) maxIdleTime}</td><td>(pooled) time (in milliseconds) after which an unused connection is closed. A stream to read a remote file, that is not read from or closed within this time, is closed too</td><td>300000</td></tr>
+ * <tr><td>{@link #setKeepAliveInterval(long) keepAliveInterval}</td><td>(pooled) interval (in milliseconds) at which a NOOP is sent over unused connections, to prevent that the server closes them. 0 disables the keep-alive</td><td>60000</td></tr>
+ * <tr><td>{@link #setPoolTimeout(long) poolTimeout}</td><td>(pooled) maximum time (in milliseconds) to wait for a connection when maxConnections connections are in use</td><td>30000</td></tr>
  * </table>
  * </p>
  * 
@@ -166,10 +171,22 @@ public class FtpSession {
 	
 	
 	
-	// private members
-	private SshClient sshClient;
-	private SftpClient sftpClient;
+	// configuration parameters for pooling
+	private boolean pooled = false;
+	private int maxConnections = 4;
+	private long maxIdleTime = 300000;
+	private long keepAliveInterval = 60000;
+	private long poolTimeout = 30000;
+	
+	/**
+	 * Client of the connection opened by {@link #openClient(String)}, for FTP and FTPS.
+	 * @deprecated connections are managed by the session; this field is <code>null</code> when connections are pooled
+	 */
 	public FTPClient ftpClient;
+
+	// private members
+	private FtpConnection sessionConnection;
+	private FtpConnectionPool connectionPool;
 	
 
 	// configure
@@ -221,21 +238,91 @@ public class FtpSession {
 		
 	}
 
+	/**
+	 * Opens the connection of this session, when it is not open yet, and changes to the remote directory.
+	 * When connections are pooled, operations use a connection from the pool instead.
+	 */
 	public void openClient(String remoteDirectory) throws FtpConnectException {
 		log.debug("Open ftp client");
+		if (sessionConnection == null || !sessionConnection.isConnected()) {
+			sessionConnection = connect();
+			ftpClient = sessionConnection.ftpClient;
+		}
+		try {
+			sessionConnection.changeDirectory(remoteDirectory);
+		}
+		catch(Exception e) {
+			closeClient();
+			throw new FtpConnectException(e);
+		}
+	}
+
+	/**
+	 * Opens the pool of connections shared by the sessions with the same connection settings,
+	 * when <code>pooled</code> is set. Each call must be matched by a call to {@link #closeConnectionPool()}.
+	 */
+	public void openConnectionPool() {
+		if (isPooled() && connectionPool == null) {
+			connectionPool = FtpConnectionPool.open(getConnectionPoolKey(), this, getMaxConnections(), getMaxIdleTime(), getKeepAliveInterval());
+		}
+	}
+
+	/**
+	 * Returns the key of the connection pool, that contains all settings that are used to set up a
+	 * connection, so that only sessions that would set up the same connection share a pool. The key
+	 * contains credentials, and must not be logged.
+	 */
+	List<Object> getConnectionPoolKey() {
+		CredentialFactory usercf = new CredentialFactory(getAuthAlias(), getUsername(), getPassword());
+		CredentialFactory proxycf = new CredentialFactory(getProxyAuthAlias(), getProxyUsername(), getProxyPassword());
+		CredentialFactory privatekeycf = new CredentialFactory(getPrivateKeyAuthAlias(), getUsername(), getPrivateKeyPassword());
+		CredentialFactory certificatecf = new CredentialFactory(getCertificateAuthAlias(), null, getCertificatePassword());
+		CredentialFactory truststorecf = new CredentialFactory(getTruststoreAuthAlias(), null, getTruststorePassword());
+		return Arrays.asList(new Object[] {
+				ftpTypeDescription, host, port, usercf.getUsername(), usercf.getPassword(), fileType, passive, keyboardInteractive,
+				proxyHost, proxyPort, proxycf.getUsername(), proxycf.getPassword(), proxyTransportType,
+				prefCSEncryption, prefSCEncryption, privateKeyFilePath, privatekeycf.getUsername(), privatekeycf.getPassword(), knownHostsPath, consoleKnownHostsVerifier,
+				certificate, certificateType, certificatecf.getPassword(), keyManagerAlgorithm,
+				truststore, truststoreType, truststorecf.getPassword(), trustManagerAlgorithm,
+				jdk13Compatibility, verifyHostname, allowSelfSignedCertificates, protP });
+	}
+
+	public void closeConnectionPool() {
+		if (connectionPool != null) {
+			connectionPool.close();
+			connectionPool = null;
+		}
+	}
+
+	/**
+	 * Returns a new connected and authenticated connection.
+	 */
+	FtpConnection connect() throws FtpConnectException {
 		if (ftpType == SFTP) {
-			if (sftpClient == null || sftpClient.isClosed()) {
-				openSftpClient(remoteDirectory);
-			}
+			return openSftpClient();
 		}
-		else {
-			if (ftpClient == null || ! ftpClient.isConnected()) {
-				openFtpClient(remoteDirectory);
-			}
+		return openFtpClient();
+	}
+
+	private FtpConnection getConnection(String remoteDirectory) throws FtpConnectException {
+		if (connectionPool != null) {
+			return connectionPool.borrow(remoteDirectory, getPoolTimeout());
+		}
+		openClient(remoteDirectory);
+		return sessionConnection;
+	}
+
+	private void releaseConnection(FtpConnection connection, boolean close, boolean succeeded) {
+		if (connectionPool != null) {
+			connectionPool.release(connection, succeeded);
+		}
+		else if (close) {
+			closeClient();
 		}
 	}
 
-	private void openSftpClient(String remoteDirectory) throws FtpConnectException {
+	private FtpConnection openSftpClient() throws FtpConnectException {
+		SshClient sshClient = null;
 		try {
 			// Set the connection properties and if necessary the proxy properties
 			SshConnectionProperties sshProp = new SshConnectionProperties();
@@ -304,19 +391,16 @@ public class FtpSession {
 			int result = sshClient.authenticate(sac);
 			
 			if (result != AuthenticationProtocolState.COMPLETE) {
-				closeSftpClient();
 				throw new IOException("Could not authenticate to sftp server " + result);
 			}
 			
 			// use the connection for sftp
-			sftpClient = sshClient.openSftpClient();
-			
-			if (! StringUtils.isEmpty(remoteDirectory)) {
-				sftpClient.cd(remoteDirectory);
-			}
+			return new FtpConnection(sshClient, sshClient.openSftpClient());
 		}
 		catch(Exception e) {
-			closeSftpClient();
+			if (sshClient != null && sshClient.isConnected()) {
+				sshClient.disconnect();
+			}
 			throw new FtpConnectException(e);
 		}
 	}
@@ -341,16 +425,8 @@ public class FtpSession {
 	}
 
 
-	
-	protected void checkReply(String cmd) throws IOException  {
-		if (!FTPReply.isPositiveCompletion(ftpClient.getReplyCode())) {
-			throw new IOException("Command [" + cmd + "] returned error [" + ftpClient.getReplyCode() + "]: " + ftpClient.getReplyString());
-		} 
-		if (log.isDebugEnabled()) log.debug("Command [" + cmd + "] returned " + ftpClient.getReplyString());
-	}
-	
-
-	private void openFtpClient(String remoteDirectory) throws FtpConnectException {
+	private FtpConnection openFtpClient() throws FtpConnectException {
+		FtpConnection ftpConnection = null;
 		try {
 			// set proxy properties
 			if (! StringUtils.isEmpty(proxyHost)) {
@@ -360,26 +436,25 @@ public class FtpSession {
 			}
 			
 			// connect and logic using normal, non-secure ftp 
-			ftpClient = createFTPClient();
+			FTPClient ftpClient = createFTPClient();
+			ftpConnection = new FtpConnection(ftpClient);
 			ftpClient.connect(host, port);
 			if (isPassive()) {
 				ftpClient.enterLocalPassiveMode();
 			}
 			CredentialFactory usercf = new CredentialFactory(getAuthAlias(), getUsername(), getPassword());
 			ftpClient.login(usercf.getUsername(), usercf.getPassword());
-	
-			if (! StringUtils.isEmpty(remoteDirectory)) {
-				ftpClient.changeWorkingDirectory(remoteDirectory);
-				checkReply("changeWorkingDirectory "+remoteDirectory);
-			}
 			
 			if (StringUtils.isNotEmpty(fileType)) {
 				ftpClient.setFileType(getFileTypeIntValue());
-				checkReply("setFileType "+remoteDirectory);
+				ftpConnection.checkReply("setFileType "+fileType);
 			}
+			return ftpConnection;
 		}
 		catch(Exception e) {
-			closeFtpClient();
+			if (ftpConnection != null) {
+				ftpConnection.close();
+			}
 			throw new FtpConnectException(e);
 		}
 	}
@@ -405,47 +480,29 @@ public class FtpSession {
 
 	public void closeClient() {
 		log.debug("Close ftp client");
-		if (ftpType == SFTP) {
-			closeSftpClient();
-		}
-		else {
-			closeFtpClient();
-		}
-	}
-	
-	private void closeSftpClient() {
-		if (sshClient != null) {
-			if (sshClient.isConnected()) {
-				sshClient.disconnect();
-			}
-			sshClient = null;
-			sftpClient = null;
-		}
-	}
-	
-	private void closeFtpClient() {
-		if (ftpClient != null) {
-			if (ftpClient.isConnected()) {
-				try {
-					ftpClient.quit();
-					log.debug(ftpClient.getReplyString());
-					ftpClient.disconnect();
-				}
-				catch(Exception e) {
-					log.error("Error while closeing FtpClient", e);
-				}
-			}
+		if (sessionConnection != null) {
+			sessionConnection.close();
+			sessionConnection = null;
 			ftpClient = null;
 		}
 	}
 	
 	public String put(ParameterList params, IPipeLineSession session, String message, String remoteDirectory, String remoteFilenamePattern, boolean closeAfterSend) throws Exception {
 		if (messageIsContent) {
-			return _put(params, session, message, remoteDirectory, remoteFilenamePattern, closeAfterSend);
+			return _put(params, session, new ByteArrayInputStream(message.getBytes()), remoteDirectory, remoteFilenamePattern, closeAfterSend);
 		}
 		List remoteFilenames = _put(params, session, FileUtils.getListFromNames(message, ';'), remoteDirectory, remoteFilenamePattern, closeAfterSend);
 		return FileUtils.getNamesFromList(remoteFilenames, ';');	
 	}
+
+	/**
+	 * Transfers the contents of a stream to a file on the server, without buffering it.
+	 * 
+	 * @return name of the create remote file
+	 */
+	public String put(ParameterList params, IPipeLineSession session, InputStream contents, String remoteDirectory, String remoteFilenamePattern, boolean closeAfterSend) throws Exception {
+		return _put(params, session, contents, remoteDirectory, remoteFilenamePattern, closeAfterSend);
+	}
 	
 	/**
 	 * Transfers the contents of a stream to a file on the server.
@@ -457,29 +514,25 @@ public class FtpSession {
 	 * @return name of the create remote file
 	 * @throws Exception
 	 */
-	private String _put(ParameterList params, IPipeLineSession session, String contents, String remoteDirectory, String remoteFilenamePattern, boolean closeAfterSend) throws Exception {
-		openClient(remoteDirectory);
-		
+	private String _put(ParameterList params, IPipeLineSession session, InputStream contents, String remoteDirectory, String remoteFilenamePattern, boolean closeAfterSend) throws Exception {
 		// get remote name
 		String remoteFilename = FileUtils.getFilename(params, session, (File)null, remoteFilenamePattern);
-		
-		// open local file
-		InputStream is = new ByteArrayInputStream(contents.getBytes());
+
+		FtpConnection connection = getConnection(remoteDirectory);
+		boolean succeeded = false;
 		try {  
 			if (ftpType == SFTP) {
-				sftpClient.put(is, remoteFilename);
+				connection.sftpClient.put(contents, remoteFilename);
 			}
 			else {
-				ftpClient.storeFile(remoteFilename, is);
-				checkReply("storeFile "+remoteFilename);
+				connection.ftpClient.storeFile(remoteFilename, contents);
+				connection.checkReply("storeFile "+remoteFilename);
 			}
+			succeeded = true;
 		}
 		finally {
-			is.close();
-
-			if (closeAfterSend) {
-				closeClient();
-			}
+			contents.close();
+			releaseConnection(connection, closeAfterSend, succeeded);
 		}
 		return remoteFilename;
 	}
@@ -493,7 +546,8 @@ public class FtpSession {
 	 * @throws Exception
 	 */
 	private List _put(ParameterList params, IPipeLineSession session, List filenames, String remoteDirectory, String remoteFilenamePattern, boolean closeAfterSend) throws Exception {
-		openClient(remoteDirectory);
+		FtpConnection connection = getConnection(remoteDirectory);
+		boolean succeeded = false;
 		
 		try {
 			LinkedList remoteFilenames = new LinkedList();
@@ -514,11 +568,11 @@ public class FtpSession {
 				FileInputStream fis = new FileInputStream(localFile);
 				try {  
 					if (ftpType == SFTP) {
-						sftpClient.put(fis, remoteFilename);
+						connection.sftpClient.put(fis, remoteFilename);
 					}
 					else {
-						ftpClient.storeFile(remoteFilename, fis);
-						checkReply("storeFile "+remoteFilename);
+						connection.ftpClient.storeFile(remoteFilename, fis);
+						connection.checkReply("storeFile "+remoteFilename);
 					}
 				}
 				finally {
@@ -526,22 +580,23 @@ public class FtpSession {
 				}
 				remoteFilenames.add(remoteFilename);
 			}
+			succeeded = true;
 			return remoteFilenames;
 		}
 		finally {
-			if (closeAfterSend) {
-				closeClient();
-			}
+			releaseConnection(connection, closeAfterSend, succeeded);
 		}
 	}
 
 	public List ls(String remoteDirectory, boolean filesOnly, boolean closeAfterSend) throws Exception {
-		openClient(remoteDirectory);
+		FtpConnection connection = getConnection(remoteDirectory);
+		boolean succeeded = false;
 
 		try {
+			List result;
 			if (ftpType == SFTP) {
-				List result = new LinkedList();
-				List listOfSftpFiles = sftpClient.ls();
+				result = new LinkedList();
+				List listOfSftpFiles = connection.sftpClient.ls();
 				for (Iterator sftpFileIt = listOfSftpFiles.iterator(); sftpFileIt.hasNext();) {
 					SftpFile file = (SftpFile)sftpFileIt.next();
 					String filename = file.getFilename();
@@ -551,14 +606,15 @@ public class FtpSession {
 						}
 					}
 				}
-				return result;
 			}
-			return FileUtils.getListFromNames(ftpClient.listNames());
+			else {
+				result = FileUtils.getListFromNames(connection.ftpClient.listNames());
+			}
+			succeeded = true;
+			return result;
 		}
 		finally {
-			if (closeAfterSend) {
-				closeClient();
-			}
+			releaseConnection(connection, closeAfterSend, succeeded);
 		}
 	}
 	
@@ -574,22 +630,96 @@ public class FtpSession {
 		List result = _get(params, session, localDirectory, remoteDirectory, FileUtils.getListFromNames(filenames, ';'), localFilenamePattern, closeAfterGet);
 		return FileUtils.getNamesFromList(result, ';');	
 	}
+
+	/**
+	 * Returns a stream to read the contents of a remote file. For FTP and FTPS the file is transferred
+	 * while the stream is read; for SFTP it is read in memory first. The transfer is completed and the
+	 * connection is released when the stream is closed or has been read to the end. When connections
+	 * are pooled, a stream that is not read from or closed within <code>maxIdleTime</code> ms is
+	 * considered abandoned and its connection is closed by the pool.
+	 */
+	public InputStream getInputStream(String remoteDirectory, String remoteFilename, final boolean closeAfterGet) throws Exception {
+		final FtpConnection connection = getConnection(remoteDirectory);
+		boolean succeeded = false;
+		try {
+			if (ftpType == SFTP) {
+				ByteArrayOutputStream os = new ByteArrayOutputStream();
+				connection.sftpClient.get(remoteFilename, os);
+				succeeded = true;
+				return new ByteArrayInputStream(os.toByteArray());
+			}
+			InputStream is = connection.ftpClient.retrieveFileStream(remoteFilename);
+			if (is == null) {
+				connection.checkReply("retrieve "+remoteFilename);
+				throw new IOException("Command [retrieve "+remoteFilename+"] did not return a stream");
+			}
+			if (connectionPool != null) {
+				connectionPool.markStreaming(connection);
+			}
+			succeeded = true;
+			return new FilterInputStream(is) {
+				private boolean closed = false;
+
+				public int read() throws IOException {
+					int b = super.read();
+					readDone(b < 0);
+					return b;
+				}
+
+				public int read(byte[] buffer, int offset, int length) throws IOException {
+					int count = super.read(buffer, offset, length);
+					readDone(count < 0);
+					return count;
+				}
+
+				private void readDone(boolean endOfStream) throws IOException {
+					connection.lastUsed = System.currentTimeMillis();
+					if (endOfStream) {
+						close();
+					}
+				}
+
+				public void close() throws IOException {
+					if (closed) {
+						return;
+					}
+					closed = true;
+					boolean completed = false;
+					try {
+						super.close();
+						completed = connection.ftpClient.completePendingCommand();
+						if (!completed) {
+							connection.checkReply("retrieve completion");
+						}
+					}
+					finally {
+						releaseConnection(connection, closeAfterGet, completed);
+					}
+				}
+			};
+		}
+		finally {
+			if (!succeeded || ftpType == SFTP) {
+				releaseConnection(connection, closeAfterGet, succeeded);
+			}
+		}
+	}
 	
 	public void deleteRemote(String remoteDirectory, String filename, boolean closeAfterDelete) throws Exception {
-		openClient(remoteDirectory);
+		FtpConnection connection = getConnection(remoteDirectory);
+		boolean succeeded = false;
 
 		try {
 			if (ftpType == SFTP) {
-				sftpClient.rm(filename);
+				connection.sftpClient.rm(filename);
 			}
 			else {
-				ftpClient.deleteFile(filename);
+				connection.ftpClient.deleteFile(filename);
 			}
+			succeeded = true;
 		}
 		finally {
-			if (closeAfterDelete) {
-				closeClient();
-			}
+			releaseConnection(connection, closeAfterDelete, succeeded);
 		}
 	}
 
@@ -601,7 +731,8 @@ public class FtpSession {
 	 * @throws Exception
 	 */
 	private String _get(String remoteDirectory, List filenames, boolean closeAfterGet) throws Exception {
-		openClient(remoteDirectory);
+		FtpConnection connection = getConnection(remoteDirectory);
+		boolean succeeded = false;
 		
 		try {
 			StringBuffer result = new StringBuffer();
@@ -613,11 +744,11 @@ public class FtpSession {
 
 				try {
 					if (ftpType == SFTP) {
-						sftpClient.get(remoteFilename, os);
+						connection.sftpClient.get(remoteFilename, os);
 					}
 					else {
-						ftpClient.retrieveFile(remoteFilename, os);
-						checkReply("retrieve "+remoteFilename);
+						connection.ftpClient.retrieveFile(remoteFilename, os);
+						connection.checkReply("retrieve "+remoteFilename);
 					}
 				}
 				finally {
@@ -626,12 +757,11 @@ public class FtpSession {
 				
 				result.append(((ByteArrayOutputStream)os).toString());
 			}
+			succeeded = true;
 			return result.toString();
 		}
 		finally {
-			if (closeAfterGet) {
-				closeClient();
-			}
+			releaseConnection(connection, closeAfterGet, succeeded);
 		}
 	}
 	
@@ -643,7 +773,8 @@ public class FtpSession {
 	 * @throws Exception
 	 */
 	private List _get(ParameterList params, IPipeLineSession session, String localDirectory, String remoteDirectory, List filenames, String localFilenamePattern, boolean closeAfterGet) throws Exception {
-		openClient(remoteDirectory);
+		FtpConnection connection = getConnection(remoteDirectory);
+		boolean succeeded = false;
 		
 		try {
 			LinkedList remoteFilenames = new LinkedList();
@@ -659,11 +790,11 @@ public class FtpSession {
 				OutputStream os = new FileOutputStream(localFile,false);
 				try {
 					if (ftpType == SFTP) {
-						sftpClient.get(remoteFilename, os);
+						connection.sftpClient.get(remoteFilename, os);
 					}
 					else {
-						ftpClient.retrieveFile(remoteFilename, os);
-						checkReply("retrieve "+remoteFilename);
+						connection.ftpClient.retrieveFile(remoteFilename, os);
+						connection.checkReply("retrieve "+remoteFilename);
 					}
 				}
 				catch(IOException e) {
@@ -679,12 +810,11 @@ public class FtpSession {
 				
 				remoteFilenames.add(localFile.getAbsolutePath());
 			}
+			succeeded = true;
 			return remoteFilenames;
 		}
 		finally {
-			if (closeAfterGet) {
-				closeClient();
-			}
+			releaseConnection(connection, closeAfterGet, succeeded);
 		}
 	}
 
@@ -970,4 +1100,40 @@ public class FtpSession {
 		this.keyboardInteractive = keyboardInteractive;
 	}
 
+
+	public void setPooled(boolean pooled) {
+		this.pooled = pooled;
+	}
+	public boolean isPooled() {
+		return pooled;
+	}
+
+	public void setMaxConnections(int maxConnections) {
+		this.maxConnections = maxConnections;
+	}
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	public void setMaxIdleTime(long maxIdleTime) {
+		this.maxIdleTime = maxIdleTime;
+	}
+	public long getMaxIdleTime() {
+		return maxIdleTime;
+	}
+
+	public void setKeepAliveInterval(long keepAliveInterval) {
+		this.keepAliveInterval = keepAliveInterval;
+	}
+	public long getKeepAliveInterval() {
+		return keepAliveInterval;
+	}
+
+	public void setPoolTimeout(long poolTimeout) {
+		this.poolTimeout = poolTimeout;
+	}
+	public long getPoolTimeout() {
+		return poolTimeout;
+	}
+
 }
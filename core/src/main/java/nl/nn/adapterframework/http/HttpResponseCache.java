@@ -0,0 +1,352 @@
+/*
+   Copyright 2018 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.http;
+
+import java.util.Date;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletResponse;
+
+import nl.nn.adapterframework.core.SenderException;
+import nl.nn.adapterframework.core.TimeOutException;
+import nl.nn.adapterframework.statistics.StatisticsKeeperIterationHandler;
+import nl.nn.adapterframework.util.LogUtil;
+
+import org.apache.commons.httpclient.util.DateParseException;
+import org.apache.commons.httpclient.util.DateUtil;
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Cache of HTTP responses, bounded in number of entries and in total size of the cached responses.
+ * <p>
+ * Responses are stored as long as the Cache-Control and Expires headers of the response allow.
+ * Responses that are no longer fresh, but carry an ETag or Last-Modified header, are kept to
+ * be revalidated with a conditional request; when the server answers 304 (Not Modified) the
+ * cached response is used again. Identical requests that are executed at the same time are
+ * coalesced: only one of them is sent, the others wait for its response.
+ *
+ * @since   7.0
+ */
+public class HttpResponseCache {
+	protected Logger log = LogUtil.getLogger(this);
+
+	private String name;
+	private int maxEntries;
+	private long maxSize;
+	private long defaultTimeToLiveMillis;
+
+	private ConcurrentHashMap<String, CacheEntry> entries = new ConcurrentHashMap<String, CacheEntry>();
+	private ConcurrentLinkedQueue<CacheEntry> insertionOrder = new ConcurrentLinkedQueue<CacheEntry>();
+	private ConcurrentHashMap<String, Call> inFlight = new ConcurrentHashMap<String, Call>();
+	private AtomicLong size = new AtomicLong();
+
+	private AtomicLong hits = new AtomicLong();
+	private AtomicLong misses = new AtomicLong();
+	private AtomicLong revalidations = new AtomicLong();
+	private AtomicLong notModified = new AtomicLong();
+	private AtomicLong coalesced = new AtomicLong();
+	private AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Executes the request for a key that is not found in the cache, or that must be revalidated.
+	 */
+	public interface Loader {
+		/**
+		 * Executes the request. When <code>stale</code> is not <code>null</code> the request must
+		 * be made conditional on its ETag and Last-Modified values.
+		 */
+		Response load(CacheEntry stale) throws SenderException, TimeOutException;
+	}
+
+	/**
+	 * Result of a request executed by a {@link Loader}, with the response headers that
+	 * determine how long the response can be cached.
+	 */
+	public static class Response {
+		final int statusCode;
+		final String body;
+		final String cacheControl;
+		final String expires;
+		final String date;
+		final String etag;
+		final String lastModified;
+
+		public Response(int statusCode, String body, String cacheControl, String expires, String date, String etag, String lastModified) {
+			this.statusCode = statusCode;
+			this.body = body;
+			this.cacheControl = cacheControl;
+			this.expires = expires;
+			this.date = date;
+			this.etag = etag;
+			this.lastModified = lastModified;
+		}
+	}
+
+	public static class CacheEntry {
+		final String key;
+		final String body;
+		final String etag;
+		final String lastModified;
+		volatile long expires;
+
+		CacheEntry(String key, String body, String etag, String lastModified, long expires) {
+			this.key = key;
+			this.body = body;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.expires = expires;
+		}
+
+		public String getEtag() {
+			return etag;
+		}
+		public String getLastModified() {
+			return lastModified;
+		}
+
+		long getSize() {
+			return key.length() + body.length();
+		}
+	}
+
+	private static class Call {
+		final CountDownLatch done = new CountDownLatch(1);
+		String result;
+		Exception exception;
+	}
+
+	public HttpResponseCache(String name, int maxEntries, long maxSize, long defaultTimeToLiveMillis) {
+		super();
+		this.name = name;
+		this.maxEntries = maxEntries;
+		this.maxSize = maxSize;
+		this.defaultTimeToLiveMillis = defaultTimeToLiveMillis;
+	}
+
+	/**
+	 * Returns the cached response for the key when it is still fresh. Otherwise the request is
+	 * executed by the loader, unless an identical request is already being executed; in that
+	 * case the response of that request is returned.
+	 */
+	public String get(String key, Loader loader) throws SenderException, TimeOutException {
+		CacheEntry entry = entries.get(key);
+		if (entry != null && entry.expires > System.currentTimeMillis()) {
+			hits.incrementAndGet();
+			return entry.body;
+		}
+		Call call = new Call();
+		Call running = inFlight.putIfAbsent(key, call);
+		if (running != null) {
+			coalesced.incrementAndGet();
+			return await(running);
+		}
+		try {
+			call.result = load(key, entry, loader);
+			return call.result;
+		} catch (SenderException e) {
+			call.exception = e;
+			throw e;
+		} catch (TimeOutException e) {
+			call.exception = e;
+			throw e;
+		} catch (RuntimeException e) {
+			call.exception = e;
+			throw e;
+		} finally {
+			inFlight.remove(key, call);
+			call.done.countDown();
+		}
+	}
+
+	private String await(Call call) throws SenderException, TimeOutException {
+		try {
+			call.done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TimeOutException("interrupted while waiting for identical request to complete", e);
+		}
+		if (call.exception instanceof SenderException) {
+			throw (SenderException)call.exception;
+		}
+		if (call.exception instanceof TimeOutException) {
+			throw (TimeOutException)call.exception;
+		}
+		if (call.exception != null) {
+			throw new SenderException("identical request failed", call.exception);
+		}
+		return call.result;
+	}
+
+	private String load(String key, CacheEntry stale, Loader loader) throws SenderException, TimeOutException {
+		if (stale != null) {
+			revalidations.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+		}
+		Response response = loader.load(stale);
+		long now = System.currentTimeMillis();
+		if (stale != null && response.statusCode == HttpServletResponse.SC_NOT_MODIFIED) {
+			notModified.incrementAndGet();
+			stale.expires = getExpires(response, now);
+			return stale.body;
+		}
+		if (response.statusCode == HttpServletResponse.SC_OK) {
+			store(key, response, now);
+		} else if (stale != null) {
+			remove(stale);
+		}
+		return response.body;
+	}
+
+	private void store(String key, Response response, long now) {
+		if (response.body == null || hasDirective(response.cacheControl, "no-store") || hasDirective(response.cacheControl, "private")) {
+			removeKey(key);
+			return;
+		}
+		long expires = getExpires(response, now);
+		if (expires <= now && response.etag == null && response.lastModified == null) {
+			// cannot be used again without a full request
+			removeKey(key);
+			return;
+		}
+		CacheEntry entry = new CacheEntry(key, response.body, response.etag, response.lastModified, expires);
+		if (entry.getSize() > maxSize) {
+			removeKey(key);
+			return;
+		}
+		CacheEntry previous = entries.put(key, entry);
+		if (previous != null) {
+			insertionOrder.remove(previous);
+			size.addAndGet(-previous.getSize());
+		}
+		insertionOrder.offer(entry);
+		size.addAndGet(entry.getSize());
+		evict();
+	}
+
+	private void evict() {
+		CacheEntry eldest;
+		while ((entries.size() > maxEntries || size.get() > maxSize) && (eldest = insertionOrder.peek()) != null) {
+			if (remove(eldest)) {
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+	private void removeKey(String key) {
+		CacheEntry entry = entries.get(key);
+		if (entry != null) {
+			remove(entry);
+		}
+	}
+
+	private boolean remove(CacheEntry entry) {
+		boolean removedFromQueue = insertionOrder.remove(entry);
+		if (entries.remove(entry.key, entry)) {
+			size.addAndGet(-entry.getSize());
+			return true;
+		}
+		return removedFromQueue;
+	}
+
+	/**
+	 * Returns the time until which a response is fresh, according to the Cache-Control directives
+	 * s-maxage, max-age and no-cache, or else to the Expires header, or else to the default time to live.
+	 */
+	protected long getExpires(Response response, long now) {
+		if (hasDirective(response.cacheControl, "no-cache")) {
+			return now;
+		}
+		String maxAge = getDirective(response.cacheControl, "s-maxage");
+		if (maxAge == null) {
+			maxAge = getDirective(response.cacheControl, "max-age");
+		}
+		if (maxAge != null) {
+			try {
+				return now + Long.parseLong(maxAge) * 1000;
+			} catch (NumberFormatException e) {
+				log.warn("cache [" + name + "] ignores invalid max-age [" + maxAge + "]");
+				return now;
+			}
+		}
+		if (StringUtils.isNotEmpty(response.expires)) {
+			try {
+				Date expires = DateUtil.parseDate(response.expires);
+				long serverNow = now;
+				if (StringUtils.isNotEmpty(response.date)) {
+					serverNow = DateUtil.parseDate(response.date).getTime();
+				}
+				// compensate for a difference between the clocks of the server and this host
+				return now + expires.getTime() - serverNow;
+			} catch (DateParseException e) {
+				// an invalid date, like "0", means already expired
+				return now;
+			}
+		}
+		return now + defaultTimeToLiveMillis;
+	}
+
+	private boolean hasDirective(String cacheControl, String directive) {
+		return getDirective(cacheControl, directive) != null;
+	}
+
+	private String getDirective(String cacheControl, String directive) {
+		if (cacheControl == null) {
+			return null;
+		}
+		StringTokenizer st = new StringTokenizer(cacheControl, ",");
+		while (st.hasMoreTokens()) {
+			String token = st.nextToken().trim();
+			int equalsPos = token.indexOf('=');
+			String tokenName = equalsPos < 0 ? token : token.substring(0, equalsPos).trim();
+			if (tokenName.equalsIgnoreCase(directive)) {
+				return equalsPos < 0 ? "" : StringUtils.strip(token.substring(equalsPos + 1).trim(), "\"");
+			}
+		}
+		return null;
+	}
+
+	public void clear() {
+		entries.clear();
+		insertionOrder.clear();
+		size.set(0);
+	}
+
+	public void iterateOverStatistics(StatisticsKeeperIterationHandler hski, Object data) throws SenderException {
+		Object subdata = hski.openGroup(data, name, "responseCache");
+		hski.handleScalar(subdata, "Entries", entries.size());
+		hski.handleScalar(subdata, "Size", size.get());
+		hski.handleScalar(subdata, "Hits", hits.get());
+		hski.handleScalar(subdata, "Misses", misses.get());
+		hski.handleScalar(subdata, "Revalidations", revalidations.get());
+		hski.handleScalar(subdata, "NotModified", notModified.get());
+		hski.handleScalar(subdata, "Coalesced", coalesced.get());
+		hski.handleScalar(subdata, "Evictions", evictions.get());
+		hski.closeGroup(subdata);
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+	public long getMaxSize() {
+		return maxSize;
+	}
+}
@@ -96,6 +96,8 @@ import nl.nn.adapterframework.parameters.Parameter;
 import nl.nn.adapterframework.parameters.ParameterResolutionContext;
 import nl.nn.adapterframework.parameters.ParameterValue;
 import nl.nn.adapterframework.parameters.ParameterValueList;
+import nl.nn.adapterframework.statistics.HasStatistics;
+import nl.nn.adapterframework.statistics.StatisticsKeeperIterationHandler;
 import nl.nn.adapterframework.util.ClassUtils;
 import nl.nn.adapterframework.util.CredentialFactory;
 import nl.nn.adapterframework.util.DomBuilderException;
@@ -162,6 +164,11 @@ import nl.nn.adapterframework.util.XmlUtils;
  * <tr><td>{@link #setMultipartXmlSessionKey(String) multipartXmlSessionKey}</td><td>if set and <code>methodeType=POST</code> and <code>paramsInUrl=false</code>, a multipart/form-data entity is created instead of a request body. For each part element in the session key a part in the multipart entity is created</td><td>&nbsp;</td></tr>
  * <tr><td>{@link #setMtomEnabled(boolean) mtomEnabled}</td><td>when true and <code>methodeType=POST</code> and <code>paramsInUrl=false</code>, MTOM is enabled and requests will be send as multipart/related with type="application/xop+xml". Can be used in combination with <code>multipartXmlSessionKey</code></td><td><code>false</code></td></tr>
  * <tr><td>{@link #setMtomContentTransferEncoding(String) mtomContentTransferEncoding}</td><td>when <code>mtomEnabled=true</code>, content-transfer-encoding of the request (first part)</td><td>JavaMail's default behavior</td></tr>
+ * <tr><td>{@link #setCacheResponses(boolean) cacheResponses}</td><td>when true, successful responses are cached as long as their Cache-Control and Expires headers allow, and identical requests that are executed at the same time are sent only once. Only to be used for requests without side effects, like lookups of reference data. Cannot be combined with the attributes that return the response in another way than as the result of the sender</td><td>false</td></tr>
+ * <tr><td>{@link #setCacheMaxEntries(int) cacheMaxEntries}</td><td>(only used when <code>cacheResponses=true</code>) maximum number of cached responses</td><td>100</td></tr>
+ * <tr><td>{@link #setCacheMaxSize(int) cacheMaxSize}</td><td>(only used when <code>cacheResponses=true</code>) maximum total size, in characters, of the cached responses</td><td>10000000</td></tr>
+ * <tr><td>{@link #setCacheTimeToLive(int) cacheTimeToLive}</td><td>(only used when <code>cacheResponses=true</code>) time in seconds a response is cached when it has no Cache-Control max-age and no Expires header</td><td>0</td></tr>
+ * <tr><td>{@link #setCacheKeyIgnoreParams(String) cacheKeyIgnoreParams}</td><td>(only used when <code>cacheResponses=true</code>) comma separated list of parameters, for instance headers with a unique id per request, that are not part of the key of the cache. The key consists of the method, the url, the values of the other parameters and the message</td><td>&nbsp;</td></tr>
  * </table>
  * </p>
  * <p><b>Parameters:</b></p>
@@ -237,7 +244,7 @@ import nl.nn.adapterframework.util.XmlUtils;
  * @author Gerrit van Brakel
  * @since 4.2c
  */
-public class HttpSender extends TimeoutGuardSenderWithParametersBase implements HasPhysicalDestination {
+public class HttpSender extends TimeoutGuardSenderWithParametersBase implements HasPhysicalDestination, HasStatistics {
 	private ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
 
 	private String url;
@@ -298,6 +305,11 @@ public class HttpSender extends TimeoutGuardSenderWithParametersBase implements
 	private String multipartXmlSessionKey;
 	private boolean mtomEnabled = false;
 	private String mtomContentTransferEncoding=null;
+	private boolean cacheResponses=false;
+	private int cacheMaxEntries=100;
+	private int cacheMaxSize=10000000;
+	private int cacheTimeToLive=0;
+	private String cacheKeyIgnoreParams=null;
 	
 	private TransformerPool transformerPool=null;
 
@@ -313,6 +325,8 @@ public class HttpSender extends TimeoutGuardSenderWithParametersBase implements
 	private AuthSSLProtocolSocketFactoryBase socketfactory =null;
 	
 	private Set parametersToSkip=new HashSet();
+	private HttpResponseCache responseCache=null;
+	private Set<String> cacheKeyIgnoreParamsSet=new HashSet<String>();
 
 
 	protected void addParameterToSkip(Parameter param) {
@@ -468,6 +482,24 @@ public class HttpSender extends TimeoutGuardSenderWithParametersBase implements
 				throw new ConfigurationException(getLogPrefix() + "got error creating transformer from file [" + getStyleSheetName() + "]", te);
 			}
 		}
+
+		if (isCacheResponses()) {
+			if ("PUT".equals(getMethodType()) || "DELETE".equals(getMethodType())) {
+				throw new ConfigurationException(getLogPrefix()+"cacheResponses cannot be set for methodType ["+getMethodType()+"]");
+			}
+			if (isStreamResultToServlet() || isMultipartResponse() || StringUtils.isNotEmpty(getStreamResultToFileNameSessionKey())
+					|| StringUtils.isNotEmpty(getStoreResultAsStreamInSessionKey()) || StringUtils.isNotEmpty(getStoreResultAsByteArrayInSessionKey())
+					|| StringUtils.isNotEmpty(getResultStatusCodeSessionKey()) || StringUtils.isNotEmpty(getMultipartXmlSessionKey())) {
+				throw new ConfigurationException(getLogPrefix()+"cacheResponses can only be used when the response is returned as the result of the sender");
+			}
+			if (StringUtils.isNotEmpty(getCacheKeyIgnoreParams())) {
+				StringTokenizer st = new StringTokenizer(getCacheKeyIgnoreParams(), ",");
+				while (st.hasMoreTokens()) {
+					cacheKeyIgnoreParamsSet.add(st.nextToken().trim());
+				}
+			}
+			responseCache = new HttpResponseCache(getName(), getCacheMaxEntries(), getCacheMaxSize(), getCacheTimeToLive()*1000L);
+		}
 	}
 
 	public void open() throws SenderException {
@@ -492,6 +524,9 @@ public class HttpSender extends TimeoutGuardSenderWithParametersBase implements
 	public void close() {
 		connectionManager.shutdown();
 		connectionManager=null;
+		if (responseCache!=null) {
+			responseCache.clear();
+		}
 		if (transformerPool!=null) {
 			transformerPool.close();
 		}
@@ -1093,7 +1128,37 @@ public class HttpSender extends TimeoutGuardSenderWithParametersBase implements
 		} catch (URIException e) {
 			throw new SenderException(e);
 		}
-		
+
+		if (responseCache!=null) {
+			final HostConfiguration cacheHostconfiguration=hostconfiguration;
+			final HttpMethod cacheHttpmethod=httpmethod;
+			final ParameterResolutionContext cachePrc=prc;
+			return responseCache.get(getCacheKey(uri, message, pvl), new HttpResponseCache.Loader() {
+				public HttpResponseCache.Response load(HttpResponseCache.CacheEntry stale) throws SenderException, TimeOutException {
+					if (stale!=null) {
+						if (stale.getEtag()!=null) {
+							cacheHttpmethod.setRequestHeader("If-None-Match", stale.getEtag());
+						}
+						if (stale.getLastModified()!=null) {
+							cacheHttpmethod.setRequestHeader("If-Modified-Since", stale.getLastModified());
+						}
+					}
+					String result = transformResult(executeMethod(cacheHostconfiguration, cacheHttpmethod, cachePrc, stale!=null));
+					return new HttpResponseCache.Response(cacheHttpmethod.getStatusCode(), result,
+							getResponseHeaderValue(cacheHttpmethod, "Cache-Control"), getResponseHeaderValue(cacheHttpmethod, "Expires"),
+							getResponseHeaderValue(cacheHttpmethod, "Date"), getResponseHeaderValue(cacheHttpmethod, "ETag"),
+							getResponseHeaderValue(cacheHttpmethod, "Last-Modified"));
+				}
+			});
+		}
+		return transformResult(executeMethod(hostconfiguration, httpmethod, prc, false));
+	}
+
+	/**
+	 * Executes the method, and retries it when a HttpException occurs. When <code>conditional</code>
+	 * is true and the server responds with 304 (Not Modified), <code>null</code> is returned.
+	 */
+	protected String executeMethod(HostConfiguration hostconfiguration, HttpMethod httpmethod, ParameterResolutionContext prc, boolean conditional) throws SenderException, TimeOutException {
 		String result = null;
 		int statusCode = -1;
 		int count=getMaxExecuteRetries();
@@ -1104,6 +1169,10 @@ public class HttpSender extends TimeoutGuardSenderWithParametersBase implements
 				statusCode = httpclient.executeMethod(hostconfiguration,httpmethod,httpState);
 				if (log.isDebugEnabled()) log.debug(getLogPrefix()+"executed method");
 				
+				if (conditional && statusCode==HttpServletResponse.SC_NOT_MODIFIED) {
+					if (log.isDebugEnabled()) log.debug(getLogPrefix()+"cached response not modified");
+					break;
+				}
 				if (statusCode!=HttpServletResponse.SC_OK) {
 					StatusLine statusline = httpmethod.getStatusLine();
 					if (statusline!=null) { 
@@ -1154,7 +1223,10 @@ public class HttpSender extends TimeoutGuardSenderWithParametersBase implements
 			}
 			throw new SenderException("Failed to recover from exception");
 		}
-		
+		return result;
+	}
+
+	protected String transformResult(String result) throws SenderException {
 		if (isXhtml() && StringUtils.isNotEmpty(result)) {
 			result = XmlUtils.skipDocTypeDeclaration(result.trim());
 			if (result.startsWith("<html>") || result.startsWith("<html ")) {
@@ -1181,6 +1253,31 @@ public class HttpSender extends TimeoutGuardSenderWithParametersBase implements
 		return result;
 	}
 
+	private String getResponseHeaderValue(HttpMethod httpmethod, String name) {
+		Header header = httpmethod.getResponseHeader(name);
+		return header==null ? null : header.getValue();
+	}
+
+	protected String getCacheKey(URI uri, String message, ParameterValueList pvl) {
+		StringBuilder key = new StringBuilder(getMethodType()).append(' ').append(uri.toString());
+		if (pvl!=null) {
+			for (int i=0; i<pvl.size(); i++) {
+				ParameterValue pv = pvl.getParameterValue(i);
+				String name = pv.getDefinition().getName();
+				if (!cacheKeyIgnoreParamsSet.contains(name)) {
+					key.append('\n').append(name).append('=').append(pv.asStringValue(""));
+				}
+			}
+		}
+		return key.append('\n').append(message).toString();
+	}
+
+	public void iterateOverStatistics(StatisticsKeeperIterationHandler hski, Object data, int action) throws SenderException {
+		if (responseCache!=null) {
+			responseCache.iterateOverStatistics(hski, data);
+		}
+	}
+
 	public String sendMessage(String correlationID, String message) throws SenderException, TimeOutException {
 		return sendMessage(correlationID, message, null);
 	}
@@ -1573,6 +1670,41 @@ public class HttpSender extends TimeoutGuardSenderWithParametersBase implements
 		this.mtomContentTransferEncoding = mtomContentTransferEncoding;
 	}
 	
+	public void setCacheResponses(boolean cacheResponses) {
+		this.cacheResponses = cacheResponses;
+	}
+	public boolean isCacheResponses() {
+		return cacheResponses;
+	}
+
+	public void setCacheMaxEntries(int cacheMaxEntries) {
+		this.cacheMaxEntries = cacheMaxEntries;
+	}
+	public int getCacheMaxEntries() {
+		return cacheMaxEntries;
+	}
+
+	public void setCacheMaxSize(int cacheMaxSize) {
+		this.cacheMaxSize = cacheMaxSize;
+	}
+	public int getCacheMaxSize() {
+		return cacheMaxSize;
+	}
+
+	public void setCacheTimeToLive(int cacheTimeToLive) {
+		this.cacheTimeToLive = cacheTimeToLive;
+	}
+	public int getCacheTimeToLive() {
+		return cacheTimeToLive;
+	}
+
+	public void setCacheKeyIgnoreParams(String cacheKeyIgnoreParams) {
+		this.cacheKeyIgnoreParams = cacheKeyIgnoreParams;
+	}
+	public String getCacheKeyIgnoreParams() {
+		return cacheKeyIgnoreParams;
+	}
+
 	public class MyMimeMultipart extends MimeMultipart {
 		private String boundary;
 		
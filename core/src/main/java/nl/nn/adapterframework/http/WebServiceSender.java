@@ -26,6 +26,7 @@ import nl.nn.adapterframework.core.SenderException;
 import nl.nn.adapterframework.parameters.Parameter;
 import nl.nn.adapterframework.parameters.ParameterResolutionContext;
 import nl.nn.adapterframework.parameters.ParameterValueList;
+import nl.nn.adapterframework.soap.SoapEnvelopeParts;
 import nl.nn.adapterframework.soap.SoapWrapper;
 import nl.nn.adapterframework.util.CredentialFactory;
 import nl.nn.adapterframework.util.Misc;
@@ -192,18 +193,22 @@ public class WebServiceSender extends HttpSender {
 			throw e;
 		}
 		
-		if (isThrowApplicationFaults()) {
-			soapWrapper.checkForSoapFault(httpResult, null);
+		if (!isSoap()) {
+			if (isThrowApplicationFaults()) {
+				soapWrapper.checkForSoapFault(httpResult, null);
+			}
+			return httpResult;
 		}
+		SoapEnvelopeParts envelope;
 		try {
-			if (isSoap()) {
-				return soapWrapper.getBody(httpResult);
-			} else {
-				return httpResult;
-			}
+			envelope = soapWrapper.parseEnvelope(httpResult);
 		} catch (Exception e) {
 			throw new SenderException("cannot retrieve result message",e);
 		}
+		if (isThrowApplicationFaults()) {
+			soapWrapper.checkForSoapFault(envelope, null);
+		}
+		return envelope.getBody();
 	}
 
 
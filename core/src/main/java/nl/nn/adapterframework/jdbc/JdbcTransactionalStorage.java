@@ -45,6 +45,8 @@ import nl.nn.adapterframework.core.ITransactionalStorage;
 import nl.nn.adapterframework.core.ListenerException;
 import nl.nn.adapterframework.core.SenderException;
 import nl.nn.adapterframework.jdbc.dbms.IDbmsSupport;
+import nl.nn.adapterframework.statistics.MessageTrace;
+import nl.nn.adapterframework.statistics.MessageTracer;
 import nl.nn.adapterframework.util.AppConstants;
 import nl.nn.adapterframework.util.ClassUtils;
 import nl.nn.adapterframework.util.JdbcUtil;
@@ -913,6 +915,15 @@ public class JdbcTransactionalStorage extends JdbcFacade implements ITransaction
 	}
 	
 	public String storeMessage(String messageId, String correlationId, Date receivedDate, String comments, String label, Serializable message) throws SenderException {
+		MessageTrace.Span span = MessageTracer.startSpan(MessageTrace.KIND_STORAGE, getName());
+		try {
+			return storeMessageInTransaction(messageId, correlationId, receivedDate, comments, label, message);
+		} finally {
+			MessageTracer.endSpan(span);
+		}
+	}
+
+	private String storeMessageInTransaction(String messageId, String correlationId, Date receivedDate, String comments, String label, Serializable message) throws SenderException {
 		TransactionStatus txStatus=null;
 		if (txManager!=null) {
 			txStatus = txManager.getTransaction(TXREQUIRED);
@@ -1,5 +1,5 @@
 /*
-   Copyright 2015 Nationale-Nederlanden
+   Copyright 2015, 2018 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -16,6 +16,7 @@
 package nl.nn.adapterframework.jdbc;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
@@ -23,6 +24,8 @@ import java.util.StringTokenizer;
 import nl.nn.adapterframework.configuration.ConfigurationException;
 import nl.nn.adapterframework.core.ListenerException;
 import nl.nn.adapterframework.receivers.MessageWrapper;
+import nl.nn.adapterframework.receivers.PollSignal;
+import nl.nn.adapterframework.receivers.PollSignalAware;
 import nl.nn.adapterframework.receivers.ReceiverBase;
 
 import org.apache.commons.lang.text.StrTokenizer;
@@ -54,6 +57,12 @@ import org.apache.commons.lang.text.StrTokenizer;
 		/>
  * </pre></code>
  * 
+ * When a {@link MessageStoreSender} with the same slotId in the same JVM has committed a
+ * message, it signals this listener to poll right away, so that the message is not picked up
+ * only after the pollInterval of the receiver. Messages stored by other instances are still
+ * found by polling; set minPollInterval on the receiver to poll more often after a message has
+ * been received.
+ * 
  * <p><b>Configuration:</b>
  * <table border="1">
  * <tr><th>attributes</th><th>description</th><th>default</th></tr>
@@ -66,11 +75,14 @@ import org.apache.commons.lang.text.StrTokenizer;
  * 
  * @author Jaco de Groot
  */
-public class MessageStoreListener extends JdbcQueryListener {
+public class MessageStoreListener extends JdbcQueryListener implements PollSignalAware {
 	private String slotId;
 	private String sessionKeys = null;
 	private List<String> sessionKeysList;
 	private boolean moveToMessageLog = true;
+	private PollSignal pollSignal;
+
+	private static Map<String, List<PollSignal>> registeredPollSignals = new HashMap<String, List<PollSignal>>();
 
 	public void configure() throws ConfigurationException {
 		if (sessionKeys != null) {
@@ -100,6 +112,53 @@ public class MessageStoreListener extends JdbcQueryListener {
 		super.configure();
 	}
 
+	@Override
+	public void open() throws ListenerException {
+		super.open();
+		if (pollSignal != null) {
+			registerPollSignal(slotId, pollSignal);
+		}
+	}
+
+	@Override
+	public void close() {
+		if (pollSignal != null) {
+			unregisterPollSignal(slotId, pollSignal);
+		}
+		super.close();
+	}
+
+	private static synchronized void registerPollSignal(String slotId, PollSignal pollSignal) {
+		List<PollSignal> pollSignals = registeredPollSignals.get(slotId);
+		if (pollSignals == null) {
+			pollSignals = new ArrayList<PollSignal>();
+			registeredPollSignals.put(slotId, pollSignals);
+		}
+		pollSignals.add(pollSignal);
+	}
+
+	private static synchronized void unregisterPollSignal(String slotId, PollSignal pollSignal) {
+		List<PollSignal> pollSignals = registeredPollSignals.get(slotId);
+		if (pollSignals != null) {
+			pollSignals.remove(pollSignal);
+			if (pollSignals.isEmpty()) {
+				registeredPollSignals.remove(slotId);
+			}
+		}
+	}
+
+	/**
+	 * Signals the listeners with the given slotId in this JVM that a message has been stored.
+	 */
+	static synchronized void signalMessageStored(String slotId) {
+		List<PollSignal> pollSignals = registeredPollSignals.get(slotId);
+		if (pollSignals != null) {
+			for (PollSignal pollSignal : pollSignals) {
+				pollSignal.signal();
+			}
+		}
+	}
+
 	@Override
 	public Object getRawMessage(Map threadContext) throws ListenerException {
 		Object rawMessage = super.getRawMessage(threadContext);
@@ -116,6 +175,10 @@ public class MessageStoreListener extends JdbcQueryListener {
 		return rawMessage;
 	}
 
+	public void setPollSignal(PollSignal pollSignal) {
+		this.pollSignal = pollSignal;
+	}
+
 	public void setSlotId(String slotId) {
 		this.slotId = slotId;
 	}
@@ -1,5 +1,5 @@
 /*
-   Copyright 2015 Nationale-Nederlanden
+   Copyright 2015, 2018 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -22,6 +22,8 @@ import java.util.StringTokenizer;
 
 import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.lang.text.StrBuilder;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import nl.nn.adapterframework.configuration.ConfigurationException;
 import nl.nn.adapterframework.core.ISenderWithParameters;
@@ -145,7 +147,26 @@ public class MessageStoreSender extends JdbcTransactionalStorage implements ISen
 				throw new SenderException("Could not resolve parameter messageId", e);
 			}
 		}
-		return storeMessage(messageId, correlationID, new Date(), null, null, message);
+		String result = storeMessage(messageId, correlationID, new Date(), null, null, message);
+		signalListeners();
+		return result;
+	}
+
+	/**
+	 * Signals the {@link MessageStoreListener}s in this JVM with the same slotId to poll right away,
+	 * after the transaction in which the message was stored has been committed.
+	 */
+	private void signalListeners() {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					MessageStoreListener.signalMessageStored(getSlotId());
+				}
+			});
+		} else {
+			MessageStoreListener.signalMessageStored(getSlotId());
+		}
 	}
 
 	public void setSessionKeys(String sessionKeys) {
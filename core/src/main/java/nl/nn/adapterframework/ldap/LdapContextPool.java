@@ -0,0 +1,225 @@
+/*
+   Copyright 2018 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.ldap;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.CommunicationException;
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.LdapContext;
+
+import nl.nn.adapterframework.util.LogUtil;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Pool of bound LDAP contexts of a {@link LdapSender}, for the principal of the sender and the principals
+ * that are set by parameters.
+ * <p>
+ * At most <code>maxConnections</code> contexts are open at the same time; when a context is needed for a
+ * principal that has no idle context, the least recently used idle context of another principal is closed.
+ * Idle contexts are closed when they have not been used for <code>maxIdleTime</code> ms.
+ * <p>
+ * The contexts that are handed out are returned to the pool by closing them, so that the code that uses
+ * them does not change. A context on which a {@link CommunicationException} or {@link ServiceUnavailableException}
+ * occurred is closed instead of returned.
+ *
+ * @since   7.0
+ */
+class LdapContextPool {
+	protected Logger log = LogUtil.getLogger(this);
+
+	private int maxConnections;
+	private long maxIdleTime;
+
+	private Semaphore permits;
+	private LinkedList<PooledContext> idle = new LinkedList<PooledContext>();
+	private boolean closed = false;
+
+	private class PooledContext implements InvocationHandler {
+		private String key;
+		private LdapContext context;
+		private LdapContext proxy;
+		private long lastUsed;
+		private boolean inUse;
+		private boolean broken;
+
+		private PooledContext(String key, LdapContext context) {
+			this.key = key;
+			this.context = context;
+			proxy = (LdapContext)Proxy.newProxyInstance(LdapContext.class.getClassLoader(), new Class[] { LdapContext.class }, this);
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (method.getName().equals("close") && method.getParameterTypes().length == 0) {
+				release(this);
+				return null;
+			}
+			try {
+				return method.invoke(context, args);
+			} catch (InvocationTargetException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof CommunicationException || cause instanceof ServiceUnavailableException) {
+					broken = true;
+				}
+				throw cause;
+			}
+		}
+	}
+
+	LdapContextPool(int maxConnections, long maxIdleTime) {
+		super();
+		this.maxConnections = Math.max(maxConnections, 1);
+		this.maxIdleTime = maxIdleTime;
+		permits = new Semaphore(this.maxConnections, true);
+	}
+
+	/**
+	 * Returns a context bound with the principal and credentials of the environment, waiting at most
+	 * <code>maxWait</code> ms when <code>maxConnections</code> contexts are in use. The context must be
+	 * closed to return it to the pool.
+	 */
+	LdapContext borrow(Hashtable env, long maxWait) throws NamingException {
+		try {
+			if (!permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS)) {
+				throw new ServiceUnavailableException("no LDAP connection available within ["+maxWait+"] ms");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ServiceUnavailableException("interrupted while waiting for LDAP connection");
+		}
+		try {
+			String key = getKey(env);
+			PooledContext pooledContext = takeIdle(key);
+			if (pooledContext == null) {
+				pooledContext = new PooledContext(key, new InitialLdapContext(env, null));
+			}
+			pooledContext.inUse = true;
+			return pooledContext.proxy;
+		} catch (NamingException e) {
+			permits.release();
+			throw e;
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	private String getKey(Hashtable env) {
+		return env.get(Context.SECURITY_PRINCIPAL) + "|" + env.get(Context.SECURITY_CREDENTIALS);
+	}
+
+	private void release(PooledContext pooledContext) {
+		synchronized (pooledContext) {
+			if (!pooledContext.inUse) {
+				return;
+			}
+			pooledContext.inUse = false;
+		}
+		try {
+			if (!pooledContext.broken) {
+				pooledContext.lastUsed = System.currentTimeMillis();
+				synchronized (this) {
+					if (!closed) {
+						idle.addFirst(pooledContext);
+						return;
+					}
+				}
+			}
+			closeContext(pooledContext);
+		} finally {
+			permits.release();
+		}
+	}
+
+	private PooledContext takeIdle(String key) {
+		PooledContext result = null;
+		PooledContext evicted = null;
+		synchronized (this) {
+			long now = System.currentTimeMillis();
+			// the least recently used contexts are at the end of the list
+			for (Iterator<PooledContext> it = idle.descendingIterator(); it.hasNext();) {
+				PooledContext pooledContext = it.next();
+				if (now - pooledContext.lastUsed <= maxIdleTime) {
+					break;
+				}
+				it.remove();
+				closeContext(pooledContext);
+			}
+			for (Iterator<PooledContext> it = idle.iterator(); it.hasNext();) {
+				PooledContext pooledContext = it.next();
+				if (StringUtils.equals(key, pooledContext.key)) {
+					it.remove();
+					result = pooledContext;
+					break;
+				}
+			}
+			// a new context is created, close an idle context of another principal to stay within maxConnections
+			if (result == null && idle.size() + maxConnections - permits.availablePermits() > maxConnections) {
+				evicted = idle.removeLast();
+			}
+		}
+		if (evicted != null) {
+			closeContext(evicted);
+		}
+		return result;
+	}
+
+	/**
+	 * Closes the idle contexts. Contexts that are in use are closed when they are returned.
+	 */
+	synchronized void close() {
+		closed = true;
+		for (PooledContext pooledContext : idle) {
+			closeContext(pooledContext);
+		}
+		idle.clear();
+	}
+
+	/**
+	 * Opens the pool again after {@link #close()}.
+	 */
+	synchronized void open() {
+		closed = false;
+	}
+
+	private void closeContext(PooledContext pooledContext) {
+		try {
+			pooledContext.context.close();
+		} catch (NamingException e) {
+			log.warn("exception closing LDAP context", e);
+		}
+	}
+
+	synchronized int getIdleCount() {
+		return idle.size();
+	}
+	int getAvailablePermits() {
+		return permits.availablePermits();
+	}
+}
@@ -1,5 +1,5 @@
 /*
-   Copyright 2013 Nationale-Nederlanden
+   Copyright 2013, 2018 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -15,8 +15,12 @@
 */
 package nl.nn.adapterframework.ldap;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.Hashtable;
@@ -33,10 +37,14 @@ import javax.naming.directory.Attributes;
 import javax.naming.directory.BasicAttribute;
 import javax.naming.directory.BasicAttributes;
 import javax.naming.directory.DirContext;
-import javax.naming.directory.InitialDirContext;
 import javax.naming.directory.ModificationItem;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
 
 import org.apache.commons.digester.Digester;
 import org.apache.commons.lang.StringUtils;
@@ -51,7 +59,11 @@ import nl.nn.adapterframework.jms.JNDIBase;
 import nl.nn.adapterframework.parameters.Parameter;
 import nl.nn.adapterframework.parameters.ParameterList;
 import nl.nn.adapterframework.parameters.ParameterResolutionContext;
+import nl.nn.adapterframework.statistics.HasStatistics;
+import nl.nn.adapterframework.statistics.StatisticsKeeper;
+import nl.nn.adapterframework.statistics.StatisticsKeeperIterationHandler;
 import nl.nn.adapterframework.util.ClassUtils;
+import nl.nn.adapterframework.util.StreamUtil;
 import nl.nn.adapterframework.util.XmlBuilder;
 
 /**
@@ -82,7 +94,12 @@ import nl.nn.adapterframework.util.XmlBuilder;
  * <tr><td>{@link #setManipulationSubject(String) manipulationSubject}</td><td>specifies subject to perform operation on. Must be one of 'entry' or 'attribute'</td><td>attribute</td></tr>
  * <tr><td>{@link #setErrorSessionKey(String) errorSessionKey}</td><td>key of session variable used to store cause of errors</td><td>errorReason</td></tr>
  * <tr><td>{@link #setSearchTimeout(int) searchTimeout}</td><td>specifies the time (in ms) that is spent searching for results for operation Search</td><td>20000 ms</td></tr>
- * <tr><td>{@link #setUsePooling(boolean) usePooling}</td><td>specifies whether connection pooling is used or not</td><td>true when principal not set as parameter, false otherwise</td></tr>
+ * <tr><td>{@link #setUsePooling(boolean) usePooling}</td><td>specifies whether connection pooling of the JNDI LDAP provider is used or not (only used when <code>maxConnections=0</code>). The pool sizes of that provider can only be set JVM-wide, by the system properties <code>com.sun.jndi.ldap.connect.pool.*</code></td><td>true when principal not set as parameter, false otherwise</td></tr>
+ * <tr><td>{@link #setMaxConnections(int) maxConnections}</td><td>when set, bound contexts are kept in a pool of this sender, for the principal of the sender and for the principals set by parameters, with at most this number of connections open at the same time. Operation <code>challenge</code> never uses the pool</td><td>0</td></tr>
+ * <tr><td>{@link #setMaxIdleTime(long) maxIdleTime}</td><td>(only used when <code>maxConnections&gt;0</code>) time in ms after which a connection that is not used is closed</td><td>300000</td></tr>
+ * <tr><td>{@link #setPoolTimeout(long) poolTimeout}</td><td>(only used when <code>maxConnections&gt;0</code>) maximum time in ms to wait for a connection when <code>maxConnections</code> connections are in use</td><td>20000</td></tr>
+ * <tr><td>{@link #setPageSize(int) pageSize}</td><td>(only used when <code>operation=search/deepSearch</code>) when set, the search uses the paged results control (RFC 2696) to fetch the entries in pages of this size, which avoids the size limit of the server and the delay of large results</td><td>0</td></tr>
+ * <tr><td>{@link #setResultStreamSessionKey(String) resultStreamSessionKey}</td><td>(only used when <code>operation=search/deepSearch</code>) key of session variable that contains the OutputStream, Writer or filename to write the entries to as they arrive, instead of returning them. The result is then '&lt;LdapResult&gt;Success&lt;/LdapResult&gt;'</td><td>&nbsp;</td></tr>
  * <tr><td>{@link #setInitialContextFactoryName(String) initialContextFactoryName}</td><td>class to use as initial context factory</td><td>com.sun.jndi.ldap.LdapCtxFactory</td></tr>
  * <tr><td>{@link #setAttributesToReturn(String) attributesToReturn}</td>  <td>comma separated list of attributes to return. when no are attributes specified, all the attributes from the object read are returned.</td><td><i>all attributes</i></td></tr>
  * <tr><td>{@link #setMaxEntriesReturned(int) maxEntriesReturned}</td>  <td>The maximum number of entries to be returned by a search query, or 0 for unlimited</td><td><i>0 (unlimited)</i></td></tr>
@@ -270,7 +287,7 @@ import nl.nn.adapterframework.util.XmlBuilder;
  * @author Gerrit van Brakel
  * @author Jaco de Groot
  */
-public class LdapSender extends JNDIBase implements ISenderWithParameters {
+public class LdapSender extends JNDIBase implements ISenderWithParameters, HasStatistics {
 
 	private String FILTER = "filterExpression";
 	private String ENTRYNAME = "entryName";
@@ -320,10 +337,42 @@ public class LdapSender extends JNDIBase implements ISenderWithParameters {
 	private int maxEntriesReturned=0;
 	private boolean unicodePwd = false;
 	private boolean replyNotFound = false;
+	private int maxConnections = 0;
+	private long maxIdleTime = 300000;
+	private long poolTimeout = 20000;
+	private int pageSize = 0;
+	private String resultStreamSessionKey;
 
 	protected ParameterList paramList = null;
 	private boolean principalParameterFound = false;
 	private Hashtable jndiEnv=null;
+	private LdapContextPool contextPool;
+	private StatisticsKeeper searchStatistics = new StatisticsKeeper("search");
+
+	/**
+	 * Receives the entries of a search as they arrive, to add them to the result or to write them to a stream.
+	 */
+	private class SearchResultCollector {
+		private XmlBuilder entriesElem;
+		private Writer writer;
+		private int count = 0;
+
+		SearchResultCollector(XmlBuilder entriesElem) {
+			this.entriesElem = entriesElem;
+		}
+		SearchResultCollector(Writer writer) {
+			this.writer = writer;
+		}
+
+		void add(XmlBuilder entryElem) throws IOException {
+			if (writer != null) {
+				writer.write(entryElem.toXML());
+			} else {
+				entriesElem.addSubElement(entryElem);
+			}
+			count++;
+		}
+	}
 
 	public LdapSender() {
 		super();
@@ -378,6 +427,12 @@ public class LdapSender extends JNDIBase implements ISenderWithParameters {
 			if (paramList.findParameter("principal") == null)
 				throw new ConfigurationException("principal should be specified using a parameter when using operation challenge");
 		}
+		if (getPageSize() < 0) {
+			throw new ConfigurationException("pageSize cannot be negative");
+		}
+		if (getMaxConnections() > 0) {
+			contextPool = new LdapContextPool(getMaxConnections(), getMaxIdleTime());
+		}
 		Parameter credentials = paramList.findParameter("credentials");
 		if (credentials != null && !credentials.isHidden()) {
 			ConfigurationWarnings configWarnings = ConfigurationWarnings.getInstance();
@@ -492,6 +547,17 @@ public class LdapSender extends JNDIBase implements ISenderWithParameters {
 
 	@Override
 	public void open() throws SenderException {
+		if (contextPool != null) {
+			contextPool.open();
+		}
+	}
+
+	@Override
+	public void close() {
+		if (contextPool != null) {
+			contextPool.close();
+		}
+		super.close();
 	}
 
 
@@ -500,6 +566,11 @@ public class LdapSender extends JNDIBase implements ISenderWithParameters {
 		return true;
 	}
 
+	@Override
+	public void iterateOverStatistics(StatisticsKeeperIterationHandler hski, Object data, int action) throws SenderException {
+		hski.handleStatisticsKeeper(data, searchStatistics);
+	}
+
 	/*
 	 * Uses <code>Parameters2NameHelper</code> to create a CompositeName from parameter 
 	 */
@@ -862,9 +933,19 @@ public class LdapSender extends JNDIBase implements ISenderWithParameters {
 													 getAttributesReturnedParameter(), false, false);
 //		attrs = parseAttributesFromMessage(message);
 		DirContext dirContext = null;
+		long start = System.currentTimeMillis();
 		try {
 			dirContext = getDirContext(paramValueMap);
-			return searchResultsToXml( dirContext.search(entryName, filterExpression, controls) ).toXML();
+			if (StringUtils.isNotEmpty(getResultStreamSessionKey())) {
+				Object target = prc.getSession().get(getResultStreamSessionKey());
+				streamSearchResults(dirContext, entryName, filterExpression, controls, target);
+				return DEFAULT_RESULT;
+			}
+			XmlBuilder entriesElem = new XmlBuilder("entries");
+			search(dirContext, entryName, filterExpression, controls, new SearchResultCollector(entriesElem));
+			return entriesElem.toXML();
+		} catch (IOException e) {
+			throw new SenderException("Exception writing search results using filter ["+filterExpression+"] to session key ["+getResultStreamSessionKey()+"]", e);
 		} catch (NamingException e) {
 			if (isReplyNotFound() && e.getMessage().equals("Unprocessed Continuation Reference(s)")) {
 				if (log.isDebugEnabled()) log.debug("Searching object not found using filter[" + filterExpression + "]");
@@ -875,6 +956,71 @@ public class LdapSender extends JNDIBase implements ISenderWithParameters {
 			}
 		} finally {
 			closeDirContext(dirContext);
+			synchronized (searchStatistics) {
+				searchStatistics.addValue(System.currentTimeMillis() - start);
+			}
+		}
+	}
+
+	/**
+	 * Searches and hands the entries to the collector as they arrive. When <code>pageSize</code> is set, the
+	 * entries are fetched page by page with the paged results control.
+	 */
+	private void search(DirContext dirContext, String entryName, String filterExpression, SearchControls controls, SearchResultCollector collector) throws NamingException, IOException {
+		if (getPageSize() == 0) {
+			collectSearchResults(dirContext.search(entryName, filterExpression, controls), collector);
+			return;
+		}
+		LdapContext ldapContext = (LdapContext)dirContext;
+		try {
+			byte[] cookie = null;
+			do {
+				ldapContext.setRequestControls(new Control[] { new PagedResultsControl(getPageSize(), cookie, Control.CRITICAL) });
+				if (!collectSearchResults(ldapContext.search(entryName, filterExpression, controls), collector)) {
+					break;
+				}
+				cookie = null;
+				Control[] responseControls = ldapContext.getResponseControls();
+				if (responseControls != null) {
+					for (int i = 0; i < responseControls.length; i++) {
+						if (responseControls[i] instanceof PagedResultsResponseControl) {
+							cookie = ((PagedResultsResponseControl)responseControls[i]).getCookie();
+						}
+					}
+				}
+				if (log.isDebugEnabled()) log.debug("received page of search results, [" + collector.count + "] entries up to now");
+			} while (cookie != null && cookie.length > 0);
+		} finally {
+			// a pooled context is used again for other operations
+			ldapContext.setRequestControls(null);
+		}
+	}
+
+	/**
+	 * Writes the entries of the search to the OutputStream, Writer or file that is the target.
+	 */
+	private void streamSearchResults(DirContext dirContext, String entryName, String filterExpression, SearchControls controls, Object target) throws NamingException, IOException {
+		if (target == null) {
+			throw new IOException("no OutputStream, Writer or filename found in session key [" + getResultStreamSessionKey() + "]");
+		}
+		Writer writer = StreamUtil.getWriter(target);
+		if (writer == null) {
+			OutputStream outputStream = StreamUtil.getOutputStream(target);
+			if (outputStream == null) {
+				throw new IOException("cannot stream search results to [" + target.getClass().getName() + "]");
+			}
+			writer = new OutputStreamWriter(outputStream, StreamUtil.DEFAULT_INPUT_STREAM_ENCODING);
+		}
+		try {
+			writer.write("<entries>");
+			search(dirContext, entryName, filterExpression, controls, new SearchResultCollector(writer));
+			writer.write("</entries>");
+		} finally {
+			if (target instanceof String) {
+				writer.close();
+			} else {
+				writer.flush();
+			}
 		}
 	}
 
@@ -1173,8 +1319,15 @@ public class LdapSender extends JNDIBase implements ISenderWithParameters {
 	 * @throws ParameterException 
 	 * 
 	 */
-	protected synchronized DirContext loopkupDirContext(Map paramValueMap) throws NamingException, ParameterException {
-		DirContext dirContext;
+	protected DirContext loopkupDirContext(Map paramValueMap) throws NamingException, ParameterException {
+		return new InitialLdapContext(getLdapEnv(paramValueMap), null);
+//		return (DirContext) dirContextTemplate.lookup(""); 	// return copy to be thread-safe
+	}
+
+	/**
+	 * Returns the JNDI environment, with the principal and credentials from the parameters when they are set.
+	 */
+	private synchronized Hashtable getLdapEnv(Map paramValueMap) throws NamingException {
 		if (jndiEnv==null) {
 			Hashtable newJndiEnv = getJndiEnv();
 			//newJndiEnv.put("com.sun.jndi.ldap.trace.ber", System.err);//ldap response in log for debug purposes
@@ -1186,7 +1339,7 @@ public class LdapSender extends JNDIBase implements ISenderWithParameters {
 				newJndiEnv.put(Context.SECURITY_PRINCIPAL, paramValueMap.get("principal"));
 				newJndiEnv.put(Context.SECURITY_CREDENTIALS, paramValueMap.get("credentials"));
 			}
-			if (isUsePooling()) {
+			if (isUsePooling() && contextPool==null) {
 				// Enable connection pooling
 				newJndiEnv.put("com.sun.jndi.ldap.connect.pool", "true");
 				//see http://java.sun.com/products/jndi/tutorial/ldap/connect/config.html 
@@ -1198,19 +1351,19 @@ public class LdapSender extends JNDIBase implements ISenderWithParameters {
 				newJndiEnv.put("com.sun.jndi.ldap.connect.pool", "false");
 			}
 			if (log.isDebugEnabled()) log.debug("created environment for LDAP provider URL [" + newJndiEnv.get("java.naming.provider.url") + "]");
-			dirContext = new InitialDirContext(newJndiEnv);
 			if (!principalParameterFound) {
 				jndiEnv = newJndiEnv;
 			}
-		} else {
-			dirContext = new InitialDirContext(jndiEnv);
+			return newJndiEnv;
 		}
-		return dirContext;
-//		return (DirContext) dirContextTemplate.lookup(""); 	// return copy to be thread-safe
+		return jndiEnv;
 	}
 
 	protected DirContext getDirContext(Map paramValueMap) throws SenderException, ParameterException {
 		try {
+			if (contextPool != null) {
+				return contextPool.borrow(getLdapEnv(paramValueMap), getPoolTimeout());
+			}
 			return loopkupDirContext(paramValueMap);
 		} catch (NamingException e) {
 			throw new SenderException("cannot create InitialDirContext for ldapProviderURL ["+ getLdapProviderURL()	+ "]",e);
@@ -1284,22 +1437,26 @@ public class LdapSender extends JNDIBase implements ISenderWithParameters {
 		return attributesElem;
 	}
 
-	private XmlBuilder searchResultsToXml(NamingEnumeration entries)
-		throws NamingException {
+	/**
+	 * Hands the entries to the collector, and returns <code>false</code> when <code>maxEntriesReturned</code> is reached.
+	 */
+	private boolean collectSearchResults(NamingEnumeration entries, SearchResultCollector collector)
+		throws NamingException, IOException {
 		
-		XmlBuilder entriesElem = new XmlBuilder("entries");
-		int row=0;
-		while ((getMaxEntriesReturned()==0 || row<getMaxEntriesReturned()) && entries.hasMore()) {
+		while (getMaxEntriesReturned()==0 || collector.count<getMaxEntriesReturned()) {
+			if (!entries.hasMore()) {
+				return true;
+			}
 			SearchResult searchResult = (SearchResult) entries.next();
 			XmlBuilder entryElem = new XmlBuilder("entry");
 			 
 			entryElem.addAttribute("name", searchResult.getName());
 			entryElem.addSubElement(attributesToXml(searchResult.getAttributes()));
 			
-			entriesElem.addSubElement(entryElem);
-			row++;
+			collector.add(entryElem);
 		}
-		return entriesElem;
+		entries.close();
+		return false;
 	}
 
 	/**
@@ -1406,4 +1563,39 @@ public class LdapSender extends JNDIBase implements ISenderWithParameters {
 	public boolean isReplyNotFound() {
 		return replyNotFound;
 	}
+
+	public void setMaxConnections(int i) {
+		maxConnections = i;
+	}
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	public void setMaxIdleTime(long l) {
+		maxIdleTime = l;
+	}
+	public long getMaxIdleTime() {
+		return maxIdleTime;
+	}
+
+	public void setPoolTimeout(long l) {
+		poolTimeout = l;
+	}
+	public long getPoolTimeout() {
+		return poolTimeout;
+	}
+
+	public void setPageSize(int i) {
+		pageSize = i;
+	}
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	public void setResultStreamSessionKey(String string) {
+		resultStreamSessionKey = string;
+	}
+	public String getResultStreamSessionKey() {
+		return resultStreamSessionKey;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,164 @@
+/*
+   Copyright 2018 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.monitoring;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import nl.nn.adapterframework.util.LogUtil;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Delivers monitoring events asynchronously from the threads that throw them to
+ * the {@link MonitorManager}.
+ * <p>
+ * Throwing an event only increments a counter for the combination of source and
+ * event code; no objects are allocated once that combination has been seen. A
+ * single daemon thread collects the counters and delivers each combination once
+ * per batch, together with the number of occurrences. Hence an error storm never
+ * blocks pipeline threads, and results in a few deliveries per batch instead of
+ * one per event.
+ *
+ * @since   7.0
+ */
+public class EventDispatcher implements Runnable {
+	protected Logger log = LogUtil.getLogger(this);
+
+	private MonitorManager monitorManager;
+	private long batchIntervalNanos;
+
+	private ConcurrentHashMap<EventThrowing, ConcurrentHashMap<String, PendingEvent>> pendingEventsBySource = new ConcurrentHashMap<EventThrowing, ConcurrentHashMap<String, PendingEvent>>();
+	private ConcurrentLinkedQueue<PendingEvent> eventsToDeliver = new ConcurrentLinkedQueue<PendingEvent>();
+
+	private volatile Thread dispatcherThread;
+	private volatile boolean running;
+
+	private static class PendingEvent {
+		final EventThrowing source;
+		final String eventCode;
+		final AtomicInteger count = new AtomicInteger();
+
+		PendingEvent(EventThrowing source, String eventCode) {
+			this.source = source;
+			this.eventCode = eventCode;
+		}
+	}
+
+	public EventDispatcher(MonitorManager monitorManager, long batchIntervalMillis) {
+		super();
+		this.monitorManager = monitorManager;
+		this.batchIntervalNanos = batchIntervalMillis * 1000000L;
+	}
+
+	public synchronized void start() {
+		if (dispatcherThread == null) {
+			running = true;
+			Thread thread = new Thread(this, "MonitorEventDispatcher");
+			thread.setDaemon(true);
+			dispatcherThread = thread;
+			thread.start();
+		}
+	}
+
+	/**
+	 * Stops the dispatcher thread, after it has delivered the pending events. Waits at most
+	 * <code>timeout</code> ms for that.
+	 */
+	public void stop(long timeout) {
+		Thread thread;
+		synchronized (this) {
+			running = false;
+			thread = dispatcherThread;
+			dispatcherThread = null;
+		}
+		if (thread != null) {
+			LockSupport.unpark(thread);
+			try {
+				thread.join(timeout);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (thread.isAlive()) {
+				log.warn("dispatcher thread did not stop within [" + timeout + "] ms");
+			}
+		}
+	}
+
+	/**
+	 * Registers the occurrence of an event. Never blocks.
+	 */
+	public void dispatch(EventThrowing source, String eventCode) {
+		ConcurrentHashMap<String, PendingEvent> pendingEvents = pendingEventsBySource.get(source);
+		if (pendingEvents == null) {
+			pendingEvents = new ConcurrentHashMap<String, PendingEvent>();
+			ConcurrentHashMap<String, PendingEvent> existing = pendingEventsBySource.putIfAbsent(source, pendingEvents);
+			if (existing != null) {
+				pendingEvents = existing;
+			}
+		}
+		PendingEvent pendingEvent = pendingEvents.get(eventCode);
+		if (pendingEvent == null) {
+			pendingEvent = new PendingEvent(source, eventCode);
+			PendingEvent existing = pendingEvents.putIfAbsent(eventCode, pendingEvent);
+			if (existing != null) {
+				pendingEvent = existing;
+			}
+		}
+		if (pendingEvent.count.getAndIncrement() == 0) {
+			// first occurrence since the last delivery, schedule it
+			eventsToDeliver.offer(pendingEvent);
+			Thread thread = dispatcherThread;
+			if (thread != null) {
+				LockSupport.unpark(thread);
+			}
+		}
+	}
+
+	public void run() {
+		while (running) {
+			deliverPendingEvents();
+			// wait for the next event, then a little longer to collect the events following it
+			LockSupport.parkNanos(this, batchIntervalNanos * 10);
+			long deadline = System.nanoTime() + batchIntervalNanos;
+			long remaining;
+			while (running && (remaining = deadline - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(this, remaining);
+			}
+		}
+		deliverPendingEvents();
+	}
+
+	private void deliverPendingEvents() {
+		PendingEvent pendingEvent;
+		while ((pendingEvent = eventsToDeliver.poll()) != null) {
+			int count = pendingEvent.count.getAndSet(0);
+			if (count > 0) {
+				try {
+					monitorManager.deliverEvent(pendingEvent.source, pendingEvent.eventCode, count);
+				} catch (Throwable t) {
+					log.error("could not deliver event [" + pendingEvent.eventCode + "] of source [" + pendingEvent.source.getEventSourceName() + "]", t);
+				}
+			}
+		}
+	}
+
+	public int getPendingCount() {
+		return eventsToDeliver.size();
+	}
+}
@@ -1,5 +1,5 @@
 /*
-   Copyright 2013 Nationale-Nederlanden
+   Copyright 2013, 2018 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -76,6 +76,9 @@ public class MonitorManager implements EventHandler {
 
 
 	private boolean enabled = AppConstants.getInstance().getBoolean("monitoring.enabled", false);
+	private boolean asyncEventDelivery = AppConstants.getInstance().getBoolean("monitoring.asyncEventDelivery", true);
+	private long eventBatchInterval = AppConstants.getInstance().getLong("monitoring.eventBatchInterval", 100);
+	private EventDispatcher eventDispatcher = null;
 	private Date lastStateChange=null;
 
 	private Lock structureLock = new Lock();
@@ -749,29 +752,64 @@ public class MonitorManager implements EventHandler {
 
 	public void fireEvent(EventThrowing source, String eventCode) {
 		if (isEnabled()) {
+			if (isAsyncEventDelivery()) {
+				getEventDispatcher().dispatch(source, eventCode);
+			} else {
+				deliverEvent(source, eventCode, 1);
+			}
+		}
+	}
+
+	private synchronized EventDispatcher getEventDispatcher() {
+		if (eventDispatcher==null) {
+			eventDispatcher=new EventDispatcher(this, eventBatchInterval);
+			eventDispatcher.start();
+		}
+		return eventDispatcher;
+	}
+
+	/**
+	 * Stops the thread that delivers events asynchronously, after it has delivered the pending
+	 * events. It is started again when a next event is fired.
+	 */
+	public void shutdown() {
+		EventDispatcher dispatcher;
+		synchronized (this) {
+			dispatcher=eventDispatcher;
+			eventDispatcher=null;
+		}
+		if (dispatcher!=null) {
+			dispatcher.stop(10000);
+		}
+	}
+
+	/**
+	 * Evaluates the triggers that are registered for the event. Count is the number
+	 * of occurrences of the event from this source that are delivered at once.
+	 */
+	public void deliverEvent(EventThrowing source, String eventCode, int count) {
+		try {
+			structureLock.acquireShared();
 			try {
-				structureLock.acquireShared();
-				try {
-					Map notificationListenersOfEvent = (Map)eventNotificationListeners.get(eventCode);
-					if (notificationListenersOfEvent!=null) {
-						for (Iterator it=notificationListenersOfEvent.keySet().iterator(); it.hasNext();) {
-							Trigger trigger = (Trigger)it.next();
-							Set throwerFilter = (Set)notificationListenersOfEvent.get(trigger);
-							if (throwerFilter==null || throwerFilter.contains(source)) {
-								try {
-									trigger.evaluateEvent(source,eventCode);
-								} catch (MonitorException e) {
-									log.error("Could not evaluate event ["+eventCode+"]",e);
-								}
+				Map notificationListenersOfEvent = (Map)eventNotificationListeners.get(eventCode);
+				if (notificationListenersOfEvent!=null) {
+					for (Iterator it=notificationListenersOfEvent.keySet().iterator(); it.hasNext();) {
+						Trigger trigger = (Trigger)it.next();
+						Set throwerFilter = (Set)notificationListenersOfEvent.get(trigger);
+						if (throwerFilter==null || throwerFilter.contains(source)) {
+							try {
+								trigger.evaluateEvent(source,eventCode,count);
+							} catch (MonitorException e) {
+								log.error("Could not evaluate event ["+eventCode+"]",e);
 							}
 						}
 					}
-				} finally {
-					structureLock.releaseShared();
 				}
-			} catch (InterruptedException e) {
-				log.error("Could not obtain lock for fireEvent" , e);
+			} finally {
+				structureLock.releaseShared();
 			}
+		} catch (InterruptedException e) {
+			log.error("Could not obtain lock for fireEvent" , e);
 		}
 	}
 
@@ -856,6 +894,13 @@ public class MonitorManager implements EventHandler {
 		return enabled;
 	}
 
+	public void setAsyncEventDelivery(boolean b) {
+		asyncEventDelivery = b;
+	}
+	public boolean isAsyncEventDelivery() {
+		return asyncEventDelivery;
+	}
+
 	public Map getThrowersByEvent() {
 		return throwersByEvent;
 	}
@@ -16,6 +16,7 @@
 package nl.nn.adapterframework.monitoring;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -25,7 +26,6 @@ import java.util.Map;
 
 import nl.nn.adapterframework.configuration.ConfigurationException;
 import nl.nn.adapterframework.core.IAdapter;
-import nl.nn.adapterframework.util.DateUtils;
 import nl.nn.adapterframework.util.LogUtil;
 import nl.nn.adapterframework.util.XmlBuilder;
 
@@ -56,7 +56,9 @@ public class Trigger {
 	private int threshold=0;
 	private int period=0;
 	
-	private LinkedList<Date> eventDts=null;
+	// ring of per-second event counters, covering the last 'period' seconds
+	private long[] eventSeconds=null;
+	private int[] eventCounts=null;
 		
 
 	public void configure() throws ConfigurationException {
@@ -70,11 +72,14 @@ public class Trigger {
 			throw new ConfigurationException(e);
 		}
 		if (threshold>0) {
-			if (eventDts==null) {
-				eventDts = new LinkedList<Date>();
+			int slots=period+1;
+			if (eventCounts==null || eventCounts.length!=slots) {
+				eventSeconds = new long[slots];
+				eventCounts = new int[slots];
 			}
 		} else {
-			eventDts=null;
+			eventSeconds=null;
+			eventCounts=null;
 		}
 	}
 	
@@ -83,34 +88,54 @@ public class Trigger {
 	}
 
 	public void evaluateEvent(EventThrowing source, String eventCode) throws MonitorException {
-		Date now = new Date();
-		if (getThreshold()>0) {
-			cleanUpEvents(now);
-			eventDts.add(now);
-			if (eventDts.size()>=getThreshold()) {
-				getOwner().changeState(now, alarm, getSeverityEnum(), source, eventCode, null);
-			}
-		} else {
-			getOwner().changeState(now, alarm, getSeverityEnum(), source, eventCode, null);
+		evaluateEvent(source, eventCode, 1);
+	}
+
+	/**
+	 * Evaluates count occurrences of an event. When a threshold is set, events are
+	 * counted per second, and the trigger fires when the number of events in the
+	 * last 'period' seconds reaches the threshold.
+	 */
+	public void evaluateEvent(EventThrowing source, String eventCode, int count) throws MonitorException {
+		long now = System.currentTimeMillis();
+		if (getThreshold()>0 && !registerEvents(now, count)) {
+			return;
+		}
+		// the state is changed outside the lock, as it notifies the reverse trigger
+		getOwner().changeState(new Date(now), alarm, getSeverityEnum(), source, eventCode, null);
+	}
+
+	/**
+	 * Registers the events and returns true when the threshold has been reached.
+	 */
+	private synchronized boolean registerEvents(long now, int count) {
+		if (eventCounts==null) {
+			return true;
 		}
-	}	
+		long second = now/1000;
+		int slot = (int)(second % eventCounts.length);
+		if (eventSeconds[slot]!=second) {
+			eventSeconds[slot]=second;
+			eventCounts[slot]=0;
+		}
+		eventCounts[slot]+=count;
+		return countEvents(second)>=getThreshold();
+	}
 	
-	public void notificationOfReverseTrigger(EventThrowing source) {
-		if (eventDts!=null) {
-			eventDts.clear();
+	public synchronized void notificationOfReverseTrigger(EventThrowing source) {
+		if (eventCounts!=null) {
+			Arrays.fill(eventCounts, 0);
 		}
 	}
 
-	protected void cleanUpEvents(Date now) {
-		while(eventDts.size()>0) {
-			Date firstDate = (Date)eventDts.getFirst();
-			if ((now.getTime()-firstDate.getTime())>getPeriod()*1000) {
-				eventDts.removeFirst();
-				if (log.isDebugEnabled()) log.debug("removed element dated ["+DateUtils.format(firstDate)+"]");
-			} else {
-				break;
+	private int countEvents(long currentSecond) {
+		int result=0;
+		for (int i=0; i<eventCounts.length; i++) {
+			if (currentSecond-eventSeconds[i]<eventCounts.length) {
+				result+=eventCounts[i];
 			}
 		}
+		return result;
 	}
 
 	public void toXml(XmlBuilder monitor) {
@@ -629,6 +629,21 @@ public class Parameter implements INamedObject, IWithParameters {
 		return value;
 	}
 
+	/**
+	 * Returns <code>true</code> when the parameter always resolves to its <code>value</code>,
+	 * independent of the input message and the session.
+	 */
+	public boolean isConstant() {
+		return StringUtils.isNotEmpty(getValue())
+				&& StringUtils.isEmpty(getSessionKey())
+				&& StringUtils.isEmpty(getPattern())
+				&& StringUtils.isEmpty(getXpathExpression())
+				&& StringUtils.isEmpty(styleSheetName)
+				&& getType() == null
+				&& getMinLength() < 0
+				&& getMaxLength() < 0;
+	}
+
 	@Override
 	public String toString() {
 		return "Paramter name=["+name+"] defaultValue=["+defaultValue+"] sessionKey=["+sessionKey+"] xpathExpression=["+xpathExpression+ "] type=["+type+ "] value=["+value+ "]";
@@ -0,0 +1,301 @@
+/*
+   Copyright 2018 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.pipes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import nl.nn.adapterframework.configuration.ConfigurationException;
+import nl.nn.adapterframework.core.IExtendedPipe;
+import nl.nn.adapterframework.core.IPipe;
+import nl.nn.adapterframework.core.IPipeLineSession;
+import nl.nn.adapterframework.core.PipeForward;
+import nl.nn.adapterframework.core.PipeLineSessionBase;
+import nl.nn.adapterframework.core.PipeRunException;
+import nl.nn.adapterframework.core.PipeRunResult;
+import nl.nn.adapterframework.core.PipeStartException;
+import nl.nn.adapterframework.core.SenderException;
+import nl.nn.adapterframework.core.TimeOutException;
+import nl.nn.adapterframework.processors.PipeProcessor;
+import nl.nn.adapterframework.statistics.HasStatistics;
+import nl.nn.adapterframework.statistics.StatisticsKeeperIterationHandler;
+import nl.nn.adapterframework.util.ClassUtils;
+import nl.nn.adapterframework.util.Guard;
+import nl.nn.adapterframework.util.XmlBuilder;
+import nl.nn.adapterframework.util.XmlUtils;
+
+import org.apache.commons.lang.StringUtils;
+import org.springframework.core.task.TaskExecutor;
+
+/**
+ * Runs the nested pipes at the same time, each in a thread of its own, and continues when all of them have finished.
+ * <p>
+ * Meant for independent steps, like lookups in different backends whose results are combined afterwards. Each nested
+ * pipe receives the input of this pipe, unless it has <code>getInputFromSessionKey</code> or <code>getInputFromFixedValue</code>
+ * set, and can store its result with <code>storeResultInSessionKey</code>. A nested pipe runs in a session of its own,
+ * layered on a copy of the session of the pipeline that is made before the nested pipes start. After all nested pipes
+ * have finished, the session variables that they have set are copied to the session of the pipeline, in the order of the
+ * nested pipes. A nested pipe that has not finished within <code>timeout</code> keeps running, but it only reads and
+ * modifies its own session, so it does not affect the pipeline after this pipe. The forwards of the nested pipes are
+ * not followed.
+ * <p>
+ * The result of this pipe is like the result of {@link nl.nn.adapterframework.senders.ParallelSenders}:
+ * <code>&lt;results&gt;&lt;result pipeName="..." type="..."&gt;...&lt;/result&gt;...&lt;/results&gt;</code>.
+ * The time spent in each nested pipe is shown in the pipe statistics. The nested pipes do not take part in the
+ * transaction of the pipeline, and, as message traces are kept per thread, they are not part of the message trace
+ * of the pipeline: only the time spent in this pipe as a whole is traced.
+ *
+ * <p><b>Configuration:</b>
+ * <table border="1">
+ * <tr><th>attributes</th><th>description</th><th>default</th></tr>
+ * <tr><td>className</td><td>nl.nn.adapterframework.pipes.ForkJoinPipe</td><td>&nbsp;</td></tr>
+ * <tr><td>{@link #setName(String) name}</td><td>name of the Pipe</td><td>&nbsp;</td></tr>
+ * <tr><td>{@link #setTimeout(long) timeout}</td><td>maximum time in ms to wait for the nested pipes to finish. Nested pipes that have not finished by then are treated as failed, and their session variables are not copied. 0 means wait indefinitely</td><td>0</td></tr>
+ * <tr><td>{@link #setFailurePolicy(String) failurePolicy}</td><td>either 'exception' (throw an exception when one of the nested pipes fails) or 'continue' (report the failure in the result and continue with the <code>success</code> forward)</td><td>exception</td></tr>
+ * <tr><td>{@link #setForwardName(String) forwardName}</td>  <td>name of forward returned upon completion</td><td>"success"</td></tr>
+ * </table>
+ * </p>
+ * <p>
+ * <table border="1">
+ * <tr><th>nested elements</th><th>description</th></tr>
+ * <tr><td>{@link nl.nn.adapterframework.core.IPipe pipe}</td><td>one or more pipes, that are executed in parallel. Their names must be unique within the pipeline</td></tr>
+ * </table>
+ * </p>
+ * <p><b>Exits:</b>
+ * <table border="1">
+ * <tr><th>state</th><th>condition</th></tr>
+ * <tr><td>"success"</td><td>default</td></tr>
+ * <tr><td><i>{@link #setForwardName(String) forwardName}</i></td><td>if specified</td></tr>
+ * </table>
+ * </p>
+ *
+ * @since   7.0
+ */
+public class ForkJoinPipe extends FixedForwardPipe implements HasStatistics {
+
+	public static final String FAILURE_POLICY_EXCEPTION = "exception";
+	public static final String FAILURE_POLICY_CONTINUE = "continue";
+
+	private long timeout = 0;
+	private String failurePolicy = FAILURE_POLICY_EXCEPTION;
+
+	private List<IPipe> pipes = new ArrayList<IPipe>();
+
+	/**
+	 * The thread-pool for spawning threads, injected by Spring
+	 */
+	private TaskExecutor taskExecutor;
+	private PipeProcessor pipeProcessor;
+
+	private class PipeExecutor implements Runnable {
+		private IPipe pipe;
+		private Object input;
+		private IPipeLineSession session;
+		private Guard guard;
+		private PipeRunResult pipeRunResult;
+		private Throwable throwable;
+		private volatile boolean finished = false;
+
+		PipeExecutor(IPipe pipe, Object input, IPipeLineSession session, Guard guard) {
+			this.pipe = pipe;
+			this.input = input;
+			this.session = session;
+			this.guard = guard;
+		}
+
+		public void run() {
+			try {
+				pipeRunResult = pipeProcessor.processPipe(getPipeLine(), pipe, session.getMessageId(), input, session);
+			} catch (Throwable t) {
+				throwable = t;
+				log.warn(getLogPrefix(session)+"nested pipe ["+pipe.getName()+"] caught exception", t);
+			} finally {
+				finished = true;
+				guard.releaseResource();
+			}
+		}
+	}
+
+	public void addPipe(IPipe pipe) throws ConfigurationException {
+		if (pipe instanceof IExtendedPipe && !((IExtendedPipe)pipe).isActive()) {
+			log.debug(getLogPrefix(null)+"nested pipe [" + pipe.getName() + "] is not active, therefore not included in configuration");
+			return;
+		}
+		pipes.add(pipe);
+	}
+
+	@Override
+	public void configure() throws ConfigurationException {
+		super.configure();
+		if (pipes.isEmpty()) {
+			throw new ConfigurationException(getLogPrefix(null)+"has no nested pipes");
+		}
+		if (!FAILURE_POLICY_EXCEPTION.equals(getFailurePolicy()) && !FAILURE_POLICY_CONTINUE.equals(getFailurePolicy())) {
+			throw new ConfigurationException(getLogPrefix(null)+"failurePolicy ["+getFailurePolicy()+"] must be either '"+FAILURE_POLICY_EXCEPTION+"' or '"+FAILURE_POLICY_CONTINUE+"'");
+		}
+		Set<String> names = new HashSet<String>();
+		for (IPipe pipe : pipes) {
+			String name = pipe.getName();
+			if (StringUtils.isEmpty(name)) {
+				throw new ConfigurationException(getLogPrefix(null)+"nested pipe [" + pipe.getClass().getName()+"] has no name");
+			}
+			// the statistics of the pipeline are kept by pipe name
+			if (getPipeLine().getPipe(name) != null || !names.add(name)) {
+				throw new ConfigurationException(getLogPrefix(null)+"nested pipe [" + name + "] is defined more then once");
+			}
+			// nested pipes need the same forwards as this pipe to pass their configuration checks
+			for (PipeForward forward : getForwards().values()) {
+				pipe.registerForward(forward);
+			}
+			getPipeLine().configure(pipe);
+		}
+	}
+
+	@Override
+	public void start() throws PipeStartException {
+		super.start();
+		for (IPipe pipe : pipes) {
+			pipe.start();
+		}
+	}
+
+	@Override
+	public void stop() {
+		for (IPipe pipe : pipes) {
+			pipe.stop();
+		}
+		super.stop();
+	}
+
+	@Override
+	public PipeRunResult doPipe(Object input, IPipeLineSession session) throws PipeRunException {
+		Guard guard = new Guard();
+		List<PipeExecutor> executors = new ArrayList<PipeExecutor>();
+		// nested pipes that time out keep running, so they must not use the session of the pipeline
+		Map<String, Object> sessionCopy = new HashMap<String, Object>(session);
+		for (IPipe pipe : pipes) {
+			PipeExecutor executor = new PipeExecutor(pipe, input, PipeLineSessionBase.createChildSession(sessionCopy), guard);
+			executors.add(executor);
+			guard.addResource();
+			getTaskExecutor().execute(executor);
+		}
+		try {
+			if (getTimeout() > 0) {
+				guard.waitForAllResources(getTimeout());
+			} else {
+				guard.waitForAllResources();
+			}
+		} catch (InterruptedException e) {
+			throw new PipeRunException(this, getLogPrefix(session)+"was interupted", e);
+		} catch (TimeOutException e) {
+			log.warn(getLogPrefix(session)+"not all nested pipes finished within ["+getTimeout()+"] ms");
+		}
+
+		XmlBuilder resultsXml = new XmlBuilder("results");
+		List<String> failedPipes = new ArrayList<String>();
+		Throwable firstThrowable = null;
+		for (PipeExecutor executor : executors) {
+			XmlBuilder resultXml = new XmlBuilder("result");
+			resultXml.addAttribute("pipeName", executor.pipe.getName());
+			if (!executor.finished) {
+				failedPipes.add(executor.pipe.getName());
+				resultXml.addAttribute("type", "timeout");
+				resultXml.setValue("not finished within ["+getTimeout()+"] ms");
+			} else if (executor.throwable != null) {
+				failedPipes.add(executor.pipe.getName());
+				if (firstThrowable == null) {
+					firstThrowable = executor.throwable;
+				}
+				resultXml.addAttribute("type", ClassUtils.nameOf(executor.throwable));
+				resultXml.setValue(executor.throwable.getMessage());
+			} else {
+				copySessionVariables(executor.session, sessionCopy, session);
+				Object result = executor.pipeRunResult.getResult();
+				if (result == null) {
+					resultXml.addAttribute("type", "null");
+				} else {
+					resultXml.addAttribute("type", ClassUtils.nameOf(result));
+					resultXml.setValue(XmlUtils.skipXmlDeclaration(result.toString()), false);
+				}
+			}
+			resultsXml.addSubElement(resultXml);
+		}
+		if (!failedPipes.isEmpty() && FAILURE_POLICY_EXCEPTION.equals(getFailurePolicy())) {
+			throw new PipeRunException(this, getLogPrefix(session)+"nested pipes "+failedPipes+" failed", firstThrowable);
+		}
+		return new PipeRunResult(getForward(), resultsXml.toXML());
+	}
+
+	/**
+	 * Copies the variables that have been set in the session of a nested pipe, that is layered on the copy of the
+	 * session of the pipeline; variables that have not been set have the same value as in the copy.
+	 */
+	private void copySessionVariables(IPipeLineSession pipeSession, Map<String, Object> sessionCopy, IPipeLineSession session) {
+		for (Map.Entry<String, Object> entry : pipeSession.entrySet()) {
+			String key = entry.getKey();
+			Object value = entry.getValue();
+			if (sessionCopy.get(key) != value || !sessionCopy.containsKey(key)) {
+				session.put(key, value);
+			}
+		}
+	}
+
+	@Override
+	public void iterateOverStatistics(StatisticsKeeperIterationHandler hski, Object data, int action) throws SenderException {
+		for (IPipe pipe : pipes) {
+			hski.handleStatisticsKeeper(data, getPipeLine().getPipeStatistics(pipe));
+			if (pipe instanceof HasStatistics) {
+				((HasStatistics)pipe).iterateOverStatistics(hski, data, action);
+			}
+		}
+	}
+
+	public List<IPipe> getPipes() {
+		return pipes;
+	}
+
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+	public long getTimeout() {
+		return timeout;
+	}
+
+	public void setFailurePolicy(String failurePolicy) {
+		this.failurePolicy = failurePolicy;
+	}
+	public String getFailurePolicy() {
+		return failurePolicy;
+	}
+
+	public void setTaskExecutor(TaskExecutor executor) {
+		taskExecutor = executor;
+	}
+	public TaskExecutor getTaskExecutor() {
+		return taskExecutor;
+	}
+
+	public void setPipeProcessor(PipeProcessor pipeProcessor) {
+		this.pipeProcessor = pipeProcessor;
+	}
+	public PipeProcessor getPipeProcessor() {
+		return pipeProcessor;
+	}
+}
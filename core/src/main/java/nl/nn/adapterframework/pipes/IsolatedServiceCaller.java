@@ -1,5 +1,5 @@
 /*
-   Copyright 2013 Nationale-Nederlanden
+   Copyright 2013, 2018 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -15,13 +15,21 @@
 */
 package nl.nn.adapterframework.pipes;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import nl.nn.adapterframework.core.ListenerException;
 import nl.nn.adapterframework.core.RequestReplyExecutor;
 import nl.nn.adapterframework.receivers.JavaListener;
 import nl.nn.adapterframework.receivers.ServiceDispatcher;
+import nl.nn.adapterframework.util.AppConstants;
 import nl.nn.adapterframework.util.ClassUtils;
+import nl.nn.adapterframework.util.FileUtils;
 import nl.nn.adapterframework.util.Guard;
 import nl.nn.adapterframework.util.LogUtil;
 
@@ -30,6 +38,22 @@ import org.springframework.core.task.TaskExecutor;
 
 /**
  * Helper class for IbisLocalSender that wraps around {@link ServiceDispatcher} to make calls to a local Ibis adapter in a separate thread.
+ * <p>
+ * Asynchronous calls are handed to the task executor one by one, unless queueing is activated for their
+ * target. Then they are queued in a {@link LocalDispatchQueue} per target, that is configured with the
+ * following properties. Each can be overridden for a single target by inserting its name, e.g.
+ * <code>localDispatch.MyJavaListener.workers</code>.
+ * <table border="1">
+ * <tr><th>property</th><th>description</th><th>default</th></tr>
+ * <tr><td>localDispatch.active</td><td>when <code>true</code>, calls are queued; implied by <code>localDispatch.journal.active</code></td><td>false</td></tr>
+ * <tr><td>localDispatch.workers</td><td>maximum number of threads that process the calls to a target</td><td>10</td></tr>
+ * <tr><td>localDispatch.maxQueueSize</td><td>maximum number of calls that wait to be processed</td><td>1000</td></tr>
+ * <tr><td>localDispatch.rejectPolicy</td><td>what to do with a call when the queue is full: <code>reject</code>, <code>callerRuns</code> or <code>block</code></td><td>block</td></tr>
+ * <tr><td>localDispatch.blockTimeout</td><td>maximum time in ms to wait for room in the queue when rejectPolicy is <code>block</code>, 0 to wait indefinitely</td><td>30000</td></tr>
+ * <tr><td>localDispatch.journal.active</td><td>when <code>true</code>, calls are journaled until they are processed, and dispatched again after a restart</td><td>false</td></tr>
+ * <tr><td>localDispatch.journal.directory</td><td>directory that contains a journal directory for each target</td><td>${log.dir}/localDispatch</td></tr>
+ * <tr><td>localDispatch.journal.recoveryTimeout</td><td>maximum time in ms that recovered calls wait for the target to become available</td><td>60000</td></tr>
+ * </table>
  * 
  * @author  Gerrit van Brakel
  * @since   4.3
@@ -42,6 +66,8 @@ public class IsolatedServiceCaller {
 	 */
 	private TaskExecutor taskExecutor;
 
+	private ConcurrentMap<String, LocalDispatchQueue> dispatchQueues = new ConcurrentHashMap<String, LocalDispatchQueue>();
+
 	public void setTaskExecutor(TaskExecutor executor) {
 		taskExecutor = executor;
 	}
@@ -51,8 +77,87 @@ public class IsolatedServiceCaller {
 	}
 
 	public void callServiceAsynchronous(String serviceName, String correlationID, String message, HashMap context, boolean targetIsJavaListener) throws ListenerException {
-		IsolatedServiceExecutor ise=new IsolatedServiceExecutor(serviceName, correlationID, message, context, targetIsJavaListener, null);
-		getTaskExecutor().execute(ise);
+		LocalDispatchQueue dispatchQueue = getDispatchQueue(serviceName, targetIsJavaListener);
+		if (dispatchQueue != null) {
+			dispatchQueue.dispatch(correlationID, message, context);
+		} else {
+			IsolatedServiceExecutor ise=new IsolatedServiceExecutor(serviceName, correlationID, message, context, targetIsJavaListener, null);
+			getTaskExecutor().execute(ise);
+		}
+	}
+
+	/**
+	 * Returns the queue for asynchronous calls to a service or JavaListener, or <code>null</code> when
+	 * queueing is not activated for it. The queue is created on first use, and then starts to queue the calls
+	 * in its journal that were not processed before the last shutdown, in a thread of the task executor.
+	 * <p>
+	 * No lock is held while the queue is created, so that opening one sender does not wait for the queue of
+	 * another target. When two threads create the queue of the same target at the same time, only the queue
+	 * of the thread that registers it first is used and recovers the journal.
+	 */
+	public LocalDispatchQueue getDispatchQueue(String serviceName, boolean targetIsJavaListener) throws ListenerException {
+		String key = (targetIsJavaListener ? "JavaListener " : "Service ") + serviceName;
+		LocalDispatchQueue dispatchQueue = dispatchQueues.get(key);
+		if (dispatchQueue != null) {
+			return dispatchQueue;
+		}
+		AppConstants appConstants = AppConstants.getInstance();
+		boolean journaled = getBoolean(appConstants, serviceName, "journal.active", false);
+		if (!journaled && !getBoolean(appConstants, serviceName, "active", false)) {
+			return null;
+		}
+		dispatchQueue = new LocalDispatchQueue(serviceName, targetIsJavaListener, getTaskExecutor(),
+				getInt(appConstants, serviceName, "workers", 10),
+				getInt(appConstants, serviceName, "maxQueueSize", 1000),
+				getString(appConstants, serviceName, "rejectPolicy", LocalDispatchQueue.REJECT_POLICY_BLOCK),
+				getInt(appConstants, serviceName, "blockTimeout", 30000));
+		if (journaled) {
+			File directory = new File(getString(appConstants, serviceName, "journal.directory", appConstants.getResolvedProperty("log.dir") + "/localDispatch"),
+					FileUtils.encodeFileName(key));
+			try {
+				dispatchQueue.setJournal(new LocalDispatchJournal(directory), getInt(appConstants, serviceName, "journal.recoveryTimeout", 60000));
+			} catch (IOException e) {
+				throw new ListenerException("cannot open journal for ["+key+"]", e);
+			}
+		}
+		LocalDispatchQueue registered = dispatchQueues.putIfAbsent(key, dispatchQueue);
+		if (registered != null) {
+			return registered;
+		}
+		recoverJournal(key, dispatchQueue);
+		return dispatchQueue;
+	}
+
+	private void recoverJournal(String key, final LocalDispatchQueue dispatchQueue) {
+		if (!dispatchQueue.isJournaled()) {
+			return;
+		}
+		try {
+			getTaskExecutor().execute(new Runnable() {
+				public void run() {
+					dispatchQueue.recoverJournal();
+				}
+			});
+		} catch (RuntimeException e) {
+			log.warn("cannot recover journal of ["+key+"] in the background, recovering it now", e);
+			dispatchQueue.recoverJournal();
+		}
+	}
+
+	public List<LocalDispatchQueue> getDispatchQueues() {
+		return new ArrayList<LocalDispatchQueue>(dispatchQueues.values());
+	}
+
+	private String getString(AppConstants appConstants, String serviceName, String key, String defaultValue) {
+		return appConstants.getString("localDispatch."+serviceName+"."+key, appConstants.getString("localDispatch."+key, defaultValue));
+	}
+
+	private boolean getBoolean(AppConstants appConstants, String serviceName, String key, boolean defaultValue) {
+		return appConstants.getBoolean("localDispatch."+serviceName+"."+key, appConstants.getBoolean("localDispatch."+key, defaultValue));
+	}
+
+	private int getInt(AppConstants appConstants, String serviceName, String key, int defaultValue) {
+		return appConstants.getInt("localDispatch."+serviceName+"."+key, appConstants.getInt("localDispatch."+key, defaultValue));
 	}
 	
 	public String callServiceIsolated(String serviceName, String correlationID, String message, HashMap context, boolean targetIsJavaListener) throws ListenerException {
@@ -29,6 +29,7 @@ import nl.nn.adapterframework.core.IDataIterator;
 import nl.nn.adapterframework.core.IPipeLineSession;
 import nl.nn.adapterframework.core.ISender;
 import nl.nn.adapterframework.core.ISenderWithParameters;
+import nl.nn.adapterframework.core.PipeLineSessionBase;
 import nl.nn.adapterframework.core.SenderException;
 import nl.nn.adapterframework.core.TimeOutException;
 import nl.nn.adapterframework.parameters.ParameterResolutionContext;
@@ -39,6 +40,7 @@ import nl.nn.adapterframework.statistics.StatisticsKeeperIterationHandler;
 import nl.nn.adapterframework.util.ClassUtils;
 import nl.nn.adapterframework.util.DomBuilderException;
 import nl.nn.adapterframework.util.Guard;
+import nl.nn.adapterframework.util.Semaphore;
 import nl.nn.adapterframework.util.TransformerPool;
 import nl.nn.adapterframework.util.XmlUtils;
 
@@ -53,7 +55,8 @@ import org.springframework.core.task.TaskExecutor;
  * <tr><th>attributes</th><th>description</th><th>default</th></tr>
  * <tr><td>className</td><td>nl.nn.adapterframework.pipes.IteratingPipe</td><td>&nbsp;</td></tr>
  * <tr><td>{@link #setName(String) name}</td><td>name of the Pipe</td><td>&nbsp;</td></tr>
- * <tr><td>{@link #setParallel(boolean) parallel}</td><td> when set <code>true</code>, the calls for all items are done in parallel (a new thread is started for each call). When collectResults set <code>true</code>, this pipe will wait for all calls to finish before results are collected and pipe result is returned</td><td>false</td></tr>
+ * <tr><td>{@link #setParallel(boolean) parallel}</td><td> when set <code>true</code>, the calls for all items are done in parallel (a new thread is started for each call). When collectResults set <code>true</code>, this pipe will wait for all calls to finish before results are collected and pipe result is returned. Each call uses its own session, that is layered on the session of the pipeline, so that session variables set for an item are not overwritten by the next item</td><td>false</td></tr>
+ * <tr><td>{@link #setMaxChildThreads(int) maxChildThreads}</td><td>when <code>parallel=true</code>: maximum number of calls that are executed at the same time. When this number is reached, the next item is read only after one of the calls has finished</td><td>0 (unlimited)</td></tr>
  * <tr><td>{@link #setDurationThreshold(long) durationThreshold}</td><td>if durationThreshold >=0 and the duration (in milliseconds) of the message processing exceeded the value specified the message is logged informatory</td><td>-1</td></tr>
  * <tr><td>{@link #setGetInputFromSessionKey(String) getInputFromSessionKey}</td><td>when set, input is taken from this session key, instead of regular input</td><td>&nbsp;</td></tr>
  * <tr><td>{@link #setStoreResultInSessionKey(String) storeResultInSessionKey}</td><td>when set, the result is stored under this session key</td><td>&nbsp;</td></tr>
@@ -152,6 +155,7 @@ import org.springframework.core.task.TaskExecutor;
 public abstract class IteratingPipe extends MessageSendingPipe {
 	private TaskExecutor taskExecutor;
 	private boolean parallel = false;
+	private int maxChildThreads = 0;
 
 	private String stopConditionXPathExpression=null;
 	private boolean removeXmlDeclarationInResults=false;
@@ -225,6 +229,7 @@ public abstract class IteratingPipe extends MessageSendingPipe {
 		int count=0;
 		private Vector inputItems = new Vector();
 		private Guard guard;
+		private Semaphore childThreadSemaphore;
 		List<ParallelSenderExecutor> executorList;
 
 		public ItemCallback(IPipeLineSession session, String correlationID, ISender sender) {
@@ -238,6 +243,9 @@ public abstract class IteratingPipe extends MessageSendingPipe {
 				guard = new Guard();
 				executorList = new ArrayList();
 			}
+			if (isParallel() && getMaxChildThreads()>0) {
+				childThreadSemaphore = new Semaphore(getMaxChildThreads());
+			}
 		}
 		public boolean handleItem(String item) throws SenderException, TimeOutException {
 			if (isParallel() && isCollectResults()) {
@@ -253,14 +261,18 @@ public abstract class IteratingPipe extends MessageSendingPipe {
 			}
 			String itemResult=null;
 			count++;
+			IPipeLineSession itemSession = isParallel() ? createItemSession(session) : session;
 			if (StringUtils.isNotEmpty(getItemNoSessionKey())) {
 				session.put(getItemNoSessionKey(),""+count);
+				if (itemSession!=session) {
+					itemSession.put(getItemNoSessionKey(),""+count);
+				}
 			}
 			ParameterResolutionContext prc=null;
 			// TODO check for bug: sessionKey params not resolved when only parameters set on sender. Next line should check sender.parameterlist too.
 			if (psender !=null || msgTransformerPool!=null && getParameterList()!=null) {
 				//TODO find out why ParameterResolutionContext cannot be constructed using dom-source
-				prc = new ParameterResolutionContext(item, session, isNamespaceAware());
+				prc = new ParameterResolutionContext(item, itemSession, isNamespaceAware());
 			}
 			if (msgTransformerPool!=null) {
 				try {
@@ -279,12 +291,31 @@ public abstract class IteratingPipe extends MessageSendingPipe {
 			}
 			try {
 				if (isParallel()) {
+					if (childThreadSemaphore!=null) {
+						try {
+							childThreadSemaphore.acquire();
+						} catch (InterruptedException e) {
+							throw new TimeOutException(getLogPrefix(session)+"was interupted",e);
+						}
+					}
 					ParallelSenderExecutor pse= new ParallelSenderExecutor(
-							sender, correlationID, item, prc, guard, senderStatisticsKeeper);
+							sender, correlationID, item, prc, guard, childThreadSemaphore, senderStatisticsKeeper);
 					if (isCollectResults()) {
 						executorList.add(pse);
 					}
-					getTaskExecutor().execute(pse);
+					try {
+						getTaskExecutor().execute(pse);
+					} catch (RuntimeException e) {
+						// the executor did not accept the call, so it will not release its permit and resource
+						if (isCollectResults()) {
+							executorList.remove(pse);
+							guard.releaseResource();
+						}
+						if (childThreadSemaphore!=null) {
+							childThreadSemaphore.release();
+						}
+						throw e;
+					}
 				} else {
 					if (psender!=null) {
 						itemResult = psender.sendMessage(correlationID, item, prc);
@@ -374,6 +405,13 @@ public abstract class IteratingPipe extends MessageSendingPipe {
 		}
 	}
 
+	/**
+	 * Returns the session for a single item, when items are processed in parallel.
+	 */
+	protected IPipeLineSession createItemSession(IPipeLineSession session) {
+		return PipeLineSessionBase.createChildSession(session);
+	}
+
 	protected String sendMessage(Object input, IPipeLineSession session, String correlationID, ISender sender, Map threadContext) throws SenderException, TimeOutException {
 		// sendResult has a messageID for async senders, the result for sync senders
 		boolean keepGoing = true;
@@ -501,6 +539,13 @@ public abstract class IteratingPipe extends MessageSendingPipe {
 		return parallel;
 	}
 
+	public void setMaxChildThreads(int maxChildThreads) {
+		this.maxChildThreads = maxChildThreads;
+	}
+	public int getMaxChildThreads() {
+		return maxChildThreads;
+	}
+
 	public void setStopConditionXPathExpression(String string) {
 		stopConditionXPathExpression = string;
 	}
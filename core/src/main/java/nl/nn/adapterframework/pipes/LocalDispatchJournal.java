@@ -0,0 +1,231 @@
+/*
+   Copyright 2018 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.pipes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nl.nn.adapterframework.util.LogUtil;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Directory with a file for each request of a {@link LocalDispatchQueue} that has not been
+ * processed yet, so that the requests can be dispatched again after a restart.
+ * <p>
+ * A file is written and synced before the request is queued, and deleted after the request
+ * has been processed successfully. The file of a request that failed is renamed to <code>*.failed</code>,
+ * so that it is not dispatched again but can be inspected and retried manually. Only values of the context that are a String, Boolean, Date or a number of
+ * the java.lang or java.math package are journaled; other values are not available to requests
+ * that are recovered. Only these classes are accepted when the journal is read, so that a file in
+ * the journal directory cannot make the recovery instantiate arbitrary classes.
+ *
+ * @since   7.0
+ */
+public class LocalDispatchJournal {
+	protected Logger log = LogUtil.getLogger(this);
+
+	private static final String EXTENSION = ".request";
+	private static final String TEMP_EXTENSION = ".tmp";
+	private static final String CORRUPT_EXTENSION = ".corrupt";
+	private static final String FAILED_EXTENSION = ".failed";
+
+	private static final Set<String> JOURNALED_CLASSES = new HashSet<String>(Arrays.asList(
+			String.class.getName(), Boolean.class.getName(), Date.class.getName(),
+			Byte.class.getName(), Short.class.getName(), Integer.class.getName(), Long.class.getName(),
+			Float.class.getName(), Double.class.getName(), BigInteger.class.getName(), BigDecimal.class.getName()));
+	// classes that are read as part of the journaled classes: the map, the superclass of the numbers and the magnitude of a BigInteger
+	private static final Set<String> ACCEPTED_CLASSES = new HashSet<String>(JOURNALED_CLASSES);
+	static {
+		ACCEPTED_CLASSES.add(HashMap.class.getName());
+		ACCEPTED_CLASSES.add(Number.class.getName());
+		ACCEPTED_CLASSES.add(byte[].class.getName());
+		ACCEPTED_CLASSES.add(int[].class.getName());
+	}
+
+	private File directory;
+	private AtomicLong sequence = new AtomicLong();
+
+	public static class Entry {
+		private File file;
+		private String correlationID;
+		private String message;
+		private HashMap context;
+
+		private Entry(File file, String correlationID, String message, HashMap context) {
+			this.file = file;
+			this.correlationID = correlationID;
+			this.message = message;
+			this.context = context;
+		}
+
+		public File getFile() {
+			return file;
+		}
+		public String getCorrelationID() {
+			return correlationID;
+		}
+		public String getMessage() {
+			return message;
+		}
+		public HashMap getContext() {
+			return context;
+		}
+	}
+
+	public LocalDispatchJournal(File directory) throws IOException {
+		super();
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("cannot create journal directory ["+directory.getPath()+"]");
+		}
+		this.directory = directory;
+	}
+
+	/**
+	 * Writes a request to the journal, and returns the file it is written to.
+	 */
+	public File write(String correlationID, String message, Map context) throws IOException {
+		// the timestamp keeps the files in order over restarts, the sequence within the same millisecond
+		String name = System.currentTimeMillis() + "-" + String.format("%010d", sequence.incrementAndGet());
+		File tempFile = new File(directory, name + TEMP_EXTENSION);
+		File file = new File(directory, name + EXTENSION);
+		HashMap<String, Object> journaledContext = new HashMap<String, Object>();
+		if (context != null) {
+			for (Iterator it = context.entrySet().iterator(); it.hasNext();) {
+				Map.Entry entry = (Map.Entry)it.next();
+				Object value = entry.getValue();
+				if (value != null && JOURNALED_CLASSES.contains(value.getClass().getName())) {
+					journaledContext.put(String.valueOf(entry.getKey()), value);
+				}
+			}
+		}
+		FileOutputStream fos = new FileOutputStream(tempFile);
+		try {
+			ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(fos));
+			oos.writeObject(correlationID);
+			oos.writeObject(message);
+			oos.writeObject(journaledContext);
+			oos.flush();
+			fos.getFD().sync();
+		} finally {
+			fos.close();
+		}
+		if (!tempFile.renameTo(file)) {
+			tempFile.delete();
+			throw new IOException("cannot rename journal file ["+tempFile.getPath()+"] to ["+file.getName()+"]");
+		}
+		return file;
+	}
+
+	public void remove(File file) {
+		if (file != null && !file.delete() && file.exists()) {
+			log.warn("cannot delete journal file ["+file.getPath()+"]");
+		}
+	}
+
+	/**
+	 * Renames the file of a request that failed to <code>*.failed</code>, so that it is not recovered.
+	 */
+	public void markFailed(File file) {
+		if (file != null && !file.renameTo(new File(directory, file.getName() + FAILED_EXTENSION))) {
+			log.warn("cannot rename journal file ["+file.getPath()+"] of failed request to ["+file.getName() + FAILED_EXTENSION+"]");
+		}
+	}
+
+	/**
+	 * Returns the requests in the journal, in the order in which they were written. Files that
+	 * cannot be read are renamed to <code>*.corrupt</code> and skipped.
+	 */
+	public List<Entry> recover() {
+		File[] files = directory.listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.endsWith(EXTENSION);
+			}
+		});
+		List<Entry> result = new ArrayList<Entry>();
+		if (files == null) {
+			return result;
+		}
+		Arrays.sort(files);
+		for (File file : files) {
+			try {
+				ObjectInputStream ois = new JournalInputStream(new BufferedInputStream(new FileInputStream(file)));
+				try {
+					String correlationID = (String)ois.readObject();
+					String message = (String)ois.readObject();
+					HashMap context = (HashMap)ois.readObject();
+					result.add(new Entry(file, correlationID, message, context));
+				} finally {
+					ois.close();
+				}
+			} catch (Exception e) {
+				File corruptFile = new File(directory, file.getName() + CORRUPT_EXTENSION);
+				log.warn("cannot read journal file ["+file.getPath()+"], renaming it to ["+corruptFile.getName()+"]", e);
+				file.renameTo(corruptFile);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Reads only the classes that are written to the journal.
+	 */
+	private static class JournalInputStream extends ObjectInputStream {
+
+		JournalInputStream(InputStream in) throws IOException {
+			super(in);
+		}
+
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+			if (!ACCEPTED_CLASSES.contains(desc.getName())) {
+				throw new InvalidClassException(desc.getName(), "class is not allowed in journal");
+			}
+			return super.resolveClass(desc);
+		}
+
+		@Override
+		protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+			throw new InvalidClassException("proxy classes are not allowed in journal");
+		}
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+}
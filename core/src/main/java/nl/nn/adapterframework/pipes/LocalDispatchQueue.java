@@ -0,0 +1,334 @@
+/*
+   Copyright 2018 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.pipes;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nl.nn.adapterframework.core.ListenerException;
+import nl.nn.adapterframework.receivers.JavaListener;
+import nl.nn.adapterframework.receivers.ServiceDispatcher;
+import nl.nn.adapterframework.statistics.StatisticsKeeper;
+import nl.nn.adapterframework.util.LogUtil;
+
+import org.apache.log4j.Logger;
+import org.springframework.core.task.TaskExecutor;
+
+/**
+ * Bounded queue of asynchronous calls to a single local service or JavaListener, processed by
+ * at most <code>workers</code> threads of the task executor.
+ * <p>
+ * Workers are only started when there are requests in the queue, and stop when the queue is
+ * empty. When the queue is full, a new request is handled according to the reject policy:
+ * <ul>
+ *   <li>{@link #REJECT_POLICY_REJECT reject}: a ListenerException is thrown</li>
+ *   <li>{@link #REJECT_POLICY_CALLER_RUNS callerRuns}: the request is processed by the calling thread</li>
+ *   <li>{@link #REJECT_POLICY_BLOCK block}: the calling thread waits until there is room in the queue,
+ *       at most <code>blockTimeout</code> ms when it is larger than 0</li>
+ * </ul>
+ * When a {@link LocalDispatchJournal} is set, requests are journaled before they are queued. A request is
+ * removed from the journal when it has been processed successfully; a request that failed is kept in the
+ * journal as failed. A recovered request whose target does not become available is not processed, and
+ * stays in the journal to be recovered again at the next start.
+ *
+ * @since   7.0
+ */
+public class LocalDispatchQueue {
+	protected Logger log = LogUtil.getLogger(this);
+
+	public static final String REJECT_POLICY_REJECT = "reject";
+	public static final String REJECT_POLICY_CALLER_RUNS = "callerRuns";
+	public static final String REJECT_POLICY_BLOCK = "block";
+
+	private String target;
+	private boolean targetIsJavaListener;
+	private TaskExecutor taskExecutor;
+	private int workers;
+	private int maxQueueSize;
+	private String rejectPolicy;
+	private long blockTimeout;
+	private LocalDispatchJournal journal;
+	private long recoveryTimeout;
+	private List<LocalDispatchJournal.Entry> recoveredEntries;
+
+	private BlockingQueue<Request> queue;
+	private AtomicInteger activeWorkers = new AtomicInteger();
+	private AtomicInteger inFlight = new AtomicInteger();
+	private AtomicLong processed = new AtomicLong();
+	private AtomicLong failed = new AtomicLong();
+	private AtomicLong rejected = new AtomicLong();
+	private AtomicLong callerRuns = new AtomicLong();
+	private StatisticsKeeper waitStatistics = new StatisticsKeeper("wait time");
+
+	private class Request {
+		String correlationID;
+		String message;
+		HashMap context;
+		File journalFile;
+		boolean recovered;
+		long enqueued = System.currentTimeMillis();
+
+		Request(String correlationID, String message, HashMap context) {
+			this.correlationID = correlationID;
+			this.message = message;
+			this.context = context;
+		}
+	}
+
+	private class Worker implements Runnable {
+		public void run() {
+			try {
+				Request request;
+				while ((request = queue.poll()) != null) {
+					process(request);
+				}
+			} finally {
+				activeWorkers.decrementAndGet();
+			}
+			// a request may have been queued after the last poll, while this worker still counted as active
+			startWorkerIfNeeded();
+		}
+	}
+
+	public LocalDispatchQueue(String target, boolean targetIsJavaListener, TaskExecutor taskExecutor, int workers, int maxQueueSize, String rejectPolicy, long blockTimeout) throws ListenerException {
+		super();
+		if (!REJECT_POLICY_REJECT.equals(rejectPolicy) && !REJECT_POLICY_CALLER_RUNS.equals(rejectPolicy) && !REJECT_POLICY_BLOCK.equals(rejectPolicy)) {
+			throw new ListenerException("illegal value for rejectPolicy ["+rejectPolicy+"] of target ["+target+"], must be one of ["+REJECT_POLICY_REJECT+", "+REJECT_POLICY_CALLER_RUNS+", "+REJECT_POLICY_BLOCK+"]");
+		}
+		this.target = target;
+		this.targetIsJavaListener = targetIsJavaListener;
+		this.taskExecutor = taskExecutor;
+		this.workers = Math.max(workers, 1);
+		this.maxQueueSize = Math.max(maxQueueSize, 1);
+		this.rejectPolicy = rejectPolicy;
+		this.blockTimeout = blockTimeout;
+		queue = new LinkedBlockingQueue<Request>(this.maxQueueSize);
+	}
+
+	/**
+	 * Sets the journal of this queue, and reads the requests that it still contains. These are
+	 * queued by {@link #recoverJournal()}, that must be called after the queue has been made
+	 * available to callers, so that it does not read the requests that they journal.
+	 * Recovered requests wait at most <code>recoveryTimeout</code> ms for the target to become available.
+	 */
+	public void setJournal(LocalDispatchJournal journal, long recoveryTimeout) {
+		this.journal = journal;
+		this.recoveryTimeout = recoveryTimeout;
+		recoveredEntries = journal.recover();
+	}
+
+	/**
+	 * Queues the requests that were read from the journal by {@link #setJournal(LocalDispatchJournal, long)}.
+	 * Waits for room in the queue when there are more of them than fit, so it is best called in a thread of
+	 * its own.
+	 */
+	public void recoverJournal() {
+		List<LocalDispatchJournal.Entry> entries = recoveredEntries;
+		recoveredEntries = null;
+		if (entries == null || entries.isEmpty()) {
+			return;
+		}
+		log.info("recovering ["+entries.size()+"] requests for target ["+target+"] from journal ["+journal.getDirectory().getPath()+"]");
+		for (LocalDispatchJournal.Entry entry : entries) {
+			Request request = new Request(entry.getCorrelationID(), entry.getMessage(), entry.getContext());
+			request.journalFile = entry.getFile();
+			request.recovered = true;
+			try {
+				while (!queue.offer(request, 1, TimeUnit.SECONDS)) {
+					startWorkerIfNeeded();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				log.warn("interrupted while recovering requests for target ["+target+"], remaining requests stay in the journal");
+				return;
+			}
+			startWorkerIfNeeded();
+		}
+	}
+
+	public void dispatch(String correlationID, String message, HashMap context) throws ListenerException {
+		Request request = new Request(correlationID, message, context);
+		if (journal != null) {
+			try {
+				request.journalFile = journal.write(correlationID, message, context);
+			} catch (IOException e) {
+				throw new ListenerException("cannot journal request for target ["+target+"]", e);
+			}
+		}
+		if (!queue.offer(request)) {
+			if (REJECT_POLICY_CALLER_RUNS.equals(rejectPolicy)) {
+				callerRuns.incrementAndGet();
+				process(request);
+				return;
+			}
+			if (REJECT_POLICY_BLOCK.equals(rejectPolicy)) {
+				startWorkerIfNeeded();
+				try {
+					if (blockTimeout > 0) {
+						if (!queue.offer(request, blockTimeout, TimeUnit.MILLISECONDS)) {
+							reject(request, "queue for target ["+target+"] is still full after waiting ["+blockTimeout+"] ms");
+						}
+					} else {
+						queue.put(request);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					reject(request, "interrupted while waiting for room in queue for target ["+target+"]");
+				}
+			} else {
+				reject(request, "queue for target ["+target+"] is full, ["+maxQueueSize+"] requests are waiting");
+			}
+		}
+		startWorkerIfNeeded();
+	}
+
+	private void reject(Request request, String message) throws ListenerException {
+		rejected.incrementAndGet();
+		if (journal != null) {
+			journal.remove(request.journalFile);
+		}
+		throw new ListenerException(message);
+	}
+
+	private void startWorkerIfNeeded() {
+		while (!queue.isEmpty()) {
+			int active = activeWorkers.get();
+			if (active >= workers) {
+				return;
+			}
+			if (activeWorkers.compareAndSet(active, active + 1)) {
+				try {
+					taskExecutor.execute(new Worker());
+				} catch (RuntimeException e) {
+					activeWorkers.decrementAndGet();
+					log.warn("cannot start worker for target ["+target+"], ["+queue.size()+"] requests remain queued", e);
+				}
+				return;
+			}
+		}
+	}
+
+	private void process(Request request) {
+		synchronized (waitStatistics) {
+			waitStatistics.addValue(System.currentTimeMillis() - request.enqueued);
+		}
+		inFlight.incrementAndGet();
+		boolean success = false;
+		try {
+			if (request.recovered && !waitForTarget()) {
+				// keep the request in the journal, to be recovered again at the next start
+				log.warn("target ["+target+"] did not become available within ["+recoveryTimeout+"] ms, request with correlationID ["+request.correlationID+"] stays in journal");
+				request.journalFile = null;
+				return;
+			}
+			IsolatedServiceExecutor ise = new IsolatedServiceExecutor(target, request.correlationID, request.message, request.context, targetIsJavaListener, null);
+			ise.run();
+			success = ise.getThrowable() == null;
+		} finally {
+			if (!success) {
+				failed.incrementAndGet();
+			}
+			processed.incrementAndGet();
+			inFlight.decrementAndGet();
+			if (journal != null && request.journalFile != null) {
+				if (success) {
+					journal.remove(request.journalFile);
+				} else {
+					journal.markFailed(request.journalFile);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Waits at most <code>recoveryTimeout</code> ms for the target to become available.
+	 */
+	private boolean waitForTarget() {
+		long timeout = System.currentTimeMillis() + recoveryTimeout;
+		while (!isTargetAvailable()) {
+			if (System.currentTimeMillis() >= timeout) {
+				return false;
+			}
+			try {
+				log.debug("waiting for target ["+target+"] to become available");
+				Thread.sleep(1000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean isTargetAvailable() {
+		if (targetIsJavaListener) {
+			JavaListener listener = JavaListener.getListener(target);
+			return listener != null && listener.isOpen();
+		}
+		return ServiceDispatcher.getInstance().isRegisteredServiceListener(target);
+	}
+
+	public String getTarget() {
+		return target;
+	}
+	public boolean isTargetIsJavaListener() {
+		return targetIsJavaListener;
+	}
+	public int getWorkers() {
+		return workers;
+	}
+	public int getMaxQueueSize() {
+		return maxQueueSize;
+	}
+	public String getRejectPolicy() {
+		return rejectPolicy;
+	}
+	public boolean isJournaled() {
+		return journal != null;
+	}
+
+	public int getQueueDepth() {
+		return queue.size();
+	}
+	public int getInFlight() {
+		return inFlight.get();
+	}
+	public int getActiveWorkers() {
+		return activeWorkers.get();
+	}
+	public long getProcessed() {
+		return processed.get();
+	}
+	public long getFailed() {
+		return failed.get();
+	}
+	public long getRejected() {
+		return rejected.get();
+	}
+	public long getCallerRuns() {
+		return callerRuns.get();
+	}
+	public StatisticsKeeper getWaitStatistics() {
+		return waitStatistics;
+	}
+}
@@ -1,5 +1,5 @@
 /*
-   Copyright 2013, 2015, 2016 Nationale-Nederlanden
+   Copyright 2013, 2015, 2016, 2018 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -52,8 +52,11 @@ import nl.nn.adapterframework.parameters.ParameterResolutionContext;
 import nl.nn.adapterframework.processors.ListenerProcessor;
 import nl.nn.adapterframework.processors.PipeProcessor;
 import nl.nn.adapterframework.senders.MailSender;
+import nl.nn.adapterframework.senders.SenderWrapperBase;
 import nl.nn.adapterframework.soap.WsdlUtils;
 import nl.nn.adapterframework.statistics.HasStatistics;
+import nl.nn.adapterframework.statistics.MessageTrace;
+import nl.nn.adapterframework.statistics.MessageTracer;
 import nl.nn.adapterframework.statistics.StatisticsKeeper;
 import nl.nn.adapterframework.statistics.StatisticsKeeperIterationHandler;
 import nl.nn.adapterframework.util.AppConstants;
@@ -803,13 +806,24 @@ public class MessageSendingPipe extends FixedForwardPipe implements HasSender, H
 		if (input!=null && !(input instanceof String)) {
 			throw new SenderException("String expected, got a [" + input.getClass().getName() + "]");
 		}
-		// sendResult has a messageID for async senders, the result for sync senders
-		if (sender instanceof ISenderWithParameters) { // do not only check own parameters, sender may have them by itself
-			ISenderWithParameters psender = (ISenderWithParameters) sender;
-			ParameterResolutionContext prc = new ParameterResolutionContext((String)input, session, isNamespaceAware());
-			return psender.sendMessage(correlationID, (String) input, prc);
-		} 
-		return sender.sendMessage(correlationID, (String) input);
+		// the span of a SenderWrapper is added by the TracingSenderWrapperProcessor
+		MessageTrace.Span span = sender instanceof SenderWrapperBase ? null : MessageTracer.startSpan(MessageTrace.KIND_SENDER, sender.getName());
+		boolean error = true;
+		try {
+			String result;
+			// sendResult has a messageID for async senders, the result for sync senders
+			if (sender instanceof ISenderWithParameters) { // do not only check own parameters, sender may have them by itself
+				ISenderWithParameters psender = (ISenderWithParameters) sender;
+				ParameterResolutionContext prc = new ParameterResolutionContext((String)input, session, isNamespaceAware());
+				result = psender.sendMessage(correlationID, (String) input, prc);
+			} else {
+				result = sender.sendMessage(correlationID, (String) input);
+			}
+			error = false;
+			return result;
+		} finally {
+			MessageTracer.endSpan(span, error);
+		}
 	}
 
 	public int increaseRetryIntervalAndWait(IPipeLineSession session, int retryInterval, String description) throws InterruptedException {
@@ -0,0 +1,46 @@
+/*
+   Copyright 2018 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.processors;
+
+import nl.nn.adapterframework.core.IPipe;
+import nl.nn.adapterframework.core.IPipeLineSession;
+import nl.nn.adapterframework.core.PipeLine;
+import nl.nn.adapterframework.core.PipeRunException;
+import nl.nn.adapterframework.core.PipeRunResult;
+import nl.nn.adapterframework.statistics.MessageTrace;
+import nl.nn.adapterframework.statistics.MessageTracer;
+
+/**
+ * PipeProcessor that adds a span for each pipe to the trace of the message.
+ * 
+ * @see MessageTracer
+ * @since   7.0
+ */
+public class TracingPipeProcessor extends PipeProcessorBase {
+
+	public PipeRunResult processPipe(PipeLine pipeLine, IPipe pipe, String messageId, Object message, IPipeLineSession pipeLineSession) throws PipeRunException {
+		MessageTrace.Span span = MessageTracer.startSpan(MessageTrace.KIND_PIPE, pipe.getName());
+		boolean error = true;
+		try {
+			PipeRunResult pipeRunResult = pipeProcessor.processPipe(pipeLine, pipe, messageId, message, pipeLineSession);
+			error = false;
+			return pipeRunResult;
+		} finally {
+			MessageTracer.endSpan(span, error);
+		}
+	}
+
+}
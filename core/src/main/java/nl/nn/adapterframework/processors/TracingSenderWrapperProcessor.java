@@ -0,0 +1,45 @@
+/*
+   Copyright 2018 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.processors;
+
+import nl.nn.adapterframework.core.SenderException;
+import nl.nn.adapterframework.core.TimeOutException;
+import nl.nn.adapterframework.parameters.ParameterResolutionContext;
+import nl.nn.adapterframework.senders.SenderWrapperBase;
+import nl.nn.adapterframework.statistics.MessageTrace;
+import nl.nn.adapterframework.statistics.MessageTracer;
+
+/**
+ * SenderWrapperProcessor that adds a span for each call of the sender to the trace of the message.
+ * 
+ * @see MessageTracer
+ * @since   7.0
+ */
+public class TracingSenderWrapperProcessor extends SenderWrapperProcessorBase {
+
+	public String sendMessage(SenderWrapperBase senderWrapperBase, String correlationID, String message, ParameterResolutionContext prc) throws SenderException, TimeOutException {
+		MessageTrace.Span span = MessageTracer.startSpan(MessageTrace.KIND_SENDER, senderWrapperBase.getName());
+		boolean error = true;
+		try {
+			String result = senderWrapperProcessor.sendMessage(senderWrapperBase, correlationID, message, prc);
+			error = false;
+			return result;
+		} finally {
+			MessageTracer.endSpan(span, error);
+		}
+	}
+
+}
@@ -319,10 +319,9 @@ public class DirectoryListener implements IPullingListener, INamedObject, HasPhy
 	}
 	
 	private IPipeLineSession getSession(Map threadContext) {
-		IPipeLineSession session = new PipeLineSessionBase();
 		if(threadContext != null)
-			session.putAll(threadContext);
-		return session;
+			return PipeLineSessionBase.createChildSession(threadContext);
+		return new PipeLineSessionBase();
 	}
 
 
@@ -0,0 +1,216 @@
+/*
+   Copyright 2018 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.receivers;
+
+import java.io.Serializable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nl.nn.adapterframework.cache.ICacheAdapter;
+import nl.nn.adapterframework.core.SenderException;
+import nl.nn.adapterframework.statistics.StatisticsKeeperIterationHandler;
+import nl.nn.adapterframework.util.LogUtil;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Concurrent cache of information per messageId, bounded in size and optionally in age.
+ * <p>
+ * Entries are evicted in order of insertion, like a LinkedHashMap with removeEldestEntry,
+ * but without a global lock: lookups and updates of existing entries only touch a
+ * ConcurrentHashMap. When a backing {@link ICacheAdapter} is set, entries are written
+ * through to it and looked up in it when not found locally, so that information about a
+ * message can be shared between the nodes of a cluster.
+ *
+ * @since   7.0
+ */
+public class MessageIdCache<V> {
+	protected Logger log = LogUtil.getLogger(this);
+
+	private String name;
+	private int maxSize;
+	private long maxAgeMillis;
+	private ICacheAdapter backingCache;
+	private String backingKeyPrefix;
+
+	private ConcurrentHashMap<String, CacheEntry<V>> entries = new ConcurrentHashMap<String, CacheEntry<V>>();
+	private ConcurrentLinkedQueue<CacheEntry<V>> insertionOrder = new ConcurrentLinkedQueue<CacheEntry<V>>();
+
+	private AtomicLong hits = new AtomicLong();
+	private AtomicLong misses = new AtomicLong();
+	private AtomicLong evictions = new AtomicLong();
+	private AtomicLong backingHits = new AtomicLong();
+
+	private static class CacheEntry<V> {
+		final String key;
+		final long created;
+		volatile V value;
+
+		CacheEntry(String key, V value, long created) {
+			this.key = key;
+			this.value = value;
+			this.created = created;
+		}
+	}
+
+	public MessageIdCache(String name, int maxSize) {
+		super();
+		this.name = name;
+		this.maxSize = maxSize;
+	}
+
+	public V get(String messageId) {
+		long now = System.currentTimeMillis();
+		CacheEntry<V> entry = entries.get(messageId);
+		if (entry != null && isExpired(entry, now)) {
+			if (entries.remove(messageId, entry)) {
+				evictions.incrementAndGet();
+			}
+			entry = null;
+		}
+		if (entry != null) {
+			hits.incrementAndGet();
+			return entry.value;
+		}
+		if (backingCache != null) {
+			V value = getFromBackingCache(messageId);
+			if (value != null) {
+				backingHits.incrementAndGet();
+				putLocal(messageId, value, now);
+				return value;
+			}
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	public boolean containsKey(String messageId) {
+		return get(messageId) != null;
+	}
+
+	public void put(String messageId, V value) {
+		putLocal(messageId, value, System.currentTimeMillis());
+		putInBackingCache(messageId, value);
+	}
+
+	private void putInBackingCache(String messageId, V value) {
+		if (backingCache != null && value instanceof Serializable) {
+			try {
+				backingCache.put(backingKeyPrefix + messageId, (Serializable)value);
+			} catch (Exception e) {
+				log.warn("cannot store messageId [" + messageId + "] in backing cache of [" + name + "]", e);
+			}
+		}
+	}
+
+	/**
+	 * Stores the value only when no value is present yet, and returns the value that is present.
+	 */
+	public V putIfAbsent(String messageId, V value) {
+		V existing = get(messageId);
+		if (existing != null) {
+			return existing;
+		}
+		CacheEntry<V> entry = new CacheEntry<V>(messageId, value, System.currentTimeMillis());
+		CacheEntry<V> existingEntry = entries.putIfAbsent(messageId, entry);
+		if (existingEntry != null) {
+			return existingEntry.value;
+		}
+		insertionOrder.offer(entry);
+		evict(entry.created);
+		putInBackingCache(messageId, value);
+		return value;
+	}
+
+	private void putLocal(String messageId, V value, long now) {
+		CacheEntry<V> entry = new CacheEntry<V>(messageId, value, now);
+		CacheEntry<V> existing = entries.putIfAbsent(messageId, entry);
+		if (existing != null) {
+			// keep the position of the entry in the eviction order, like LinkedHashMap does
+			existing.value = value;
+			return;
+		}
+		insertionOrder.offer(entry);
+		evict(now);
+	}
+
+	@SuppressWarnings("unchecked")
+	private V getFromBackingCache(String messageId) {
+		try {
+			return (V)backingCache.get(backingKeyPrefix + messageId);
+		} catch (Exception e) {
+			log.warn("cannot retrieve messageId [" + messageId + "] from backing cache of [" + name + "]", e);
+			return null;
+		}
+	}
+
+	private void evict(long now) {
+		CacheEntry<V> eldest;
+		while ((eldest = insertionOrder.peek()) != null && (entries.size() > maxSize || isExpired(eldest, now))) {
+			if (insertionOrder.remove(eldest) && entries.remove(eldest.key, eldest)) {
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+	private boolean isExpired(CacheEntry<V> entry, long now) {
+		return maxAgeMillis > 0 && now - entry.created > maxAgeMillis;
+	}
+
+	public void iterateOverStatistics(StatisticsKeeperIterationHandler hski, Object data) throws SenderException {
+		hski.handleScalar(data, name + "Size", entries.size());
+		hski.handleScalar(data, name + "Hits", hits.get());
+		hski.handleScalar(data, name + "Misses", misses.get());
+		hski.handleScalar(data, name + "Evictions", evictions.get());
+		if (backingCache != null) {
+			hski.handleScalar(data, name + "BackingHits", backingHits.get());
+		}
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+	}
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public void setMaxAgeMillis(long maxAgeMillis) {
+		this.maxAgeMillis = maxAgeMillis;
+	}
+	public long getMaxAgeMillis() {
+		return maxAgeMillis;
+	}
+
+	public void setBackingCache(ICacheAdapter backingCache, String keyPrefix) {
+		this.backingCache = backingCache;
+		this.backingKeyPrefix = keyPrefix;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+	public long getMisses() {
+		return misses.get();
+	}
+	public long getEvictions() {
+		return evictions.get();
+	}
+}
@@ -0,0 +1,54 @@
+/*
+   Copyright 2018 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.receivers;
+
+/**
+ * Signal to a {@link PullingListenerContainer} that new messages are available, so that it polls
+ * its listener right away instead of waiting for the pollInterval to expire.
+ * <p>
+ * A signal only shortens the wait: the listener is still polled after the pollInterval when no
+ * signal is given, and a signal that is given while the container is not waiting makes the next
+ * wait end immediately.
+ *
+ * @since   7.0
+ */
+public class PollSignal {
+
+	private boolean signalled = false;
+
+	public synchronized void signal() {
+		signalled = true;
+		notifyAll();
+	}
+
+	/**
+	 * Waits at most <code>timeout</code> ms for a signal.
+	 *
+	 * @return <code>true</code> when a signal was given, that is then cleared
+	 */
+	public synchronized boolean await(long timeout) throws InterruptedException {
+		long end = System.currentTimeMillis() + timeout;
+		while (!signalled) {
+			long remaining = end - System.currentTimeMillis();
+			if (remaining <= 0) {
+				return false;
+			}
+			wait(remaining);
+		}
+		signalled = false;
+		return true;
+	}
+}
@@ -0,0 +1,29 @@
+/*
+   Copyright 2018 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.receivers;
+
+/**
+ * When a pulling listener implements this interface it will get the {@link PollSignal} of
+ * the {@link PullingListenerContainer} that polls it, to make the container poll right away
+ * when it knows that new messages are available.
+ *
+ * @since   7.0
+ */
+public interface PollSignalAware {
+
+	public void setPollSignal(PollSignal pollSignal);
+
+}
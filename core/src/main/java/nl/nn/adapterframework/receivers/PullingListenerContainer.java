@@ -1,5 +1,5 @@
 /*
-   Copyright 2013 Nationale-Nederlanden
+   Copyright 2013, 2018 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -15,12 +15,20 @@
 */
 package nl.nn.adapterframework.receivers;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import nl.nn.adapterframework.core.Adapter;
 import nl.nn.adapterframework.core.IPullingListener;
 import nl.nn.adapterframework.core.IThreadCountControllable;
 import nl.nn.adapterframework.core.ListenerException;
+import nl.nn.adapterframework.statistics.MessageTrace;
+import nl.nn.adapterframework.statistics.MessageTracer;
 import nl.nn.adapterframework.util.Counter;
 import nl.nn.adapterframework.util.LogUtil;
 import nl.nn.adapterframework.util.RunStateEnum;
@@ -54,15 +62,21 @@ public class PullingListenerContainer implements IThreadCountControllable {
 	private Semaphore processToken = null;	// guard against to many messages being processed at the same time
     private Semaphore pollToken = null;     // guard against to many threads polling at the same time 
 	private boolean idle=false;   			// true if the last messages received was null, will cause wait loop
+	private int idleInterval;				// seconds to wait when idle, between minPollInterval and pollInterval
+	private PollSignal pollSignal = new PollSignal();
     private int retryInterval=1;
     private int maxThreadCount=1;
+	private Set<String> failedBatchMessageIds = new LinkedHashSet<String>(); // messages of rolled back batches, to be processed one by one
+	private int maxFailedBatchMessageIds;
+
+	private static final long BATCH_POLL_INTERVAL = 100;	// ms to wait before polling again when a batch is being filled
  
 	/**
 	 * The thread-pool for spawning threads, injected by Spring
 	 */
 	private TaskExecutor taskExecutor;
    
-    private PullingListenerContainer() {
+    PullingListenerContainer() {
         super();
     }
     
@@ -72,6 +86,12 @@ public class PullingListenerContainer implements IThreadCountControllable {
         }
 		processToken = new Semaphore(receiver.getNumThreads());
 		maxThreadCount=receiver.getNumThreads();
+		// enough to remember the messages of the batches of all threads failing twice
+		maxFailedBatchMessageIds=2*receiver.getBatchSize()*Math.max(receiver.getNumThreads(),1);
+		idleInterval=getMinPollInterval();
+		if (receiver.getListener() instanceof PollSignalAware) {
+			((PollSignalAware)receiver.getListener()).setPollSignal(pollSignal);
+		}
         if (receiver.isTransacted()) {
 			DefaultTransactionDefinition txDef = new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
          	if (receiver.getTransactionTimeout()>0) {
@@ -133,10 +153,7 @@ public class PullingListenerContainer implements IThreadCountControllable {
 						pollToken.acquire();
 					}
 					if (isIdle() && receiver.getPollInterval()>0) {
-						if (log.isDebugEnabled() && receiver.getPollInterval()>600)log.debug(receiver.getLogPrefix()+"is idle, sleeping for ["+receiver.getPollInterval()+"] seconds");
-						for (int i=0; i<receiver.getPollInterval() && receiver.isInRunState(RunStateEnum.STARTED); i++) {
-							Thread.sleep(1000);
-						}
+						waitWhileIdle();
 					}
 					taskExecutor.execute(new ListenTask());
 				}
@@ -150,7 +167,174 @@ public class PullingListenerContainer implements IThreadCountControllable {
 		}
 	}
     
-    private class ListenTask implements SchedulingAwareRunnable {
+	private boolean isBatching() {
+		return receiver.getBatchSize() > 1;
+	}
+
+	/**
+	 * Adds messages to the batch that contains the first message, until it contains <code>batchSize</code>
+	 * messages or no more messages have become available within <code>batchTimeout</code> ms. Collecting
+	 * stops at a message of a batch that has been rolled back.
+	 *
+	 * @return <code>true</code> when the batch contains a message of a batch that has been rolled back, and must be processed one by one
+	 */
+	private boolean collectBatch(IPullingListener listener, Map initialThreadContext, List rawMessages, List threadContexts, List messageIds) {
+		long batchEnd = System.currentTimeMillis() + receiver.getBatchTimeout();
+		while (rawMessages.size() < receiver.getBatchSize() && receiver.isInRunState(RunStateEnum.STARTED)) {
+			Map threadContext = new HashMap(initialThreadContext);
+			Object rawMessage;
+			try {
+				rawMessage = listener.getRawMessage(threadContext);
+			} catch (ListenerException e) {
+				log.warn(receiver.getLogPrefix()+"exception retrieving message for batch, will process batch of ["+rawMessages.size()+"] messages", e);
+				return false;
+			}
+			if (rawMessage != null) {
+				String messageId = getMessageId(listener, rawMessage, threadContext);
+				rawMessages.add(rawMessage);
+				threadContexts.add(threadContext);
+				messageIds.add(messageId);
+				if (isMessageOfFailedBatch(messageId)) {
+					log.info(receiver.getLogPrefix()+"message ["+messageId+"] was part of a batch that has been rolled back, will process ["+rawMessages.size()+"] messages one by one");
+					return true;
+				}
+				continue;
+			}
+			long timeLeft = batchEnd - System.currentTimeMillis();
+			if (timeLeft <= 0) {
+				return false;
+			}
+			try {
+				Thread.sleep(Math.min(timeLeft, BATCH_POLL_INTERVAL));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return false;
+	}
+
+	private String getMessageId(IPullingListener listener, Object rawMessage, Map threadContext) {
+		try {
+			String technicalCorrelationId = listener.getIdFromRawMessage(rawMessage, threadContext);
+			String messageId = (String)threadContext.get("id");
+			return messageId != null ? messageId : technicalCorrelationId;
+		} catch (ListenerException e) {
+			log.warn(receiver.getLogPrefix()+"cannot determine messageId of message", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Processes a batch of messages in a single pipeline run. When that fails, a transacted batch is rolled back,
+	 * and the messages of the batch are processed one by one when they are delivered again; the messages of a
+	 * batch that is not transacted are processed one by one directly.
+	 */
+	private void processBatch(IPullingListener listener, List rawMessages, List threadContexts, List messageIds, TransactionStatus txStatus) throws ListenerException {
+		if (receiver.processRawMessageBatch(listener, rawMessages, threadContexts)) {
+			return;
+		}
+		if (txStatus != null) {
+			txStatus.setRollbackOnly();
+			registerFailedBatch(messageIds);
+			return;
+		}
+		log.info(receiver.getLogPrefix()+"processing ["+rawMessages.size()+"] messages of failed batch one by one");
+		processOneByOne(listener, rawMessages, threadContexts);
+	}
+
+	private void processOneByOne(IPullingListener listener, List rawMessages, List threadContexts) throws ListenerException {
+		ListenerException firstException = null;
+		for (int i = 0; i < rawMessages.size(); i++) {
+			try {
+				receiver.processRawMessage(listener, rawMessages.get(i), (Map)threadContexts.get(i));
+			} catch (ListenerException e) {
+				if (firstException == null) {
+					firstException = e;
+				} else {
+					receiver.error(receiver.getLogPrefix()+"caught Exception processing message of failed batch", e);
+				}
+			}
+		}
+		if (firstException != null) {
+			throw firstException;
+		}
+	}
+
+	/**
+	 * Remembers the messages of a batch that has been rolled back; when they are delivered again, they are
+	 * processed one by one, until they have been processed in a transaction that is committed.
+	 */
+	private void registerFailedBatch(List messageIds) {
+		log.info(receiver.getLogPrefix()+"batch rolled back, will process its ["+messageIds.size()+"] messages one by one");
+		synchronized (failedBatchMessageIds) {
+			for (Iterator it = messageIds.iterator(); it.hasNext();) {
+				String messageId = (String)it.next();
+				if (messageId != null) {
+					failedBatchMessageIds.add(messageId);
+				}
+			}
+			for (Iterator it = failedBatchMessageIds.iterator(); failedBatchMessageIds.size() > maxFailedBatchMessageIds && it.hasNext();) {
+				log.warn(receiver.getLogPrefix()+"no longer remembers that message ["+it.next()+"] was part of a batch that has been rolled back");
+				it.remove();
+			}
+		}
+	}
+
+	private boolean isMessageOfFailedBatch(String messageId) {
+		if (messageId == null) {
+			return false;
+		}
+		synchronized (failedBatchMessageIds) {
+			return failedBatchMessageIds.contains(messageId);
+		}
+	}
+
+	private void removeMessagesOfFailedBatch(List messageIds) {
+		synchronized (failedBatchMessageIds) {
+			failedBatchMessageIds.removeAll(messageIds);
+		}
+	}
+
+	/**
+	 * Starts the trace of a message that is processed in a transaction of this container, so that the commit
+	 * or rollback of that transaction is part of it; processing the message adds a receiver span to this trace.
+	 */
+	private MessageTrace.Span startTrace(IPullingListener listener, Object rawMessage, Map threadContext, List messageIds) {
+		if (!MessageTracer.isActive() || !(receiver.getAdapter() instanceof Adapter)) {
+			return null;
+		}
+		String messageId = messageIds != null ? (String)messageIds.get(0) : getMessageId(listener, rawMessage, threadContext);
+		return MessageTracer.startMessage(((Adapter)receiver.getAdapter()).getMessageTraceBuffer(), receiver.getName(), messageId, -1);
+	}
+
+	/**
+	 * Commits or rolls back the transaction of this container in a span of the current message trace.
+	 */
+	private void completeTransaction(TransactionStatus txStatus, boolean rollback) {
+		MessageTrace.Span span = MessageTracer.startSpan(MessageTrace.KIND_COMMIT, "receiver [" + receiver.getName() + "]");
+		boolean error = rollback;
+		try {
+			if (rollback) {
+				txManager.rollback(txStatus);
+			} else {
+				txManager.commit(txStatus);
+			}
+		} catch (RuntimeException e) {
+			error = true;
+			throw e;
+		} finally {
+			MessageTracer.endSpan(span, error);
+		}
+	}
+
+	int getFailedBatchMessageCount() {
+		synchronized (failedBatchMessageIds) {
+			return failedBatchMessageIds.size();
+		}
+	}
+
+    class ListenTask implements SchedulingAwareRunnable {
 
 		public boolean isLongLived() {
 			return false;
@@ -170,15 +354,34 @@ public class PullingListenerContainer implements IThreadCountControllable {
 					}
 					long startProcessingTimestamp;
 					Object rawMessage = null;
+					List rawMessages = null;
+					List threadContexts = null;
+					List messageIds = null;
+					boolean oneByOne = false;
 					TransactionStatus txStatus = null;
 					try {
 						try {
 							if (receiver.isTransacted()) {
 								txStatus = txManager.getTransaction(txNew);
 							}
+							Map initialThreadContext = isBatching() ? new HashMap(threadContext) : null;
 							rawMessage = listener.getRawMessage(threadContext);
 							resetRetryInterval();
 							setIdle(rawMessage==null);
+							if (rawMessage != null && initialThreadContext != null) {
+								rawMessages = new ArrayList();
+								threadContexts = new ArrayList();
+								messageIds = new ArrayList();
+								String messageId = getMessageId(listener, rawMessage, threadContext);
+								rawMessages.add(rawMessage);
+								threadContexts.add(threadContext);
+								messageIds.add(messageId);
+								if (isMessageOfFailedBatch(messageId)) {
+									oneByOne = true;
+								} else {
+									oneByOne = collectBatch(listener, initialThreadContext, rawMessages, threadContexts, messageIds);
+								}
+							}
 						} catch (Exception e) {
 							if (txStatus!=null) {
 								txManager.rollback(txStatus);
@@ -202,19 +405,39 @@ public class PullingListenerContainer implements IThreadCountControllable {
 							Thread.currentThread().setName(receiver.getName()+"-listener["+tasksStarted.getValue()+"]");
 							// found a message, process it
 							startProcessingTimestamp = System.currentTimeMillis();
+							MessageTrace.Span traceSpan = null;
+							if (txStatus != null) {
+								traceSpan = startTrace(listener, rawMessage, threadContext, messageIds);
+							}
+							boolean traceError = true;
 							try {
-								receiver.processRawMessage(listener, rawMessage, threadContext);
+								if (rawMessages != null && rawMessages.size() > 1 && !oneByOne) {
+									processBatch(listener, rawMessages, threadContexts, messageIds, txStatus);
+								} else if (rawMessages != null) {
+									processOneByOne(listener, rawMessages, threadContexts);
+								} else {
+									receiver.processRawMessage(listener, rawMessage, threadContext);
+								}
 								if (txStatus != null) {
 									if (txStatus.isRollbackOnly()) {
 										receiver.warn(receiver.getLogPrefix()+"pipeline processing ended with status RollbackOnly, so rolling back transaction");
-										txManager.rollback(txStatus);
+										completeTransaction(txStatus, true);
 									} else {
-										txManager.commit(txStatus);
+										completeTransaction(txStatus, false);
+										traceError = false;
+										if (messageIds != null && (oneByOne || messageIds.size() == 1)) {
+											removeMessagesOfFailedBatch(messageIds);
+										}
 									}
+								} else {
+									traceError = false;
 								}
 							} catch (Exception e) {
 								if (txStatus != null && !txStatus.isCompleted()) {
-									txManager.rollback(txStatus);
+									completeTransaction(txStatus, true);
+									if (rawMessages != null && rawMessages.size() > 1 && !oneByOne) {
+										registerFailedBatch(messageIds);
+									}
 								}
 								if (receiver.isOnErrorContinue()) {
 									receiver.error(receiver.getLogPrefix()+"caught Exception processing message, will continue processing next message", e);
@@ -222,6 +445,8 @@ public class PullingListenerContainer implements IThreadCountControllable {
 									receiver.error(receiver.getLogPrefix()+"stopping receiver after exception in processing message", e);
 									receiver.stopRunning();
 								}
+							} finally {
+								MessageTracer.endSpan(traceSpan, traceError);
 							}
 						}
 					} finally  {
@@ -384,6 +609,34 @@ public class PullingListenerContainer implements IThreadCountControllable {
 //        }
 //    }
 
+	/**
+	 * Waits before the next poll, until the idle interval has passed or the listener signals that
+	 * messages are available. The idle interval starts at minPollInterval and doubles after every
+	 * unsuccessful poll, until it reaches pollInterval.
+	 */
+	private void waitWhileIdle() throws InterruptedException {
+		int interval;
+		synchronized (this) {
+			interval = idleInterval;
+			idleInterval = Math.min(idleInterval*2, receiver.getPollInterval());
+		}
+		if (log.isDebugEnabled() && interval>600) log.debug(receiver.getLogPrefix()+"is idle, sleeping for ["+interval+"] seconds");
+		for (int i=0; i<interval && receiver.isInRunState(RunStateEnum.STARTED); i++) {
+			if (pollSignal.await(1000)) {
+				if (log.isDebugEnabled()) log.debug(receiver.getLogPrefix()+"received poll signal, polling now");
+				setIdle(false);
+				return;
+			}
+		}
+	}
+
+	private int getMinPollInterval() {
+		if (receiver.getMinPollInterval()>0 && receiver.getMinPollInterval()<receiver.getPollInterval()) {
+			return receiver.getMinPollInterval();
+		}
+		return receiver.getPollInterval();
+	}
+
 	private void resetRetryInterval() {
 		synchronized (receiver) {
 			if (retryInterval > ReceiverBase.RCV_SUSPENSION_MESSAGE_THRESHOLD) {
@@ -440,6 +693,9 @@ public class PullingListenerContainer implements IThreadCountControllable {
 
 	public synchronized void setIdle(boolean b) {
 		idle = b;
+		if (!b) {
+			idleInterval = getMinPollInterval();
+		}
 	}
 	public synchronized boolean isIdle() {
 		return idle;
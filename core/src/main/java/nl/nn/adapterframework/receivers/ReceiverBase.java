@@ -1,5 +1,5 @@
 /*
-   Copyright 2013, 2015, 2016 Nationale-Nederlanden
+   Copyright 2013, 2015, 2016, 2018 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -21,15 +21,15 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.StringTokenizer;
 
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 
+import nl.nn.adapterframework.cache.ICacheAdapter;
+import nl.nn.adapterframework.cache.ICacheEnabled;
 import nl.nn.adapterframework.configuration.ConfigurationException;
 import nl.nn.adapterframework.configuration.ConfigurationWarnings;
 import nl.nn.adapterframework.core.Adapter;
@@ -64,6 +64,8 @@ import nl.nn.adapterframework.monitoring.EventHandler;
 import nl.nn.adapterframework.monitoring.EventThrowing;
 import nl.nn.adapterframework.monitoring.MonitorManager;
 import nl.nn.adapterframework.statistics.HasStatistics;
+import nl.nn.adapterframework.statistics.MessageTrace;
+import nl.nn.adapterframework.statistics.MessageTracer;
 import nl.nn.adapterframework.statistics.StatisticsKeeper;
 import nl.nn.adapterframework.statistics.StatisticsKeeperIterationHandler;
 import nl.nn.adapterframework.task.TimeoutGuard;
@@ -133,6 +135,9 @@ import org.springframework.transaction.support.TransactionSynchronizationManager
  * <tr><td>{@link #setCheckForDuplicates(boolean) checkForDuplicates}</td><td>if set to <code>true</code>, each message is checked for presence in the message log. If already present, it is not processed again. (only required for non XA compatible messaging). Requires messagelog!</code></td><td><code>false</code></td></tr>
  * <tr><td>{@link #setCheckForDuplicatesMethod(String) checkForDuplicatesMethod}</td><td>(only used when <code>checkForDuplicates=true</code>) Either 'CORRELATIONID' or 'MESSAGEID'. Indicates whether the messageID or the correlationID is used for checking presence in the message log</td><td>MESSAGEID</td></tr>
  * <tr><td>{@link #setPollInterval(int) pollInterval}</td><td>The number of seconds waited after an unsuccesful poll attempt before another poll attempt is made. (only for polling listeners, not for e.g. IFSA, JMS, WebService or JavaListeners)</td><td>10</td></tr>
+ * <tr><td>{@link #setMinPollInterval(int) minPollInterval}</td><td>When set to a value smaller than pollInterval, the number of seconds waited after the first unsuccesful poll attempt. The time waited is doubled after each following unsuccesful poll attempt until pollInterval is reached, and is reset when a message is received. (only for polling listeners)</td><td>0 (always wait pollInterval)</td></tr>
+ * <tr><td>{@link #setBatchSize(int) batchSize}</td><td>when set larger than 1, up to <code>batchSize</code> messages are received in one transaction and processed in a single run of the pipeline, that receives them in an envelope <code>&lt;messages&gt;&lt;message id="..."&gt;...&lt;/message&gt;...&lt;/messages&gt;</code>. When the batch fails, the messages are processed one by one. Meant for high volumes of small messages that need no reply (only for pulling listeners)</td><td>0</td></tr>
+ * <tr><td>{@link #setBatchTimeout(int) batchTimeout}</td><td>(only used when <code>batchSize</code> &gt; 1) maximum time in ms to wait for more messages to fill a batch, after the first message of the batch has been received</td><td>1000</td></tr>
  * <tr><td>{@link #setCorrelationIDXPath(String) correlationIDXPath}</td><td>xpath expression to extract correlationID from message</td><td>&nbsp;</td></tr>
  * <tr><td>{@link #setCorrelationIDNamespaceDefs(String) correlationIDNamespaceDefs}</td><td>namespace defintions for correlationIDXPath. Must be in the form of a comma or space separated list of <code>prefix=namespaceuri</code>-definitions</td><td>&nbsp;</td></tr>
  * <tr><td>{@link #setCorrelationIDStyleSheet(String) correlationIDStyleSheet}</td><td>stylesheet to extract correlationID from message</td><td>&nbsp;</td></tr>
@@ -148,6 +153,10 @@ import org.springframework.transaction.support.TransactionSynchronizationManager
  * <tr><td>{@link #setElementToMoveChain(String) elementToMoveChain}</td><td>like <code>elementToMove</code> but element is preceded with all ancestor elements and separated by semicolons (e.g. "adapter;pipeline;pipe")</td><td>&nbsp;</td></tr>
  * <tr><td>{@link #setRemoveCompactMsgNamespaces (boolean) removeCompactMsgNamespaces}</td><td>when set <code>true</code> namespaces (and prefixes) in the compacted message are removed</td><td>true</td></tr>
  * <tr><td>{@link #setXslt2(boolean) xslt2}</td><td>when set <code>true</code> XSLT processor 2.0 (net.sf.saxon) will be used for extracting correlationID and label, otherwise XSLT processor 1.0 (org.apache.xalan)</td><td>false</td></tr>
+ * <tr><td>{@link #setPoisonMessageIdCacheSize(int) poisonMessageIdCacheSize}</td><td>maximum number of messageIds of poison messages that are remembered, to prevent them from being processed again</td><td>100</td></tr>
+ * <tr><td>{@link #setPoisonMessageIdCacheMaxAge(int) poisonMessageIdCacheMaxAge}</td><td>time in seconds after which a messageId is removed from the poison message cache. 0 means no time limit</td><td>0</td></tr>
+ * <tr><td>{@link #setProcessResultCacheSize(int) processResultCacheSize}</td><td>maximum number of process results that are remembered to count the number of times a message has been tried</td><td>100</td></tr>
+ * <tr><td>{@link #setProcessResultCacheMaxAge(int) processResultCacheMaxAge}</td><td>time in seconds after which a process result is removed from the cache. 0 means no time limit</td><td>0</td></tr>
  * </table>
  * </p>
  * <p>
@@ -168,6 +177,7 @@ import org.springframework.transaction.support.TransactionSynchronizationManager
  * <tr><td>{@link nl.nn.adapterframework.core.ITransactionalStorage errorStorage}</td><td>optional for {@link #setTransacted(boolean) transacted} receivers: place to store messages if message processing has gone wrong. If no errorStorage is specified, the inProcessStorage is used for errorStorage</td></tr>
  * <tr><td>{@link nl.nn.adapterframework.core.ISender errorSender}</td><td>optional for {@link #setTransacted(boolean) transacted} receviers: 
  * will be called to store messages that failed to process. If no errorSender is specified, failed messages will remain in inProcessStorage</td></tr>
+ * <tr><td>&lt;cache ... /&gt;</td><td>optional {@link nl.nn.adapterframework.cache.EhCache cache} that backs the poison message and process result caches, e.g. to share them between the nodes of a cluster</td></tr>
  * </table>
  * </p>
  * <p><b>Transaction control</b><br>
@@ -206,7 +216,7 @@ import org.springframework.transaction.support.TransactionSynchronizationManager
  * @author     Gerrit van Brakel
  * @since 4.2
  */
-public class ReceiverBase implements IReceiver, IReceiverStatistics, IMessageHandler, EventThrowing, IbisExceptionListener, HasSender, HasStatistics, IThreadCountControllable, BeanFactoryAware {
+public class ReceiverBase implements IReceiver, IReceiverStatistics, IMessageHandler, EventThrowing, IbisExceptionListener, HasSender, HasStatistics, IThreadCountControllable, BeanFactoryAware, ICacheEnabled {
 	protected Logger log = LogUtil.getLogger(this);
 	private ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
 
@@ -236,6 +246,9 @@ public class ReceiverBase implements IReceiver, IReceiverStatistics, IMessageHan
 	private BeanFactory beanFactory;
 
 	private int pollInterval=10;
+	private int minPollInterval=0;
+	private int batchSize=0;
+	private int batchTimeout=1000;
     
 	private String returnedSessionKeys=null;
 	private String hideRegex = null;
@@ -314,6 +327,9 @@ public class ReceiverBase implements IReceiver, IReceiverStatistics, IMessageHan
 	int retryInterval=1;
 	private int poisonMessageIdCacheSize = 100;
 	private int processResultCacheSize = 100;
+	private int poisonMessageIdCacheMaxAge = 0;
+	private int processResultCacheMaxAge = 0;
+	private ICacheAdapter cache=null;
    
 	private PlatformTransactionManager txManager;
 
@@ -327,27 +343,30 @@ public class ReceiverBase implements IReceiver, IReceiverStatistics, IMessageHan
 	 * put in the poison-cache will not be reprocessed even if it's
 	 * offered again.
 	 */
-	private LinkedHashMap poisonMessageIdCache = new LinkedHashMap() {
+	private MessageIdCache<String> poisonMessageIdCache = new MessageIdCache<String>("poisonMessageIdCache", poisonMessageIdCacheSize);
 
-		protected boolean removeEldestEntry(Entry eldest) {
-			return size() > getPoisonMessageIdCacheSize();
-		}
-        
-	};
+	private MessageIdCache<ProcessResultCacheItem> processResultCache = new MessageIdCache<ProcessResultCacheItem>("processResultCache", processResultCacheSize);
 
-	private LinkedHashMap processResultCache = new LinkedHashMap() {
-
-		protected boolean removeEldestEntry(Entry eldest) {
-			return size() > getProcessResultCacheSize();
-		}
-        
-	};
-
-	private class ProcessResultCacheItem {
-		int tryCount;
+	/**
+	 * The try count and comments are updated by the threads that process the message, and read
+	 * by the threads that receive it again; they are only accessed while holding the lock of the item.
+	 */
+	static class ProcessResultCacheItem implements Serializable {
+		private int tryCount;
 		Date receiveDate;
 		String correlationId;
-		String comments;
+		private String comments;
+
+		synchronized int registerTry(String comments) {
+			this.comments = comments;
+			return ++tryCount;
+		}
+		synchronized int getTryCount() {
+			return tryCount;
+		}
+		synchronized String getComments() {
+			return comments;
+		}
 	}
 
 	public boolean configurationSucceeded() {
@@ -355,9 +374,12 @@ public class ReceiverBase implements IReceiver, IReceiverStatistics, IMessageHan
 	}
 
 	private IPipeLineSession createProcessingContext(String correlationId, Map threadContext, String messageId) {
-		IPipeLineSession pipelineSession = new PipeLineSessionBase();
-		if (threadContext != null) {
-			pipelineSession.putAll(threadContext);
+		IPipeLineSession pipelineSession;
+		if (threadContext == null) {
+			pipelineSession = new PipeLineSessionBase();
+		} else {
+			// the threadContext is not modified by the pipeline, so the session can read through to it instead of copying it
+			pipelineSession = PipeLineSessionBase.createChildSession(threadContext);
 			if (log.isDebugEnabled()) {
 				List hiddenSessionKeys = new ArrayList();
 				if (getHiddenInputSessionKeys()!=null) {
@@ -458,6 +480,9 @@ public class ReceiverBase implements IReceiver, IReceiverStatistics, IMessageHan
 			if (getMessageLog()!=null) {
 				getMessageLog().open();
 			}
+			if (cache!=null) {
+				cache.open();
+			}
 		} catch (Exception e) {
 			throw new ListenerException(e);
 		}
@@ -516,6 +541,13 @@ public class ReceiverBase implements IReceiver, IReceiverStatistics, IMessageHan
 				error(getLogPrefix()+"error closing message log", t);
 			}
 		}
+		if (cache!=null) {
+			try {
+				cache.close();
+			} catch (Throwable t) {
+				error(getLogPrefix()+"error closing cache", t);
+			}
+		}
 		log.debug(getLogPrefix()+"closed");
 		runState.setRunState(RunStateEnum.STOPPED);
 		throwEvent(RCV_SHUTDOWN_MONITOR_EVENT);
@@ -617,6 +649,8 @@ public class ReceiverBase implements IReceiver, IReceiverStatistics, IMessageHan
             }
 			if (getListener() instanceof IPullingListener) {
 				setListenerContainer(createListenerContainer());
+			} else if (getBatchSize()>1) {
+				ConfigurationWarnings.getInstance().add(getLogPrefix()+"batchSize is only used for pulling listeners, messages of listener type ["+ClassUtils.nameOf(getListener())+"] are processed one by one");
 			}
 			if (getListener() instanceof JdbcFacade) {
 				((JdbcFacade)getListener()).setTransacted(isTransacted());
@@ -711,6 +745,16 @@ public class ReceiverBase implements IReceiver, IReceiverStatistics, IMessageHan
 				correlationIDTp=TransformerPool.configureTransformer0(getLogPrefix(), classLoader, getCorrelationIDNamespaceDefs(), getCorrelationIDXPath(), getCorrelationIDStyleSheet(),"text",false,null,isXslt2());
 			}
 
+			poisonMessageIdCache.setMaxSize(getPoisonMessageIdCacheSize());
+			poisonMessageIdCache.setMaxAgeMillis(getPoisonMessageIdCacheMaxAge()*1000L);
+			processResultCache.setMaxSize(getProcessResultCacheSize());
+			processResultCache.setMaxAgeMillis(getProcessResultCacheMaxAge()*1000L);
+			if (cache!=null) {
+				cache.configure(getName());
+				poisonMessageIdCache.setBackingCache(cache, "poison:");
+				processResultCache.setBackingCache(cache, "result:");
+			}
+
 			if (adapter != null) {
 				adapter.getMessageKeeper().add(getLogPrefix()+"initialization complete");
 			}
@@ -828,7 +872,7 @@ public class ReceiverBase implements IReceiver, IReceiverStatistics, IMessageHan
 	private void moveInProcessToErrorAndDoPostProcessing(String messageId, String correlationId, Object rawMessage, String message, Map threadContext, ProcessResultCacheItem prci, String comments) throws ListenerException {
 		Date rcvDate;
 		if (prci!=null) {
-			comments+="; "+prci.comments;
+			comments+="; "+prci.getComments();
 			rcvDate=prci.receiveDate;
 		} else {
 			rcvDate=new Date();
@@ -973,6 +1017,178 @@ public class ReceiverBase implements IReceiver, IReceiverStatistics, IMessageHan
 		processMessageInAdapter(origin, rawMessage, message, messageId, technicalCorrelationId, threadContext, waitingDuration, manualRetry);
 	}
 
+	/**
+	 * Processes a batch of raw messages, received by a pulling listener, in a single run of the pipeline.
+	 * The messages are wrapped in an envelope <code>&lt;messages&gt;&lt;message id="..."&gt;...&lt;/message&gt;...&lt;/messages&gt;</code>,
+	 * messages that are well-formed XML are included as XML, other messages as text. Like single messages, each
+	 * message is checked for duplicates and for its try count, and is stored in the messageLog under its own
+	 * messageId when the batch has been processed. Duplicates are left out of the batch and are passed to
+	 * afterMessageProcessed() directly; messages that have been tried too often are moved to the errorStorage.
+	 * <p>
+	 * Assumes that a transation has been started where necessary. When the pipeline fails, the transaction is
+	 * marked rollback-only, afterMessageProcessed() is not called, and <code>false</code> is returned, so that
+	 * the caller can process the messages one by one.
+	 *
+	 * @param threadContexts the threadContext of each message, as filled by getRawMessage()
+	 * @return <code>true</code> when the batch has been processed
+	 */
+	public boolean processRawMessageBatch(IListener origin, List rawMessages, List threadContexts) throws ListenerException {
+		String batchId = Misc.createSimpleUUID();
+		List batchIndexes = new ArrayList();
+		List messageIds = new ArrayList();
+		List correlationIds = new ArrayList();
+		List messages = new ArrayList();
+		StringBuffer envelope = new StringBuffer("<messages>");
+		for (int i=0; i<rawMessages.size(); i++) {
+			Object rawMessage = rawMessages.get(i);
+			Map threadContext = (Map)threadContexts.get(i);
+			String message = origin.getStringFromRawMessage(rawMessage, threadContext);
+			String technicalCorrelationId = origin.getIdFromRawMessage(rawMessage, threadContext);
+			String messageId = (String)threadContext.get("id");
+			if (StringUtils.isEmpty(messageId)) {
+				messageId = technicalCorrelationId;
+			}
+			String correlationId = StringUtils.isNotEmpty(technicalCorrelationId) ? technicalCorrelationId : messageId;
+			if (isDuplicateAndSkip(getMessageLog(), messageId, correlationId)) {
+				numRejected.increase();
+				PipeLineResult plr = new PipeLineResult();
+				plr.setState("success");
+				origin.afterMessageProcessed(plr, rawMessage, threadContext);
+				continue;
+			}
+			if (hasProblematicHistory(messageId, false, rawMessage, message, threadContext, correlationId)) {
+				numRejected.increase();
+				continue;
+			}
+			if (getCachedProcessResult(messageId)!=null) {
+				numRetried.increase();
+			}
+			log.info(getLogPrefix()+"messageId [" + messageId + "] correlationId [" + correlationId + "] is processed in batch [" + batchId + "]");
+			batchIndexes.add(new Integer(i));
+			messageIds.add(messageId);
+			correlationIds.add(correlationId);
+			messages.add(message);
+			appendBatchMessage(envelope, messageId, message);
+		}
+		envelope.append("</messages>");
+		if (batchIndexes.isEmpty()) {
+			log.info(getLogPrefix()+"all messages of batch [" + batchId + "] have already been processed");
+			return true;
+		}
+		String pipelineMessage = envelope.toString();
+
+		long startProcessingTimestamp = System.currentTimeMillis();
+		lastMessageDate = startProcessingTimestamp;
+		log.info(getLogPrefix()+"processing batch ["+batchId+"] of ["+batchIndexes.size()+"] messages");
+
+		int txOption = this.getTransactionAttributeNum();
+		TransactionDefinition txDef = SpringTxManagerProxy.getTransactionDefinition(txOption,getTransactionTimeout());
+		IbisTransaction itx = new IbisTransaction(txManager, txDef, "receiver [" + getName() + "]");
+		TransactionStatus txStatus = itx.getStatus();
+
+		startProcessingMessage(-1);
+		boolean batchInError = true;
+		String errorMessage = "";
+		try {
+			PipeLineResult pipeLineResult = null;
+			IPipeLineSession pipelineSession = createProcessingContext(batchId, null, batchId);
+			try {
+				boolean timedOut;
+				TimeoutGuard tg = new TimeoutGuard("Receiver "+getName());
+				try {
+					tg.activateGuard(getTransactionTimeout());
+					pipeLineResult = adapter.processMessageWithExceptions(batchId, pipelineMessage, pipelineSession);
+				} finally {
+					timedOut = tg.cancel();
+				}
+				String commitOnState=((Adapter)adapter).getPipeLine().getCommitOnState();
+				if (timedOut) {
+					errorMessage = "timeout exceeded";
+					warn(getLogPrefix()+errorMessage+" processing batch ["+batchId+"]");
+				} else if (txStatus.isRollbackOnly() || (StringUtils.isNotEmpty(commitOnState) && !commitOnState.equalsIgnoreCase(pipeLineResult.getState()))) {
+					errorMessage = "exitState ["+pipeLineResult.getState()+"], result ["+pipeLineResult.getResult()+"]";
+					warn(getLogPrefix()+"batch ["+batchId+"] ended with "+errorMessage);
+				} else {
+					// the messages of a failed batch are logged when they are processed one by one
+					if (getMessageLog()!=null) {
+						for (int i=0; i<messageIds.size(); i++) {
+							getMessageLog().storeMessage((String)messageIds.get(i), (String)correlationIds.get(i), new Date(), RCV_MESSAGE_LOG_COMMENTS, null, (String)messages.get(i));
+						}
+					}
+					batchInError = false;
+				}
+			} catch (Throwable t) {
+				errorMessage = t.getMessage();
+				warn(getLogPrefix()+"exception processing batch ["+batchId+"]: ("+ClassUtils.nameOf(t)+") "+errorMessage);
+			}
+			if (batchInError) {
+				return false;
+			}
+			// the messages of a failed batch are counted when they are processed one by one
+			numReceived.increase(batchIndexes.size());
+			if (getSender()!=null) {
+				sendResultToSender(batchId, pipeLineResult.getResult());
+			}
+			for (Iterator it=batchIndexes.iterator(); it.hasNext();) {
+				int i = ((Integer)it.next()).intValue();
+				Map threadContext = (Map)threadContexts.get(i);
+				putSessionKeysIntoThreadContext(threadContext, pipelineSession);
+				origin.afterMessageProcessed(pipeLineResult, rawMessages.get(i), threadContext);
+			}
+			return true;
+		} finally {
+			// count the try of each message, so that messages that keep failing are not retried endlessly
+			for (int i=0; i<messageIds.size(); i++) {
+				cacheProcessResult((String)messageIds.get(i), (String)correlationIds.get(i), errorMessage, new Date(startProcessingTimestamp));
+			}
+			finishProcessingMessage(System.currentTimeMillis()-startProcessingTimestamp);
+			if (batchInError) {
+				txStatus.setRollbackOnly();
+			}
+			itx.commit();
+		}
+	}
+
+	/**
+	 * Appends a message to the envelope of a batch. Of a well-formed message, only the root element is included:
+	 * the XML declaration, comments and processing instructions before it are left out. A message with a document
+	 * type declaration is included as text, as its content can depend on the entities and defaults declared there.
+	 */
+	static void appendBatchMessage(StringBuffer envelope, String messageId, String message) {
+		envelope.append("<message id=\"").append(messageId==null ? "" : XmlUtils.encodeChars(messageId)).append("\">");
+		if (StringUtils.isNotEmpty(message)) {
+			int rootStart = XmlUtils.isWellFormed(message) ? getRootElementStart(message) : -1;
+			if (rootStart >= 0) {
+				envelope.append(message.substring(rootStart));
+			} else {
+				envelope.append(XmlUtils.encodeChars(message));
+			}
+		}
+		envelope.append("</message>");
+	}
+
+	/**
+	 * Returns the position of the root element of a well-formed document, or -1 when its prolog contains a document
+	 * type declaration.
+	 */
+	private static int getRootElementStart(String document) {
+		int pos = 0;
+		while (pos < document.length()) {
+			if (Character.isWhitespace(document.charAt(pos))) {
+				pos++;
+			} else if (document.startsWith("<?", pos)) {
+				pos = document.indexOf("?>", pos) + 2;
+			} else if (document.startsWith("<!--", pos)) {
+				pos = document.indexOf("-->", pos) + 3;
+			} else if (document.startsWith("<!DOCTYPE", pos)) {
+				return -1;
+			} else {
+				return pos;
+			}
+		}
+		return -1;
+	}
+
 	public void retryMessage(String messageId) throws ListenerException {
 		if (getErrorStorage()==null) {
 			throw new ListenerException(getLogPrefix()+"has no errorStorage, cannot retry messageId ["+messageId+"]");
@@ -1024,6 +1240,21 @@ public class ReceiverBase implements IReceiver, IReceiverStatistics, IMessageHan
 	 * Assumes message is read, and when transacted, transaction is still open.
 	 */
 	private String processMessageInAdapter(IListener origin, Object rawMessage, String message, String messageId, String technicalCorrelationId, Map threadContext, long waitingDuration, boolean manualRetry) throws ListenerException {
+		MessageTrace.Span span = null;
+		if (MessageTracer.isActive() && adapter instanceof Adapter) {
+			span = MessageTracer.startMessage(((Adapter)adapter).getMessageTraceBuffer(), getName(), messageId, waitingDuration);
+		}
+		boolean error = true;
+		try {
+			String result = doProcessMessageInAdapter(origin, rawMessage, message, messageId, technicalCorrelationId, threadContext, waitingDuration, manualRetry);
+			error = false;
+			return result;
+		} finally {
+			MessageTracer.endSpan(span, error);
+		}
+	}
+
+	private String doProcessMessageInAdapter(IListener origin, Object rawMessage, String message, String messageId, String technicalCorrelationId, Map threadContext, long waitingDuration, boolean manualRetry) throws ListenerException {
 		String result=null;
 		PipeLineResult pipeLineResult=null;
 		long startProcessingTimestamp = System.currentTimeMillis();
@@ -1262,33 +1493,32 @@ public class ReceiverBase implements IReceiver, IReceiverStatistics, IMessageHan
 		return result;
 	}
 
-	private synchronized void cachePoisonMessageId(String messageId) {
+	private void cachePoisonMessageId(String messageId) {
 		poisonMessageIdCache.put(messageId, messageId);
 	}
-	private synchronized boolean isMessageIdInPoisonCache(String messageId) {
+	private boolean isMessageIdInPoisonCache(String messageId) {
 		return poisonMessageIdCache.containsKey(messageId);
 	}
 
-	private synchronized void cacheProcessResult(String messageId, String correlationId, String errorMessage, Date receivedDate) {
-		ProcessResultCacheItem cacheItem=getCachedProcessResult(messageId);
-		if (cacheItem==null) {
+	void cacheProcessResult(String messageId, String correlationId, String errorMessage, Date receivedDate) {
+		ProcessResultCacheItem newItem= new ProcessResultCacheItem();
+		newItem.correlationId=correlationId;
+		newItem.receiveDate=receivedDate;
+		ProcessResultCacheItem cacheItem=processResultCache.putIfAbsent(messageId, newItem);
+		int tryCount=cacheItem.registerTry(errorMessage);
+		if (cacheItem==newItem) {
 			if (log.isDebugEnabled()) log.debug(getLogPrefix()+"caching first result for correlationId ["+correlationId+"]");
-			cacheItem= new ProcessResultCacheItem();
-			cacheItem.tryCount=1;
-			cacheItem.correlationId=correlationId;
-			cacheItem.receiveDate=receivedDate;
 		} else {
-			cacheItem.tryCount++;
-			if (log.isDebugEnabled()) log.debug(getLogPrefix()+"increased try count for correlationId ["+correlationId+"] to ["+cacheItem.tryCount+"]");
+			if (log.isDebugEnabled()) log.debug(getLogPrefix()+"increased try count for correlationId ["+correlationId+"] to ["+tryCount+"]");
 		}
-		cacheItem.comments=errorMessage;
+		// store again, to propagate the updated try count to a shared cache
 		processResultCache.put(messageId, cacheItem);
 	}
-	private synchronized boolean isMessageIdInProcessResultCache(String messageId) {
+	private boolean isMessageIdInProcessResultCache(String messageId) {
 		return processResultCache.containsKey(messageId);
 	}
-	private synchronized ProcessResultCacheItem getCachedProcessResult(String messageId) {
-		return (ProcessResultCacheItem)processResultCache.get(messageId);
+	ProcessResultCacheItem getCachedProcessResult(String messageId) {
+		return processResultCache.get(messageId);
 	}
 
 	/*
@@ -1318,19 +1548,20 @@ public class ReceiverBase implements IReceiver, IReceiverStatistics, IMessageHan
 				resetRetryInterval();
 				return false;
 			} else {
+				int tryCount=prci.getTryCount();
 				if (getMaxRetries()<0) {
-					increaseRetryIntervalAndWait(null,getLogPrefix()+"message with messageId ["+messageId+"] has already been processed ["+prci.tryCount+"] times; maxRetries=["+getMaxRetries()+"]");
+					increaseRetryIntervalAndWait(null,getLogPrefix()+"message with messageId ["+messageId+"] has already been processed ["+tryCount+"] times; maxRetries=["+getMaxRetries()+"]");
 					return false;
 				}
-				if (prci.tryCount<=getMaxRetries()) {
-					log.warn(getLogPrefix()+"message with messageId ["+messageId+"] has already been processed ["+prci.tryCount+"] times, will try again; maxRetries=["+getMaxRetries()+"]");
+				if (tryCount<=getMaxRetries()) {
+					log.warn(getLogPrefix()+"message with messageId ["+messageId+"] has already been processed ["+tryCount+"] times, will try again; maxRetries=["+getMaxRetries()+"]");
 					resetRetryInterval();
 					return false;
 				}
-				warn(getLogPrefix()+"message with messageId ["+messageId+"] has already been processed ["+prci.tryCount+"] times, will not try again; maxRetries=["+getMaxRetries()+"]");
+				warn(getLogPrefix()+"message with messageId ["+messageId+"] has already been processed ["+tryCount+"] times, will not try again; maxRetries=["+getMaxRetries()+"]");
 				String comments="too many retries";
-				if (prci.tryCount>getMaxRetries()+1) {
-					increaseRetryIntervalAndWait(null,getLogPrefix()+"saw message with messageId ["+messageId+"] too many times ["+prci.tryCount+"]; maxRetries=["+getMaxRetries()+"]");
+				if (tryCount>getMaxRetries()+1) {
+					increaseRetryIntervalAndWait(null,getLogPrefix()+"saw message with messageId ["+messageId+"] too many times ["+tryCount+"]; maxRetries=["+getMaxRetries()+"]");
 				}
 				moveInProcessToErrorAndDoPostProcessing(messageId, correlationId, rawMessage, message, threadContext, prci, comments);
 				return true;
@@ -1451,6 +1682,8 @@ public class ReceiverBase implements IReceiver, IReceiverStatistics, IMessageHan
 		numReceived.performAction(action);
 		numRetried.performAction(action);
 		numRejected.performAction(action);
+		poisonMessageIdCache.iterateOverStatistics(hski, recData);
+		processResultCache.iterateOverStatistics(hski, recData);
 		Iterator statsIter=getProcessStatisticsIterator();
 		Object pstatData=hski.openGroup(recData,null,"procStats");
 		if (statsIter != null) {
@@ -1997,6 +2230,27 @@ public class ReceiverBase implements IReceiver, IReceiverStatistics, IMessageHan
 	public void setProcessResultCacheSize(int processResultCacheSize) {
 		this.processResultCacheSize = processResultCacheSize;
 	}
+
+	public void setPoisonMessageIdCacheMaxAge(int poisonMessageIdCacheMaxAge) {
+		this.poisonMessageIdCacheMaxAge = poisonMessageIdCacheMaxAge;
+	}
+	public int getPoisonMessageIdCacheMaxAge() {
+		return poisonMessageIdCacheMaxAge;
+	}
+
+	public void setProcessResultCacheMaxAge(int processResultCacheMaxAge) {
+		this.processResultCacheMaxAge = processResultCacheMaxAge;
+	}
+	public int getProcessResultCacheMaxAge() {
+		return processResultCacheMaxAge;
+	}
+
+	public void registerCache(ICacheAdapter cache) {
+		this.cache=cache;
+	}
+	public ICacheAdapter getCache() {
+		return cache;
+	}
 	
 	public void setPollInterval(int i) {
 		pollInterval = i;
@@ -2005,6 +2259,27 @@ public class ReceiverBase implements IReceiver, IReceiverStatistics, IMessageHan
 		return pollInterval;
 	}
 
+	public void setMinPollInterval(int i) {
+		minPollInterval = i;
+	}
+	public int getMinPollInterval() {
+		return minPollInterval;
+	}
+
+	public void setBatchSize(int i) {
+		batchSize = i;
+	}
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchTimeout(int i) {
+		batchTimeout = i;
+	}
+	public int getBatchTimeout() {
+		return batchTimeout;
+	}
+
 	public void setCheckForDuplicates(boolean b) {
 		checkForDuplicates = b;
 	}
@@ -1,5 +1,5 @@
 /*
-   Copyright 2013 Nationale-Nederlanden
+   Copyright 2013, 2018 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -92,6 +92,10 @@ public class ServiceDispatcher  {
 		return (registeredListeners.get(name)!=null);
 	}
 
+	public ServiceClient getServiceClient(String name) {
+		return (ServiceClient)registeredListeners.get(name);
+	}
+
 	public  void registerServiceClient(String name, ServiceClient listener) throws ListenerException{
 		if (isRegisteredServiceListener(name)) {
 			log.warn("listener ["+name+"] already registered with ServiceDispatcher");
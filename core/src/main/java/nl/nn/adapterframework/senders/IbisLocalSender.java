@@ -53,7 +53,7 @@ import org.apache.commons.lang.exception.ExceptionUtils;
  * <tr><td>{@link #setIsolated(boolean) isolated}</td><td>when <code>true</code>, the call is made in a separate thread, possibly using separate transaction</td><td>false</td></tr>
  * <tr><td>{@link #setCheckDependency(boolean) checkDependency}</td><td>when <code>true</code>, the sender waits upon open until the called {@link nl.nn.adapterframework.receivers.JavaListener JavaListener} is opened</td><td>true</td></tr>
  * <tr><td>{@link #setDependencyTimeOut(int) dependencyTimeOut}</td><td>maximum time (in seconds) the sender waits for the listener to start. A value of -1 indicates to wait indefinitely</td><td>60 s</td></tr>
- * <tr><td>{@link #setSynchronous(boolean) synchronous}</td><td> when set <code>false</code>, the call is made asynchronously. This implies <code>isolated=true</code></td><td>true</td></tr>
+ * <tr><td>{@link #setSynchronous(boolean) synchronous}</td><td> when set <code>false</code>, the call is made asynchronously. This implies <code>isolated=true</code>. Asynchronous calls can be queued per target, see {@link IsolatedServiceCaller} for activating the queue, its size and the number of threads</td><td>true</td></tr>
  * <tr><td>{@link #setReturnedSessionKeys(String) returnedSessionKeys}</td><td>comma separated list of keys of session variables that should be returned to caller, 
  *         for correct results as well as for erronous results. (Only for listeners that support it, like JavaListener)<br/>
  *         N.B. To get this working, the attribute returnedSessionKeys must also be set on the corresponding Receiver</td><td>&nbsp;</td></tr>
@@ -169,6 +169,18 @@ public class IbisLocalSender extends SenderWithParametersBase implements HasPhys
 				}
 			}
 		}
+		if (!isSynchronous() && StringUtils.isEmpty(getJavaListenerSessionKey())) {
+			// create the queue, if any, now; the calls that are left in its journal are dispatched in the background
+			try {
+				if (StringUtils.isNotEmpty(getServiceName())) {
+					isolatedServiceCaller.getDispatchQueue(getServiceName(), false);
+				} else {
+					isolatedServiceCaller.getDispatchQueue(getJavaListener(), true);
+				}
+			} catch (ListenerException e) {
+				throw new SenderException(getLogPrefix()+"cannot open queue for asynchronous calls", e);
+			}
+		}
 	}
 
 	public String getPhysicalDestinationName() {
@@ -183,6 +195,8 @@ public class IbisLocalSender extends SenderWithParametersBase implements HasPhys
 
 	public String sendMessage(String correlationID, String message, ParameterResolutionContext prc) throws SenderException, TimeOutException {
 		String result = null;
+		// the context only holds the parameter values, the session of the caller is deliberately not passed on.
+		// The receiver of the called adapter layers its session on this map, so it is not copied again
 		HashMap context = null;
 		if (paramList!=null) {
 			try {
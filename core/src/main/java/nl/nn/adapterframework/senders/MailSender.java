@@ -1,5 +1,5 @@
 /*
-   Copyright 2013 Nationale-Nederlanden
+   Copyright 2013, 2018 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -21,9 +21,11 @@ import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Properties;
 
 import javax.activation.DataHandler;
@@ -48,6 +50,9 @@ import nl.nn.adapterframework.core.TimeOutException;
 import nl.nn.adapterframework.parameters.ParameterResolutionContext;
 import nl.nn.adapterframework.parameters.ParameterValue;
 import nl.nn.adapterframework.parameters.ParameterValueList;
+import nl.nn.adapterframework.statistics.HasStatistics;
+import nl.nn.adapterframework.statistics.StatisticsKeeper;
+import nl.nn.adapterframework.statistics.StatisticsKeeperIterationHandler;
 import nl.nn.adapterframework.util.CredentialFactory;
 import nl.nn.adapterframework.util.DomBuilderException;
 import nl.nn.adapterframework.util.Misc;
@@ -85,6 +90,12 @@ import org.w3c.dom.Node;
  *   &lt;/email&gt;
  * </pre></code>
  * <p>
+ * To send a batch of mails over a single connection, the <code>email</code> elements can be wrapped in an
+ * <code>emails</code> element. When connections are pooled, the batch continues on another connection after
+ * <code>maxMessagesPerConnection</code> mails. The mails are sent in order; when sending one of them fails, an exception is
+ * thrown and the mails before it have been sent. For a batch, the session variable
+ * <code>messageInMailSafeForm</code> is not set.
+ * <p>
  * Notice: the XML message must be valid XML. Therefore, especially the message element
  * must be plain text or be wrapped as CDATA. Example:
  * <code><pre>
@@ -114,6 +125,11 @@ import org.w3c.dom.Node;
  * <tr><td>{@link #setDefaultSubject(String) defaultSubject}</td><td>value of the Subject: header if not specified in message itself</td><td>&nbsp;</td></tr>
  * <tr><td>{@link #setDefaultAttachmentName(String) defaultAttachmentName}</td><td>When this name is used, it will be followed by a number which is equal to the node's position</td><td>attachment</td></tr>
  * <tr><td>{@link #setTimeout(int) timeout}</td><td>timeout (in milliseconds). Used for socket connection timeout and socket I/O timeout</td><td>20000</td></tr>
+ * <tr><td>{@link #setPoolConnections(boolean) poolConnections}</td><td>when <code>true</code>, connections to the smtpHost are kept open and reused by the MailSenders with the same smtpHost, credentials and timeout. The pool settings below are taken from the first MailSender that is opened</td><td>false</td></tr>
+ * <tr><td>{@link #setMaxConnections(int) maxConnections}</td><td>maximum number of connections to the smtpHost that are used at the same time</td><td>10</td></tr>
+ * <tr><td>{@link #setMaxIdleTime(long) maxIdleTime}</td><td>time (in milliseconds) after which an unused connection is closed</td><td>60000</td></tr>
+ * <tr><td>{@link #setMaxMessagesPerConnection(int) maxMessagesPerConnection}</td><td>number of messages after which a connection is closed, to stay below the limit of the smtpHost. A batch of mails continues on a new connection when it is reached</td><td>100</td></tr>
+ * <tr><td>{@link #setPoolTimeout(long) poolTimeout}</td><td>maximum time (in milliseconds) to wait for a connection when maxConnections connections are in use</td><td>20000</td></tr>
  * </table>
  * <p>
  * <table border="1">
@@ -144,7 +160,7 @@ import org.w3c.dom.Node;
  * @author Johan Verrips/Gerrit van Brakel
  */
 
-public class MailSender extends SenderWithParametersBase {
+public class MailSender extends SenderWithParametersBase implements HasStatistics {
 
 	private String smtpHost;
 	private String smtpAuthAlias;
@@ -155,6 +171,11 @@ public class MailSender extends SenderWithParametersBase {
 	private String defaultMessageBase64 = "false";
 	
 	private int timeout=20000;
+	private boolean poolConnections=false;
+	private int maxConnections=10;
+	private long maxIdleTime=60000;
+	private int maxMessagesPerConnection=100;
+	private long poolTimeout=20000;
 
 	// defaults
 	private String defaultSubject;
@@ -162,6 +183,11 @@ public class MailSender extends SenderWithParametersBase {
 
 	private Session session;
 	private Properties properties;
+	private SmtpTransportPool transportPool;
+
+	private StatisticsKeeper connectStatistics = new StatisticsKeeper("connect");
+	private StatisticsKeeper sendStatistics = new StatisticsKeeper("send");
+	private StatisticsKeeper poolWaitStatistics = new StatisticsKeeper("pool wait");
 
 	private class Recipient {
 		String value;
@@ -225,32 +251,30 @@ public class MailSender extends SenderWithParametersBase {
 	}
 
 	/**
-	 * Create a <code>Session</code> and <code>Transport</code> to the
+	 * Create a <code>Session</code>, and open the pool of transports to the
 	 * smtp host.
 	  * @throws SenderException
 	 */
 	public void open() throws SenderException {
 		try {
 			getSession();
-
+			if (isPoolConnections()) {
+				CredentialFactory cf = new CredentialFactory(getSmtpAuthAlias(), getSmtpUserid(), getSmtpPassword());
+				transportPool = SmtpTransportPool.open(getSession(), getSmtpHost(), cf.getUsername(), cf.getPassword(), getMaxConnections(), getMaxIdleTime(), getMaxMessagesPerConnection());
+			}
 		} catch (Exception e) {
 			throw new SenderException("Error opening MailSender", e);
 		}
 	}
 
 	/**
-	 * Close the <code>transport</code> layer.
+	 * Release the pool of transports; the connections are closed when no other MailSender uses them.
 	 */
 	public void close() throws SenderException {
-		/*
-		try {
-			if (transport!=null) {
-				transport.close();
-			}
-		} catch (Exception e) {
-			throw new SenderException("error closing transport", e);
+		if (transportPool!=null) {
+			transportPool.close();
+			transportPool=null;
 		}
-		*/
 	}
 
 	public boolean isSynchronous() {
@@ -337,7 +361,9 @@ public class MailSender extends SenderWithParametersBase {
 			}
 			messageInMailSafeForm = sendEmail(from, subject, threadTopic, message, messageType, messageBase64, charset, recipients, attachments);
 		}
-		prc.getSession().put("messageInMailSafeForm", messageInMailSafeForm);
+		if (messageInMailSafeForm!=null) {
+			prc.getSession().put("messageInMailSafeForm", messageInMailSafeForm);
+		}
 		return correlationID;
 	}
 	
@@ -424,10 +450,32 @@ public class MailSender extends SenderWithParametersBase {
 	}
 
 	/**
-	 * Send a mail conforming to the XML input
+	 * Send a mail conforming to the XML input, or a batch of mails when the root element is <code>emails</code>.
+	 * Returns the mail in mail-safe form, or <code>null</code> for a batch.
 	 */
 	protected String sendEmail(String input, ParameterResolutionContext prc) throws SenderException {
-		// initialize this request
+		Element rootElement;
+		try {
+			rootElement = XmlUtils.buildElement(input);
+		} catch (DomBuilderException e) {
+			throw new SenderException("exception parsing [" + input + "]", e);
+		}
+		if ("emails".equals(rootElement.getTagName())) {
+			List<Message> messages = new LinkedList<Message>();
+			Iterator iter = XmlUtils.getChildTags(rootElement, "email").iterator();
+			while (iter.hasNext()) {
+				messages.add(createMessage((Element) iter.next(), prc));
+			}
+			log.debug("MailSender ["+getName()+"] sending batch of ["+messages.size()+"] messages");
+			putOnTransport(messages);
+			return null;
+		}
+		Message msg = createMessage(rootElement, prc);
+		putOnTransport(msg);
+		return toMailSafeForm(msg);
+	}
+
+	protected Message createMessage(Element emailElement, ParameterResolutionContext prc) throws SenderException {
 		String from;
 		String subject;
 		String threadTopic;
@@ -437,36 +485,36 @@ public class MailSender extends SenderWithParametersBase {
 		String charset;
 		Collection<Recipient> recipients;
 		Collection<Attachment> attachments = null;
-		
-		Element emailElement;
-		try {
-			emailElement = XmlUtils.buildElement(input);
 
-			from = XmlUtils.getChildTagAsString(emailElement, "from");
-			subject = XmlUtils.getChildTagAsString(emailElement, "subject");
-			threadTopic = XmlUtils.getChildTagAsString(emailElement, "threadTopic");
-			message = XmlUtils.getChildTagAsString(emailElement, "message");
-			messageType = XmlUtils.getChildTagAsString(emailElement, "messageType");
-			messageBase64 = XmlUtils.getChildTagAsString(emailElement, "messageBase64");
-			charset = XmlUtils.getChildTagAsString(emailElement, "charset");
+		from = XmlUtils.getChildTagAsString(emailElement, "from");
+		subject = XmlUtils.getChildTagAsString(emailElement, "subject");
+		threadTopic = XmlUtils.getChildTagAsString(emailElement, "threadTopic");
+		message = XmlUtils.getChildTagAsString(emailElement, "message");
+		messageType = XmlUtils.getChildTagAsString(emailElement, "messageType");
+		messageBase64 = XmlUtils.getChildTagAsString(emailElement, "messageBase64");
+		charset = XmlUtils.getChildTagAsString(emailElement, "charset");
 
-			Element recipientsElement = XmlUtils.getFirstChildTag(emailElement, "recipients");
-			recipients = retrieveRecipients(XmlUtils.getChildTags(recipientsElement, "recipient"));
+		Element recipientsElement = XmlUtils.getFirstChildTag(emailElement, "recipients");
+		recipients = retrieveRecipients(XmlUtils.getChildTags(recipientsElement, "recipient"));
 
-			Element attachmentsElement = XmlUtils.getFirstChildTag(emailElement, "attachments");
-			if(attachmentsElement != null)
-				attachments = retrieveAttachments(XmlUtils.getChildTags(attachmentsElement, "attachment"), prc);
+		Element attachmentsElement = XmlUtils.getFirstChildTag(emailElement, "attachments");
+		if(attachmentsElement != null)
+			attachments = retrieveAttachments(XmlUtils.getChildTags(attachmentsElement, "attachment"), prc);
 
-		} catch (DomBuilderException e) {
-			throw new SenderException("exception parsing [" + input + "]", e);
-		}
-
-		return sendEmail(from, subject, threadTopic, message, messageType, messageBase64, charset, recipients, attachments);
+		return createMessage(from, subject, threadTopic, message, messageType, messageBase64, charset, recipients, attachments);
 	}
 
 	protected String sendEmail(String from, String subject, String threadTopic, String message,
 			String messageType, String messageBase64, String charset,
 			Collection<Recipient> recipients, Collection<Attachment> attachments) throws SenderException {
+		Message msg = createMessage(from, subject, threadTopic, message, messageType, messageBase64, charset, recipients, attachments);
+		putOnTransport(msg);
+		return toMailSafeForm(msg);
+	}
+
+	protected Message createMessage(String from, String subject, String threadTopic, String message,
+			String messageType, String messageBase64, String charset,
+			Collection<Recipient> recipients, Collection<Attachment> attachments) throws SenderException {
 
 		StringBuffer sb = new StringBuffer();
 
@@ -506,7 +554,7 @@ public class MailSender extends SenderWithParametersBase {
 			}
 
 			// construct a message  
-			MimeMessage msg = new MimeMessage(session);
+			MimeMessage msg = new MimeMessage(getSession());
 			msg.setFrom(new InternetAddress(from));
 			msg.setSubject(subject, charset);
 			if (StringUtils.isNotEmpty(threadTopic)) {
@@ -590,9 +638,19 @@ public class MailSender extends SenderWithParametersBase {
 			log.debug(sb.toString());
 			msg.setSentDate(new Date());
 			msg.saveChanges();
-			// send the message
-			putOnTransport(msg);
-			// return the mail in mail-safe from
+			return msg;
+		} catch (SenderException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new SenderException("MailSender got error", e);
+		}
+	}
+
+	/**
+	 * Return the mail in mail-safe form.
+	 */
+	protected String toMailSafeForm(Message msg) throws SenderException {
+		try {
 			ByteArrayOutputStream out = new ByteArrayOutputStream();
 			msg.writeTo(out);
 			byte[] byteArray = out.toByteArray();
@@ -615,30 +673,97 @@ public class MailSender extends SenderWithParametersBase {
 	}
 
 	protected void putOnTransport(Message msg) throws SenderException {
-		// connect to the transport 
-		Transport transport=null;
-		try {
+		putOnTransport(Collections.singletonList(msg));
+	}
+
+	/**
+	 * Send the messages over a single connection, borrowed from the pool when connections are pooled. When
+	 * <code>maxMessagesPerConnection</code> is reached, the remaining messages are sent over the next connection
+	 * from the pool.
+	 */
+	protected void putOnTransport(List<Message> messages) throws SenderException {
+		if (transportPool==null) {
 			CredentialFactory cf = new CredentialFactory(getSmtpAuthAlias(), getSmtpUserid(), getSmtpPassword());
-			transport = session.getTransport("smtp");
-			transport.connect(getSmtpHost(), cf.getUsername(), cf.getPassword());
-			if (log.isDebugEnabled()) {
-				log.debug("MailSender [" + getName() + "] connected transport to URL ["+transport.getURLName()+"]");
+			Transport transport=null;
+			try {
+				long connectStart = System.currentTimeMillis();
+				transport = getSession().getTransport("smtp");
+				transport.connect(getSmtpHost(), cf.getUsername(), cf.getPassword());
+				addStatistic(connectStatistics, System.currentTimeMillis() - connectStart);
+				if (log.isDebugEnabled()) {
+					log.debug("MailSender [" + getName() + "] connected transport to URL ["+transport.getURLName()+"]");
+				}
+				for (Message msg : messages) {
+					sendMessage(transport, msg);
+				}
+			} catch (MessagingException e) {
+				throw new SenderException("MailSender [" + getName() + "] cannot connect send message to smtpHost ["+getSmtpHost()+"]",e);
+			} finally {
+				if (transport!=null) {
+					try {
+						transport.close();
+					} catch (MessagingException e1) {
+						log.warn("MailSender [" + getName() + "] got exception closing connection", e1);
+					}
+				}
 			}
-			transport.sendMessage(msg, msg.getAllRecipients());
-			transport.close();
-		} catch (Exception e) {
-			throw new SenderException("MailSender [" + getName() + "] cannot connect send message to smtpHost ["+getSmtpHost()+"]",e);
-		} finally {
-			if (transport!=null) {
-				try {
-					transport.close();
-				} catch (MessagingException e1) {
-					log.warn("MailSender [" + getName() + "] got exception closing connection", e1);
+			return;
+		}
+		Iterator<Message> iter = messages.iterator();
+		while (iter.hasNext()) {
+			SmtpTransportPool.PooledTransport pooledTransport = borrowTransport();
+			boolean reusable=false;
+			try {
+				while (iter.hasNext() && !pooledTransport.isMaxMessagesReached()) {
+					sendMessage(pooledTransport.getTransport(), iter.next());
+					pooledTransport.messageSent();
 				}
+				reusable=true;
+			} catch (MessagingException e) {
+				throw new SenderException("MailSender [" + getName() + "] cannot send message to smtpHost ["+getSmtpHost()+"]",e);
+			} finally {
+				transportPool.release(pooledTransport, reusable);
 			}
 		}
 	}
 
+	private SmtpTransportPool.PooledTransport borrowTransport() throws SenderException {
+		long borrowStart = System.currentTimeMillis();
+		SmtpTransportPool.PooledTransport pooledTransport;
+		try {
+			pooledTransport = transportPool.borrow(getPoolTimeout());
+		} catch (TimeOutException e) {
+			throw new SenderException("MailSender [" + getName() + "] cannot send message", e);
+		}
+		long borrowDuration = System.currentTimeMillis() - borrowStart;
+		if (pooledTransport.isNewConnection()) {
+			addStatistic(connectStatistics, pooledTransport.getConnectDuration());
+			borrowDuration -= pooledTransport.getConnectDuration();
+		}
+		addStatistic(poolWaitStatistics, borrowDuration);
+		return pooledTransport;
+	}
+
+	private void sendMessage(Transport transport, Message msg) throws MessagingException {
+		long sendStart = System.currentTimeMillis();
+		transport.sendMessage(msg, msg.getAllRecipients());
+		addStatistic(sendStatistics, System.currentTimeMillis() - sendStart);
+	}
+
+	private void addStatistic(StatisticsKeeper sk, long duration) {
+		synchronized (sk) {
+			sk.addValue(duration);
+		}
+	}
+
+	public void iterateOverStatistics(StatisticsKeeperIterationHandler hski, Object data, int action) throws SenderException {
+		hski.handleStatisticsKeeper(data, connectStatistics);
+		hski.handleStatisticsKeeper(data, sendStatistics);
+		if (isPoolConnections()) {
+			hski.handleStatisticsKeeper(data, poolWaitStatistics);
+		}
+	}
+
 
 	/**
 	 * Set the default for From
@@ -699,4 +824,39 @@ public class MailSender extends SenderWithParametersBase {
 		this.timeout = timeout;
 	}
 
+	public void setPoolConnections(boolean poolConnections) {
+		this.poolConnections = poolConnections;
+	}
+	public boolean isPoolConnections() {
+		return poolConnections;
+	}
+
+	public void setMaxConnections(int maxConnections) {
+		this.maxConnections = maxConnections;
+	}
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	public void setMaxIdleTime(long maxIdleTime) {
+		this.maxIdleTime = maxIdleTime;
+	}
+	public long getMaxIdleTime() {
+		return maxIdleTime;
+	}
+
+	public void setMaxMessagesPerConnection(int maxMessagesPerConnection) {
+		this.maxMessagesPerConnection = maxMessagesPerConnection;
+	}
+	public int getMaxMessagesPerConnection() {
+		return maxMessagesPerConnection;
+	}
+
+	public void setPoolTimeout(long poolTimeout) {
+		this.poolTimeout = poolTimeout;
+	}
+	public long getPoolTimeout() {
+		return poolTimeout;
+	}
+
 }
@@ -22,6 +22,7 @@ import nl.nn.adapterframework.parameters.ParameterResolutionContext;
 import nl.nn.adapterframework.statistics.StatisticsKeeper;
 import nl.nn.adapterframework.util.Guard;
 import nl.nn.adapterframework.util.LogUtil;
+import nl.nn.adapterframework.util.Semaphore;
 
 import org.apache.log4j.Logger;
 
@@ -30,17 +31,28 @@ public class ParallelSenderExecutor extends RequestReplyExecutor {
 	private ISender sender;
 	private ParameterResolutionContext prc;
 	private Guard guard;
+	private Semaphore semaphore;
 	private StatisticsKeeper sk;
 
 	public ParallelSenderExecutor(ISender sender, String correlationID,
 			String message, ParameterResolutionContext prc, Guard guard,
 			StatisticsKeeper sk) {
+		this(sender, correlationID, message, prc, guard, null, sk);
+	}
+
+	/**
+	 * @param semaphore when not <code>null</code>, released when the message has been sent
+	 */
+	public ParallelSenderExecutor(ISender sender, String correlationID,
+			String message, ParameterResolutionContext prc, Guard guard,
+			Semaphore semaphore, StatisticsKeeper sk) {
 		super();
 		this.sender=sender;
 		this.correlationID=correlationID;
 		request=message;
 		this.prc=prc;
 		this.guard=guard;
+		this.semaphore=semaphore;
 		this.sk=sk;
 	}
 
@@ -60,7 +72,12 @@ public class ParallelSenderExecutor extends RequestReplyExecutor {
 			long t2 = System.currentTimeMillis();
 			sk.addValue(t2-t1);
 		} finally {
-			guard.releaseResource();
+			if (semaphore!=null) {
+				semaphore.release();
+			}
+			if (guard!=null) {
+				guard.releaseResource();
+			}
 		}
 	}
 
@@ -1,5 +1,5 @@
 /*
-   Copyright 2013, 2017 Nationale-Nederlanden
+   Copyright 2013, 2017, 2018 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -19,12 +19,14 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 
+import nl.nn.adapterframework.configuration.ConfigurationException;
 import nl.nn.adapterframework.core.ISender;
 import nl.nn.adapterframework.core.SenderException;
 import nl.nn.adapterframework.core.TimeOutException;
 import nl.nn.adapterframework.parameters.ParameterResolutionContext;
 import nl.nn.adapterframework.util.ClassUtils;
 import nl.nn.adapterframework.util.Guard;
+import nl.nn.adapterframework.util.Semaphore;
 import nl.nn.adapterframework.util.XmlBuilder;
 import nl.nn.adapterframework.util.XmlUtils;
 
@@ -41,6 +43,7 @@ import org.springframework.core.task.TaskExecutor;
  * <tr><td>{@link #setGetInputFromFixedValue(String) getInputFromFixedValue}</td><td>when set, this fixed value is taken as input, instead of regular input</td><td>&nbsp;</td></tr>
  * <tr><td>{@link #setStoreResultInSessionKey(String) storeResultInSessionKey}</td><td>when set, the result is stored under this session key</td><td>&nbsp;</td></tr>
  * <tr><td>{@link #setPreserveInput(boolean) preserveInput}</td><td>when set <code>true</code>, the input of a pipe is restored before processing the next one</td><td>false</td></tr>
+ * <tr><td>{@link #setMaxConcurrentThreads(int) maxConcurrentThreads}</td><td>maximum number of senders that are executed at the same time, for all messages together. When this number is reached, the next sender is started only after one of the others has finished</td><td>0 (unlimited)</td></tr>
  * </table>
  * </p>
  * <table border="1">
@@ -59,6 +62,15 @@ public class ParallelSenders extends SenderSeries {
 	 */
 	private TaskExecutor taskExecutor;
 
+	private int maxConcurrentThreads = 0;
+	private Semaphore concurrentThreadSemaphore;
+
+	public void configure() throws ConfigurationException {
+		super.configure();
+		if (getMaxConcurrentThreads()>0) {
+			concurrentThreadSemaphore = new Semaphore(getMaxConcurrentThreads());
+		}
+	}
 
 	public String doSendMessage(String correlationID, String message, ParameterResolutionContext prc) throws SenderException, TimeOutException {
 		Guard guard= new Guard();
@@ -79,12 +91,28 @@ public class ParallelSenders extends SenderSeries {
 			ParameterResolutionContext newPrc = new ParameterResolutionContext(
 					prc.getInput(), prc.getSession(), prc.isNamespaceAware(),
 					prc.isXslt2(), false);
+			if (concurrentThreadSemaphore!=null) {
+				try {
+					concurrentThreadSemaphore.acquire();
+				} catch (InterruptedException e) {
+					throw new SenderException(getLogPrefix()+"was interupted",e);
+				}
+			}
 			guard.addResource();
 			ParallelSenderExecutor pse = new ParallelSenderExecutor(sender,
 					correlationID, message, newPrc, guard,
-					getStatisticsKeeper(sender));
+					concurrentThreadSemaphore, getStatisticsKeeper(sender));
 			executorMap.put(sender, pse);
-			getTaskExecutor().execute(pse);
+			try {
+				getTaskExecutor().execute(pse);
+			} catch (RuntimeException e) {
+				// the executor did not accept the call, so it will not release its permit and resource
+				guard.releaseResource();
+				if (concurrentThreadSemaphore!=null) {
+					concurrentThreadSemaphore.release();
+				}
+				throw new SenderException(getLogPrefix()+"cannot execute sender ["+sender.getName()+"]",e);
+			}
 		}
 		try {
 			guard.waitForAllResources();
@@ -129,4 +157,11 @@ public class ParallelSenders extends SenderSeries {
 		return taskExecutor;
 	}
 
+	public void setMaxConcurrentThreads(int maxConcurrentThreads) {
+		this.maxConcurrentThreads = maxConcurrentThreads;
+	}
+	public int getMaxConcurrentThreads() {
+		return maxConcurrentThreads;
+	}
+
 }
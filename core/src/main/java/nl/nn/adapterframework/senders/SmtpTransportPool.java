@@ -0,0 +1,273 @@
+/*
+   Copyright 2018 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.senders;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+
+import nl.nn.adapterframework.core.SenderException;
+import nl.nn.adapterframework.core.TimeOutException;
+import nl.nn.adapterframework.util.LogUtil;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Pool of connected SMTP transports, shared by the {@link MailSender}s that use the same smtpHost,
+ * credentials and mail session properties.
+ * <p>
+ * The key of a pool contains the credentials and the <code>mail.*</code> properties of the session, like
+ * the timeouts, so all senders that share a pool would have set up the same connection.
+ * At most <code>maxConnections</code> transports are in use at the same time. Idle transports are
+ * closed when they have not been used for <code>maxIdleTime</code> ms, and transports are closed
+ * after <code>maxMessagesPerConnection</code> messages, as many SMTP servers limit the number of
+ * messages per connection. An idle transport is checked to be still connected (with an SMTP NOOP)
+ * before it is handed out again. The pool settings of the first sender that opens the pool are used.
+ *
+ * @since   7.0
+ */
+public class SmtpTransportPool {
+	protected Logger log = LogUtil.getLogger(this);
+
+	private static Map<Object, SmtpTransportPool> pools = new HashMap<Object, SmtpTransportPool>();
+
+	private Object key;
+	private Session session;
+	private String host;
+	private String username;
+	private String password;
+	private int maxMessagesPerConnection;
+	private long maxIdleTime;
+
+	private Semaphore permits;
+	private LinkedList<PooledTransport> idle = new LinkedList<PooledTransport>();
+	private int users = 0;
+
+	public class PooledTransport {
+		private Transport transport;
+		private long lastUsed;
+		private int messagesSent;
+		private long connectDuration;
+		private boolean newConnection = true;
+
+		private PooledTransport(Transport transport) {
+			this.transport = transport;
+		}
+
+		public Transport getTransport() {
+			return transport;
+		}
+		/**
+		 * Returns <code>true</code> when the transport was connected when it was borrowed, <code>false</code>
+		 * when a connected transport from the pool was reused.
+		 */
+		public boolean isNewConnection() {
+			return newConnection;
+		}
+		/**
+		 * Returns the time in ms it took to connect the transport, when it is a new connection.
+		 */
+		public long getConnectDuration() {
+			return connectDuration;
+		}
+		public void messageSent() {
+			messagesSent++;
+		}
+		/**
+		 * Returns <code>true</code> when <code>maxMessagesPerConnection</code> messages have been sent over the
+		 * transport, after which it is closed when it is released.
+		 */
+		public boolean isMaxMessagesReached() {
+			return messagesSent >= Math.max(maxMessagesPerConnection, 1);
+		}
+	}
+
+	private SmtpTransportPool(Object key, Session session, String host, String username, String password, int maxConnections, long maxIdleTime, int maxMessagesPerConnection) {
+		super();
+		this.key = key;
+		this.session = session;
+		this.host = host;
+		this.username = username;
+		this.password = password;
+		this.maxIdleTime = maxIdleTime;
+		this.maxMessagesPerConnection = maxMessagesPerConnection;
+		permits = new Semaphore(Math.max(maxConnections, 1), true);
+	}
+
+	/**
+	 * Returns the pool for the smtpHost, credentials and session properties, creating it when it does not
+	 * exist yet. Each call must be matched by a call to {@link #close()}.
+	 */
+	public static synchronized SmtpTransportPool open(Session session, String host, String username, String password, int maxConnections, long maxIdleTime, int maxMessagesPerConnection) {
+		Object key = Arrays.asList(host, username, password, getMailProperties(session));
+		SmtpTransportPool pool = pools.get(key);
+		if (pool == null) {
+			pool = new SmtpTransportPool(key, session, host, username, password, maxConnections, maxIdleTime, maxMessagesPerConnection);
+			pools.put(key, pool);
+		}
+		synchronized (pool) {
+			pool.users++;
+		}
+		return pool;
+	}
+
+	/**
+	 * Returns a copy of the <code>mail.*</code> properties of the session, that are used to set up a connection.
+	 */
+	private static Map<String, String> getMailProperties(Session session) {
+		Map<String, String> result = new TreeMap<String, String>();
+		Properties properties = session.getProperties();
+		for (String name : properties.stringPropertyNames()) {
+			if (name.startsWith("mail.")) {
+				result.put(name, properties.getProperty(name));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Releases the pool. When it is no longer used by any sender, its idle transports are closed.
+	 */
+	public void close() {
+		List<PooledTransport> transports;
+		synchronized (SmtpTransportPool.class) {
+			synchronized (this) {
+				if (--users > 0) {
+					return;
+				}
+				transports = new ArrayList<PooledTransport>(idle);
+				idle.clear();
+			}
+			pools.remove(key);
+		}
+		for (PooledTransport pooledTransport : transports) {
+			closeTransport(pooledTransport);
+		}
+	}
+
+	/**
+	 * Returns a connected transport, waiting at most <code>maxWait</code> ms when <code>maxConnections</code>
+	 * transports are in use. The transport must be returned with {@link #release(PooledTransport, boolean)}.
+	 */
+	public PooledTransport borrow(long maxWait) throws SenderException, TimeOutException {
+		try {
+			if (!permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS)) {
+				throw new TimeOutException("no connection to smtpHost ["+host+"] available within ["+maxWait+"] ms");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SenderException("interrupted while waiting for connection to smtpHost ["+host+"]", e);
+		}
+		try {
+			PooledTransport pooledTransport;
+			while ((pooledTransport = takeIdle()) != null) {
+				// isConnected() sends a NOOP to check that the server has not closed the connection
+				if (pooledTransport.transport.isConnected()) {
+					pooledTransport.newConnection = false;
+					return pooledTransport;
+				}
+				log.debug("closing transport to smtpHost ["+host+"] that is no longer connected");
+				closeTransport(pooledTransport);
+			}
+			return connect();
+		} catch (SenderException e) {
+			permits.release();
+			throw e;
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns a transport to the pool.
+	 *
+	 * @param reusable <code>false</code> when an error occurred, to close the transport instead of keeping it for reuse
+	 */
+	public void release(PooledTransport pooledTransport, boolean reusable) {
+		try {
+			if (reusable && !pooledTransport.isMaxMessagesReached()) {
+				pooledTransport.lastUsed = System.currentTimeMillis();
+				synchronized (this) {
+					if (users > 0) {
+						idle.addFirst(pooledTransport);
+						return;
+					}
+				}
+			}
+			closeTransport(pooledTransport);
+		} finally {
+			permits.release();
+		}
+	}
+
+	private synchronized PooledTransport takeIdle() {
+		long now = System.currentTimeMillis();
+		// the least recently used transports are at the end of the list
+		for (Iterator<PooledTransport> it = idle.descendingIterator(); it.hasNext();) {
+			PooledTransport pooledTransport = it.next();
+			if (now - pooledTransport.lastUsed <= maxIdleTime) {
+				break;
+			}
+			it.remove();
+			closeTransport(pooledTransport);
+		}
+		return idle.pollFirst();
+	}
+
+	private PooledTransport connect() throws SenderException {
+		long start = System.currentTimeMillis();
+		try {
+			Transport transport = session.getTransport("smtp");
+			transport.connect(host, username, password);
+			if (log.isDebugEnabled()) {
+				log.debug("connected transport to URL ["+transport.getURLName()+"]");
+			}
+			PooledTransport pooledTransport = new PooledTransport(transport);
+			pooledTransport.connectDuration = System.currentTimeMillis() - start;
+			return pooledTransport;
+		} catch (MessagingException e) {
+			throw new SenderException("cannot connect to smtpHost ["+host+"]", e);
+		}
+	}
+
+	private void closeTransport(PooledTransport pooledTransport) {
+		try {
+			pooledTransport.transport.close();
+		} catch (MessagingException e) {
+			log.warn("exception closing transport to smtpHost ["+host+"]", e);
+		}
+	}
+
+	public synchronized int getIdleCount() {
+		return idle.size();
+	}
+	public int getAvailablePermits() {
+		return permits.availablePermits();
+	}
+}
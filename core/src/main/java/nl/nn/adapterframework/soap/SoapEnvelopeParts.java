@@ -0,0 +1,78 @@
+/*
+   Copyright 2018 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.soap;
+
+/**
+ * The parts of a SOAP message, as extracted by a single pass of the {@link SoapEnvelopeParser}.
+ * <p>
+ * Body and header contain the serialized child elements of the SOAP Body and SOAP Header,
+ * each carrying the namespace declarations that are in scope, like an xsl:copy-of of
+ * these elements would produce. Parts that are not present are returned as an empty string.
+ */
+public class SoapEnvelopeParts {
+
+	private String soapNamespace;
+	private String body = "";
+	private String header = "";
+	private int faultCount;
+	private String faultCode = "";
+	private String faultString = "";
+
+	/**
+	 * Namespace of the SOAP Envelope, or <code>null</code> if the message is not a SOAP message.
+	 */
+	public String getSoapNamespace() {
+		return soapNamespace;
+	}
+	void setSoapNamespace(String soapNamespace) {
+		this.soapNamespace = soapNamespace;
+	}
+
+	public String getBody() {
+		return body;
+	}
+	void setBody(String body) {
+		this.body = body;
+	}
+
+	public String getHeader() {
+		return header;
+	}
+	void setHeader(String header) {
+		this.header = header;
+	}
+
+	public int getFaultCount() {
+		return faultCount;
+	}
+	void setFaultCount(int faultCount) {
+		this.faultCount = faultCount;
+	}
+
+	public String getFaultCode() {
+		return faultCode;
+	}
+	void setFaultCode(String faultCode) {
+		this.faultCode = faultCode;
+	}
+
+	public String getFaultString() {
+		return faultString;
+	}
+	void setFaultString(String faultString) {
+		this.faultString = faultString;
+	}
+}
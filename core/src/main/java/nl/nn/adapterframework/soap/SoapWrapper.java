@@ -20,15 +20,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.StringTokenizer;
 
-import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.stream.StreamSource;
 
 import nl.nn.adapterframework.configuration.ConfigurationException;
 import nl.nn.adapterframework.core.SenderException;
 import nl.nn.adapterframework.util.DomBuilderException;
 import nl.nn.adapterframework.util.LogUtil;
-import nl.nn.adapterframework.util.TransformerPool;
 import nl.nn.adapterframework.util.XmlUtils;
 
 import org.apache.axis.Message;
@@ -48,6 +45,8 @@ import org.apache.ws.security.message.WSSecUsernameToken;
 import org.apache.ws.security.util.DOM2Writer;
 import org.apache.xml.security.signature.XMLSignature;
 import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
 
 /**
  * Utility class that wraps and unwraps messages from (and into) a SOAP Envelope.
@@ -57,67 +56,63 @@ import org.w3c.dom.Document;
 public class SoapWrapper {
 	protected Logger log = LogUtil.getLogger(this);
 
-	private TransformerPool extractBody;
-	private TransformerPool extractBody2;
-	private TransformerPool extractHeader;
-	private TransformerPool extractFaultCount;
-	private TransformerPool extractFaultCode;
-	private TransformerPool extractFaultString;
-	private static final String EXTRACT_NAMESPACE_DEFS  = "soapenv=http://schemas.xmlsoap.org/soap/envelope/";
-	private static final String EXTRACT_NAMESPACE_DEFS2 = "soapenv=http://www.w3.org/2003/05/soap-envelope";
-	private static final String EXTRACT_BODY_XPATH = "/soapenv:Envelope/soapenv:Body/*";
-	private static final String EXTRACT_HEADER_XPATH = "/soapenv:Envelope/soapenv:Header/*";
-	private static final String EXTRACT_FAULTCOUNTER_XPATH = "count(/soapenv:Envelope/soapenv:Body/soapenv:Fault)";
-	private static final String EXTRACT_FAULTCODE_XPATH = "/soapenv:Envelope/soapenv:Body/soapenv:Fault/faultcode";
-	private static final String EXTRACT_FAULTSTRING_XPATH = "/soapenv:Envelope/soapenv:Body/soapenv:Fault/faultstring";
-
 	private static SoapWrapper self = null;
 
 	private SoapWrapper() {
 		super();
 	}
 
-	private void init() throws ConfigurationException {
-		try {
-			extractBody = TransformerPool.getInstance(XmlUtils.createXPathEvaluatorSource(EXTRACT_NAMESPACE_DEFS, EXTRACT_BODY_XPATH, "xml", false, null, false));
-			extractBody2 = TransformerPool.getInstance(XmlUtils.createXPathEvaluatorSource(EXTRACT_NAMESPACE_DEFS2, EXTRACT_BODY_XPATH,"xml",false,null,false));
-			extractHeader = TransformerPool.getInstance(XmlUtils.createXPathEvaluatorSource(EXTRACT_NAMESPACE_DEFS, EXTRACT_HEADER_XPATH, "xml"));
-			extractFaultCount = TransformerPool.getInstance(XmlUtils.createXPathEvaluatorSource(EXTRACT_NAMESPACE_DEFS, EXTRACT_FAULTCOUNTER_XPATH, "text"));
-			extractFaultCode = TransformerPool.getInstance(XmlUtils.createXPathEvaluatorSource(EXTRACT_NAMESPACE_DEFS, EXTRACT_FAULTCODE_XPATH, "text"));
-			extractFaultString = TransformerPool.getInstance(XmlUtils.createXPathEvaluatorSource(EXTRACT_NAMESPACE_DEFS, EXTRACT_FAULTSTRING_XPATH, "text"));
-		} catch (TransformerConfigurationException e) {
-			throw new ConfigurationException("cannot create SOAP transformer", e);
-		}
-	}
-
 	public static SoapWrapper getInstance() throws ConfigurationException {
 		if (self == null) {
 			self = new SoapWrapper();
-			self.init();
 		}
 		return self;
 	}
 
+	/**
+	 * Parses the message once, extracting body, header and fault information.
+	 */
+	public SoapEnvelopeParts parseEnvelope(String message) throws DomBuilderException, IOException {
+		try {
+			return SoapEnvelopeParser.parse(message);
+		} catch (SAXException e) {
+			throw new DomBuilderException("cannot parse SOAP message", e);
+		}
+	}
+
+	public SoapEnvelopeParts parseEnvelope(InputStream request) throws DomBuilderException, IOException {
+		try {
+			return SoapEnvelopeParser.parse(new InputSource(request));
+		} catch (SAXException e) {
+			throw new DomBuilderException("cannot parse SOAP message", e);
+		}
+	}
+
 	public void checkForSoapFault(String responseBody, Throwable nested) throws SenderException {
-		String faultString = null;
-		String faultCode = null;
-		int faultCount = 0;
+		if (StringUtils.isEmpty(responseBody)) {
+			log.warn("checkForSoapFault(): message is empty");
+			return;
+		}
+		SoapEnvelopeParts envelope;
 		try {
-			faultCount = getFaultCount(responseBody);
-			log.debug("fault count=" + faultCount);
-			if (faultCount > 0) {
-				faultCode = getFaultCode(responseBody);
-				faultString = getFaultString(responseBody);
-				log.debug("faultCode=" + faultCode + ", faultString=" + faultString);
-			}
+			envelope = parseEnvelope(responseBody);
 		} catch (DomBuilderException e) {
-			log.debug("IOException extracting fault message", e);
+			log.debug("DomBuilderException extracting fault message", e);
+			return;
 		} catch (IOException e) {
 			log.debug("IOException extracting fault message", e);
-		} catch (TransformerException e) {
-			log.debug("TransformerException extracting fault message:" + e.getMessageAndLocation());
+			return;
 		}
+		checkForSoapFault(envelope, nested);
+	}
+
+	public void checkForSoapFault(SoapEnvelopeParts envelope, Throwable nested) throws SenderException {
+		int faultCount = envelope.getFaultCount();
+		log.debug("fault count=" + faultCount);
 		if (faultCount > 0) {
+			String faultCode = envelope.getFaultCode();
+			String faultString = envelope.getFaultString();
+			log.debug("faultCode=" + faultCode + ", faultString=" + faultString);
 			String msg = "SOAP fault [" + faultCode + "]: " + faultString;
 			log.info(msg);
 			throw new SenderException(msg, nested);
@@ -125,25 +120,27 @@ public class SoapWrapper {
 	}
 
 	public String getBody(String message) throws DomBuilderException, TransformerException, IOException  {
-		String result = extractBody.transform(message,null,true);
-		if (StringUtils.isNotEmpty(result))
-			return result;
-		return extractBody2.transform(message,null,true);
+		return parseEnvelope(message).getBody();
 	}
 
 	public String getBody(InputStream request) throws TransformerException, IOException {
-		String result = extractBody.transform(new StreamSource(request),null);
-		if (StringUtils.isNotEmpty(result))
-			return result;
-		return extractBody2.transform(new StreamSource(request),null);
+		try {
+			return parseEnvelope(request).getBody();
+		} catch (DomBuilderException e) {
+			throw new TransformerException(e);
+		}
 	}
 
 	public String getHeader(String message) throws DomBuilderException, TransformerException, IOException {
-		return extractHeader.transform(message, null, true);
+		return parseEnvelope(message).getHeader();
 	}
 
 	public String getHeader(InputStream request) throws TransformerException, IOException {
-		return extractHeader.transform(new StreamSource(request), null);
+		try {
+			return parseEnvelope(request).getHeader();
+		} catch (DomBuilderException e) {
+			throw new TransformerException(e);
+		}
 	}
 
 	public int getFaultCount(String message) throws DomBuilderException, TransformerException, IOException {
@@ -151,23 +148,15 @@ public class SoapWrapper {
 			log.warn("getFaultCount(): message is empty");
 			return 0;
 		}
-		String faultCount = extractFaultCount.transform(message, null, true);
-		if (StringUtils.isEmpty(faultCount)) {
-			log.warn("getFaultCount(): could not extract fault count, result is empty");
-			return 0;
-		}
-		if (log.isDebugEnabled()) {
-			log.debug("getFaultCount(): transformation result [" + faultCount + "]");
-		}
-		return Integer.parseInt(faultCount);
+		return parseEnvelope(message).getFaultCount();
 	}
 
 	public String getFaultCode(String message) throws DomBuilderException, TransformerException, IOException {
-		return extractFaultCode.transform(message, null, true);
+		return parseEnvelope(message).getFaultCode();
 	}
 
 	public String getFaultString(String message) throws DomBuilderException, TransformerException, IOException {
-		return extractFaultString.transform(message, null, true);
+		return parseEnvelope(message).getFaultString();
 	}
 
 	public String putInEnvelope(String message, String encodingStyleUri, String targetObjectNamespace) {
@@ -211,6 +211,24 @@ public class SoapWrapperPipe extends FixedForwardPipe {
 		}
 	}
 
+	/**
+	 * Returns true when the values of the parameters are needed to wrap a message.
+	 */
+	protected boolean isParameterValuesRequired() {
+		return soapHeaderTp != null || soapBodyTp != null;
+	}
+
+	/**
+	 * Returns the SOAP Header when no soapHeaderStyleSheet is used. By default this is the
+	 * value of the session key soapHeaderSessionKey.
+	 */
+	protected String getSoapHeader(Map parameterValues, IPipeLineSession session) {
+		if (StringUtils.isNotEmpty(getSoapHeaderSessionKey())) {
+			return (String) session.get(getSoapHeaderSessionKey());
+		}
+		return null;
+	}
+
     @Override
 	public PipeRunResult doPipe(Object input, IPipeLineSession session) throws PipeRunException {
 		String result;
@@ -225,7 +243,7 @@ public class SoapWrapperPipe extends FixedForwardPipe {
 				}
 				ParameterResolutionContext prc = null;
 				Map parameterValues = null;
-				if (getParameterList()!=null && (soapHeaderTp != null || soapBodyTp != null)) {
+				if (getParameterList()!=null && isParameterValuesRequired()) {
 					prc = new ParameterResolutionContext(payload, session);
 					parameterValues = prc.getValueMap(getParameterList());
 				}
@@ -233,9 +251,7 @@ public class SoapWrapperPipe extends FixedForwardPipe {
 				if (soapHeaderTp != null) {
 					soapHeader = soapHeaderTp.transform(prc.getInputSource(), parameterValues);
 				} else {
-					if (StringUtils.isNotEmpty(getSoapHeaderSessionKey())) {
-						soapHeader = (String) session.get(getSoapHeaderSessionKey());
-					}
+					soapHeader = getSoapHeader(parameterValues, session);
 				}
 				if (soapBodyTp != null) {
 					payload = soapBodyTp.transform(prc.getInputSource(), parameterValues);
@@ -243,16 +259,16 @@ public class SoapWrapperPipe extends FixedForwardPipe {
 
 				result = wrapMessage(payload, soapHeader);
 			} else {
-				result = unwrapMessage(input.toString());
+				SoapEnvelopeParts envelope = soapWrapper.parseEnvelope(input.toString());
+				result = envelope.getBody();
 				if (StringUtils.isEmpty(result)) {
 					throw new PipeRunException(this, getLogPrefix(session) + "SOAP Body is empty or message is not a SOAP Message");
 				}
-				if (!isIgnoreSoapFault() && soapWrapper.getFaultCount(input.toString()) > 0) {
+				if (!isIgnoreSoapFault() && envelope.getFaultCount() > 0) {
 					throw new PipeRunException(this, getLogPrefix(session) + "SOAP Body contains SOAP Fault");
 				}
 				if (StringUtils.isNotEmpty(getSoapHeaderSessionKey())) {
-					String soapHeader = soapWrapper.getHeader(input.toString());
-					session.put(getSoapHeaderSessionKey(), soapHeader);
+					session.put(getSoapHeaderSessionKey(), envelope.getHeader());
 				}
 				if (removeOutputNamespacesTp != null) {
 					result = removeOutputNamespacesTp.transform(result, null, true);
@@ -0,0 +1,240 @@
+/*
+   Copyright 2018 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.statistics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Timings of the processing of a single message: a tree of spans, one for the receiver and
+ * one for each pipe, sender, storage action and transaction commit that was executed for it.
+ * <p>
+ * A trace is built by the thread that processes the message, see {@link MessageTracer}.
+ * It can be exported as a map, for display in the console, or as spans in the
+ * OpenTelemetry (OTLP/JSON) format.
+ *
+ * @since   7.0
+ */
+public class MessageTrace {
+
+	public static final String KIND_RECEIVER = "receiver";
+	public static final String KIND_QUEUE = "queue";
+	public static final String KIND_PIPE = "pipe";
+	public static final String KIND_SENDER = "sender";
+	public static final String KIND_STORAGE = "storage";
+	public static final String KIND_COMMIT = "commit";
+
+	private static final Random random = new Random();
+
+	private final MessageTraceBuffer buffer;
+	private final String traceId;
+	private final long spanIdBase;
+	private final String messageId;
+	private final long startTimeMillis;
+	private final long startNanos;
+	private final int maxSpans;
+	private final List<Span> spans = new ArrayList<Span>();
+	private Span current;
+	private int droppedSpans;
+
+	public class Span {
+		private final int index;
+		private final Span parent;
+		private final String kind;
+		private final String name;
+		private final long start;
+		private long end = -1;
+		private boolean error;
+
+		private Span(Span parent, String kind, String name, long start) {
+			this.index = spans.size();
+			this.parent = parent;
+			this.kind = kind;
+			this.name = name;
+			this.start = start;
+		}
+
+		public MessageTrace getTrace() {
+			return MessageTrace.this;
+		}
+		public boolean isRoot() {
+			return parent == null;
+		}
+		public String getKind() {
+			return kind;
+		}
+		public String getName() {
+			return name;
+		}
+		public void setError(boolean error) {
+			this.error = error;
+		}
+		public boolean isError() {
+			return error;
+		}
+		/**
+		 * Returns the duration in milliseconds, or -1 when the span has not ended.
+		 */
+		public long getDuration() {
+			return end < 0 ? -1 : (end - start) / 1000000;
+		}
+
+		private String getSpanId() {
+			return toHex(spanIdBase | (index + 1), 16);
+		}
+	}
+
+	MessageTrace(MessageTraceBuffer buffer, String kind, String name, String messageId, long waitingDuration, int maxSpans) {
+		this.buffer = buffer;
+		this.messageId = messageId;
+		this.maxSpans = maxSpans;
+		traceId = UUID.randomUUID().toString().replace("-", "");
+		spanIdBase = random.nextLong() & 0xFFFFFFFFFFF00000L;
+		long waitingNanos = waitingDuration > 0 ? waitingDuration * 1000000 : 0;
+		startTimeMillis = System.currentTimeMillis() - waitingNanos / 1000000;
+		startNanos = System.nanoTime() - waitingNanos;
+		current = new Span(null, kind, name, 0);
+		spans.add(current);
+		if (waitingNanos > 0) {
+			Span queue = new Span(current, KIND_QUEUE, name, 0);
+			queue.end = waitingNanos;
+			spans.add(queue);
+		}
+	}
+
+	Span startSpan(String kind, String name) {
+		if (spans.size() >= maxSpans) {
+			droppedSpans++;
+			return null;
+		}
+		Span span = new Span(current, kind, name, System.nanoTime() - startNanos);
+		spans.add(span);
+		current = span;
+		return span;
+	}
+
+	void endSpan(Span span) {
+		span.end = System.nanoTime() - startNanos;
+		if (current == span) {
+			current = span.parent;
+		}
+	}
+
+	public MessageTraceBuffer getBuffer() {
+		return buffer;
+	}
+	public Span getRoot() {
+		return spans.get(0);
+	}
+	public String getTraceId() {
+		return traceId;
+	}
+	public String getMessageId() {
+		return messageId;
+	}
+	public long getStartTime() {
+		return startTimeMillis;
+	}
+	public long getDuration() {
+		return getRoot().getDuration();
+	}
+
+	/**
+	 * Returns the trace as a map with the spans in the order in which they were started, each
+	 * with the level at which it was nested, for display in the console.
+	 */
+	public Map<String, Object> toMap() {
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("traceId", traceId);
+		result.put("messageId", messageId);
+		result.put("startTime", startTimeMillis);
+		result.put("duration", getDuration());
+		if (droppedSpans > 0) {
+			result.put("droppedSpans", droppedSpans);
+		}
+		List<Map<String, Object>> spanList = new ArrayList<Map<String, Object>>(spans.size());
+		for (Span span : spans) {
+			Map<String, Object> spanMap = new LinkedHashMap<String, Object>();
+			int level = 0;
+			for (Span parent = span.parent; parent != null; parent = parent.parent) {
+				level++;
+			}
+			spanMap.put("level", level);
+			spanMap.put("kind", span.kind);
+			spanMap.put("name", span.name);
+			spanMap.put("offset", span.start / 1000000);
+			spanMap.put("duration", span.getDuration());
+			if (span.error) {
+				spanMap.put("error", true);
+			}
+			spanList.add(spanMap);
+		}
+		result.put("spans", spanList);
+		return result;
+	}
+
+	/**
+	 * Adds the spans of this trace to a list of spans in OTLP/JSON format.
+	 */
+	public void addOtlpSpans(List<Map<String, Object>> result) {
+		long startEpochNanos = startTimeMillis * 1000000;
+		for (Span span : spans) {
+			Map<String, Object> otlpSpan = new LinkedHashMap<String, Object>();
+			otlpSpan.put("traceId", traceId);
+			otlpSpan.put("spanId", span.getSpanId());
+			if (span.parent != null) {
+				otlpSpan.put("parentSpanId", span.parent.getSpanId());
+			}
+			otlpSpan.put("name", span.kind + " " + span.name);
+			// SPAN_KIND_SERVER for the receiver, SPAN_KIND_CLIENT for senders, SPAN_KIND_INTERNAL otherwise
+			otlpSpan.put("kind", span.parent == null ? 2 : KIND_SENDER.equals(span.kind) ? 3 : 1);
+			otlpSpan.put("startTimeUnixNano", Long.toString(startEpochNanos + span.start));
+			otlpSpan.put("endTimeUnixNano", Long.toString(startEpochNanos + (span.end < 0 ? span.start : span.end)));
+			List<Map<String, Object>> attributes = new ArrayList<Map<String, Object>>();
+			attributes.add(otlpAttribute("ibis.kind", span.kind));
+			if (span.parent == null && messageId != null) {
+				attributes.add(otlpAttribute("ibis.messageId", messageId));
+			}
+			otlpSpan.put("attributes", attributes);
+			Map<String, Object> status = new LinkedHashMap<String, Object>();
+			status.put("code", span.error ? 2 : 0);
+			otlpSpan.put("status", status);
+			result.add(otlpSpan);
+		}
+	}
+
+	static Map<String, Object> otlpAttribute(String key, String value) {
+		Map<String, Object> stringValue = new LinkedHashMap<String, Object>();
+		stringValue.put("stringValue", value);
+		Map<String, Object> attribute = new LinkedHashMap<String, Object>();
+		attribute.put("key", key);
+		attribute.put("value", stringValue);
+		return attribute;
+	}
+
+	private static String toHex(long value, int length) {
+		String hex = Long.toHexString(value);
+		StringBuilder result = new StringBuilder(length);
+		for (int i = hex.length(); i < length; i++) {
+			result.append('0');
+		}
+		return result.append(hex).toString();
+	}
+}
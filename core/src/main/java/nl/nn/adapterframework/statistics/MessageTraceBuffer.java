@@ -0,0 +1,164 @@
+/*
+   Copyright 2018 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.statistics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nl.nn.adapterframework.util.AppConstants;
+
+/**
+ * Keeps the {@link MessageTrace}s of an adapter: every <code>msg.trace.sampleInterval</code>-th
+ * trace in a ring buffer of <code>msg.trace.bufferSize</code> recent traces, and the
+ * <code>msg.trace.slowest.size</code> slowest traces since the buffer was last cleared.
+ *
+ * @since   7.0
+ */
+public class MessageTraceBuffer {
+
+	private final int sampleInterval;
+	private final MessageTrace[] recent;
+	private final int slowestSize;
+	private final List<MessageTrace> slowest;
+
+	private final AtomicLong count = new AtomicLong();
+	private int next = 0;
+	private volatile long slowestThreshold = -1;
+
+	public MessageTraceBuffer() {
+		this(AppConstants.getInstance().getInt("msg.trace.sampleInterval", 10),
+			AppConstants.getInstance().getInt("msg.trace.bufferSize", 100),
+			AppConstants.getInstance().getInt("msg.trace.slowest.size", 10));
+	}
+
+	public MessageTraceBuffer(int sampleInterval, int bufferSize, int slowestSize) {
+		this.sampleInterval = Math.max(sampleInterval, 1);
+		this.recent = new MessageTrace[Math.max(bufferSize, 0)];
+		this.slowestSize = Math.max(slowestSize, 0);
+		this.slowest = new ArrayList<MessageTrace>(this.slowestSize + 1);
+	}
+
+	public void add(MessageTrace trace) {
+		long traceCount = count.incrementAndGet();
+		boolean sampled = recent.length > 0 && traceCount % sampleInterval == 0;
+		// only lock for traces that are kept
+		boolean slow = slowestSize > 0 && trace.getDuration() > slowestThreshold;
+		if (!sampled && !slow) {
+			return;
+		}
+		synchronized (this) {
+			if (sampled) {
+				recent[next] = trace;
+				next = (next + 1) % recent.length;
+			}
+			if (slow) {
+				addSlowest(trace);
+			}
+		}
+	}
+
+	private void addSlowest(MessageTrace trace) {
+		int pos = slowest.size();
+		while (pos > 0 && slowest.get(pos - 1).getDuration() < trace.getDuration()) {
+			pos--;
+		}
+		if (pos >= slowestSize) {
+			return;
+		}
+		slowest.add(pos, trace);
+		if (slowest.size() > slowestSize) {
+			slowest.remove(slowestSize);
+		}
+		if (slowest.size() == slowestSize) {
+			slowestThreshold = slowest.get(slowestSize - 1).getDuration();
+		}
+	}
+
+	/**
+	 * Returns the sampled traces, most recent first.
+	 */
+	public synchronized List<MessageTrace> getRecentTraces() {
+		List<MessageTrace> result = new ArrayList<MessageTrace>(recent.length);
+		for (int i = 1; i <= recent.length; i++) {
+			MessageTrace trace = recent[(next - i + recent.length) % recent.length];
+			if (trace != null) {
+				result.add(trace);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the slowest traces, slowest first.
+	 */
+	public synchronized List<MessageTrace> getSlowestTraces() {
+		return new ArrayList<MessageTrace>(slowest);
+	}
+
+	public synchronized void clear() {
+		for (int i = 0; i < recent.length; i++) {
+			recent[i] = null;
+		}
+		slowest.clear();
+		slowestThreshold = -1;
+	}
+
+	public long getTraceCount() {
+		return count.get();
+	}
+
+	public static List<Map<String, Object>> toMaps(List<MessageTrace> traces) {
+		List<Map<String, Object>> result = new ArrayList<Map<String, Object>>(traces.size());
+		for (MessageTrace trace : traces) {
+			result.add(trace.toMap());
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the traces as an OTLP/JSON <code>ExportTraceServiceRequest</code>, that can be
+	 * imported by tools that support OpenTelemetry.
+	 */
+	public static Map<String, Object> toOtlp(String serviceName, String adapterName, List<MessageTrace> traces) {
+		List<Map<String, Object>> spans = new ArrayList<Map<String, Object>>();
+		for (MessageTrace trace : traces) {
+			trace.addOtlpSpans(spans);
+		}
+		Map<String, Object> scope = new LinkedHashMap<String, Object>();
+		scope.put("name", "nl.nn.adapterframework");
+		Map<String, Object> scopeSpans = new LinkedHashMap<String, Object>();
+		scopeSpans.put("scope", scope);
+		scopeSpans.put("spans", spans);
+		List<Map<String, Object>> resourceAttributes = new ArrayList<Map<String, Object>>();
+		resourceAttributes.add(MessageTrace.otlpAttribute("service.name", serviceName));
+		resourceAttributes.add(MessageTrace.otlpAttribute("ibis.adapter", adapterName));
+		Map<String, Object> resource = new LinkedHashMap<String, Object>();
+		resource.put("attributes", resourceAttributes);
+		Map<String, Object> resourceSpans = new LinkedHashMap<String, Object>();
+		resourceSpans.put("resource", resource);
+		List<Map<String, Object>> scopeSpansList = new ArrayList<Map<String, Object>>();
+		scopeSpansList.add(scopeSpans);
+		resourceSpans.put("scopeSpans", scopeSpansList);
+		List<Map<String, Object>> resourceSpansList = new ArrayList<Map<String, Object>>();
+		resourceSpansList.add(resourceSpans);
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("resourceSpans", resourceSpansList);
+		return result;
+	}
+}
@@ -0,0 +1,101 @@
+/*
+   Copyright 2018 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.statistics;
+
+import nl.nn.adapterframework.util.AppConstants;
+
+/**
+ * Records {@link MessageTrace}s of the messages processed by the current thread.
+ * <p>
+ * Tracing is switched on with the property <code>msg.trace.active</code>. When it is off,
+ * every method returns immediately. A trace is started when a receiver starts to process a
+ * message, and is passed to the {@link MessageTraceBuffer} of the adapter when the receiver
+ * has finished. Spans started while no trace is active, for instance in a thread of a
+ * ParallelSenders, are ignored.
+ * <pre>
+ * MessageTrace.Span span = MessageTracer.startSpan(MessageTrace.KIND_PIPE, pipe.getName());
+ * try {
+ *    ...
+ * } finally {
+ *    MessageTracer.endSpan(span);
+ * }
+ * </pre>
+ *
+ * @since   7.0
+ */
+public class MessageTracer {
+
+	private static final boolean active = AppConstants.getInstance().getBoolean("msg.trace.active", false);
+	private static final int maxSpans = AppConstants.getInstance().getInt("msg.trace.maxSpans", 1000);
+
+	private static final ThreadLocal<MessageTrace> currentTrace = new ThreadLocal<MessageTrace>();
+
+	public static boolean isActive() {
+		return active;
+	}
+
+	/**
+	 * Starts the trace of a message received by a receiver of the adapter that owns the buffer.
+	 * When the message is processed as part of another message, for instance when it was sent by
+	 * an IbisLocalSender, a span is added to the trace of that message instead.
+	 *
+	 * @param waitingDuration time in ms the message waited to be processed, recorded as a separate span
+	 */
+	public static MessageTrace.Span startMessage(MessageTraceBuffer buffer, String receiverName, String messageId, long waitingDuration) {
+		if (!active) {
+			return null;
+		}
+		MessageTrace trace = currentTrace.get();
+		if (trace != null) {
+			return trace.startSpan(MessageTrace.KIND_RECEIVER, receiverName);
+		}
+		trace = new MessageTrace(buffer, MessageTrace.KIND_RECEIVER, receiverName, messageId, waitingDuration, maxSpans);
+		currentTrace.set(trace);
+		return trace.getRoot();
+	}
+
+	public static MessageTrace.Span startSpan(String kind, String name) {
+		if (!active) {
+			return null;
+		}
+		MessageTrace trace = currentTrace.get();
+		if (trace == null) {
+			return null;
+		}
+		return trace.startSpan(kind, name);
+	}
+
+	public static void endSpan(MessageTrace.Span span) {
+		endSpan(span, false);
+	}
+
+	public static void endSpan(MessageTrace.Span span, boolean error) {
+		if (span == null) {
+			return;
+		}
+		if (error) {
+			span.setError(true);
+		}
+		MessageTrace trace = span.getTrace();
+		trace.endSpan(span);
+		if (span.isRoot()) {
+			currentTrace.remove();
+			if (trace.getBuffer() != null) {
+				trace.getBuffer().add(trace);
+			}
+		}
+	}
+}
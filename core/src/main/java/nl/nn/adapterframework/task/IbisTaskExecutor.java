@@ -0,0 +1,175 @@
+/*
+   Copyright 2018 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.task;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nl.nn.adapterframework.util.AppConstants;
+import nl.nn.adapterframework.util.LogUtil;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.task.AsyncTaskExecutor;
+
+/**
+ * TaskExecutor for the threads of pulling receivers, ParallelSenders, parallel IteratingPipes and
+ * asynchronous local calls, that can run each task on a virtual thread when the JVM supports them.
+ * Platform threads are used unless <code>threadType</code> is set to <code>virtual</code> or <code>auto</code>.
+ * <p>
+ * Most of these threads are blocked on a JMS receive, a JDBC call or an HTTP call most of the time. A
+ * virtual thread does not occupy an OS thread while it is blocked, so that many slow calls can be
+ * waited for at the same time. When virtual threads are not available, tasks are run by a pool of
+ * platform threads, that are reused instead of created for each task, and that are ended after they
+ * have been idle for <code>keepAliveTime</code> ms. The number of tasks that run at the same time is
+ * not limited by the executor; that is left to the users of the executor, like <code>numThreads</code>
+ * of a receiver and <code>maxChildThreads</code> of an IteratingPipe.
+ * <p>
+ * Virtual threads are created through reflection, so that this class can be compiled and run on JVMs
+ * that do not have them.
+ *
+ * <p><b>Configuration:</b>
+ * <table border="1">
+ * <tr><th>attributes</th><th>description</th><th>default</th></tr>
+ * <tr><td>{@link #setThreadType(String) threadType}</td><td>one of 'platform', 'virtual' or 'auto' (virtual threads when available, otherwise platform threads)</td><td>value of property <code>taskExecutor.threadType</code>, platform</td></tr>
+ * <tr><td>{@link #setKeepAliveTime(long) keepAliveTime}</td><td>time in ms that idle platform threads are kept for reuse</td><td>value of property <code>taskExecutor.keepAliveTime</code>, 60000</td></tr>
+ * <tr><td>{@link #setThreadNamePrefix(String) threadNamePrefix}</td><td>prefix of the names of the threads</td><td>IbisTaskExecutor-</td></tr>
+ * </table>
+ * </p>
+ *
+ * @since   7.0
+ */
+public class IbisTaskExecutor implements AsyncTaskExecutor, InitializingBean, DisposableBean {
+	protected Logger log = LogUtil.getLogger(this);
+
+	public static final String THREAD_TYPE_AUTO = "auto";
+	public static final String THREAD_TYPE_VIRTUAL = "virtual";
+	public static final String THREAD_TYPE_PLATFORM = "platform";
+
+	private String threadType = AppConstants.getInstance().getString("taskExecutor.threadType", THREAD_TYPE_PLATFORM);
+	private long keepAliveTime = AppConstants.getInstance().getLong("taskExecutor.keepAliveTime", 60000);
+	private String threadNamePrefix = "IbisTaskExecutor-";
+
+	private ExecutorService executor;
+	private boolean virtualThreads = false;
+
+	public void afterPropertiesSet() {
+		if (!THREAD_TYPE_AUTO.equalsIgnoreCase(getThreadType()) && !THREAD_TYPE_VIRTUAL.equalsIgnoreCase(getThreadType()) && !THREAD_TYPE_PLATFORM.equalsIgnoreCase(getThreadType())) {
+			throw new IllegalArgumentException("threadType ["+getThreadType()+"] must be one of '"+THREAD_TYPE_AUTO+"', '"+THREAD_TYPE_VIRTUAL+"' or '"+THREAD_TYPE_PLATFORM+"'");
+		}
+		if (!THREAD_TYPE_PLATFORM.equalsIgnoreCase(getThreadType())) {
+			executor = createVirtualThreadExecutor();
+			virtualThreads = executor != null;
+		}
+		if (executor == null) {
+			if (THREAD_TYPE_VIRTUAL.equalsIgnoreCase(getThreadType())) {
+				log.warn("virtual threads are not supported by JVM version ["+System.getProperty("java.version")+"], using platform threads");
+			}
+			executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, getKeepAliveTime(), TimeUnit.MILLISECONDS, new SynchronousQueue<Runnable>(), new PlatformThreadFactory());
+		}
+		log.info("executing tasks on "+(virtualThreads ? "virtual" : "platform")+" threads");
+	}
+
+	/**
+	 * Returns <code>Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(threadNamePrefix, 0).factory())</code>,
+	 * or <code>null</code> when virtual threads are not available.
+	 */
+	private ExecutorService createVirtualThreadExecutor() {
+		try {
+			Class builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, getThreadNamePrefix(), 0L);
+			ThreadFactory threadFactory = (ThreadFactory)builderClass.getMethod("factory").invoke(builder);
+			return (ExecutorService)Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, threadFactory);
+		} catch (ClassNotFoundException e) {
+			return null;
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (Exception e) {
+			log.warn("cannot create virtual threads", e);
+			return null;
+		}
+	}
+
+	private class PlatformThreadFactory implements ThreadFactory {
+		private AtomicLong threadCount = new AtomicLong();
+
+		public Thread newThread(Runnable runnable) {
+			return new Thread(runnable, getThreadNamePrefix()+threadCount.incrementAndGet());
+		}
+	}
+
+	public void execute(Runnable task) {
+		executor.execute(task);
+	}
+
+	/**
+	 * Executes the task; the startTimeout is ignored, as tasks are never queued.
+	 */
+	public void execute(Runnable task, long startTimeout) {
+		executor.execute(task);
+	}
+
+	public Future<?> submit(Runnable task) {
+		return executor.submit(task);
+	}
+
+	public <T> Future<T> submit(Callable<T> task) {
+		return executor.submit(task);
+	}
+
+	/**
+	 * Stops accepting new tasks. Tasks that are running are not interrupted.
+	 */
+	public void destroy() {
+		if (executor != null) {
+			executor.shutdown();
+		}
+	}
+
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	public void setThreadType(String threadType) {
+		this.threadType = threadType;
+	}
+	public String getThreadType() {
+		return threadType;
+	}
+
+	public void setKeepAliveTime(long keepAliveTime) {
+		this.keepAliveTime = keepAliveTime;
+	}
+	public long getKeepAliveTime() {
+		return keepAliveTime;
+	}
+
+	public void setThreadNamePrefix(String threadNamePrefix) {
+		this.threadNamePrefix = threadNamePrefix;
+	}
+	public String getThreadNamePrefix() {
+		return threadNamePrefix;
+	}
+}
@@ -0,0 +1,395 @@
+/*
+   Copyright 2018 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * On-disk cache of compiled artifacts, like XSLT Templates, that survives
+ * restarts of the application.
+ * <p>
+ * Artifacts are stored under a key that is the SHA-256 hash of the source
+ * content, the class and version of the processor that compiled it and the
+ * settings that influenced the compilation. Hence a changed stylesheet, a
+ * different processor version or different settings will never result in a
+ * hit on an outdated artifact. Any problem reading a cached artifact is
+ * treated as a miss, the corrupt entry is removed and the caller is expected
+ * to compile the source as usual.
+ * <p>
+ * Each file starts with the SHA-256 checksum of the serialized artifact, that
+ * is verified before the artifact is deserialized. The checksum only detects
+ * files that were truncated or damaged, for instance by a crash while writing;
+ * whoever can change a file can also write a matching checksum. Only classes of
+ * the packages that the caller allows, and the direct members of java.lang and
+ * java.util, are deserialized. Since a compiled artifact can contain code, the
+ * directory must only be writable by the application.
+ * <p>
+ * When the files in the cache take more than <code>compiledArtifactCache.maxSize</code>
+ * bytes, the least recently used ones are removed.
+ * <p>
+ * The cache is only active when the property
+ * <code>compiledArtifactCache.directory</code> is set.
+ */
+public class CompiledArtifactCache {
+	protected static Logger log = LogUtil.getLogger(CompiledArtifactCache.class);
+
+	public static final String DIRECTORY_PROPERTY = "compiledArtifactCache.directory";
+	public static final String MAX_SIZE_PROPERTY = "compiledArtifactCache.maxSize";
+	public static final long DEFAULT_MAX_SIZE = 100 * 1024 * 1024;
+	private static final String FILE_EXTENSION = ".ser";
+	private static final String CHECKSUM_ALGORITHM = "SHA-256";
+	private static final int CHECKSUM_LENGTH = 32;
+	private static final String[] ALWAYS_ALLOWED_PACKAGES = { "java.lang.", "java.util." };
+
+	private static CompiledArtifactCache self = null;
+
+	private File directory;
+	private long maxSize;
+	private AtomicLong hits = new AtomicLong();
+	private AtomicLong misses = new AtomicLong();
+	private AtomicLong failures = new AtomicLong();
+	private AtomicLong stores = new AtomicLong();
+	private AtomicLong evictions = new AtomicLong();
+
+	public CompiledArtifactCache(File directory) {
+		this(directory, DEFAULT_MAX_SIZE);
+	}
+
+	public CompiledArtifactCache(File directory, long maxSize) {
+		super();
+		this.directory = directory;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Returns the application wide cache, or <code>null</code> when no
+	 * directory is configured.
+	 */
+	public static synchronized CompiledArtifactCache getInstance() {
+		if (self == null) {
+			String dir = AppConstants.getInstance().getResolvedProperty(DIRECTORY_PROPERTY);
+			if (StringUtils.isEmpty(dir)) {
+				return null;
+			}
+			File directory = new File(dir);
+			if (!directory.exists() && !directory.mkdirs()) {
+				log.warn("could not create directory [" + dir + "] for compiled artifact cache, cache will not be used");
+				return null;
+			}
+			self = new CompiledArtifactCache(directory, AppConstants.getInstance().getLong(MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE));
+			log.info("using directory [" + directory.getAbsolutePath() + "] for compiled artifact cache");
+		}
+		return self;
+	}
+
+	/**
+	 * Builds a cache key from the kind of artifact, the processor that
+	 * compiles it, the settings that are relevant for the compilation and the
+	 * source content.
+	 */
+	public static String computeKey(String kind, Object processor, String settings, byte[] content) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			update(digest, kind);
+			update(digest, getProcessorId(processor));
+			update(digest, System.getProperty("java.version"));
+			update(digest, settings);
+			digest.update(content);
+			return kind + "-" + Misc.asHex(digest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("cannot compute key for compiled artifact", e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException("cannot compute key for compiled artifact", e);
+		}
+	}
+
+	private static void update(MessageDigest digest, String value) throws UnsupportedEncodingException {
+		if (value != null) {
+			digest.update(value.getBytes(Misc.DEFAULT_INPUT_STREAM_ENCODING));
+		}
+		// separator, to prevent ambiguity between adjacent values
+		digest.update((byte) 0);
+	}
+
+	private static String getProcessorId(Object processor) {
+		if (processor == null) {
+			return null;
+		}
+		Class<?> clazz = processor.getClass();
+		Package pkg = clazz.getPackage();
+		String version = pkg == null ? null : pkg.getImplementationVersion();
+		return clazz.getName() + " " + version;
+	}
+
+	/**
+	 * Returns the artifact stored under the key, or <code>null</code> when it
+	 * is not present or cannot be read.
+	 *
+	 * @param allowedPackages prefixes of the names of the classes that the artifact may consist of, like <code>org.apache.xalan.</code>
+	 */
+	public Object load(String key, final ClassLoader classLoader, final String... allowedPackages) {
+		File file = getFile(key);
+		if (!file.exists()) {
+			misses.incrementAndGet();
+			return null;
+		}
+		ObjectInputStream ois = null;
+		try {
+			byte[] contents = readFile(file);
+			if (contents.length < CHECKSUM_LENGTH || !MessageDigest.isEqual(Arrays.copyOf(contents, CHECKSUM_LENGTH), checksum(contents, CHECKSUM_LENGTH))) {
+				throw new IOException("checksum of compiled artifact does not match its contents");
+			}
+			InputStream in = new ByteArrayInputStream(contents, CHECKSUM_LENGTH, contents.length - CHECKSUM_LENGTH);
+			ois = new ObjectInputStream(in) {
+				@Override
+				protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+					if (!isAllowed(desc.getName(), allowedPackages)) {
+						throw new InvalidClassException(desc.getName(), "class is not allowed in compiled artifact");
+					}
+					if (classLoader != null) {
+						try {
+							return Class.forName(desc.getName(), false, classLoader);
+						} catch (ClassNotFoundException e) {
+							// fall through to the default resolution
+						}
+					}
+					return super.resolveClass(desc);
+				}
+
+				@Override
+				protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+					throw new InvalidClassException("proxy classes are not allowed in compiled artifact");
+				}
+			};
+			Object result = ois.readObject();
+			hits.incrementAndGet();
+			// the modification time is used to remove the least recently used artifacts
+			file.setLastModified(System.currentTimeMillis());
+			if (log.isDebugEnabled()) log.debug("loaded compiled artifact [" + key + "] from [" + file.getPath() + "]");
+			return result;
+		} catch (Throwable t) {
+			failures.incrementAndGet();
+			log.warn("cannot read compiled artifact [" + key + "] from [" + file.getPath() + "], removing it", t);
+			closeQuietly(ois);
+			ois = null;
+			invalidate(key);
+			return null;
+		} finally {
+			closeQuietly(ois);
+		}
+	}
+
+	/**
+	 * Returns whether a class, or the element class of an array, is in one of the allowed packages.
+	 * Of java.lang and java.util only the direct members are allowed, not the subpackages.
+	 */
+	static boolean isAllowed(String className, String... allowedPackages) {
+		int dimensions = 0;
+		while (dimensions < className.length() && className.charAt(dimensions) == '[') {
+			dimensions++;
+		}
+		if (dimensions > 0) {
+			if (className.charAt(dimensions) != 'L') {
+				// array of a primitive type
+				return className.length() == dimensions + 1;
+			}
+			className = className.substring(dimensions + 1, className.length() - 1);
+		}
+		for (String pkg : ALWAYS_ALLOWED_PACKAGES) {
+			if (className.startsWith(pkg) && className.indexOf('.', pkg.length()) < 0) {
+				return true;
+			}
+		}
+		if (allowedPackages != null) {
+			for (String pkg : allowedPackages) {
+				if (className.startsWith(pkg)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Stores an artifact under the key. The artifact is written to a
+	 * temporary file first, that is renamed when complete, so concurrent
+	 * readers will never see a partially written artifact. Afterwards the
+	 * least recently used artifacts are removed when the cache is too large.
+	 */
+	public void store(String key, Object artifact) {
+		if (!(artifact instanceof Serializable)) {
+			if (log.isDebugEnabled()) log.debug("compiled artifact [" + key + "] of type [" + (artifact == null ? null : artifact.getClass().getName()) + "] is not serializable, not caching it");
+			return;
+		}
+		File file = getFile(key);
+		File tmpFile = null;
+		OutputStream out = null;
+		try {
+			ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+			ObjectOutputStream oos = new ObjectOutputStream(serialized);
+			oos.writeObject(artifact);
+			oos.close();
+			byte[] contents = serialized.toByteArray();
+			if (contents.length + CHECKSUM_LENGTH > maxSize) {
+				if (log.isDebugEnabled()) log.debug("compiled artifact [" + key + "] of [" + contents.length + "] bytes is larger than the cache, not caching it");
+				return;
+			}
+			tmpFile = File.createTempFile(key, ".tmp", directory);
+			out = new BufferedOutputStream(new FileOutputStream(tmpFile));
+			out.write(checksum(contents, 0));
+			out.write(contents);
+			out.close();
+			out = null;
+			if (file.exists()) {
+				file.delete();
+			}
+			if (!tmpFile.renameTo(file)) {
+				throw new IOException("cannot rename [" + tmpFile.getPath() + "] to [" + file.getPath() + "]");
+			}
+			tmpFile = null;
+			stores.incrementAndGet();
+			if (log.isDebugEnabled()) log.debug("stored compiled artifact [" + key + "] in [" + file.getPath() + "]");
+		} catch (Throwable t) {
+			failures.incrementAndGet();
+			log.warn("cannot store compiled artifact [" + key + "] in [" + file.getPath() + "]", t);
+		} finally {
+			closeQuietly(out);
+			if (tmpFile != null) {
+				tmpFile.delete();
+			}
+		}
+		removeLeastRecentlyUsed();
+	}
+
+	/**
+	 * Removes the least recently used artifacts until the cache is no larger than <code>maxSize</code>.
+	 */
+	synchronized void removeLeastRecentlyUsed() {
+		File[] files = directory.listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.endsWith(FILE_EXTENSION);
+			}
+		});
+		if (files == null) {
+			return;
+		}
+		long size = 0;
+		final Map<File, Long> lastModified = new HashMap<File, Long>();
+		for (File file : files) {
+			size += file.length();
+			lastModified.put(file, file.lastModified());
+		}
+		if (size <= maxSize) {
+			return;
+		}
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File f1, File f2) {
+				long m1 = lastModified.get(f1);
+				long m2 = lastModified.get(f2);
+				return m1 < m2 ? -1 : m1 > m2 ? 1 : 0;
+			}
+		});
+		for (int i = 0; i < files.length && size > maxSize; i++) {
+			long length = files[i].length();
+			if (files[i].delete()) {
+				size -= length;
+				evictions.incrementAndGet();
+				if (log.isDebugEnabled()) log.debug("removed least recently used compiled artifact [" + files[i].getPath() + "]");
+			}
+		}
+	}
+
+	private static byte[] checksum(byte[] contents, int offset) throws NoSuchAlgorithmException {
+		MessageDigest digest = MessageDigest.getInstance(CHECKSUM_ALGORITHM);
+		digest.update(contents, offset, contents.length - offset);
+		return digest.digest();
+	}
+
+	private static byte[] readFile(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			return Misc.streamToBytes(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	public void invalidate(String key) {
+		File file = getFile(key);
+		if (file.exists() && !file.delete()) {
+			log.warn("cannot remove compiled artifact [" + file.getPath() + "]");
+		}
+	}
+
+	private File getFile(String key) {
+		return new File(directory, key + FILE_EXTENSION);
+	}
+
+	private void closeQuietly(java.io.Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException e) {
+				log.debug("exception closing stream", e);
+			}
+		}
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+	public long getMisses() {
+		return misses.get();
+	}
+	public long getFailures() {
+		return failures.get();
+	}
+	public long getStores() {
+		return stores.get();
+	}
+	public long getEvictions() {
+		return evictions.get();
+	}
+}
@@ -1,5 +1,5 @@
 /*
-   Copyright 2013 Nationale-Nederlanden
+   Copyright 2013, 2018 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -53,8 +53,11 @@ public class Guard {
 	 * @exception TimeOutException if the time specified has passed, but the counter did not reach zero.
 	 */
 	public synchronized void waitForAllResources(long timeout) throws InterruptedException, TimeOutException {
-		while (counter != 0) {
-			this.wait(timeout);
+		long end = System.currentTimeMillis() + timeout;
+		long timeLeft = timeout;
+		while (counter != 0 && timeLeft > 0) {
+			this.wait(timeLeft);
+			timeLeft = end - System.currentTimeMillis();
 		}
 		if (counter!=0) {
 			throw new TimeOutException("Timeout of ["+timeout+"] ms expired");
@@ -51,7 +51,7 @@ public class LogUtil {
 	public static final String LOG4J_XML_FILE = "log4j4ibis.xml";
 	public static final String LOG4J_PROPS_FILE = "log4j4ibis.properties";
 
-	private static final String THREAD_HIDE_REGEX = "thread.hideRegex";
+	public static final String THREAD_HIDE_REGEX = "thread.hideRegex";
 
 	private static Properties log4jProperties;
 	private static Hierarchy hierarchy=null;
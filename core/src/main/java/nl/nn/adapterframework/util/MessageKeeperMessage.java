@@ -20,7 +20,6 @@ import java.util.Date;
 import org.apache.commons.lang.StringUtils;
 
 import nl.nn.adapterframework.util.LogUtil;
-import nl.nn.adapterframework.util.Misc;
 /**
  * A message for the MessageKeeper. <br/>
  * Although this could be an inner class of the MessageKeeper,
@@ -58,15 +57,7 @@ public class MessageKeeperMessage {
 
 	private String maskMessage(String message) {
 		if (StringUtils.isNotEmpty(message)) {
-			String hideRegex = LogUtil.getLog4jHideRegex();
-			if (StringUtils.isNotEmpty(hideRegex)) {
-				message = Misc.hideAll(message, hideRegex);
-			}
-
-			String threadHideRegex = LogUtil.getThreadHideRegex();
-			if (StringUtils.isNotEmpty(threadHideRegex)) {
-				message = Misc.hideAll(message, threadHideRegex);
-			}
+			message = RegexMasker.hideAll(message, LogUtil.getLog4jHideRegex(), LogUtil.getThreadHideRegex());
 		}
 		return message;
 	}
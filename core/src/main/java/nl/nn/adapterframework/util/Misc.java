@@ -44,8 +44,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.StringTokenizer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
@@ -906,25 +904,11 @@ public class Misc {
 	}
 	
 	public static String hideAll(String inputString, String regex, int mode) {
-		StringBuilder result = new StringBuilder();
-		Pattern pattern = Pattern.compile(regex);
-		Matcher matcher = pattern.matcher(inputString);
-		int previous = 0;
-		while (matcher.find()) {
-			result.append(inputString.substring(previous, matcher.start()));
-			int len = matcher.end() - matcher.start();
-			if (mode == 1) {
-				int lenFirstHalf = (int) Math.ceil((double) len / 2);
-				result.append(StringUtils.repeat("*", lenFirstHalf));
-				result.append(inputString.substring(matcher.start()
-						+ lenFirstHalf, matcher.start() + len));
-			} else {
-				result.append(StringUtils.repeat("*", len));
-			}
-			previous = matcher.end();
+		RegexMasker masker = RegexMasker.getInstance(regex);
+		if (masker == null) {
+			return inputString;
 		}
-		result.append(inputString.substring(previous, inputString.length()));
-		return result.toString();
+		return masker.mask(inputString, mode == 1);
 	}
 
 	public static String getBuildOutputDirectory() {
@@ -0,0 +1,403 @@
+/*
+   Copyright 2018 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.util;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Masks the parts of a string that match one or more hideRegex expressions with asterisks.
+ * <p>
+ * Expressions are compiled once and cached. Each expression is matched against the original
+ * input, and every part that is matched by any of them is masked, also when matches of
+ * different expressions overlap. For each expression the literal text that any match must
+ * contain is determined (like '&lt;/Password&gt;' in
+ * <code>(?&lt;=&lt;Password&gt;).*?(?=&lt;/Password&gt;)</code>); an expression is only
+ * evaluated when its literal occurs in the input; expressions that cannot be analyzed safely are
+ * always evaluated. Multiple expressions are also combined into a single pattern, so that input
+ * without any match is scanned only once, unless that would change their meaning or the combined
+ * pattern cannot be compiled. When nothing is masked, the input string itself is returned.
+ */
+public class RegexMasker {
+
+	private static final int MAX_CACHED_MASKERS = 1000;
+	private static final String METACHARACTERS = "\\^$.|?*+()[]{}";
+
+	private static ConcurrentHashMap<String, RegexMasker> maskers = new ConcurrentHashMap<String, RegexMasker>();
+
+	private Pattern[] patterns;
+	private String[] requiredLiterals;
+	private Pattern combinedPattern;
+
+	private RegexMasker(String[] regexes) {
+		super();
+		patterns = new Pattern[regexes.length];
+		requiredLiterals = new String[regexes.length];
+		boolean combinable = regexes.length > 1;
+		for (int i = 0; i < regexes.length; i++) {
+			patterns[i] = Pattern.compile(regexes[i]);
+			requiredLiterals[i] = findRequiredLiteral(regexes[i]);
+			if (!isCombinable(regexes[i])) {
+				combinable = false;
+			}
+		}
+		if (combinable) {
+			// finds a match when any of the expressions matches, though not all overlapping matches
+			StringBuilder combined = new StringBuilder();
+			for (String regex : regexes) {
+				if (combined.length() > 0) {
+					combined.append('|');
+				}
+				combined.append("(?:").append(regex).append(')');
+			}
+			try {
+				combinedPattern = Pattern.compile(combined.toString());
+			} catch (PatternSyntaxException e) {
+				// e.g. the same group name is used in more than one expression, each expression is evaluated separately
+				combinedPattern = null;
+			}
+		}
+	}
+
+	/**
+	 * Returns the masker for the specified expressions, ignoring empty ones,
+	 * or <code>null</code> if there are no expressions.
+	 */
+	public static RegexMasker getInstance(String... regexes) {
+		String key = null;
+		int count = 0;
+		for (String regex : regexes) {
+			if (StringUtils.isNotEmpty(regex)) {
+				key = key == null ? regex : key + "\u0000" + regex;
+				count++;
+			}
+		}
+		if (key == null) {
+			return null;
+		}
+		RegexMasker masker = maskers.get(key);
+		if (masker == null) {
+			String[] nonEmptyRegexes = new String[count];
+			int i = 0;
+			for (String regex : regexes) {
+				if (StringUtils.isNotEmpty(regex)) {
+					nonEmptyRegexes[i++] = regex;
+				}
+			}
+			masker = new RegexMasker(nonEmptyRegexes);
+			if (maskers.size() >= MAX_CACHED_MASKERS) {
+				// expressions come from configuration, so this only happens with expressions built at runtime
+				maskers.clear();
+			}
+			maskers.put(key, masker);
+		}
+		return masker;
+	}
+
+	public static String hideAll(String inputString, String... regexes) {
+		RegexMasker masker = getInstance(regexes);
+		return masker == null ? inputString : masker.mask(inputString, false);
+	}
+
+	public static String hideFirstHalf(String inputString, String... regexes) {
+		RegexMasker masker = getInstance(regexes);
+		return masker == null ? inputString : masker.mask(inputString, true);
+	}
+
+	/**
+	 * Masks the matches of all expressions. With <code>firstHalfOnly</code>, the first half of
+	 * each match is masked.
+	 */
+	public String mask(String inputString, boolean firstHalfOnly) {
+		if (inputString == null || inputString.length() == 0 || !mightMatch(inputString)) {
+			return inputString;
+		}
+		if (combinedPattern != null && !combinedPattern.matcher(inputString).find()) {
+			return inputString;
+		}
+		char[] result = null;
+		for (int i = 0; i < patterns.length; i++) {
+			if (requiredLiterals[i] != null && inputString.indexOf(requiredLiterals[i]) < 0) {
+				continue;
+			}
+			Matcher matcher = patterns[i].matcher(inputString);
+			while (matcher.find()) {
+				int start = matcher.start();
+				int end = matcher.end();
+				if (start == end) {
+					continue;
+				}
+				if (result == null) {
+					result = inputString.toCharArray();
+				}
+				if (firstHalfOnly) {
+					end = start + (end - start + 1) / 2;
+				}
+				// matches are taken from the original input, so overlapping matches of other expressions are masked as well
+				Arrays.fill(result, start, end, '*');
+			}
+		}
+		return result == null ? inputString : new String(result);
+	}
+
+	private boolean mightMatch(String inputString) {
+		for (String literal : requiredLiterals) {
+			if (literal == null || inputString.indexOf(literal) >= 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Back references are numbered by the position of their group in the whole pattern, quoting
+	 * can extend to the end of the pattern and inline flags like comments mode can change how the
+	 * rest of the pattern is parsed, so expressions using them cannot be combined with others in
+	 * the check for a match.
+	 */
+	private static boolean isCombinable(String regex) {
+		for (int i = 0; i < regex.length() - 1; i++) {
+			if (regex.charAt(i) == '\\') {
+				char next = regex.charAt(i + 1);
+				if (Character.isDigit(next) || next == 'k' || next == 'Q') {
+					return false;
+				}
+				i++;
+			}
+		}
+		return !hasInlineFlags(regex);
+	}
+
+	/**
+	 * Returns the longest literal text that every match of the expression contains,
+	 * or <code>null</code> if no such text can be determined safely.
+	 * Only literal text at the top level of the expression or in top level lookaround
+	 * groups is considered; expressions with alternatives at the top level, inline flags
+	 * or quoting are not analyzed.
+	 */
+	static String findRequiredLiteral(String regex) {
+		if (regex.indexOf("\\Q") >= 0 || hasInlineFlags(regex)) {
+			return null;
+		}
+		String longest = "";
+		StringBuilder run = new StringBuilder();
+		int i = 0;
+		int length = regex.length();
+		while (i < length) {
+			char c = regex.charAt(i);
+			if (c == '|') {
+				return null;
+			}
+			if (c == '(') {
+				longest = longer(longest, run);
+				run.setLength(0);
+				int end = findGroupEnd(regex, i);
+				if (end < 0) {
+					return null;
+				}
+				String group = regex.substring(i, end + 1);
+				String content = null;
+				if (group.startsWith("(?<=")) {
+					content = group.substring(4, group.length() - 1);
+				} else if (group.startsWith("(?=")) {
+					content = group.substring(3, group.length() - 1);
+				}
+				i = end + 1;
+				if (isQuantifier(regex, i)) {
+					// the group might be optional or repeated, skip it and its quantifier
+					i = skipQuantifier(regex, i);
+					continue;
+				}
+				if (content != null) {
+					String literal = getLiteral(content);
+					if (literal != null) {
+						longest = longer(longest, literal);
+					}
+				}
+				continue;
+			}
+			if (c == '[') {
+				longest = longer(longest, run);
+				run.setLength(0);
+				int end = findClassEnd(regex, i);
+				if (end < 0) {
+					return null;
+				}
+				i = skipQuantifier(regex, end + 1);
+				continue;
+			}
+			char literalChar;
+			int next;
+			if (c == '\\') {
+				if (i + 1 >= length) {
+					return null;
+				}
+				char escaped = regex.charAt(i + 1);
+				next = i + 2;
+				if (Character.isLetterOrDigit(escaped)) {
+					// character class like \d or \s, or an escape sequence
+					longest = longer(longest, run);
+					run.setLength(0);
+					i = skipQuantifier(regex, next);
+					continue;
+				}
+				literalChar = escaped;
+			} else if (METACHARACTERS.indexOf(c) >= 0) {
+				// '.', '^', '$' or a quantifier following a group or class
+				longest = longer(longest, run);
+				run.setLength(0);
+				i++;
+				continue;
+			} else {
+				literalChar = c;
+				next = i + 1;
+			}
+			if (next < length && isQuantifier(regex, next)) {
+				char quantifier = regex.charAt(next);
+				if (quantifier == '+') {
+					run.append(literalChar);
+				}
+				longest = longer(longest, run);
+				run.setLength(0);
+				i = skipQuantifier(regex, next);
+				continue;
+			}
+			run.append(literalChar);
+			i = next;
+		}
+		longest = longer(longest, run);
+		return longest.length() > 0 ? longest : null;
+	}
+
+	/**
+	 * Returns <code>true</code> when the expression contains inline flags, like <code>(?i)</code>
+	 * or <code>(?i:...)</code>; also when they appear to be in a character class.
+	 */
+	private static boolean hasInlineFlags(String regex) {
+		for (int i = 0; i < regex.length() - 2; i++) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				// skip the escaped character, that can be a backslash itself
+				i++;
+			} else if (c == '(' && regex.charAt(i + 1) == '?') {
+				char flag = regex.charAt(i + 2);
+				if (Character.isLetter(flag) || flag == '-') {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static String getLiteral(String content) {
+		StringBuilder literal = new StringBuilder();
+		for (int i = 0; i < content.length(); i++) {
+			char c = content.charAt(i);
+			if (c == '\\' && i + 1 < content.length() && !Character.isLetterOrDigit(content.charAt(i + 1))) {
+				literal.append(content.charAt(++i));
+			} else if (METACHARACTERS.indexOf(c) >= 0) {
+				return null;
+			} else {
+				literal.append(c);
+			}
+		}
+		return literal.length() > 0 ? literal.toString() : null;
+	}
+
+	private static String longer(String current, CharSequence candidate) {
+		return candidate.length() > current.length() ? candidate.toString() : current;
+	}
+
+	private static boolean isQuantifier(String regex, int pos) {
+		if (pos >= regex.length()) {
+			return false;
+		}
+		char c = regex.charAt(pos);
+		return c == '?' || c == '*' || c == '+' || c == '{';
+	}
+
+	private static int skipQuantifier(String regex, int pos) {
+		if (pos >= regex.length()) {
+			return pos;
+		}
+		char c = regex.charAt(pos);
+		if (c == '{') {
+			int end = regex.indexOf('}', pos);
+			pos = end < 0 ? regex.length() : end + 1;
+		} else if (c == '?' || c == '*' || c == '+') {
+			pos++;
+		} else {
+			return pos;
+		}
+		// lazy or possessive modifier
+		if (pos < regex.length() && (regex.charAt(pos) == '?' || regex.charAt(pos) == '+')) {
+			pos++;
+		}
+		return pos;
+	}
+
+	private static int findGroupEnd(String regex, int start) {
+		int depth = 0;
+		for (int i = start; i < regex.length(); i++) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				i++;
+			} else if (c == '[') {
+				i = findClassEnd(regex, i);
+				if (i < 0) {
+					return -1;
+				}
+			} else if (c == '(') {
+				depth++;
+			} else if (c == ')') {
+				if (--depth == 0) {
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	private static int findClassEnd(String regex, int start) {
+		int i = start + 1;
+		if (i < regex.length() && regex.charAt(i) == '^') {
+			i++;
+		}
+		if (i < regex.length() && regex.charAt(i) == ']') {
+			i++;
+		}
+		for (; i < regex.length(); i++) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				i++;
+			} else if (c == '[') {
+				// nested class, as in [a-z&&[^x]]
+				i = findClassEnd(regex, i);
+				if (i < 0) {
+					return -1;
+				}
+			} else if (c == ']') {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -117,7 +117,7 @@ public class StreamUtil {
 
 	public static byte[] streamToByteArray(InputStream inputStream, boolean skipBOM) throws IOException {
 		byte[] result = Misc.streamToBytes(inputStream);
-		if (skipBOM) {
+		if (skipBOM && result.length>=BOM_UTF_8.length) {
 			//log.debug("checking BOM");
 			if ((result[0] == BOM_UTF_8[0]) && (result[1] == BOM_UTF_8[1]) && (result[2] == BOM_UTF_8[2])) {
 			    byte[] resultWithoutBOM = new byte[result.length-3];
@@ -1,5 +1,5 @@
 /*
-   Copyright 2013, 2016 Nationale-Nederlanden
+   Copyright 2013, 2016, 2018 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -15,8 +15,11 @@
 */
 package nl.nn.adapterframework.util;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -24,6 +27,10 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
@@ -36,15 +43,14 @@ import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamSource;
 
 import org.apache.commons.lang.StringUtils;
-import org.apache.commons.pool.BasePoolableObjectFactory;
-import org.apache.commons.pool.ObjectPool;
-import org.apache.commons.pool.impl.SoftReferenceObjectPool;
 import org.apache.log4j.Logger;
 import org.w3c.dom.Document;
 
 import nl.nn.adapterframework.configuration.ConfigurationException;
+import nl.nn.adapterframework.core.SenderException;
 import nl.nn.adapterframework.parameters.Parameter;
 import nl.nn.adapterframework.parameters.ParameterList;
+import nl.nn.adapterframework.statistics.StatisticsKeeperIterationHandler;
 
 /**
  * Pool of transformers. As of IBIS 4.2.e the Templates object is used to
@@ -52,20 +58,92 @@ import nl.nn.adapterframework.parameters.ParameterList;
  * <p>
  * When the property 'transformerPool.useCaching' equals true, transformers are
  * put in a cache and shared (for the same stylesheet) to save memory.
+ * <p>
+ * Idle transformers are kept in a lock-free queue, so borrowing and returning
+ * a transformer never blocks other threads. At most 'transformerPool.maxIdle'
+ * transformers are kept per stylesheet; transformers returned when the pool
+ * is full are discarded. The number of created, reused and discarded
+ * transformers is reported in the statistics, to show whether the pool is
+ * sized right. Besides the totals, the numbers of each shared pool are
+ * reported.
  * 
  * @author Gerrit van Brakel
  */
 public class TransformerPool {
 	private static final boolean USE_CACHING = AppConstants.getInstance().getBoolean("transformerPool.useCaching", false);
+	private static final String COMPILED_ARTIFACT_KIND = "xslt";
+	private static final int MAX_IDLE = AppConstants.getInstance().getInt("transformerPool.maxIdle", 20);
+	private static final Pattern INCLUDE_OR_IMPORT = Pattern.compile("<([^\\s<>/:]+:)?(include|import)\\b");
+
+	private static AtomicLong poolsCreated = new AtomicLong();
+	private static Counters totals = new Counters(null);
 
 	protected Logger log = LogUtil.getLogger(this);
 
 	private TransformerFactory tFactory;
 
-	private Templates templates;
+	private volatile Templates templates;
 	private URL reloadURL=null;
 
+	private Counters counters = new Counters(totals);
+
+	/**
+	 * Usage counters of a pool, that are added to the totals of all pools as well.
+	 */
+	private static class Counters {
+		private Counters totals;
+		private AtomicLong transformersBorrowed = new AtomicLong();
+		private AtomicLong transformersCreated = new AtomicLong();
+		private AtomicLong transformersDiscarded = new AtomicLong();
+		private AtomicLong transformersInvalidated = new AtomicLong();
+		private AtomicLong borrowTimeNanos = new AtomicLong();
+
+		Counters(Counters totals) {
+			this.totals = totals;
+		}
+
+		void borrowed(long nanos) {
+			transformersBorrowed.incrementAndGet();
+			borrowTimeNanos.addAndGet(nanos);
+			if (totals!=null) {
+				totals.borrowed(nanos);
+			}
+		}
+
+		void created() {
+			transformersCreated.incrementAndGet();
+			if (totals!=null) {
+				totals.created();
+			}
+		}
+
+		void discarded() {
+			transformersDiscarded.incrementAndGet();
+			if (totals!=null) {
+				totals.discarded();
+			}
+		}
+
+		void invalidated() {
+			transformersInvalidated.incrementAndGet();
+			if (totals!=null) {
+				totals.invalidated();
+			}
+		}
+
+		void iterateOverStatistics(StatisticsKeeperIterationHandler hski, Object data) throws SenderException {
+			long borrowed = transformersBorrowed.get();
+			hski.handleScalar(data, "TransformersBorrowed", borrowed);
+			hski.handleScalar(data, "TransformersCreated", transformersCreated.get());
+			hski.handleScalar(data, "TransformersDiscarded", transformersDiscarded.get());
+			hski.handleScalar(data, "TransformersInvalidated", transformersInvalidated.get());
+			hski.handleScalar(data, "BorrowTimeAverageMicros", borrowed==0 ? 0 : borrowTimeNanos.get()/borrowed/1000);
+		}
+	}
+
 	private static class TransformerPoolKey {
+		private static final int MAX_NAME_LENGTH = 100;
+
 		private String xsltString;
 		private String urlString;
 		private long urlLastModified;
@@ -90,6 +168,24 @@ public class TransformerPool {
 			this.xslt2 = xslt2;
 		}
 
+		/**
+		 * Returns a short name for the pool in the statistics. As the statistics can be stored
+		 * in a column of 100 characters, only the end of a longer name, that shows the name of
+		 * the stylesheet, is kept.
+		 */
+		String getName() {
+			String name;
+			if (urlString != null) {
+				name = urlString;
+			} else {
+				name = (StringUtils.isNotEmpty(sysId) ? sysId + " " : "") + "stylesheet " + Integer.toHexString(xsltString.hashCode());
+			}
+			if (xslt2) {
+				name = name + " (xslt2)";
+			}
+			return name.length() > MAX_NAME_LENGTH ? "..." + StringUtils.right(name, MAX_NAME_LENGTH - 3) : name;
+		}
+
 		@Override
 		public String toString() {
 			return "xslt2 [" + xslt2 + "] sysId [" + sysId + "] url ["
@@ -124,23 +220,23 @@ public class TransformerPool {
 		}
 	}
 	
-	private static Map<TransformerPoolKey, TransformerPool> transformerPools = new ConcurrentHashMap<TransformerPoolKey, TransformerPool>();
+	private static ConcurrentHashMap<TransformerPoolKey, TransformerPool> transformerPools = new ConcurrentHashMap<TransformerPoolKey, TransformerPool>();
 	
-	private ObjectPool pool = new SoftReferenceObjectPool(new BasePoolableObjectFactory() {
-		@Override
-		public Object makeObject() throws Exception {
-			return createTransformer();			
-		}
-	}); 
+	private ConcurrentLinkedQueue<Transformer> idleTransformers = new ConcurrentLinkedQueue<Transformer>();
+	private AtomicInteger idleCount = new AtomicInteger();
 
 	private TransformerPool(Source source, String sysId) throws TransformerConfigurationException {
 		this(source,sysId,false);
 	}	
 
 	private TransformerPool(Source source, String sysId, boolean xslt2) throws TransformerConfigurationException {
+		this(source, sysId, xslt2, null);
+	}
+
+	private TransformerPool(Source source, String sysId, boolean xslt2, byte[] xsltContent) throws TransformerConfigurationException {
 		super();
 		tFactory = XmlUtils.getTransformerFactory(xslt2);
-		initTransformerPool(source, sysId);
+		initTransformerPool(source, sysId, xsltContent);
 
 		// check if a transformer can be initiated
 		Transformer t = getTransformer();
@@ -149,11 +245,35 @@ public class TransformerPool {
 	}	
 	
 	private TransformerPool(URL url, boolean xslt2) throws TransformerConfigurationException, IOException {
-		this(new StreamSource(url.openStream(),Misc.DEFAULT_INPUT_STREAM_ENCODING),url.toString(),xslt2);
+		this(url, xslt2, CompiledArtifactCache.getInstance()!=null ? readResource(url) : null);
+	}
+
+	private TransformerPool(URL url, boolean xslt2, byte[] xsltContent) throws TransformerConfigurationException, IOException {
+		this(xsltContent!=null ? new StreamSource(new ByteArrayInputStream(xsltContent)) : new StreamSource(url.openStream(),Misc.DEFAULT_INPUT_STREAM_ENCODING),url.toString(),xslt2,xsltContent);
 	}
 	
 	private TransformerPool(String xsltString, String sysId, boolean xslt2) throws TransformerConfigurationException {
-		this(new StreamSource(new StringReader(xsltString)), sysId, xslt2);
+		this(new StreamSource(new StringReader(xsltString)), sysId, xslt2, getBytes(xsltString));
+	}
+
+	private static byte[] readResource(URL url) throws IOException {
+		InputStream stream = url.openStream();
+		try {
+			return Misc.streamToBytes(stream);
+		} finally {
+			stream.close();
+		}
+	}
+
+	private static byte[] getBytes(String xsltString) {
+		if (CompiledArtifactCache.getInstance()==null) {
+			return null;
+		}
+		try {
+			return xsltString.getBytes(Misc.DEFAULT_INPUT_STREAM_ENCODING);
+		} catch (UnsupportedEncodingException e) {
+			return null;
+		}
 	}
 
 	public static TransformerPool getInstance(String xsltString)
@@ -176,23 +296,35 @@ public class TransformerPool {
 		if (caching) {
 			return retrieveInstance(xsltString, sysId, xslt2);
 		} else {
+			poolsCreated.incrementAndGet();
 			return new TransformerPool(xsltString, sysId, xslt2);
 		}
 	}
 
-	private static synchronized TransformerPool retrieveInstance(
+	private static TransformerPool retrieveInstance(
 			String xsltString, String sysId, boolean xslt2)
 			throws TransformerConfigurationException {
 		TransformerPoolKey tpKey = new TransformerPoolKey(xsltString, null,
 				sysId, xslt2);
-		if (transformerPools.containsKey(tpKey)) {
-			return transformerPools.get(tpKey);
-		} else {
-			TransformerPool transformerPool = new TransformerPool(xsltString,
-					sysId, xslt2);
-			transformerPools.put(tpKey, transformerPool);
-			return transformerPool;
+		TransformerPool transformerPool = transformerPools.get(tpKey);
+		if (transformerPool == null) {
+			transformerPool = registerInstance(tpKey, new TransformerPool(xsltString, sysId, xslt2));
 		}
+		return transformerPool;
+	}
+
+	/**
+	 * Registers a newly created pool, unless another thread registered one for the
+	 * same key in the meantime, in which case that one is returned and the new pool
+	 * is not counted.
+	 */
+	private static TransformerPool registerInstance(TransformerPoolKey tpKey, TransformerPool transformerPool) {
+		TransformerPool existing = transformerPools.putIfAbsent(tpKey, transformerPool);
+		if (existing != null) {
+			return existing;
+		}
+		poolsCreated.incrementAndGet();
+		return transformerPool;
 	}
 
 	public static TransformerPool getInstance(URL url)
@@ -210,40 +342,101 @@ public class TransformerPool {
 		if (caching) {
 			return retrieveInstance(url, xslt2);
 		} else {
+			poolsCreated.incrementAndGet();
 			return new TransformerPool(url, xslt2);
 		}
 	}
 
-	private static synchronized TransformerPool retrieveInstance(URL url,
+	private static TransformerPool retrieveInstance(URL url,
 			boolean xslt2)
 			throws TransformerConfigurationException, IOException {
 		TransformerPoolKey tpKey = new TransformerPoolKey(null, url, null,
 				xslt2);
-		if (transformerPools.containsKey(tpKey)) {
-			return transformerPools.get(tpKey);
-		} else {
-			TransformerPool transformerPool = new TransformerPool(url, xslt2);
-			transformerPools.put(tpKey, transformerPool);
-			return transformerPool;
+		TransformerPool transformerPool = transformerPools.get(tpKey);
+		if (transformerPool == null) {
+			transformerPool = registerInstance(tpKey, new TransformerPool(url, xslt2));
 		}
+		return transformerPool;
 	}
 
 	private void initTransformerPool(Source source, String sysId) throws TransformerConfigurationException {
+		initTransformerPool(source, sysId, null);
+	}
+
+	/**
+	 * Compiles the stylesheet into Templates. When the compiled artifact cache is
+	 * enabled and the complete stylesheet is available as xsltContent, the Templates
+	 * are retrieved from and stored in that cache. Stylesheets that include or import
+	 * other stylesheets are never cached, as changes in the included stylesheets would
+	 * not be detected.
+	 */
+	private void initTransformerPool(Source source, String sysId, byte[] xsltContent) throws TransformerConfigurationException {
 		if (StringUtils.isNotEmpty(sysId)) {
 			source.setSystemId(sysId);
 			log.debug("setting systemId to ["+sysId+"]");
 		}
+		CompiledArtifactCache compiledArtifactCache = CompiledArtifactCache.getInstance();
+		String cacheKey = null;
+		if (compiledArtifactCache!=null && isCacheableStylesheet(xsltContent)) {
+			cacheKey = CompiledArtifactCache.computeKey(COMPILED_ARTIFACT_KIND, tFactory, "sysId="+sysId, xsltContent);
+			Object cached = compiledArtifactCache.load(cacheKey, tFactory.getClass().getClassLoader(), getCompiledArtifactPackages());
+			if (cached instanceof Templates) {
+				try {
+					// verify that the deserialized Templates are usable before relying on them
+					((Templates)cached).newTransformer();
+					templates=(Templates)cached;
+					return;
+				} catch (Throwable t) {
+					log.warn("cannot use compiled stylesheet ["+cacheKey+"] from cache, will compile it again", t);
+					compiledArtifactCache.invalidate(cacheKey);
+				}
+			}
+		}
 		templates=tFactory.newTemplates(source);
+		if (cacheKey!=null) {
+			compiledArtifactCache.store(cacheKey, templates);
+		}
+	}
+
+	/**
+	 * Returns the packages of the classes that compiled stylesheets of the TransformerFactory consist of.
+	 * Xalan Templates also contain classes of the xpath and xml utility packages, that are
+	 * repackaged together with Xalan on WebSphere.
+	 */
+	private String[] getCompiledArtifactPackages() {
+		String factoryClassName = tFactory.getClass().getName();
+		int xalanIndex = factoryClassName.indexOf("org.apache.xalan.");
+		if (xalanIndex>=0) {
+			String prefix = factoryClassName.substring(0, xalanIndex);
+			return new String[] { prefix+"org.apache.xalan.", prefix+"org.apache.xpath.", prefix+"org.apache.xml." };
+		}
+		return new String[] { factoryClassName.substring(0, factoryClassName.lastIndexOf('.')+1) };
+	}
+
+	/**
+	 * Returns false when the stylesheet might include or import another stylesheet. Any
+	 * include or import element counts, whatever its prefix or namespace, so that also
+	 * stylesheets that have XSLT as default namespace are recognized. A stylesheet that
+	 * merely mentions such an element, for instance in a comment, is not cached either.
+	 */
+	static boolean isCacheableStylesheet(byte[] xsltContent) {
+		if (xsltContent==null) {
+			return false;
+		}
+		String content;
+		try {
+			// only used to look for markup, ISO-8859-1 maps every byte to a character
+			content = new String(xsltContent, "ISO-8859-1");
+		} catch (UnsupportedEncodingException e) {
+			return false;
+		}
+		return !INCLUDE_OR_IMPORT.matcher(content).find();
 	}
 
 	private void reloadTransformerPool() throws TransformerConfigurationException, IOException {
 		if (reloadURL!=null) {
 			initTransformerPool(new StreamSource(reloadURL.openStream(),Misc.DEFAULT_INPUT_STREAM_ENCODING),reloadURL.toString());
-			try {
-				pool.clear();
-			} catch (Exception e) {
-				throw new TransformerConfigurationException("Could not clear pool",e);
-			}
+			clearIdleTransformers();
 		}
 	}
 
@@ -314,32 +507,49 @@ public class TransformerPool {
 	}
 	
 	public void close() {
-		try {
-			pool.clear();			
-		} catch (Exception e) {
-			log.warn("exception clearing transformerPool",e);
+		clearIdleTransformers();
+	}
+
+	private void clearIdleTransformers() {
+		while (idleTransformers.poll()!=null) {
+			idleCount.decrementAndGet();
 		}
 	}
 	
 	protected Transformer getTransformer() throws TransformerConfigurationException {
+		long startTime = System.nanoTime();
 		try {
 			reloadTransformerPool();
-			return (Transformer)pool.borrowObject();
+			Transformer t = idleTransformers.poll();
+			if (t!=null) {
+				idleCount.decrementAndGet();
+				return t;
+			}
+			return createTransformer();
+		} catch (TransformerConfigurationException e) {
+			throw e;
 		} catch (Exception e) {
 			throw new TransformerConfigurationException(e);
+		} finally {
+			counters.borrowed(System.nanoTime()-startTime);
 		}
 	}
 	
 	protected void releaseTransformer(Transformer t) throws TransformerConfigurationException {
-		try {
-			pool.returnObject(t);
-		} catch (Exception e) {
-			throw new TransformerConfigurationException("exception returning transformer to pool", e);
+		if (t==null) {
+			return;
+		}
+		if (idleCount.incrementAndGet()>MAX_IDLE) {
+			idleCount.decrementAndGet();
+			counters.discarded();
+			return;
 		}
+		idleTransformers.offer(t);
 	}
 
 	protected void invalidateTransformer(Transformer t) throws Exception {
-		pool.invalidateObject(t);
+		// the transformer is simply not returned to the pool
+		counters.invalidated();
 	}
 
 	protected void invalidateTransformerNoThrow(Transformer transformer) {
@@ -352,12 +562,14 @@ public class TransformerPool {
 	}
 
 
-	protected synchronized Transformer createTransformer() throws TransformerConfigurationException {
+	protected Transformer createTransformer() throws TransformerConfigurationException {
+		// Templates are thread safe, no need to synchronize
 		Transformer t = templates.newTransformer();
 		if (t==null) {
 			throw new TransformerConfigurationException("cannot instantiate transformer");
 		}
 		t.setErrorListener(new TransformerErrorListener());
+		counters.created();
 		return t;
 	}
 
@@ -424,4 +636,25 @@ public class TransformerPool {
 	public static void clearTransformerPools() {
 		transformerPools.clear();
 	}
+
+	public static void iterateOverStatistics(StatisticsKeeperIterationHandler hski, Object data, int action) throws SenderException {
+		Object subdata=hski.openGroup(data, "transformerPools", "transformerPools");
+		hski.handleScalar(subdata, "PoolsCreated", poolsCreated.get());
+		hski.handleScalar(subdata, "PoolsShared", transformerPools.size());
+		totals.iterateOverStatistics(hski, subdata);
+		for (Map.Entry<TransformerPoolKey, TransformerPool> entry : transformerPools.entrySet()) {
+			Object poolData=hski.openGroup(subdata, entry.getKey().getName(), "transformerPool");
+			entry.getValue().counters.iterateOverStatistics(hski, poolData);
+			hski.closeGroup(poolData);
+		}
+		hski.closeGroup(subdata);
+	}
+
+	static long getPoolsCreated() {
+		return poolsCreated.get();
+	}
+
+	long getTransformersCreated() {
+		return counters.transformersCreated.get();
+	}
 }
@@ -1,5 +1,5 @@
 /*
-   Copyright 2013, 2015, 2016 Nationale-Nederlanden
+   Copyright 2013, 2015, 2016, 2018 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -37,6 +37,7 @@ import nl.nn.adapterframework.configuration.ConfigurationException;
 import nl.nn.adapterframework.core.INamedObject;
 import nl.nn.adapterframework.core.IPipeLineSession;
 import nl.nn.adapterframework.core.PipeRunException;
+import nl.nn.adapterframework.statistics.StatisticsKeeper;
 import nl.nn.adapterframework.util.AppConstants;
 import nl.nn.adapterframework.util.ClassUtils;
 import nl.nn.adapterframework.util.LogUtil;
@@ -91,6 +92,8 @@ public abstract class AbstractXmlValidator {
 	protected Boolean ignoreUnknownNamespaces;
 	protected boolean ignoreCaching = false;
 
+	private StatisticsKeeper validationStatisticsKeeper = new StatisticsKeeper("validation");
+
     public boolean isAddNamespaceToSchema() {
         return addNamespaceToSchema;
     }
@@ -219,13 +222,53 @@ public abstract class AbstractXmlValidator {
 //	}
 	
 	public String validate(Object input, IPipeLineSession session, String logPrefix, Set<List<String>> rootValidations, Map<List<String>, List<String>> invalidRootNamespaces, boolean resolveExternalEntities) throws XmlValidatorException, PipeRunException, ConfigurationException {
+		long startTime = System.currentTimeMillis();
 		ValidationContext context = createValidationContext(session, rootValidations, invalidRootNamespaces);
-		XMLReader parser = getValidatingParser(session, context, resolveExternalEntities);
-		return validate(input, session, logPrefix, parser, null, context);
+		// only parsers without external entity resolution are pooled, to keep the entity resolver fixed per parser
+		ValidatingParserPool parserPool = resolveExternalEntities ? null : getValidatingParserPool(context);
+		XMLReader parser = parserPool == null ? null : parserPool.borrowParser();
+		if (parser == null) {
+			parser = getValidatingParser(session, context, resolveExternalEntities);
+		}
+		try {
+			Exception parseException = null;
+			boolean parsed = false;
+			try {
+				parseException = parse(input, parser, null, context);
+				parsed = true;
+			} finally {
+				if (parserPool != null) {
+					// a parser that stopped halfway a document is not reused
+					if (parsed && parseException == null) {
+						parserPool.releaseParser(parser);
+					} else {
+						parserPool.discardParser(parser);
+					}
+				}
+			}
+			return finalizeValidation(context, session, parseException);
+		} finally {
+			validationStatisticsKeeper.addValue(System.currentTimeMillis() - startTime);
+		}
+	}
+
+	/**
+	 * Returns the pool of validating parsers for the schemas of the context, or
+	 * <code>null</code> when parsers for these schemas are not pooled.
+	 */
+	protected ValidatingParserPool getValidatingParserPool(ValidationContext context) throws ConfigurationException {
+		return null;
 	}
 	
 	public String validate(Object input, IPipeLineSession session, String logPrefix, XMLReader parser, XMLFilterImpl filter, ValidationContext context) throws XmlValidatorException, PipeRunException, ConfigurationException {
+		return finalizeValidation(context, session, parse(input, parser, filter, context));
+	}
 
+	/**
+	 * Parses the input with the handlers of the context.
+	 * @return the exception that ended the parse, or <code>null</code> when the complete input has been parsed
+	 */
+	private Exception parse(Object input, XMLReader parser, XMLFilterImpl filter, ValidationContext context) throws XmlValidatorException {
 		if (filter!=null) {
 			filter.setContentHandler(context.getContentHandler());
 			filter.setErrorHandler(context.getErrorHandler());
@@ -239,9 +282,9 @@ public abstract class AbstractXmlValidator {
 		try {
 			parser.parse(is);
 		} catch (Exception e) {
-			return finalizeValidation(context, session, e);
+			return e;
 		}
-		return finalizeValidation(context, session, null);
+		return null;
 	}
 
 	/**
@@ -278,6 +321,10 @@ public abstract class AbstractXmlValidator {
 		return fullSchemaChecking;
 	}
 
+	public StatisticsKeeper getValidationStatisticsKeeper() {
+		return validationStatisticsKeeper;
+	}
+
     /**
      * @since 5.0
      * @param schemasProvider
@@ -1,5 +1,5 @@
 /*
-   Copyright 2013, 2016 Nationale-Nederlanden
+   Copyright 2013, 2016, 2018 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -24,6 +24,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.XMLConstants;
 import javax.xml.parsers.ParserConfigurationException;
@@ -75,6 +76,7 @@ public class JavaxXmlValidator extends AbstractXmlValidator {
 //	}
 
 	private Map<String, Schema> javaxSchemas = new HashMap<String, Schema>();
+	private ConcurrentHashMap<String, ValidatingParserPool> parserPools = new ConcurrentHashMap<String, ValidatingParserPool>();
 
 	@Override
 	protected void init() throws ConfigurationException {
@@ -135,6 +137,24 @@ public class JavaxXmlValidator extends AbstractXmlValidator {
 		return schema.newValidatorHandler();
 	}
 
+	@Override
+	protected ValidatingParserPool getValidatingParserPool(ValidationContext context) throws ConfigurationException {
+		if (schemasProvider.getSchemasId() == null) {
+			// schemas are determined per session, parsers are not reused
+			return null;
+		}
+		String schemasId = context.getSchemasId();
+		ValidatingParserPool parserPool = parserPools.get(schemasId);
+		if (parserPool == null) {
+			parserPool = new ValidatingParserPool();
+			ValidatingParserPool existing = parserPools.putIfAbsent(schemasId, parserPool);
+			if (existing != null) {
+				parserPool = existing;
+			}
+		}
+		return parserPool;
+	}
+
 	@Override
 	public XMLReader createValidatingParser(IPipeLineSession session, ValidationContext context) throws XmlValidatorException, PipeRunException {
 		SAXParser parser;
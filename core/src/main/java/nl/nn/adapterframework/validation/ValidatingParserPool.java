@@ -0,0 +1,93 @@
+/*
+   Copyright 2018 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.validation;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nl.nn.adapterframework.util.AppConstants;
+
+import org.xml.sax.XMLReader;
+
+/**
+ * Bounded pool of validating parsers for a single set of schemas.
+ * <p>
+ * Parsers are reset by the parser implementation at the start of every parse, so
+ * they can be reused for subsequent validations. A parser is retired after
+ * 'xmlValidator.parserPool.maxUses' validations, as its symbol table grows with
+ * every unknown name it encounters. At most 'xmlValidator.parserPool.maxIdle' idle
+ * parsers are kept; parsers released when the pool is full are discarded. Parsers
+ * that stopped halfway a document must be discarded instead of released.
+ */
+public class ValidatingParserPool {
+
+	private static final int MAX_IDLE = AppConstants.getInstance().getInt("xmlValidator.parserPool.maxIdle", 20);
+	private static final int MAX_USES = AppConstants.getInstance().getInt("xmlValidator.parserPool.maxUses", 1000);
+
+	private ConcurrentLinkedQueue<XMLReader> idleParsers = new ConcurrentLinkedQueue<XMLReader>();
+	private AtomicInteger idleCount = new AtomicInteger();
+	private ConcurrentHashMap<XMLReader, AtomicInteger> useCounts = new ConcurrentHashMap<XMLReader, AtomicInteger>();
+
+	/**
+	 * Returns an idle parser, or <code>null</code> when none is available and the
+	 * caller should create a new one.
+	 */
+	public XMLReader borrowParser() {
+		XMLReader parser = idleParsers.poll();
+		if (parser != null) {
+			idleCount.decrementAndGet();
+		}
+		return parser;
+	}
+
+	/**
+	 * Returns a parser, that has been created for the schemas of this pool, to the pool.
+	 */
+	public void releaseParser(XMLReader parser) {
+		if (parser == null || MAX_IDLE <= 0) {
+			return;
+		}
+		AtomicInteger useCount = useCounts.get(parser);
+		if (useCount == null) {
+			useCount = new AtomicInteger();
+			useCounts.put(parser, useCount);
+		}
+		if (useCount.incrementAndGet() >= MAX_USES) {
+			useCounts.remove(parser);
+			return;
+		}
+		if (idleCount.incrementAndGet() > MAX_IDLE) {
+			idleCount.decrementAndGet();
+			useCounts.remove(parser);
+			return;
+		}
+		idleParsers.offer(parser);
+	}
+
+	/**
+	 * Forgets a parser that must not be reused, e.g. because parsing failed halfway the document.
+	 */
+	public void discardParser(XMLReader parser) {
+		if (parser != null) {
+			useCounts.remove(parser);
+		}
+	}
+
+	public int getIdleCount() {
+		return idleCount.get();
+	}
+}
@@ -1,5 +1,5 @@
 /*
-   Copyright 2013-2017 Nationale-Nederlanden
+   Copyright 2013-2018 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -276,8 +276,7 @@ public class XercesXmlValidator extends AbstractXmlValidator {
 
 		ValidatorHandler validatorHandler=null;
 		try {
-			XMLSchemaFactory schemaFactory = new XMLSchemaFactory();
-			javax.xml.validation.Schema schemaObject=schemaFactory.newSchema(((XercesValidationContext)context).getGrammarPool());
+			javax.xml.validation.Schema schemaObject=((XercesValidationContext)context).getPreparseResult().getJavaxSchema();
 			validatorHandler=schemaObject.newValidatorHandler();
 		} catch (SAXException e) {
 			throw new ConfigurationException(logPrefix + "Cannot create schema", e);
@@ -295,6 +294,15 @@ public class XercesXmlValidator extends AbstractXmlValidator {
 		}
 		return validatorHandler;
 	}
+	@Override
+	protected ValidatingParserPool getValidatingParserPool(ValidationContext context) throws ConfigurationException {
+		if (schemasProvider.getSchemasId() == null) {
+			// schemas are determined per session, parsers are not reused
+			return null;
+		}
+		return ((XercesValidationContext)context).getPreparseResult().getParserPool();
+	}
+
 	public XMLReader createValidatingParser(IPipeLineSession session, ValidationContext context) throws XmlValidatorException, ConfigurationException, PipeRunException {
 		SymbolTable symbolTable = ((XercesValidationContext)context).getSymbolTable();
 		XMLGrammarPool grammarPool = ((XercesValidationContext)context).getGrammarPool();
@@ -357,6 +365,10 @@ class XercesValidationContext extends ValidationContext {
 		return preparseResult.getGrammarPool();
 	}
 
+	public PreparseResult getPreparseResult() {
+		return preparseResult;
+	}
+
 	@Override
 	public Set<String> getNamespaceSet() {
 		return preparseResult.getNamespaceSet();
@@ -375,6 +387,8 @@ class PreparseResult {
 	private XMLGrammarPool grammarPool;
 	private Set<String> namespaceSet;
 	private List<XSModel> xsModels=null;
+	private javax.xml.validation.Schema javaxSchema=null;
+	private ValidatingParserPool parserPool=new ValidatingParserPool();
 
 	public String getSchemasId() {
 		return schemasId;
@@ -422,6 +436,22 @@ class PreparseResult {
 		this.xsModels = xsModels;
 	}
 
+	/**
+	 * Returns the grammars of this result as a javax Schema. The Schema is thread
+	 * safe, so it is created only once.
+	 */
+	public synchronized javax.xml.validation.Schema getJavaxSchema() throws SAXException {
+		if (javaxSchema==null) {
+			XMLSchemaFactory schemaFactory = new XMLSchemaFactory();
+			javaxSchema=schemaFactory.newSchema(grammarPool);
+		}
+		return javaxSchema;
+	}
+
+	public ValidatingParserPool getParserPool() {
+		return parserPool;
+	}
+
 }
 class MyErrorHandler implements XMLErrorHandler {
 	protected Logger log = LogUtil.getLogger(this);
@@ -50,6 +50,7 @@ import nl.nn.adapterframework.core.Adapter;
 import nl.nn.adapterframework.core.IAdapter;
 import nl.nn.adapterframework.core.ITransactionalStorage;
 import nl.nn.adapterframework.extensions.log4j.IbisAppenderWrapper;
+import nl.nn.adapterframework.extensions.log4j.IbisAsyncAppender;
 import nl.nn.adapterframework.receivers.ReceiverBase;
 import nl.nn.adapterframework.util.AppConstants;
 import nl.nn.adapterframework.util.LogUtil;
@@ -206,6 +207,16 @@ public class ServerStatistics extends Base {
 		if (appender!=null && appender instanceof IbisAppenderWrapper) {
 			iaw = (IbisAppenderWrapper) appender;
 			logSettings.put("maxMessageLength", iaw.getMaxMessageLength());
+			if (iaw instanceof IbisAsyncAppender && ((IbisAsyncAppender) iaw).getBufferSize() > 0) {
+				IbisAsyncAppender asyncAppender = (IbisAsyncAppender) iaw;
+				Map<String, Object> asyncSettings = new HashMap<String, Object>(5);
+				asyncSettings.put("bufferSize", asyncAppender.getBufferSize());
+				asyncSettings.put("queueDepth", asyncAppender.getQueueDepth());
+				asyncSettings.put("overflowPolicy", asyncAppender.getOverflowPolicy());
+				asyncSettings.put("eventsDropped", asyncAppender.getEventsDropped());
+				asyncSettings.put("eventsBlocked", asyncAppender.getEventsBlocked());
+				logSettings.put("asyncAppender", asyncSettings);
+			}
 		}
 		else {
 			logSettings.put("maxMessageLength", -1);
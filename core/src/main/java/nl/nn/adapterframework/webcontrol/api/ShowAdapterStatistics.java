@@ -37,10 +37,19 @@ import nl.nn.adapterframework.core.Adapter;
 import nl.nn.adapterframework.core.IReceiver;
 import nl.nn.adapterframework.core.IReceiverStatistics;
 import nl.nn.adapterframework.core.SenderException;
+import nl.nn.adapterframework.pipes.IsolatedServiceCaller;
+import nl.nn.adapterframework.pipes.LocalDispatchQueue;
+import nl.nn.adapterframework.receivers.JavaListener;
+import nl.nn.adapterframework.receivers.ReceiverBase;
+import nl.nn.adapterframework.receivers.ServiceDispatcher;
 import nl.nn.adapterframework.statistics.HasStatistics;
 import nl.nn.adapterframework.statistics.ItemList;
+import nl.nn.adapterframework.statistics.MessageTrace;
+import nl.nn.adapterframework.statistics.MessageTraceBuffer;
+import nl.nn.adapterframework.statistics.MessageTracer;
 import nl.nn.adapterframework.statistics.StatisticsKeeper;
 import nl.nn.adapterframework.statistics.StatisticsKeeperIterationHandler;
+import nl.nn.adapterframework.util.AppConstants;
 import nl.nn.adapterframework.util.DateUtils;
 
 /**
@@ -135,6 +144,7 @@ public final class ShowAdapterStatistics extends Base {
 			}
 		}
 		statisticsMap.put("receivers", receivers);
+		statisticsMap.put("localDispatch", getLocalDispatchQueues(adapter));
 
 		Map<String, Object> tmp = new HashMap<String, Object>();
 		StatisticsKeeperToXml handler = new StatisticsKeeperToXml(tmp);
@@ -153,6 +163,95 @@ public final class ShowAdapterStatistics extends Base {
 		return Response.status(Response.Status.CREATED).entity(statisticsMap).build();
 	}
 
+	@GET
+	@RolesAllowed({"IbisObserver", "IbisDataAdmin", "IbisAdmin", "IbisTester"})
+	@Path("/adapters/{adapterName}/traces")
+	@Relation("statistics")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getTraces(@PathParam("adapterName") String adapterName) throws ApiException {
+		initBase(servletConfig);
+
+		MessageTraceBuffer traceBuffer = getAdapter(adapterName).getMessageTraceBuffer();
+		Map<String, Object> tracesMap = new HashMap<String, Object>();
+		tracesMap.put("active", MessageTracer.isActive());
+		tracesMap.put("count", traceBuffer.getTraceCount());
+		tracesMap.put("slowest", MessageTraceBuffer.toMaps(traceBuffer.getSlowestTraces()));
+		tracesMap.put("recent", MessageTraceBuffer.toMaps(traceBuffer.getRecentTraces()));
+
+		return Response.status(Response.Status.OK).entity(tracesMap).build();
+	}
+
+	@GET
+	@RolesAllowed({"IbisObserver", "IbisDataAdmin", "IbisAdmin", "IbisTester"})
+	@Path("/adapters/{adapterName}/traces/otlp")
+	@Relation("statistics")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getTracesAsOtlp(@PathParam("adapterName") String adapterName) throws ApiException {
+		initBase(servletConfig);
+
+		MessageTraceBuffer traceBuffer = getAdapter(adapterName).getMessageTraceBuffer();
+		List<MessageTrace> traces = traceBuffer.getSlowestTraces();
+		for (MessageTrace trace : traceBuffer.getRecentTraces()) {
+			if (!traces.contains(trace)) {
+				traces.add(trace);
+			}
+		}
+		String serviceName = AppConstants.getInstance().getProperty("instance.name");
+
+		return Response.status(Response.Status.OK).entity(MessageTraceBuffer.toOtlp(serviceName, adapterName, traces)).build();
+	}
+
+	/**
+	 * Returns the statistics of the queues of asynchronous IbisLocalSender calls to the receivers of the adapter.
+	 */
+	private List<Map<String, Object>> getLocalDispatchQueues(Adapter adapter) {
+		List<Map<String, Object>> result = new ArrayList<Map<String, Object>>();
+		IsolatedServiceCaller isolatedServiceCaller = (IsolatedServiceCaller)ibisContext.getBean("isolatedServiceCaller");
+		for (LocalDispatchQueue dispatchQueue : isolatedServiceCaller.getDispatchQueues()) {
+			Object target;
+			if (dispatchQueue.isTargetIsJavaListener()) {
+				target = JavaListener.getListener(dispatchQueue.getTarget());
+			} else {
+				target = ServiceDispatcher.getInstance().getServiceClient(dispatchQueue.getTarget());
+			}
+			if (target == null) {
+				continue;
+			}
+			for (Iterator<?> recIt = adapter.getReceiverIterator(); recIt.hasNext();) {
+				Object receiver = recIt.next();
+				if (receiver instanceof ReceiverBase && ((ReceiverBase)receiver).getListener() == target) {
+					Map<String, Object> queueMap = new HashMap<String, Object>();
+					queueMap.put("target", dispatchQueue.getTarget());
+					queueMap.put("type", dispatchQueue.isTargetIsJavaListener() ? "JavaListener" : "Service");
+					queueMap.put("workers", dispatchQueue.getWorkers());
+					queueMap.put("activeWorkers", dispatchQueue.getActiveWorkers());
+					queueMap.put("maxQueueSize", dispatchQueue.getMaxQueueSize());
+					queueMap.put("queueDepth", dispatchQueue.getQueueDepth());
+					queueMap.put("inFlight", dispatchQueue.getInFlight());
+					queueMap.put("rejectPolicy", dispatchQueue.getRejectPolicy());
+					queueMap.put("journaled", dispatchQueue.isJournaled());
+					queueMap.put("processed", dispatchQueue.getProcessed());
+					queueMap.put("failed", dispatchQueue.getFailed());
+					queueMap.put("rejected", dispatchQueue.getRejected());
+					queueMap.put("callerRuns", dispatchQueue.getCallerRuns());
+					synchronized (dispatchQueue.getWaitStatistics()) {
+						queueMap.put("waitTime", statisticsKeeperToMapBuilder(dispatchQueue.getWaitStatistics()));
+					}
+					result.add(queueMap);
+				}
+			}
+		}
+		return result;
+	}
+
+	private Adapter getAdapter(String adapterName) throws ApiException {
+		Adapter adapter = (Adapter)ibisManager.getRegisteredAdapter(adapterName);
+		if(adapter == null){
+			throw new ApiException("Adapter not found!");
+		}
+		return adapter;
+	}
+
 	private class StatisticsKeeperToXml implements StatisticsKeeperIterationHandler {
 
 		private Object parent;
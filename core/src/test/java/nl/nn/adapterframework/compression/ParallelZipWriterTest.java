@@ -0,0 +1,121 @@
+package nl.nn.adapterframework.compression;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Enumeration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import nl.nn.adapterframework.util.Misc;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.core.task.TaskExecutor;
+
+public class ParallelZipWriterTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private ExecutorService executor;
+	private TaskExecutor taskExecutor;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newFixedThreadPool(4);
+		taskExecutor = new TaskExecutor() {
+			public void execute(Runnable task) {
+				executor.execute(task);
+			}
+		};
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	private String getContents(int i) {
+		StringBuilder result = new StringBuilder();
+		for (int j = 0; j < i * 37 % 1000; j++) {
+			result.append("line ").append(j).append(" of entry ").append(i).append('\n');
+		}
+		return result.toString();
+	}
+
+	@Test
+	public void entriesAreWrittenInOrder() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ParallelZipWriter writer = new ParallelZipWriter(out, taskExecutor, 3);
+		for (int i = 0; i < 50; i++) {
+			writer.writeEntry("dir/entry" + i + ".txt", getContents(i).getBytes("UTF-8"), i % 5 == 0);
+		}
+		writer.close();
+
+		ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()));
+		for (int i = 0; i < 50; i++) {
+			ZipEntry entry = zip.getNextEntry();
+			assertEquals("dir/entry" + i + ".txt", entry.getName());
+			assertEquals(i % 5 == 0 ? ZipEntry.STORED : ZipEntry.DEFLATED, entry.getMethod());
+			assertEquals(getContents(i), new String(Misc.streamToBytes(zip), "UTF-8"));
+		}
+		assertNull(zip.getNextEntry());
+	}
+
+	@Test
+	public void withoutExecutorEntriesAreCompressedByCallingThread() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ParallelZipWriter writer = new ParallelZipWriter(out, null, 1);
+		writer.writeEntry("a.txt", "aaa".getBytes("UTF-8"), false);
+		writer.writeEntry("b.txt", new byte[0], false);
+		writer.finish();
+
+		ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals("a.txt", zip.getNextEntry().getName());
+		assertEquals("aaa", new String(Misc.streamToBytes(zip), "UTF-8"));
+		assertEquals("b.txt", zip.getNextEntry().getName());
+		assertEquals(0, Misc.streamToBytes(zip).length);
+		assertNull(zip.getNextEntry());
+	}
+
+	@Test
+	public void moreThan65535EntriesAreReadableByZipFile() throws Exception {
+		int count = 70000;
+		File file = folder.newFile("many.zip");
+		ParallelZipWriter writer = new ParallelZipWriter(new FileOutputStream(file), taskExecutor, 16);
+		for (int i = 0; i < count; i++) {
+			writer.writeEntry("entry" + i + ".txt", ("contents " + i).getBytes("UTF-8"), i % 2 == 0);
+		}
+		writer.close();
+
+		ZipFile zipFile = new ZipFile(file);
+		try {
+			assertEquals(count, zipFile.size());
+			for (int i : new int[] {0, 1, 65534, 65535, 65536, count - 1}) {
+				ZipEntry entry = zipFile.getEntry("entry" + i + ".txt");
+				assertNotNull("entry" + i, entry);
+				assertEquals(("contents " + i).length(), entry.getSize());
+				assertEquals("contents " + i, new String(Misc.streamToBytes(zipFile.getInputStream(entry)), "UTF-8"));
+			}
+			int entries = 0;
+			for (Enumeration<? extends ZipEntry> e = zipFile.entries(); e.hasMoreElements(); e.nextElement()) {
+				entries++;
+			}
+			assertEquals(count, entries);
+		} finally {
+			zipFile.close();
+		}
+	}
+}
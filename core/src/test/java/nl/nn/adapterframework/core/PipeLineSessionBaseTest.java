@@ -0,0 +1,170 @@
+package nl.nn.adapterframework.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class PipeLineSessionBaseTest {
+
+	@Test
+	public void behavesLikeHashMap() {
+		Map<String,Object> expected = new HashMap<String,Object>();
+		Map<String,Object> session = new PipeLineSessionBase(2);
+		for (int i = 0; i < 200; i++) {
+			expected.put("key" + i, i);
+			session.put("key" + i, i);
+		}
+		expected.put(IPipeLineSession.messageIdKey, "id1");
+		session.put(new String(IPipeLineSession.messageIdKey), "id1");
+		expected.put("nullValue", null);
+		session.put("nullValue", null);
+		for (int i = 0; i < 200; i += 3) {
+			assertEquals(expected.remove("key" + i), session.remove("key" + i));
+		}
+		assertEquals(expected, session);
+		assertEquals(session, expected);
+		assertEquals(expected.hashCode(), session.hashCode());
+		assertEquals(expected.size(), session.size());
+		assertTrue(session.containsKey("nullValue"));
+		assertFalse(session.containsKey("key0"));
+		assertEquals("id1", ((IPipeLineSession) session).getMessageId());
+	}
+
+	@Test
+	public void childSessionDoesNotModifyParent() {
+		Map<String,Object> parent = new HashMap<String,Object>();
+		parent.put("a", "1");
+		parent.put(IPipeLineSession.businessCorrelationIdKey, "cid1");
+		parent.put("b", "2");
+		Map<String,Object> original = new HashMap<String,Object>(parent);
+
+		PipeLineSessionBase session = PipeLineSessionBase.createChildSession(parent);
+		assertEquals(original, session);
+		assertEquals("1", session.put("a", "changed"));
+		assertEquals("2", session.remove("b"));
+		assertEquals("cid1", session.remove(IPipeLineSession.businessCorrelationIdKey));
+		session.put("c", "3");
+
+		assertEquals(original, parent);
+		assertEquals("changed", session.get("a"));
+		assertNull(session.get("b"));
+		assertFalse(session.containsKey("b"));
+		assertFalse(session.containsKey(IPipeLineSession.businessCorrelationIdKey));
+		assertEquals(2, session.size());
+
+		session.put("b", "again");
+		assertEquals("again", session.get("b"));
+		assertEquals(3, session.size());
+	}
+
+	@Test
+	public void iterateAndRemoveOverChildSession() {
+		Map<String,Object> parent = new HashMap<String,Object>();
+		parent.put("a", "1");
+		parent.put("b", "2");
+		PipeLineSessionBase session = PipeLineSessionBase.createChildSession(parent);
+		session.put("c", "3");
+		session.put(IPipeLineSession.tsReceivedKey, "now");
+		for (Iterator<String> it = session.keySet().iterator(); it.hasNext();) {
+			String key = it.next();
+			if (!key.equals("a")) {
+				it.remove();
+			}
+		}
+		assertEquals(1, session.size());
+		assertEquals("1", session.get("a"));
+		assertEquals(2, parent.size());
+	}
+
+	@Test
+	public void copyBackToParent() {
+		Map<String,Object> parent = new HashMap<String,Object>();
+		parent.put("a", "1");
+		PipeLineSessionBase session = PipeLineSessionBase.createChildSession(parent);
+		session.put("b", "2");
+		session.put(IPipeLineSession.messageIdKey, "id1");
+		parent.putAll(session);
+		assertEquals(3, parent.size());
+		assertEquals("2", parent.get("b"));
+		assertEquals("id1", parent.get(IPipeLineSession.messageIdKey));
+	}
+
+	@Test
+	public void modificationsOfParentAreVisibleInChildSession() {
+		Map<String,Object> parent = new HashMap<String,Object>();
+		parent.put("a", "1");
+		parent.put("b", "2");
+		PipeLineSessionBase session = PipeLineSessionBase.createChildSession(parent);
+		session.put("a", "changed");
+		session.remove("b");
+		parent.put("a", "parent");
+		parent.put("b", "parent");
+		parent.put("c", "3");
+		assertEquals("changed", session.get("a"));
+		assertNull(session.get("b"));
+		assertEquals("3", session.get("c"));
+		assertEquals(2, session.size());
+		parent.remove("c");
+		assertFalse(session.containsKey("c"));
+		assertEquals(1, session.size());
+	}
+
+	@Test
+	public void sizeOfChildSession() {
+		Map<String,Object> parent = new HashMap<String,Object>();
+		for (int i = 0; i < 10; i++) {
+			parent.put("key" + i, i);
+		}
+		PipeLineSessionBase session = PipeLineSessionBase.createChildSession(parent);
+		assertFalse(session.isEmpty());
+		session.put("key0", "changed");
+		session.put(IPipeLineSession.messageIdKey, "id1");
+		session.remove("key1");
+		assertEquals(10, session.size());
+		// more local keys than parent keys
+		for (int i = 10; i < 30; i++) {
+			session.put("key" + i, i);
+		}
+		assertEquals(30, session.size());
+		for (int i = 0; i < 30; i++) {
+			session.remove("key" + i);
+		}
+		session.remove(IPipeLineSession.messageIdKey);
+		assertEquals(0, session.size());
+		assertTrue(session.isEmpty());
+		parent.put("new", "value");
+		assertFalse(session.isEmpty());
+	}
+
+	@Test
+	public void serializedChildSessionContainsEntriesOfParent() throws Exception {
+		Map<String,Object> parent = new HashMap<String,Object>();
+		parent.put("a", "1");
+		parent.put("b", "2");
+		PipeLineSessionBase session = PipeLineSessionBase.createChildSession(parent);
+		session.put("c", "3");
+		session.remove("b");
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ObjectOutputStream objectOut = new ObjectOutputStream(out);
+		objectOut.writeObject(session);
+		objectOut.close();
+		PipeLineSessionBase copy = (PipeLineSessionBase) new ObjectInputStream(new ByteArrayInputStream(out.toByteArray())).readObject();
+
+		assertNull(copy.getParent());
+		assertEquals(session, copy);
+		assertEquals(2, copy.size());
+		assertFalse(copy.containsKey("b"));
+	}
+}
@@ -0,0 +1,194 @@
+package nl.nn.adapterframework.extensions.cmis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nl.nn.adapterframework.core.TimeOutException;
+
+import org.apache.chemistry.opencmis.client.api.ObjectId;
+import org.apache.chemistry.opencmis.client.api.Repository;
+import org.apache.chemistry.opencmis.client.api.Session;
+import org.apache.chemistry.opencmis.client.api.SessionFactory;
+import org.apache.chemistry.opencmis.commons.SessionParameter;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisConnectionException;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisObjectNotFoundException;
+import org.junit.After;
+import org.junit.Test;
+
+public class CmisSessionPoolTest {
+
+	private List<Session> sessions = new ArrayList<Session>();
+	private List<CmisSessionPool> openedPools = new ArrayList<CmisSessionPool>();
+
+	private SessionFactory sessionFactory = new SessionFactory() {
+		public Session createSession(Map<String, String> parameters) {
+			Session session = mock(Session.class);
+			when(session.getObject(any(ObjectId.class))).thenThrow(new CmisObjectNotFoundException());
+			sessions.add(session);
+			return session;
+		}
+		public List<Repository> getRepositories(Map<String, String> parameters) {
+			return null;
+		}
+	};
+
+	private Map<String, String> createParameters(String password) {
+		Map<String, String> parameters = new HashMap<String, String>();
+		parameters.put(SessionParameter.ATOMPUB_URL, "http://localhost/cmis");
+		parameters.put(SessionParameter.REPOSITORY_ID, "repository");
+		parameters.put(SessionParameter.USER, "user");
+		parameters.put(SessionParameter.PASSWORD, password);
+		return parameters;
+	}
+
+	private CmisSessionPool openPool(Map<String, String> parameters, int maxSessions, long maxIdleTime) {
+		CmisSessionPool pool = CmisSessionPool.open(parameters, sessionFactory, maxSessions, maxIdleTime);
+		openedPools.add(pool);
+		return pool;
+	}
+
+	@After
+	public void tearDown() {
+		for (CmisSessionPool pool : openedPools) {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void reusesSessions() throws Exception {
+		CmisSessionPool pool = openPool(createParameters("password"), 2, 60000);
+		Session session = pool.borrow(100);
+		pool.release(session, true);
+		assertEquals(1, pool.getIdleCount());
+		assertSame(session, pool.borrow(100));
+		assertEquals(1, sessions.size());
+		pool.release(session, true);
+	}
+
+	@Test
+	public void waitsForSession() throws Exception {
+		CmisSessionPool pool = openPool(createParameters("password"), 1, 60000);
+		Session session = pool.borrow(100);
+		try {
+			pool.borrow(100);
+			fail("expected TimeOutException");
+		} catch (TimeOutException e) {
+			// all sessions are in use
+		}
+		pool.release(session, true);
+		assertSame(session, pool.borrow(100));
+	}
+
+	@Test
+	public void discardsIdleSessions() throws Exception {
+		CmisSessionPool pool = openPool(createParameters("password"), 1, 50);
+		Session session = pool.borrow(100);
+		pool.release(session, true);
+		Thread.sleep(100);
+		assertNotSame(session, pool.borrow(100));
+		verify(session).clear();
+		assertEquals(2, sessions.size());
+	}
+
+	@Test
+	public void discardsSessionThatIsNotReusable() throws Exception {
+		CmisSessionPool pool = openPool(createParameters("password"), 1, 60000);
+		Session session = pool.borrow(100);
+		pool.release(session, false);
+		verify(session).clear();
+		assertEquals(0, pool.getIdleCount());
+		assertEquals(1, pool.getAvailablePermits());
+	}
+
+	@Test
+	public void sharesPoolForSameParameters() throws Exception {
+		CmisSessionPool pool = openPool(createParameters("password"), 1, 60000);
+		assertSame(pool, openPool(createParameters("password"), 1, 60000));
+		assertNotSame(pool, openPool(createParameters("otherPassword"), 1, 60000));
+
+		Map<String, String> otherCache = createParameters("password");
+		otherCache.put(SessionParameter.CACHE_SIZE_OBJECTS, "10");
+		assertNotSame(pool, openPool(otherCache, 1, 60000));
+	}
+
+	private CmisSender createSender() throws Exception {
+		CmisSender sender = new CmisSender();
+		sender.setName("CmisSessionPoolTest");
+		sender.setUrl("http://localhost/cmis");
+		sender.setRepository("repository");
+		sender.setUserName("user");
+		sender.setPassword("password");
+		sender.setAction("get");
+		sender.setResultOnNotFound("[NOT_FOUND]");
+		sender.configure();
+		return sender;
+	}
+
+	@Test
+	public void senderKeepsSession() throws Exception {
+		CmisSender sender = createSender();
+		// the sender shares the pool that has been opened with the same parameters
+		CmisSessionPool pool = openPool(sender.getSessionParameters("user", "password"), 1, 60000);
+		try {
+			assertEquals("[NOT_FOUND]", sender.sendMessage(null, "documentId", null));
+			assertEquals("[NOT_FOUND]", sender.sendMessage(null, "documentId", null));
+		} finally {
+			sender.close();
+		}
+		assertEquals(1, sessions.size());
+		assertEquals(1, pool.getIdleCount());
+	}
+
+	@Test
+	public void senderDiscardsSessionAfterConnectionException() throws Exception {
+		CmisSender sender = createSender();
+		CmisSessionPool pool = openPool(sender.getSessionParameters("user", "password"), 1, 60000);
+		try {
+			assertEquals("[NOT_FOUND]", sender.sendMessage(null, "documentId", null));
+			doThrow(new CmisConnectionException("connection refused")).when(sessions.get(0)).getObject(any(ObjectId.class));
+			try {
+				sender.sendMessage(null, "documentId", null);
+				fail("expected CmisConnectionException");
+			} catch (CmisConnectionException e) {
+				// repository cannot be reached
+			}
+		} finally {
+			sender.close();
+		}
+		verify(sessions.get(0), times(1)).clear();
+		assertEquals(0, pool.getIdleCount());
+		assertEquals(1, pool.getAvailablePermits());
+	}
+
+	@Test
+	public void senderClosesLeastRecentlyUsedPool() throws Exception {
+		CmisSender sender = createSender();
+		sender.setMaxSessionPools(2);
+		Map<String, String> parameters1 = sender.getSessionParameters("user1", "password");
+		Map<String, String> parameters2 = sender.getSessionParameters("user2", "password");
+		try {
+			CmisSessionPool pool1 = sender.getSessionPool(parameters1);
+			CmisSessionPool pool2 = sender.getSessionPool(parameters2);
+			assertSame(pool1, sender.getSessionPool(parameters1));
+			sender.getSessionPool(sender.getSessionParameters("user3", "password"));
+			assertSame(pool1, sender.getSessionPool(parameters1));
+			// the pool of user2 has been closed, so a new pool is opened for it
+			assertNotSame(pool2, openPool(parameters2, 1, 60000));
+		} finally {
+			sender.close();
+		}
+	}
+}
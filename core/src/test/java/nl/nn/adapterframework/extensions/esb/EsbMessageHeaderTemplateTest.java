@@ -0,0 +1,121 @@
+package nl.nn.adapterframework.extensions.esb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import nl.nn.adapterframework.parameters.Parameter;
+import nl.nn.adapterframework.parameters.ParameterList;
+import nl.nn.adapterframework.util.ClassUtils;
+import nl.nn.adapterframework.util.TransformerPool;
+import nl.nn.adapterframework.util.XmlUtils;
+
+import org.junit.Test;
+
+public class EsbMessageHeaderTemplateTest {
+
+	private ParameterList parameterList = new ParameterList();
+	private Map<String, Object> parameterValues = new HashMap<String, Object>();
+
+	private void addConstant(String name, String value) {
+		Parameter parameter = new Parameter();
+		parameter.setName(name);
+		parameter.setValue(value);
+		parameterList.add(parameter);
+		parameterValues.put(name, value);
+	}
+
+	private void addDynamic(String name, String value) {
+		Parameter parameter = new Parameter();
+		parameter.setName(name);
+		parameter.setSessionKey(name);
+		parameterList.add(parameter);
+		if (value != null) {
+			parameterValues.put(name, value);
+		}
+	}
+
+	private void addEsbParameters(String cmhVersion) {
+		addConstant(EsbSoapWrapperPipe.CMHVERSION, cmhVersion);
+		addConstant(EsbSoapWrapperPipe.MESSAGINGLAYER, "ESB");
+		addConstant(EsbSoapWrapperPipe.BUSINESSDOMAIN, "Financial");
+		addConstant(EsbSoapWrapperPipe.SERVICELAYER, "Application");
+		addConstant(EsbSoapWrapperPipe.SERVICENAME, "Payment");
+		addConstant(EsbSoapWrapperPipe.SERVICECONTEXTVERSION, "2");
+		addConstant(EsbSoapWrapperPipe.OPERATIONNAME, "Create");
+		addConstant(EsbSoapWrapperPipe.PARADIGM, "Request");
+		addConstant(EsbSoapWrapperPipe.FROMID, "Ibis");
+		addDynamic(EsbSoapWrapperPipe.CONVERSATIONID, "conversation & <id>");
+		addDynamic(EsbSoapWrapperPipe.MESSAGEID, "message\"id");
+		addDynamic(EsbSoapWrapperPipe.CORRELATIONID, "correlation");
+		addDynamic(EsbSoapWrapperPipe.EXTERNALREFTOMESSAGEID, null);
+		addDynamic(EsbSoapWrapperPipe.TIMESTAMP, "2018-01-01T12:00:00.000+01:00");
+		addDynamic(EsbSoapWrapperPipe.TRANSACTIONID, "transaction");
+	}
+
+	private String transform(String styleSheet) throws Exception {
+		TransformerPool transformerPool = TransformerPool.getInstance(ClassUtils.getResourceURL(this, styleSheet), true);
+		return transformerPool.transform(XmlUtils.stringToSourceForSingleUse("<dummy/>"), parameterValues);
+	}
+
+	private void assertSameAsStyleSheet(String styleSheet, boolean bis) throws Exception {
+		EsbMessageHeaderTemplate template = EsbMessageHeaderTemplate.compile(parameterList, bis);
+		String expected = transform(styleSheet);
+		assertEquals(expected, template.format(parameterValues));
+		// the second message is formatted with the buffer size of the first
+		assertEquals(expected, template.format(parameterValues));
+	}
+
+	@Test
+	public void cmhVersion1() throws Exception {
+		addEsbParameters("1");
+		assertSameAsStyleSheet("/xml/xsl/esb/soapHeader.xsl", false);
+	}
+
+	@Test
+	public void cmhVersion2() throws Exception {
+		addEsbParameters("2");
+		assertSameAsStyleSheet("/xml/xsl/esb/soapHeader.xsl", false);
+	}
+
+	@Test
+	public void cmhVersion2WithServiceContext() throws Exception {
+		addEsbParameters("2");
+		addConstant(EsbSoapWrapperPipe.SERVICECONTEXT, "Context");
+		addConstant(EsbSoapWrapperPipe.CPAID, "cpa");
+		assertSameAsStyleSheet("/xml/xsl/esb/soapHeader.xsl", false);
+	}
+
+	@Test
+	public void dynamicDestination() throws Exception {
+		addEsbParameters("1");
+		addDynamic(EsbSoapWrapperPipe.OPERATIONNAME, "Update");
+		assertSameAsStyleSheet("/xml/xsl/esb/soapHeader.xsl", false);
+	}
+
+	@Test
+	public void p2pDestination() throws Exception {
+		addConstant(EsbSoapWrapperPipe.CMHVERSION, "1");
+		addConstant(EsbSoapWrapperPipe.MESSAGINGLAYER, "P2P");
+		addConstant(EsbSoapWrapperPipe.BUSINESSDOMAIN, "Financial");
+		addConstant(EsbSoapWrapperPipe.APPLICATIONNAME, "Application");
+		addConstant(EsbSoapWrapperPipe.APPLICATIONFUNCTION, "Function");
+		addConstant(EsbSoapWrapperPipe.PARADIGM, "Action");
+		addDynamic(EsbSoapWrapperPipe.MESSAGEID, "message");
+		assertSameAsStyleSheet("/xml/xsl/esb/soapHeader.xsl", false);
+	}
+
+	@Test
+	public void bisHeader() throws Exception {
+		addEsbParameters("1");
+		assertSameAsStyleSheet("/xml/xsl/esb/bisSoapHeader.xsl", true);
+	}
+
+	@Test
+	public void notCompiledForDynamicCmhVersion() throws Exception {
+		addDynamic(EsbSoapWrapperPipe.CMHVERSION, "2");
+		assertNull(EsbMessageHeaderTemplate.compile(parameterList, false));
+	}
+}
@@ -0,0 +1,230 @@
+package nl.nn.adapterframework.extensions.log4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
+import org.apache.log4j.WriterAppender;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.After;
+import org.junit.Test;
+
+public class IbisAsyncAppenderTest {
+
+	private Logger logger = Logger.getLogger(IbisAsyncAppenderTest.class);
+	private IbisAsyncAppender asyncAppender;
+
+	/**
+	 * Records the messages it receives; writing the first message waits until the appender is released,
+	 * which stalls the dispatcher thread of the IbisAsyncAppender.
+	 */
+	private static class StallingAppender extends AppenderSkeleton {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch released = new CountDownLatch(1);
+		List<String> messages = new ArrayList<String>();
+
+		@Override
+		protected void append(LoggingEvent event) {
+			started.countDown();
+			try {
+				released.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			synchronized (messages) {
+				messages.add(event.getMessage().toString());
+			}
+		}
+
+		List<String> getMessages() {
+			synchronized (messages) {
+				return new ArrayList<String>(messages);
+			}
+		}
+
+		public boolean requiresLayout() {
+			return false;
+		}
+
+		public void close() {
+		}
+	}
+
+	private StallingAppender createAppender(int bufferSize, String overflowPolicy) throws Exception {
+		StallingAppender stallingAppender = new StallingAppender();
+		asyncAppender = new IbisAsyncAppender();
+		asyncAppender.setName("test");
+		asyncAppender.setBufferSize(bufferSize);
+		asyncAppender.setOverflowPolicy(overflowPolicy);
+		asyncAppender.addAppender(stallingAppender);
+		asyncAppender.activateOptions();
+		// the dispatcher takes the first event and waits in the stalling appender
+		log(Level.INFO, "first");
+		assertTrue(stallingAppender.started.await(5, TimeUnit.SECONDS));
+		return stallingAppender;
+	}
+
+	private void log(Level level, String message) {
+		asyncAppender.doAppend(new LoggingEvent(Logger.class.getName(), logger, level, message, null));
+	}
+
+	private Thread logInThread(final Level level, final String message) {
+		Thread thread = new Thread() {
+			public void run() {
+				log(level, message);
+			}
+		};
+		thread.start();
+		return thread;
+	}
+
+	private void waitForBlockedEvents(int count) throws InterruptedException {
+		long end = System.currentTimeMillis() + 5000;
+		while (asyncAppender.getEventsBlocked() < count && System.currentTimeMillis() < end) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, asyncAppender.getEventsBlocked());
+	}
+
+	@After
+	public void tearDown() {
+		if (asyncAppender != null) {
+			asyncAppender.close();
+		}
+	}
+
+	@Test
+	public void dropPolicyDiscardsEventsBelowWarnWhenBufferIsFull() throws Exception {
+		StallingAppender stallingAppender = createAppender(2, IbisAsyncAppender.OVERFLOW_POLICY_DROP);
+		log(Level.INFO, "second");
+		log(Level.DEBUG, "third");
+		assertEquals(2, asyncAppender.getQueueDepth());
+		log(Level.INFO, "dropped info");
+		log(Level.DEBUG, "dropped debug");
+		assertEquals(2, asyncAppender.getEventsDropped());
+		// more severe events wait for space in the buffer
+		Thread warnThread = logInThread(Level.WARN, "warning");
+		waitForBlockedEvents(1);
+		stallingAppender.released.countDown();
+		warnThread.join(5000);
+		asyncAppender.close();
+		assertEquals("[first, second, third, warning]", stallingAppender.getMessages().toString());
+	}
+
+	@Test
+	public void summarisePolicyReportsDiscardedEvents() throws Exception {
+		StallingAppender stallingAppender = createAppender(1, IbisAsyncAppender.OVERFLOW_POLICY_SUMMARISE);
+		log(Level.INFO, "second");
+		log(Level.INFO, "dropped 1");
+		log(Level.INFO, "dropped 2");
+		stallingAppender.released.countDown();
+		asyncAppender.close();
+		assertEquals("[first, log buffer of appender [test] was full, dropped [2] DEBUG and INFO events, second]", stallingAppender.getMessages().toString());
+	}
+
+	@Test
+	public void blockPolicyKeepsAllEvents() throws Exception {
+		StallingAppender stallingAppender = createAppender(1, IbisAsyncAppender.OVERFLOW_POLICY_BLOCK);
+		log(Level.DEBUG, "second");
+		Thread debugThread = logInThread(Level.DEBUG, "third");
+		waitForBlockedEvents(1);
+		stallingAppender.released.countDown();
+		debugThread.join(5000);
+		asyncAppender.close();
+		assertEquals(0, asyncAppender.getEventsDropped());
+		assertEquals("[first, second, third]", stallingAppender.getMessages().toString());
+	}
+
+	@Test
+	public void eventsBelowThresholdAreNotBuffered() throws Exception {
+		StallingAppender stallingAppender = createAppender(10, IbisAsyncAppender.OVERFLOW_POLICY_BLOCK);
+		asyncAppender.setThreshold(Level.WARN);
+		log(Level.INFO, "info");
+		log(Level.ERROR, "error");
+		assertEquals(1, asyncAppender.getQueueDepth());
+		stallingAppender.released.countDown();
+		asyncAppender.close();
+		assertEquals("[first, error]", stallingAppender.getMessages().toString());
+	}
+
+	@Test
+	public void closeWritesBufferedEvents() throws Exception {
+		final StallingAppender stallingAppender = createAppender(100, IbisAsyncAppender.OVERFLOW_POLICY_BLOCK);
+		for (int i = 0; i < 50; i++) {
+			log(Level.INFO, "event " + i);
+		}
+		assertEquals(50, asyncAppender.getQueueDepth());
+		new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					return;
+				}
+				stallingAppender.released.countDown();
+			}
+		}.start();
+		asyncAppender.close();
+		List<String> messages = stallingAppender.getMessages();
+		assertEquals(51, messages.size());
+		assertEquals("event 49", messages.get(50));
+		assertEquals(0, asyncAppender.getQueueDepth());
+	}
+
+	@Test
+	public void eventsAfterCloseAreCountedAsDropped() throws Exception {
+		StallingAppender stallingAppender = createAppender(10, IbisAsyncAppender.OVERFLOW_POLICY_BLOCK);
+		stallingAppender.released.countDown();
+		asyncAppender.close();
+		log(Level.INFO, "too late");
+		assertEquals(1, asyncAppender.getEventsDropped());
+		assertEquals("[first]", stallingAppender.getMessages().toString());
+	}
+
+	@Test
+	public void blockedEventsAreNotLostWhenClosing() throws Exception {
+		StallingAppender stallingAppender = createAppender(1, IbisAsyncAppender.OVERFLOW_POLICY_BLOCK);
+		log(Level.INFO, "second");
+		Thread blockedThread = logInThread(Level.INFO, "third");
+		waitForBlockedEvents(1);
+		Thread closeThread = new Thread() {
+			public void run() {
+				asyncAppender.close();
+			}
+		};
+		closeThread.start();
+		stallingAppender.released.countDown();
+		closeThread.join(10000);
+		blockedThread.join(5000);
+		assertFalse(blockedThread.isAlive());
+		// the blocked event is written, or counted as dropped when it was added after the appender was closed
+		assertEquals(3, stallingAppender.getMessages().size() + asyncAppender.getEventsDropped());
+	}
+
+	@Test
+	public void writerIsFlushedAfterEachBatch() throws Exception {
+		StringWriter output = new StringWriter();
+		WriterAppender writerAppender = new WriterAppender(new PatternLayout("%m%n"), new BufferedWriter(output, 8192));
+		asyncAppender = new IbisAsyncAppender();
+		asyncAppender.setName("test");
+		asyncAppender.addAppender(writerAppender);
+		asyncAppender.activateOptions();
+		log(Level.INFO, "message");
+		long end = System.currentTimeMillis() + 5000;
+		while (output.toString().length() == 0 && System.currentTimeMillis() < end) {
+			Thread.sleep(10);
+		}
+		assertEquals("message" + System.getProperty("line.separator"), output.toString());
+	}
+}
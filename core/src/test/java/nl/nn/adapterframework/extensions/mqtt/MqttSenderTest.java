@@ -0,0 +1,143 @@
+package nl.nn.adapterframework.extensions.mqtt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import nl.nn.adapterframework.core.SenderException;
+import nl.nn.adapterframework.core.TimeOutException;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+
+public class MqttSenderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private MqttAsyncClient asyncMqttClient;
+	private IMqttDeliveryToken token;
+	private MqttSender sender;
+	private int clientsCreated = 0;
+
+	@Before
+	public void setUp() throws Exception {
+		asyncMqttClient = mock(MqttAsyncClient.class);
+		token = mock(IMqttDeliveryToken.class);
+		when(asyncMqttClient.isConnected()).thenReturn(true);
+		when(asyncMqttClient.publish(anyString(), any(MqttMessage.class), any(), any(IMqttActionListener.class))).thenReturn(token);
+		IMqttToken disconnectToken = mock(IMqttToken.class);
+		when(asyncMqttClient.disconnect()).thenReturn(disconnectToken);
+
+		sender = new MqttSender() {
+			@Override
+			protected void createClient(MqttClientPersistence dataStore) throws MqttException {
+				asyncClient = asyncMqttClient;
+				clientsCreated++;
+			}
+		};
+		sender.setName("MqttSenderTest");
+		sender.setClientId("test");
+		sender.setBrokerUrl("tcp://localhost:1883");
+		sender.setTopic("test/topic");
+		sender.setPersistenceDirectory(folder.getRoot().getPath());
+		sender.setAsync(true);
+		sender.setMaxInflight(2);
+		sender.setWaitForAcknowledgement(false);
+		sender.setAcknowledgeTimeout(100);
+		sender.configure();
+	}
+
+	private List<IMqttActionListener> getDeliveryListeners(int count) throws MqttException {
+		ArgumentCaptor<IMqttActionListener> captor = ArgumentCaptor.forClass(IMqttActionListener.class);
+		verify(asyncMqttClient, times(count)).publish(anyString(), any(MqttMessage.class), any(), captor.capture());
+		return captor.getAllValues();
+	}
+
+	@Test
+	public void releasesPermitOnDelivery() throws Exception {
+		sender.sendMessage(null, "message 1");
+		sender.sendMessage(null, "message 2");
+		assertEquals(2, sender.getInflightCount());
+		List<IMqttActionListener> listeners = getDeliveryListeners(2);
+		listeners.get(0).onSuccess(token);
+		assertEquals(1, sender.getInflightCount());
+		listeners.get(1).onSuccess(token);
+		assertEquals(0, sender.getInflightCount());
+	}
+
+	@Test
+	public void releasesPermitOnFailure() throws Exception {
+		sender.sendMessage(null, "message 1");
+		assertEquals(1, sender.getInflightCount());
+		getDeliveryListeners(1).get(0).onFailure(token, new MqttException(MqttException.REASON_CODE_CONNECTION_LOST));
+		assertEquals(0, sender.getInflightCount());
+	}
+
+	@Test
+	public void waitsForRoomInWindow() throws Exception {
+		sender.sendMessage(null, "message 1");
+		sender.sendMessage(null, "message 2");
+		try {
+			sender.sendMessage(null, "message 3");
+			fail("expected TimeOutException");
+		} catch (TimeOutException e) {
+			// window is full
+		}
+		getDeliveryListeners(2).get(0).onSuccess(token);
+		sender.sendMessage(null, "message 3");
+		assertEquals(2, sender.getInflightCount());
+	}
+
+	@Test
+	public void releasesPermitWhenPublishFails() throws Exception {
+		when(asyncMqttClient.publish(anyString(), any(MqttMessage.class), any(), any(IMqttActionListener.class))).thenThrow(new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED));
+		try {
+			sender.sendMessage(null, "message");
+			fail("expected SenderException");
+		} catch (SenderException e) {
+			// publish failed
+		}
+		assertEquals(0, sender.getInflightCount());
+	}
+
+	@Test
+	public void waitsForAcknowledgement() throws Exception {
+		sender.setWaitForAcknowledgement(true);
+		sender.sendMessage(null, "message");
+		verify(token).waitForCompletion(100);
+	}
+
+	@Test
+	public void closesClient() throws Exception {
+		sender.close();
+		verify(asyncMqttClient).disconnect();
+		verify(asyncMqttClient).close();
+	}
+
+	@Test
+	public void recreatesClientAfterClose() throws Exception {
+		sender.close();
+		assertEquals(1, clientsCreated);
+		sender.sendMessage(null, "message");
+		assertEquals(2, clientsCreated);
+		assertEquals(1, getDeliveryListeners(1).size());
+	}
+}
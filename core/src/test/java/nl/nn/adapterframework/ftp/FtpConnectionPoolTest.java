@@ -0,0 +1,223 @@
+package nl.nn.adapterframework.ftp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.junit.After;
+import org.junit.Test;
+
+public class FtpConnectionPoolTest {
+
+	private List<FTPClient> clients = new ArrayList<FTPClient>();
+	private List<FtpConnectionPool> openedPools = new ArrayList<FtpConnectionPool>();
+	private boolean connectFails = false;
+
+	private FtpSession session = createSession("host");
+
+	private FtpSession createSession(String host) {
+		FtpSession session = new FtpSession() {
+			@Override
+			FtpConnection connect() throws FtpConnectException {
+				if (connectFails) {
+					throw new FtpConnectException("cannot connect");
+				}
+				return new FtpConnection(createClient());
+			}
+		};
+		session.setHost(host);
+		session.setUsername("user");
+		session.setPassword("password");
+		return session;
+	}
+
+	private FTPClient createClient() {
+		FTPClient client = mock(FTPClient.class);
+		try {
+			when(client.isConnected()).thenReturn(true);
+			when(client.sendNoOp()).thenReturn(true);
+			when(client.printWorkingDirectory()).thenReturn("/home");
+			when(client.changeWorkingDirectory(anyString())).thenReturn(true);
+			when(client.getReplyCode()).thenReturn(250);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+		clients.add(client);
+		return client;
+	}
+
+	private FtpConnectionPool openPool(FtpSession session, int maxConnections, long maxIdleTime, long keepAliveInterval) {
+		FtpConnectionPool pool = FtpConnectionPool.open(session.getConnectionPoolKey(), session, maxConnections, maxIdleTime, keepAliveInterval);
+		openedPools.add(pool);
+		return pool;
+	}
+
+	@After
+	public void tearDown() {
+		for (FtpConnectionPool pool : openedPools) {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void reusesConnections() throws Exception {
+		FtpConnectionPool pool = openPool(session, 2, 0, 0);
+		FtpConnection connection = pool.borrow("dir1", 100);
+		pool.release(connection, true);
+		assertEquals(1, pool.getIdleCount());
+
+		assertSame(connection, pool.borrow("dir2", 100));
+		assertEquals(1, clients.size());
+		verify(clients.get(0)).changeWorkingDirectory("dir1");
+		verify(clients.get(0)).changeWorkingDirectory("/home");
+		verify(clients.get(0)).changeWorkingDirectory("dir2");
+		pool.release(connection, true);
+	}
+
+	@Test
+	public void closesIdleConnections() throws Exception {
+		FtpConnectionPool pool = openPool(session, 2, 1000, 0);
+		FtpConnection connection = pool.borrow(null, 100);
+		pool.release(connection, true);
+
+		pool.checkIdleConnections(System.currentTimeMillis());
+		assertEquals(1, pool.getIdleCount());
+
+		pool.checkIdleConnections(System.currentTimeMillis() + 2000);
+		assertEquals(0, pool.getIdleCount());
+		verify(clients.get(0)).disconnect();
+	}
+
+	@Test
+	public void keepsIdleConnectionsAlive() throws Exception {
+		FtpConnectionPool pool = openPool(session, 2, 10000, 100);
+		FtpConnection connection1 = pool.borrow(null, 100);
+		FtpConnection connection2 = pool.borrow(null, 100);
+		pool.release(connection1, true);
+		pool.release(connection2, true);
+		when(clients.get(1).sendNoOp()).thenReturn(false);
+
+		pool.checkIdleConnections(System.currentTimeMillis() + 200);
+		assertEquals(1, pool.getIdleCount());
+		verify(clients.get(0), times(0)).disconnect();
+		verify(clients.get(1)).disconnect();
+	}
+
+	@Test
+	public void waitsForConnection() throws Exception {
+		FtpConnectionPool pool = openPool(session, 1, 0, 0);
+		FtpConnection connection = pool.borrow(null, 100);
+		try {
+			pool.borrow(null, 100);
+			fail("expected FtpConnectException");
+		} catch (FtpConnectException e) {
+			// all connections are in use
+		}
+		pool.release(connection, true);
+		assertSame(connection, pool.borrow(null, 100));
+	}
+
+	@Test
+	public void releasesPermitWhenConnectFails() throws Exception {
+		FtpConnectionPool pool = openPool(session, 1, 0, 0);
+		connectFails = true;
+		try {
+			pool.borrow(null, 100);
+			fail("expected FtpConnectException");
+		} catch (FtpConnectException e) {
+			// cannot connect
+		}
+		assertEquals(1, pool.getAvailablePermits());
+	}
+
+	@Test
+	public void releasesPermitWhenChangeDirectoryFails() throws Exception {
+		FtpConnectionPool pool = openPool(session, 1, 0, 0);
+		pool.release(pool.borrow(null, 100), true);
+		when(clients.get(0).getReplyCode()).thenReturn(550);
+		try {
+			pool.borrow("unknown", 100);
+			fail("expected FtpConnectException");
+		} catch (FtpConnectException e) {
+			// directory does not exist
+		}
+		assertEquals(1, pool.getAvailablePermits());
+		assertEquals(0, pool.getIdleCount());
+		verify(clients.get(0)).disconnect();
+	}
+
+	@Test
+	public void closesConnectionAfterError() throws Exception {
+		FtpConnectionPool pool = openPool(session, 1, 0, 0);
+		FtpConnection connection = pool.borrow(null, 100);
+		assertEquals(0, pool.getAvailablePermits());
+		pool.release(connection, false);
+		assertEquals(1, pool.getAvailablePermits());
+		assertEquals(0, pool.getIdleCount());
+		verify(clients.get(0)).disconnect();
+	}
+
+	@Test
+	public void reclaimsConnectionOfAbandonedStream() throws Exception {
+		FtpConnectionPool pool = openPool(session, 1, 1000, 0);
+		FtpConnection connection = pool.borrow(null, 100);
+		pool.markStreaming(connection);
+
+		pool.reclaimAbandonedStreams(System.currentTimeMillis());
+		assertEquals(0, pool.getAvailablePermits());
+
+		pool.reclaimAbandonedStreams(System.currentTimeMillis() + 2000);
+		assertEquals(1, pool.getAvailablePermits());
+		verify(clients.get(0)).disconnect();
+
+		// closing the stream afterwards does not release the permit again
+		pool.release(connection, true);
+		assertEquals(1, pool.getAvailablePermits());
+		assertEquals(0, pool.getIdleCount());
+	}
+
+	@Test
+	public void sharesPoolBetweenSessionsWithSameSettings() throws Exception {
+		FtpConnectionPool pool1 = openPool(session, 1, 0, 0);
+		FtpConnectionPool pool2 = openPool(createSession("host"), 1, 0, 0);
+		assertSame(pool1, pool2);
+	}
+
+	@Test
+	public void separatesPoolsBySettings() throws Exception {
+		FtpConnectionPool pool = openPool(session, 1, 0, 0);
+
+		FtpSession otherHost = createSession("otherHost");
+		assertNotSame(pool, openPool(otherHost, 1, 0, 0));
+
+		FtpSession otherPassword = createSession("host");
+		otherPassword.setPassword("otherPassword");
+		assertNotSame(pool, openPool(otherPassword, 1, 0, 0));
+
+		FtpSession otherFileType = createSession("host");
+		otherFileType.setFileType("BINARY");
+		assertNotSame(pool, openPool(otherFileType, 1, 0, 0));
+
+		FtpSession active = createSession("host");
+		active.setPassive(false);
+		assertNotSame(pool, openPool(active, 1, 0, 0));
+
+		FtpSession proxied = createSession("host");
+		proxied.setProxyHost("proxy");
+		assertNotSame(pool, openPool(proxied, 1, 0, 0));
+
+		FtpSession protP = createSession("host");
+		protP.setProtP(true);
+		assertNotSame(pool, openPool(protP, 1, 0, 0));
+	}
+}
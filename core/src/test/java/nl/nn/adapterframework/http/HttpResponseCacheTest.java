@@ -0,0 +1,120 @@
+package nl.nn.adapterframework.http;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import nl.nn.adapterframework.core.SenderException;
+import nl.nn.adapterframework.core.TimeOutException;
+
+public class HttpResponseCacheTest {
+
+	private class CountingLoader implements HttpResponseCache.Loader {
+		AtomicInteger calls = new AtomicInteger();
+		AtomicInteger conditionalCalls = new AtomicInteger();
+		int statusCode = 200;
+		String cacheControl;
+		String etag;
+
+		public HttpResponseCache.Response load(HttpResponseCache.CacheEntry stale) throws SenderException, TimeOutException {
+			calls.incrementAndGet();
+			if (stale != null) {
+				conditionalCalls.incrementAndGet();
+				return new HttpResponseCache.Response(statusCode, null, cacheControl, null, null, etag, null);
+			}
+			return new HttpResponseCache.Response(200, "response" + calls.get(), cacheControl, null, null, etag, null);
+		}
+	}
+
+	@Test
+	public void freshResponseIsReused() throws Exception {
+		HttpResponseCache cache = new HttpResponseCache("test", 10, 1000, 0);
+		CountingLoader loader = new CountingLoader();
+		loader.cacheControl = "public, max-age=60";
+		assertEquals("response1", cache.get("a", loader));
+		assertEquals("response1", cache.get("a", loader));
+		assertEquals("response2", cache.get("b", loader));
+		assertEquals(2, loader.calls.get());
+	}
+
+	@Test
+	public void noStoreIsNotCached() throws Exception {
+		HttpResponseCache cache = new HttpResponseCache("test", 10, 1000, 60000);
+		CountingLoader loader = new CountingLoader();
+		loader.cacheControl = "no-store";
+		assertEquals("response1", cache.get("a", loader));
+		assertEquals("response2", cache.get("a", loader));
+	}
+
+	@Test
+	public void staleResponseIsRevalidated() throws Exception {
+		HttpResponseCache cache = new HttpResponseCache("test", 10, 1000, 0);
+		CountingLoader loader = new CountingLoader();
+		loader.cacheControl = "no-cache";
+		loader.etag = "\"v1\"";
+		loader.statusCode = 304;
+		assertEquals("response1", cache.get("a", loader));
+		assertEquals("response1", cache.get("a", loader));
+		assertEquals(2, loader.calls.get());
+		assertEquals(1, loader.conditionalCalls.get());
+	}
+
+	@Test
+	public void evictsEldestWhenFull() throws Exception {
+		HttpResponseCache cache = new HttpResponseCache("test", 2, 1000, 60000);
+		CountingLoader loader = new CountingLoader();
+		cache.get("a", loader);
+		cache.get("b", loader);
+		cache.get("c", loader);
+		assertEquals("response4", cache.get("a", loader));
+		assertEquals("response3", cache.get("c", loader));
+	}
+
+	@Test
+	public void identicalRequestsAreCoalesced() throws Exception {
+		final HttpResponseCache cache = new HttpResponseCache("test", 10, 1000, 0);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger calls = new AtomicInteger();
+		final HttpResponseCache.Loader loader = new HttpResponseCache.Loader() {
+			public HttpResponseCache.Response load(HttpResponseCache.CacheEntry stale) throws SenderException, TimeOutException {
+				calls.incrementAndGet();
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new TimeOutException(e);
+				}
+				return new HttpResponseCache.Response(200, "response", "no-store", null, null, null, null);
+			}
+		};
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<String> first = executor.submit(new java.util.concurrent.Callable<String>() {
+				public String call() throws Exception {
+					return cache.get("a", loader);
+				}
+			});
+			started.await();
+			Future<String> second = executor.submit(new java.util.concurrent.Callable<String>() {
+				public String call() throws Exception {
+					return cache.get("a", loader);
+				}
+			});
+			Thread.sleep(100);
+			release.countDown();
+			assertEquals("response", first.get(5, TimeUnit.SECONDS));
+			assertEquals("response", second.get(5, TimeUnit.SECONDS));
+			assertEquals(1, calls.get());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package nl.nn.adapterframework.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Hashtable;
+
+import javax.naming.CommunicationException;
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.ldap.LdapContext;
+import javax.naming.spi.InitialContextFactory;
+
+import org.junit.Test;
+
+public class LdapContextPoolTest {
+
+	/**
+	 * Creates contexts that do not connect to a server. A lookup of "broken" fails with a
+	 * CommunicationException.
+	 */
+	public static class DummyContextFactory implements InitialContextFactory {
+		static int created = 0;
+		static int closed = 0;
+
+		public Context getInitialContext(Hashtable<?, ?> environment) throws NamingException {
+			created++;
+			return (Context)Proxy.newProxyInstance(LdapContext.class.getClassLoader(), new Class[] { LdapContext.class }, new InvocationHandler() {
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					if (method.getName().equals("close")) {
+						closed++;
+					} else if (method.getName().equals("lookup") && "broken".equals(args[0])) {
+						throw new CommunicationException("connection closed");
+					}
+					return null;
+				}
+			});
+		}
+	}
+
+	private Hashtable<String, String> getEnv(String principal) {
+		Hashtable<String, String> env = new Hashtable<String, String>();
+		env.put(Context.INITIAL_CONTEXT_FACTORY, DummyContextFactory.class.getName());
+		env.put(Context.SECURITY_PRINCIPAL, principal);
+		env.put(Context.SECURITY_CREDENTIALS, "secret");
+		return env;
+	}
+
+	@Test
+	public void reusesContextOfSamePrincipal() throws Exception {
+		LdapContextPool pool = new LdapContextPool(2, 60000);
+		int created = DummyContextFactory.created;
+		LdapContext context = pool.borrow(getEnv("alice"), 0);
+		context.close();
+		context.close();
+		assertEquals(1, pool.getIdleCount());
+		assertEquals(2, pool.getAvailablePermits());
+
+		pool.borrow(getEnv("alice"), 0).close();
+		assertEquals(created + 1, DummyContextFactory.created);
+
+		pool.borrow(getEnv("bob"), 0).close();
+		assertEquals(created + 2, DummyContextFactory.created);
+		assertEquals(2, pool.getIdleCount());
+		pool.close();
+	}
+
+	@Test
+	public void closesLeastRecentlyUsedContextOfOtherPrincipal() throws Exception {
+		LdapContextPool pool = new LdapContextPool(1, 60000);
+		int closed = DummyContextFactory.closed;
+		pool.borrow(getEnv("alice"), 0).close();
+		pool.borrow(getEnv("bob"), 0).close();
+		assertEquals(closed + 1, DummyContextFactory.closed);
+		assertEquals(1, pool.getIdleCount());
+		pool.close();
+	}
+
+	@Test(expected=ServiceUnavailableException.class)
+	public void boundsContextsInUse() throws Exception {
+		LdapContextPool pool = new LdapContextPool(1, 60000);
+		pool.borrow(getEnv("alice"), 0);
+		pool.borrow(getEnv("alice"), 100);
+	}
+
+	@Test
+	public void closesBrokenContext() throws Exception {
+		LdapContextPool pool = new LdapContextPool(1, 60000);
+		int closed = DummyContextFactory.closed;
+		LdapContext context = pool.borrow(getEnv("alice"), 0);
+		try {
+			context.lookup("broken");
+		} catch (CommunicationException e) {
+			// expected
+		}
+		context.close();
+		assertEquals(closed + 1, DummyContextFactory.closed);
+		assertEquals(0, pool.getIdleCount());
+		assertEquals(1, pool.getAvailablePermits());
+	}
+
+	@Test
+	public void closesContextsReturnedAfterClose() throws Exception {
+		LdapContextPool pool = new LdapContextPool(2, 60000);
+		LdapContext context = pool.borrow(getEnv("alice"), 0);
+		pool.close();
+		context.close();
+		assertEquals(0, pool.getIdleCount());
+		pool.open();
+		pool.borrow(getEnv("alice"), 0).close();
+		assertTrue(pool.getIdleCount() == 1);
+		assertFalse(pool.getAvailablePermits() < 2);
+		pool.close();
+	}
+}
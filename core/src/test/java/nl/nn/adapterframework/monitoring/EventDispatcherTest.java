@@ -0,0 +1,47 @@
+package nl.nn.adapterframework.monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import nl.nn.adapterframework.core.IAdapter;
+
+import org.junit.Test;
+
+public class EventDispatcherTest {
+
+	private EventThrowing source = new EventThrowing() {
+		public String getEventSourceName() {
+			return "source";
+		}
+		public IAdapter getAdapter() {
+			return null;
+		}
+	};
+
+	private boolean isDispatcherThreadAlive() {
+		Thread[] threads = new Thread[Thread.activeCount() * 2];
+		int count = Thread.enumerate(threads);
+		for (int i = 0; i < count; i++) {
+			if ("MonitorEventDispatcher".equals(threads[i].getName()) && threads[i].isAlive()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Test
+	public void stopDeliversPendingEventsAndEndsThread() throws Exception {
+		EventDispatcher dispatcher = new EventDispatcher(MonitorManager.getInstance(), 60000);
+		dispatcher.start();
+		dispatcher.dispatch(source, "event");
+		dispatcher.stop(5000);
+		assertEquals(0, dispatcher.getPendingCount());
+		assertFalse(isDispatcherThreadAlive());
+	}
+
+	@Test
+	public void shutdownOfManagerWithoutDispatcher() throws Exception {
+		MonitorManager.getInstance().shutdown();
+		assertFalse(isDispatcherThreadAlive());
+	}
+}
@@ -0,0 +1,179 @@
+package nl.nn.adapterframework.pipes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import nl.nn.adapterframework.core.IPipe;
+import nl.nn.adapterframework.core.IPipeLineSession;
+import nl.nn.adapterframework.core.PipeForward;
+import nl.nn.adapterframework.core.PipeLine;
+import nl.nn.adapterframework.core.PipeLineSessionBase;
+import nl.nn.adapterframework.core.PipeRunException;
+import nl.nn.adapterframework.core.PipeRunResult;
+import nl.nn.adapterframework.processors.PipeProcessor;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+
+public class ForkJoinPipeTest {
+
+	private ForkJoinPipe forkJoinPipe;
+	private IPipeLineSession session;
+
+	/**
+	 * Pipe that waits for a latch, sets a session variable and returns its name, or fails.
+	 */
+	private static class TestPipe extends FixedForwardPipe {
+		CountDownLatch started;
+		CountDownLatch proceed;
+		String sessionKey;
+		boolean fail;
+		volatile Object valueRead;
+		CountDownLatch finished = new CountDownLatch(1);
+
+		TestPipe(String name) {
+			setName(name);
+		}
+
+		public PipeRunResult doPipe(Object input, IPipeLineSession session) throws PipeRunException {
+			try {
+				if (started != null) {
+					started.countDown();
+				}
+				if (proceed != null && !proceed.await(5, TimeUnit.SECONDS)) {
+					throw new PipeRunException(this, "no permission to proceed");
+				}
+				if (fail) {
+					throw new PipeRunException(this, "pipe ["+getName()+"] fails");
+				}
+				if (sessionKey != null) {
+					valueRead = session.get(sessionKey);
+					session.put(sessionKey, getName());
+				}
+				return new PipeRunResult(getForward(), "<"+getName()+">"+input+"</"+getName()+">");
+			} catch (InterruptedException e) {
+				throw new PipeRunException(this, "interrupted", e);
+			} finally {
+				finished.countDown();
+			}
+		}
+	}
+
+	@Before
+	public void setUp() {
+		forkJoinPipe = new ForkJoinPipe();
+		forkJoinPipe.setName("forkJoin");
+		forkJoinPipe.registerForward(new PipeForward("success", null));
+		forkJoinPipe.setTaskExecutor(new SimpleAsyncTaskExecutor());
+		forkJoinPipe.setPipeProcessor(new PipeProcessor() {
+			public PipeRunResult processPipe(PipeLine pipeLine, IPipe pipe, String messageId, Object message, IPipeLineSession pipeLineSession) throws PipeRunException {
+				return pipe.doPipe(message, pipeLineSession);
+			}
+		});
+		session = new PipeLineSessionBase();
+	}
+
+	private TestPipe addPipe(String name) throws Exception {
+		TestPipe pipe = new TestPipe(name);
+		forkJoinPipe.addPipe(pipe);
+		return pipe;
+	}
+
+	private void configure() throws Exception {
+		PipeLine pipeLine = new PipeLine();
+		pipeLine.setOwner(forkJoinPipe);
+		forkJoinPipe.configure(pipeLine);
+	}
+
+	@Test
+	public void runsPipesInParallel() throws Exception {
+		CountDownLatch started = new CountDownLatch(3);
+		for (int i = 1; i <= 3; i++) {
+			TestPipe pipe = addPipe("pipe"+i);
+			// each pipe only finishes when all pipes have started
+			pipe.started = started;
+			pipe.proceed = started;
+		}
+		configure();
+		PipeRunResult result = forkJoinPipe.doPipe("input", session);
+		assertEquals("success", result.getPipeForward().getName());
+		assertEquals("<results>"
+				+ "<result pipeName=\"pipe1\" type=\"String\"><pipe1>input</pipe1></result>"
+				+ "<result pipeName=\"pipe2\" type=\"String\"><pipe2>input</pipe2></result>"
+				+ "<result pipeName=\"pipe3\" type=\"String\"><pipe3>input</pipe3></result>"
+				+ "</results>", result.getResult().toString().replaceAll(">\\s+<", "><"));
+	}
+
+	@Test
+	public void copiesSessionVariablesInOrderOfPipes() throws Exception {
+		session.put("key", "original");
+		session.put("other", "original");
+		TestPipe first = addPipe("first");
+		first.sessionKey = "key";
+		TestPipe second = addPipe("second");
+		second.sessionKey = "key";
+		TestPipe third = addPipe("third");
+		third.sessionKey = "other";
+		// the first pipe finishes last
+		first.proceed = second.finished;
+		configure();
+		forkJoinPipe.doPipe("input", session);
+		assertEquals("second", session.get("key"));
+		assertEquals("third", session.get("other"));
+		assertEquals("original", first.valueRead);
+		assertEquals("original", second.valueRead);
+	}
+
+	@Test
+	public void throwsExceptionWhenPipeFails() throws Exception {
+		addPipe("succeeds").sessionKey = "key";
+		addPipe("fails").fail = true;
+		configure();
+		try {
+			forkJoinPipe.doPipe("input", session);
+			fail("expected PipeRunException");
+		} catch (PipeRunException e) {
+			assertTrue(e.getMessage().contains("[fails]"));
+		}
+	}
+
+	@Test
+	public void continuesWhenPipeFails() throws Exception {
+		addPipe("succeeds").sessionKey = "key";
+		addPipe("fails").fail = true;
+		forkJoinPipe.setFailurePolicy(ForkJoinPipe.FAILURE_POLICY_CONTINUE);
+		configure();
+		PipeRunResult result = forkJoinPipe.doPipe("input", session);
+		assertEquals("success", result.getPipeForward().getName());
+		String resultXml = result.getResult().toString();
+		assertTrue(resultXml, resultXml.contains("<result pipeName=\"fails\" type=\"PipeRunException\">"));
+		assertEquals("succeeds", session.get("key"));
+	}
+
+	@Test
+	public void doesNotWaitForPipeThatTimesOut() throws Exception {
+		session.put("key", "original");
+		TestPipe slow = addPipe("slow");
+		slow.sessionKey = "key";
+		slow.proceed = new CountDownLatch(1);
+		forkJoinPipe.setTimeout(100);
+		forkJoinPipe.setFailurePolicy(ForkJoinPipe.FAILURE_POLICY_CONTINUE);
+		configure();
+		PipeRunResult result = forkJoinPipe.doPipe("input", session);
+		assertTrue(result.getResult().toString().contains("<result pipeName=\"slow\" type=\"timeout\">"));
+
+		// the pipeline continues, while the nested pipe is still running
+		session.put("key", "changed");
+		slow.proceed.countDown();
+		assertTrue(slow.finished.await(5, TimeUnit.SECONDS));
+		assertEquals("original", slow.valueRead);
+		assertEquals("changed", session.get("key"));
+		assertFalse(session.containsValue("slow"));
+	}
+}
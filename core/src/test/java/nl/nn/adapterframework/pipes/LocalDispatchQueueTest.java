@@ -0,0 +1,268 @@
+package nl.nn.adapterframework.pipes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.core.task.TaskExecutor;
+
+import nl.nn.adapterframework.core.ListenerException;
+import nl.nn.adapterframework.receivers.ServiceClient;
+import nl.nn.adapterframework.receivers.ServiceDispatcher;
+import nl.nn.adapterframework.util.AppConstants;
+
+public class LocalDispatchQueueTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Collects the workers without running them, so that the queue fills up.
+	 */
+	private class CollectingTaskExecutor implements TaskExecutor {
+		List<Runnable> tasks = new ArrayList<Runnable>();
+
+		public void execute(Runnable task) {
+			tasks.add(task);
+		}
+	}
+
+	@Test
+	public void rejectsWhenFull() throws Exception {
+		CollectingTaskExecutor taskExecutor = new CollectingTaskExecutor();
+		LocalDispatchQueue queue = new LocalDispatchQueue("unknownTarget", true, taskExecutor, 2, 3, LocalDispatchQueue.REJECT_POLICY_REJECT, 0);
+		for (int i = 0; i < 3; i++) {
+			queue.dispatch("cid" + i, "message" + i, null);
+		}
+		assertEquals(3, queue.getQueueDepth());
+		assertEquals(2, taskExecutor.tasks.size());
+		try {
+			queue.dispatch("cid3", "message3", null);
+			fail("expected queue to be full");
+		} catch (ListenerException e) {
+			// expected
+		}
+		assertEquals(1, queue.getRejected());
+
+		taskExecutor.tasks.get(0).run();
+		assertEquals(0, queue.getQueueDepth());
+		assertEquals(3, queue.getProcessed());
+		// the target does not exist
+		assertEquals(3, queue.getFailed());
+	}
+
+	@Test
+	public void callerRunsWhenFull() throws Exception {
+		CollectingTaskExecutor taskExecutor = new CollectingTaskExecutor();
+		LocalDispatchQueue queue = new LocalDispatchQueue("unknownTarget", true, taskExecutor, 1, 1, LocalDispatchQueue.REJECT_POLICY_CALLER_RUNS, 0);
+		queue.dispatch("cid0", "message0", null);
+		queue.dispatch("cid1", "message1", null);
+		assertEquals(1, queue.getQueueDepth());
+		assertEquals(1, queue.getCallerRuns());
+		assertEquals(1, queue.getProcessed());
+	}
+
+	@Test
+	public void blockTimesOutWhenFull() throws Exception {
+		CollectingTaskExecutor taskExecutor = new CollectingTaskExecutor();
+		LocalDispatchQueue queue = new LocalDispatchQueue("unknownTarget", true, taskExecutor, 1, 1, LocalDispatchQueue.REJECT_POLICY_BLOCK, 100);
+		queue.dispatch("cid0", "message0", null);
+		try {
+			queue.dispatch("cid1", "message1", null);
+			fail("expected queue to be full");
+		} catch (ListenerException e) {
+			// expected
+		}
+		assertEquals(1, queue.getRejected());
+	}
+
+	@Test(expected=ListenerException.class)
+	public void illegalRejectPolicy() throws Exception {
+		new LocalDispatchQueue("unknownTarget", true, new CollectingTaskExecutor(), 1, 1, "discard", 0);
+	}
+
+	@Test
+	public void journalIsRecoveredInOrder() throws Exception {
+		File directory = folder.newFolder("journal");
+		LocalDispatchJournal journal = new LocalDispatchJournal(directory);
+		HashMap<String, Object> context = new HashMap<String, Object>();
+		context.put("key", "value");
+		context.put("notJournaled", new Object());
+		File first = journal.write("cid0", "message0", context);
+		journal.write("cid1", "message1", null);
+		File third = journal.write("cid2", "message2", null);
+		journal.remove(third);
+
+		List<LocalDispatchJournal.Entry> entries = new LocalDispatchJournal(directory).recover();
+		assertEquals(2, entries.size());
+		assertEquals(first, entries.get(0).getFile());
+		assertEquals("cid0", entries.get(0).getCorrelationID());
+		assertEquals("message0", entries.get(0).getMessage());
+		assertEquals(1, entries.get(0).getContext().size());
+		assertEquals("value", entries.get(0).getContext().get("key"));
+		assertEquals("message1", entries.get(1).getMessage());
+	}
+
+	@Test
+	public void journaledRequestsAreRemovedWhenProcessed() throws Exception {
+		String target = "LocalDispatchQueueTestService";
+		ServiceDispatcher.getInstance().registerServiceClient(target, new ServiceClient() {
+			public String processRequest(String correlationId, String message, Map requestContext) {
+				return message;
+			}
+		});
+		File directory = folder.newFolder("journal");
+		CollectingTaskExecutor taskExecutor = new CollectingTaskExecutor();
+		LocalDispatchQueue queue = new LocalDispatchQueue(target, false, taskExecutor, 1, 10, LocalDispatchQueue.REJECT_POLICY_BLOCK, 0);
+		queue.setJournal(new LocalDispatchJournal(directory), 0);
+		queue.dispatch("cid0", "message0", null);
+		queue.dispatch("cid1", "message1", null);
+		assertEquals(2, directory.list().length);
+
+		// a new queue on the same journal recovers the requests that were not processed
+		LocalDispatchQueue recovered = new LocalDispatchQueue(target, false, taskExecutor, 1, 10, LocalDispatchQueue.REJECT_POLICY_BLOCK, 0);
+		recovered.setJournal(new LocalDispatchJournal(directory), 0);
+		assertEquals(0, recovered.getQueueDepth());
+		recovered.recoverJournal();
+		assertEquals(2, recovered.getQueueDepth());
+		taskExecutor.tasks.get(taskExecutor.tasks.size() - 1).run();
+		assertEquals(2, recovered.getProcessed());
+		assertEquals(0, recovered.getFailed());
+		assertEquals(0, directory.list().length);
+	}
+
+	@Test
+	public void failedRequestsAreKeptInJournal() throws Exception {
+		File directory = folder.newFolder("journal");
+		CollectingTaskExecutor taskExecutor = new CollectingTaskExecutor();
+		LocalDispatchQueue queue = new LocalDispatchQueue("unknownTarget", true, taskExecutor, 1, 10, LocalDispatchQueue.REJECT_POLICY_BLOCK, 0);
+		queue.setJournal(new LocalDispatchJournal(directory), 0);
+		queue.dispatch("cid0", "message0", null);
+		queue.dispatch("cid1", "message1", null);
+		taskExecutor.tasks.get(0).run();
+		assertEquals(2, queue.getFailed());
+		String[] files = directory.list();
+		assertEquals(2, files.length);
+		for (String file : files) {
+			assertTrue(file.endsWith(".request.failed"));
+		}
+		// failed requests are not recovered
+		assertEquals(0, new LocalDispatchJournal(directory).recover().size());
+	}
+
+	@Test
+	public void recoveredRequestsStayInJournalWhenTargetIsUnavailable() throws Exception {
+		File directory = folder.newFolder("journal");
+		LocalDispatchJournal journal = new LocalDispatchJournal(directory);
+		journal.write("cid0", "message0", null);
+		journal.write("cid1", "message1", null);
+
+		CollectingTaskExecutor taskExecutor = new CollectingTaskExecutor();
+		LocalDispatchQueue recovered = new LocalDispatchQueue("unknownTarget", true, taskExecutor, 1, 10, LocalDispatchQueue.REJECT_POLICY_BLOCK, 0);
+		recovered.setJournal(new LocalDispatchJournal(directory), 0);
+		recovered.recoverJournal();
+		taskExecutor.tasks.get(0).run();
+		assertEquals(2, recovered.getProcessed());
+		assertEquals(2, recovered.getFailed());
+		assertEquals(2, new LocalDispatchJournal(directory).recover().size());
+	}
+
+	@Test
+	public void journalWithOtherClassesIsMarkedCorrupt() throws Exception {
+		File directory = folder.newFolder("journal");
+		LocalDispatchJournal journal = new LocalDispatchJournal(directory);
+		journal.write("cid0", "message0", null);
+		ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(new File(directory, "9999999999999-0000000001.request")));
+		try {
+			oos.writeObject("cid1");
+			oos.writeObject("message1");
+			HashMap<String, Object> context = new HashMap<String, Object>();
+			context.put("key", new ArrayList<String>());
+			oos.writeObject(context);
+		} finally {
+			oos.close();
+		}
+
+		List<LocalDispatchJournal.Entry> entries = new LocalDispatchJournal(directory).recover();
+		assertEquals(1, entries.size());
+		assertEquals("cid0", entries.get(0).getCorrelationID());
+		assertTrue(new File(directory, "9999999999999-0000000001.request.corrupt").exists());
+	}
+
+	@Test
+	public void journalKeepsNumbers() throws Exception {
+		File directory = folder.newFolder("journal");
+		HashMap<String, Object> context = new HashMap<String, Object>();
+		context.put("long", 1L);
+		context.put("bigDecimal", new BigDecimal("1.5"));
+		context.put("atomic", new AtomicLong(1));
+		new LocalDispatchJournal(directory).write("cid0", "message0", context);
+
+		List<LocalDispatchJournal.Entry> entries = new LocalDispatchJournal(directory).recover();
+		assertEquals(1, entries.size());
+		assertEquals(2, entries.get(0).getContext().size());
+		assertEquals(1L, entries.get(0).getContext().get("long"));
+		assertEquals(new BigDecimal("1.5"), entries.get(0).getContext().get("bigDecimal"));
+	}
+
+	@Test
+	public void callsAreNotQueuedByDefault() throws Exception {
+		IsolatedServiceCaller isolatedServiceCaller = new IsolatedServiceCaller();
+		CollectingTaskExecutor taskExecutor = new CollectingTaskExecutor();
+		isolatedServiceCaller.setTaskExecutor(taskExecutor);
+		assertNull(isolatedServiceCaller.getDispatchQueue("unknownTarget", true));
+		isolatedServiceCaller.callServiceAsynchronous("unknownTarget", "cid0", "message0", null, true);
+		assertEquals(1, taskExecutor.tasks.size());
+		assertEquals(0, isolatedServiceCaller.getDispatchQueues().size());
+	}
+
+	@Test
+	public void dispatchQueueIsCreatedOnce() throws Exception {
+		AppConstants.getInstance().setProperty("localDispatch.queuedTarget.active", "true");
+		final IsolatedServiceCaller isolatedServiceCaller = new IsolatedServiceCaller();
+		isolatedServiceCaller.setTaskExecutor(new CollectingTaskExecutor());
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<LocalDispatchQueue> queues = Collections.synchronizedList(new ArrayList<LocalDispatchQueue>());
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 8; i++) {
+			Thread thread = new Thread() {
+				public void run() {
+					try {
+						start.await();
+						queues.add(isolatedServiceCaller.getDispatchQueue("queuedTarget", true));
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(8, queues.size());
+		for (LocalDispatchQueue queue : queues) {
+			assertSame(queues.get(0), queue);
+		}
+		assertEquals(1, isolatedServiceCaller.getDispatchQueues().size());
+	}
+}
@@ -0,0 +1,81 @@
+package nl.nn.adapterframework.receivers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class MessageIdCacheTest {
+
+	@Test
+	public void eldestEntriesAreEvicted() {
+		MessageIdCache<String> cache = new MessageIdCache<String>("cache", 3);
+		for (int i = 1; i <= 5; i++) {
+			cache.put("m" + i, "v" + i);
+		}
+		assertEquals(3, cache.size());
+		assertEquals(2, cache.getEvictions());
+		assertFalse(cache.containsKey("m1"));
+		assertFalse(cache.containsKey("m2"));
+		assertEquals("v3", cache.get("m3"));
+		assertEquals("v5", cache.get("m5"));
+	}
+
+	@Test
+	public void updateKeepsPositionInEvictionOrder() {
+		MessageIdCache<String> cache = new MessageIdCache<String>("cache", 2);
+		cache.put("m1", "v1");
+		cache.put("m2", "v2");
+		cache.put("m1", "updated");
+		cache.put("m3", "v3");
+		// m1 was inserted first, updating it does not make it younger
+		assertNull(cache.get("m1"));
+		assertEquals("v2", cache.get("m2"));
+		assertEquals("v3", cache.get("m3"));
+	}
+
+	@Test
+	public void expiredEntriesAreEvicted() throws Exception {
+		MessageIdCache<String> cache = new MessageIdCache<String>("cache", 10);
+		cache.setMaxAgeMillis(50);
+		cache.put("m1", "v1");
+		assertEquals("v1", cache.get("m1"));
+		Thread.sleep(100);
+		assertNull(cache.get("m1"));
+		assertEquals(1, cache.getEvictions());
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void putIfAbsentReturnsPresentValue() {
+		MessageIdCache<String> cache = new MessageIdCache<String>("cache", 10);
+		assertEquals("v1", cache.putIfAbsent("m1", "v1"));
+		assertEquals("v1", cache.putIfAbsent("m1", "v2"));
+		assertEquals("v1", cache.get("m1"));
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void sizeStaysBoundedUnderConcurrentInserts() throws Exception {
+		final MessageIdCache<String> cache = new MessageIdCache<String>("cache", 100);
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			final int thread = t;
+			threads[t] = new Thread() {
+				public void run() {
+					for (int i = 0; i < 1000; i++) {
+						cache.put("m" + thread + "_" + i, "v");
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (int t = 0; t < threads.length; t++) {
+			threads[t].join();
+		}
+		assertTrue(cache.size() <= 100);
+		assertEquals(8000 - cache.size(), cache.getEvictions());
+	}
+}
@@ -0,0 +1,46 @@
+package nl.nn.adapterframework.receivers;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PollSignalTest {
+
+	@Test
+	public void awaitTimesOutWithoutSignal() throws Exception {
+		PollSignal pollSignal = new PollSignal();
+		long start = System.currentTimeMillis();
+		assertFalse(pollSignal.await(100));
+		assertTrue(System.currentTimeMillis() - start >= 100);
+	}
+
+	@Test
+	public void signalBeforeAwaitIsNotLost() throws Exception {
+		PollSignal pollSignal = new PollSignal();
+		pollSignal.signal();
+		assertTrue(pollSignal.await(0));
+		// the signal is cleared by the wait that received it
+		assertFalse(pollSignal.await(0));
+	}
+
+	@Test
+	public void signalEndsWait() throws Exception {
+		final PollSignal pollSignal = new PollSignal();
+		Thread signaller = new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					return;
+				}
+				pollSignal.signal();
+			}
+		};
+		signaller.start();
+		long start = System.currentTimeMillis();
+		assertTrue(pollSignal.await(10000));
+		assertTrue(System.currentTimeMillis() - start < 5000);
+		signaller.join();
+	}
+}
@@ -0,0 +1,230 @@
+package nl.nn.adapterframework.receivers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import nl.nn.adapterframework.configuration.ConfigurationException;
+import nl.nn.adapterframework.core.IListener;
+import nl.nn.adapterframework.core.IPullingListener;
+import nl.nn.adapterframework.core.ListenerException;
+import nl.nn.adapterframework.core.PipeLineResult;
+import nl.nn.adapterframework.util.RunStateEnum;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+public class PullingListenerContainerTest {
+
+	private StubListener listener;
+	private StubReceiver receiver;
+	private PlatformTransactionManager txManager;
+	private PullingListenerContainer container;
+
+	/**
+	 * Listener that returns the messages that are added to it, and <code>null</code> when there are none.
+	 */
+	public static class StubListener implements IPullingListener {
+		private LinkedList<String> messages = new LinkedList<String>();
+
+		public void addMessages(int count) {
+			for (int i = 0; i < count; i++) {
+				messages.add("message"+i);
+			}
+		}
+
+		public void addMessage(String message) {
+			messages.add(message);
+		}
+
+		public Map<String,Object> openThread() {
+			return new HashMap<String,Object>();
+		}
+		public void closeThread(Map<String,Object> threadContext) {
+		}
+		public synchronized Object getRawMessage(Map<String,Object> threadContext) {
+			String message = messages.poll();
+			if (message != null) {
+				threadContext.put("id", message);
+			}
+			return message;
+		}
+		public void configure() throws ConfigurationException {
+		}
+		public void open() {
+		}
+		public void close() {
+		}
+		public String getIdFromRawMessage(Object rawMessage, Map<String,Object> context) {
+			return (String)rawMessage;
+		}
+		public String getStringFromRawMessage(Object rawMessage, Map<String,Object> context) {
+			return (String)rawMessage;
+		}
+		public void afterMessageProcessed(PipeLineResult processResult, Object rawMessage, Map<String,Object> context) {
+		}
+		public String getName() {
+			return "StubListener";
+		}
+		public void setName(String name) {
+		}
+	}
+
+	/**
+	 * Receiver that records the batches and single messages it is asked to process.
+	 */
+	public static class StubReceiver extends ReceiverBase {
+		List<Integer> batchSizes = new ArrayList<Integer>();
+		List<Object> singleMessages = new ArrayList<Object>();
+		boolean batchSucceeds = true;
+
+		public boolean processRawMessageBatch(IListener origin, List rawMessages, List threadContexts) {
+			batchSizes.add(rawMessages.size());
+			return batchSucceeds;
+		}
+		public void processRawMessage(IListener origin, Object message, Map context) {
+			singleMessages.add(message);
+		}
+	}
+
+	@Before
+	public void setUp() {
+		listener = new StubListener();
+		receiver = new StubReceiver();
+		receiver.setName("PullingListenerContainerTest");
+		receiver.setListener(listener);
+		receiver.setBatchSize(3);
+		receiver.setBatchTimeout(200);
+		txManager = mock(PlatformTransactionManager.class);
+		when(txManager.getTransaction(any(TransactionDefinition.class))).thenAnswer(new Answer<TransactionStatus>() {
+			public TransactionStatus answer(InvocationOnMock invocation) {
+				return new SimpleTransactionStatus();
+			}
+		});
+		receiver.setRunState(RunStateEnum.STARTED);
+	}
+
+	private void configure() {
+		container = new PullingListenerContainer();
+		container.setReceiver(receiver);
+		container.setTxManager(txManager);
+		container.configure();
+	}
+
+	private void listen() {
+		container.new ListenTask().run();
+	}
+
+	@Test
+	public void fillsBatchToBatchSize() throws Exception {
+		configure();
+		listener.addMessages(4);
+		listen();
+		assertEquals(1, receiver.batchSizes.size());
+		assertEquals(3, receiver.batchSizes.get(0).intValue());
+		assertEquals(0, receiver.singleMessages.size());
+	}
+
+	@Test
+	public void processesBatchAfterBatchTimeout() throws Exception {
+		configure();
+		listener.addMessages(2);
+		long start = System.currentTimeMillis();
+		listen();
+		assertTrue(System.currentTimeMillis() - start >= 200);
+		assertEquals(1, receiver.batchSizes.size());
+		assertEquals(2, receiver.batchSizes.get(0).intValue());
+	}
+
+	@Test
+	public void processesSingleMessageWithoutBatch() throws Exception {
+		configure();
+		listener.addMessages(1);
+		listen();
+		assertEquals(0, receiver.batchSizes.size());
+		assertEquals(1, receiver.singleMessages.size());
+	}
+
+	@Test
+	public void processesFailedBatchOneByOneWhenNotTransacted() throws Exception {
+		configure();
+		receiver.batchSucceeds = false;
+		listener.addMessages(3);
+		listen();
+		assertEquals(1, receiver.batchSizes.size());
+		assertEquals(3, receiver.singleMessages.size());
+		verify(txManager, never()).getTransaction(any(TransactionDefinition.class));
+	}
+
+	@Test
+	public void switchesToSingleMessagesAfterRollback() throws Exception {
+		receiver.setTransacted(true);
+		configure();
+		receiver.batchSucceeds = false;
+		listener.addMessages(3);
+		listen();
+		assertEquals(1, receiver.batchSizes.size());
+		assertEquals(0, receiver.singleMessages.size());
+		verify(txManager, atLeastOnce()).rollback(any(TransactionStatus.class));
+		verify(txManager, never()).commit(any(TransactionStatus.class));
+
+		// the redelivered messages of the batch are processed one by one
+		receiver.batchSucceeds = true;
+		listener.addMessages(4);
+		listen();
+		listen();
+		listen();
+		assertEquals(1, receiver.batchSizes.size());
+		assertEquals("[message0, message1, message2]", receiver.singleMessages.toString());
+		assertEquals(0, container.getFailedBatchMessageCount());
+
+		// after that, messages are batched again
+		listener.addMessages(3);
+		listen();
+		assertEquals(2, receiver.batchSizes.size());
+		assertEquals(3, receiver.batchSizes.get(1).intValue());
+	}
+
+	@Test
+	public void processesMessagesOfRolledBackBatchOneByOneWhenOtherMessagesArriveFirst() throws Exception {
+		receiver.setTransacted(true);
+		configure();
+		receiver.batchSucceeds = false;
+		listener.addMessages(3);
+		listen();
+		assertEquals(3, container.getFailedBatchMessageCount());
+
+		// a batch that contains a message of the rolled back batch is processed one by one
+		receiver.batchSucceeds = true;
+		listener.addMessage("other0");
+		listener.addMessage("other1");
+		listener.addMessages(3);
+		listen();
+		assertEquals(1, receiver.batchSizes.size());
+		assertEquals("[other0, other1, message0]", receiver.singleMessages.toString());
+		assertEquals(2, container.getFailedBatchMessageCount());
+
+		listen();
+		listen();
+		assertEquals(1, receiver.batchSizes.size());
+		assertEquals("[other0, other1, message0, message1, message2]", receiver.singleMessages.toString());
+		assertEquals(0, container.getFailedBatchMessageCount());
+	}
+}
@@ -0,0 +1,104 @@
+package nl.nn.adapterframework.receivers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nl.nn.adapterframework.core.IListener;
+import nl.nn.adapterframework.core.ITransactionalStorage;
+import nl.nn.adapterframework.core.PipeLineResult;
+import nl.nn.adapterframework.util.XmlUtils;
+
+import org.junit.Test;
+
+public class ReceiverBaseTest {
+
+	@Test
+	public void triesAreCountedPerMessageId() {
+		ReceiverBase receiver = new ReceiverBase();
+		assertNull(receiver.getCachedProcessResult("m1"));
+		receiver.cacheProcessResult("m1", "c1", "first error", new Date());
+		receiver.cacheProcessResult("m1", "c1", "second error", new Date());
+		receiver.cacheProcessResult("m2", "c2", "error", new Date());
+
+		ReceiverBase.ProcessResultCacheItem item = receiver.getCachedProcessResult("m1");
+		assertEquals(2, item.getTryCount());
+		assertEquals("second error", item.getComments());
+		assertEquals("c1", item.correlationId);
+		assertEquals(1, receiver.getCachedProcessResult("m2").getTryCount());
+	}
+
+	@Test
+	public void concurrentTriesAreAllCounted() throws Exception {
+		final ReceiverBase receiver = new ReceiverBase();
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					for (int i = 0; i < 500; i++) {
+						receiver.cacheProcessResult("m1", "c1", "error", null);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (int t = 0; t < threads.length; t++) {
+			threads[t].join();
+		}
+		assertEquals(4000, receiver.getCachedProcessResult("m1").getTryCount());
+	}
+
+	private String createBatchEnvelope(String message) {
+		StringBuffer envelope = new StringBuffer("<messages>");
+		ReceiverBase.appendBatchMessage(envelope, "m1", message);
+		envelope.append("</messages>");
+		return envelope.toString();
+	}
+
+	@Test
+	public void prologOfBatchMessageIsLeftOut() {
+		String envelope = createBatchEnvelope("<?xml version=\"1.0\"?>\n<?xml-stylesheet href=\"a.xsl\"?><!-- comment --><root>text</root>");
+		assertEquals("<messages><message id=\"m1\"><root>text</root></message></messages>", envelope);
+		assertTrue(XmlUtils.isWellFormed(envelope));
+	}
+
+	@Test
+	public void batchMessageWithDocumentTypeIsIncludedAsText() {
+		String envelope = createBatchEnvelope("<?xml version=\"1.0\"?><!DOCTYPE root [<!ENTITY name \"value\">]><root>&name;</root>");
+		assertEquals("<messages><message id=\"m1\">&lt;?xml version=&quot;1.0&quot;?&gt;&lt;!DOCTYPE root [&lt;!ENTITY name &quot;value&quot;&gt;]&gt;&lt;root&gt;&amp;name;&lt;/root&gt;</message></messages>", envelope);
+		assertTrue(XmlUtils.isWellFormed(envelope));
+	}
+
+	@Test
+	public void duplicatesInBatchArePostProcessed() throws Exception {
+		ReceiverBase receiver = new ReceiverBase();
+		ITransactionalStorage messageLog = mock(ITransactionalStorage.class);
+		when(messageLog.isActive()).thenReturn(true);
+		when(messageLog.containsMessageId(anyString())).thenReturn(true);
+		receiver.setMessageLog(messageLog);
+		receiver.setCheckForDuplicates(true);
+		IListener listener = mock(IListener.class);
+		when(listener.getIdFromRawMessage(any(), any(Map.class))).thenReturn("id");
+		List rawMessages = new ArrayList();
+		List threadContexts = new ArrayList();
+		for (int i = 0; i < 2; i++) {
+			rawMessages.add("<message"+i+"/>");
+			threadContexts.add(new HashMap());
+		}
+		assertTrue(receiver.processRawMessageBatch(listener, rawMessages, threadContexts));
+		verify(listener, times(2)).afterMessageProcessed(any(PipeLineResult.class), any(), any(Map.class));
+		assertEquals(2, receiver.getMessagesRejected());
+	}
+}
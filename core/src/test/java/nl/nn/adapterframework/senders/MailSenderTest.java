@@ -0,0 +1,104 @@
+package nl.nn.adapterframework.senders;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.Provider;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.URLName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MailSenderTest {
+
+	private static List<CountingTransport> transports = new ArrayList<CountingTransport>();
+
+	private Session session;
+	private MailSender sender;
+
+	/**
+	 * Transport that connects without a server, and counts the messages that are sent.
+	 */
+	public static class CountingTransport extends Transport {
+		int messagesSent = 0;
+
+		public CountingTransport(Session session, URLName urlname) {
+			super(session, urlname);
+			transports.add(this);
+		}
+
+		protected boolean protocolConnect(String host, int port, String user, String password) {
+			return true;
+		}
+
+		public void sendMessage(Message msg, Address[] addresses) {
+			messagesSent++;
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		transports.clear();
+		session = Session.getInstance(new Properties());
+		session.setProvider(new Provider(Provider.Type.TRANSPORT, "smtp", CountingTransport.class.getName(), "test", "1.0"));
+		sender = new MailSender() {
+			@Override
+			protected Session getSession() {
+				return session;
+			}
+		};
+		sender.setName("MailSenderTest");
+		sender.setSmtpHost("MailSenderTest");
+		sender.setPoolConnections(true);
+		sender.setMaxConnections(1);
+		sender.setMaxMessagesPerConnection(2);
+		sender.configure();
+		sender.open();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		sender.close();
+	}
+
+	private String createBatch(int count) {
+		StringBuffer batch = new StringBuffer("<emails>");
+		for (int i = 0; i < count; i++) {
+			batch.append("<email><recipients><recipient type=\"to\">to@example.com</recipient></recipients>");
+			batch.append("<from>from@example.com</from><subject>mail "+i+"</subject><message>message "+i+"</message></email>");
+		}
+		return batch.append("</emails>").toString();
+	}
+
+	@Test
+	public void continuesBatchOnNewConnection() throws Exception {
+		sender.sendMessage(null, createBatch(5));
+		assertEquals(3, transports.size());
+		assertEquals(2, transports.get(0).messagesSent);
+		assertEquals(2, transports.get(1).messagesSent);
+		assertEquals(1, transports.get(2).messagesSent);
+		assertFalse(transports.get(0).isConnected());
+		assertFalse(transports.get(1).isConnected());
+		assertTrue(transports.get(2).isConnected());
+	}
+
+	@Test
+	public void reusesConnectionAcrossBatches() throws Exception {
+		sender.sendMessage(null, createBatch(1));
+		sender.sendMessage(null, createBatch(1));
+		sender.sendMessage(null, createBatch(1));
+		assertEquals(2, transports.size());
+		assertEquals(2, transports.get(0).messagesSent);
+		assertEquals(1, transports.get(1).messagesSent);
+	}
+}
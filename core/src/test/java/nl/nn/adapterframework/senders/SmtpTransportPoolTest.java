@@ -0,0 +1,158 @@
+package nl.nn.adapterframework.senders;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.Provider;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.URLName;
+
+import nl.nn.adapterframework.core.TimeOutException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SmtpTransportPoolTest {
+
+	private Session session;
+
+	/**
+	 * Transport that connects without a server.
+	 */
+	public static class DummyTransport extends Transport {
+
+		public DummyTransport(Session session, URLName urlname) {
+			super(session, urlname);
+		}
+
+		protected boolean protocolConnect(String host, int port, String user, String password) {
+			return true;
+		}
+
+		public void sendMessage(Message msg, Address[] addresses) {
+		}
+
+		public void disconnect() {
+			setConnected(false);
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		session = Session.getInstance(new Properties());
+		session.setProvider(new Provider(Provider.Type.TRANSPORT, "smtp", DummyTransport.class.getName(), "test", "1.0"));
+	}
+
+	@Test
+	public void reusesConnectedTransport() throws Exception {
+		SmtpTransportPool pool = SmtpTransportPool.open(session, "reuse", "user", "password", 2, 60000, 100);
+		try {
+			SmtpTransportPool.PooledTransport first = pool.borrow(0);
+			assertTrue(first.isNewConnection());
+			pool.release(first, true);
+			assertEquals(1, pool.getIdleCount());
+
+			SmtpTransportPool.PooledTransport second = pool.borrow(0);
+			assertSame(first.getTransport(), second.getTransport());
+			assertFalse(second.isNewConnection());
+			pool.release(second, true);
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test(expected=TimeOutException.class)
+	public void boundsConnectionsInUse() throws Exception {
+		SmtpTransportPool pool = SmtpTransportPool.open(session, "bounded", "user", "password", 1, 60000, 100);
+		try {
+			pool.borrow(0);
+			pool.borrow(100);
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void closesTransportThatIsNotReusable() throws Exception {
+		SmtpTransportPool pool = SmtpTransportPool.open(session, "notReusable", "user", "password", 1, 60000, 2);
+		try {
+			SmtpTransportPool.PooledTransport pooledTransport = pool.borrow(0);
+			pool.release(pooledTransport, false);
+			assertFalse(pooledTransport.getTransport().isConnected());
+			assertEquals(0, pool.getIdleCount());
+			assertEquals(1, pool.getAvailablePermits());
+
+			// maxMessagesPerConnection is reached
+			pooledTransport = pool.borrow(0);
+			pooledTransport.messageSent();
+			pooledTransport.messageSent();
+			pool.release(pooledTransport, true);
+			assertFalse(pooledTransport.getTransport().isConnected());
+			assertEquals(0, pool.getIdleCount());
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void replacesDisconnectedAndIdleTransports() throws Exception {
+		SmtpTransportPool pool = SmtpTransportPool.open(session, "replace", "user", "password", 1, 50, 100);
+		try {
+			SmtpTransportPool.PooledTransport first = pool.borrow(0);
+			pool.release(first, true);
+			((DummyTransport)first.getTransport()).disconnect();
+			SmtpTransportPool.PooledTransport second = pool.borrow(0);
+			assertNotSame(first.getTransport(), second.getTransport());
+			assertTrue(second.isNewConnection());
+			pool.release(second, true);
+
+			Thread.sleep(100);
+			SmtpTransportPool.PooledTransport third = pool.borrow(0);
+			assertNotSame(second.getTransport(), third.getTransport());
+			assertFalse(second.getTransport().isConnected());
+			pool.release(third, true);
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void sharesPoolForSameHostAndCredentials() throws Exception {
+		SmtpTransportPool pool = SmtpTransportPool.open(session, "shared", "user", "password", 1, 60000, 100);
+		SmtpTransportPool other = SmtpTransportPool.open(session, "shared", "user", "otherPassword", 1, 60000, 100);
+		SmtpTransportPool same = SmtpTransportPool.open(session, "shared", "user", "password", 1, 60000, 100);
+		assertNotSame(pool, other);
+		assertSame(pool, same);
+		SmtpTransportPool.PooledTransport pooledTransport = pool.borrow(0);
+		pool.release(pooledTransport, true);
+		same.close();
+		assertTrue(pooledTransport.getTransport().isConnected());
+		pool.close();
+		assertFalse(pooledTransport.getTransport().isConnected());
+		other.close();
+	}
+
+	@Test
+	public void separatesPoolsBySessionProperties() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("mail.smtp.timeout", "1000");
+		Session otherSession = Session.getInstance(properties);
+		otherSession.setProvider(new Provider(Provider.Type.TRANSPORT, "smtp", DummyTransport.class.getName(), "test", "1.0"));
+		SmtpTransportPool pool = SmtpTransportPool.open(session, "properties", "user", "password", 1, 60000, 100);
+		SmtpTransportPool other = SmtpTransportPool.open(otherSession, "properties", "user", "password", 1, 60000, 100);
+		try {
+			assertNotSame(pool, other);
+		} finally {
+			pool.close();
+			other.close();
+		}
+	}
+}
@@ -46,4 +46,38 @@ public class SoapWrapperTest {
 				+ "<Status>OK</Status></Result></FindDocuments_Response>";
 		assertEquals(expectedSoapBody, soapBody);
 	}
+
+	@Test
+	public void getHeader11() throws Exception {
+		SoapWrapper soapWrapper = SoapWrapper.getInstance();
+		String soapMessage = "<soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+				+ "<soapenv:Header>\n  <MessageHeader xmlns=\"http://nn.nl/XSD/Generic/MessageHeader/1\">\n    <HeaderFields><MessageId>messageId</MessageId></HeaderFields>\n  </MessageHeader>\n</soapenv:Header>"
+				+ "<soapenv:Body><FindDocuments_Response xmlns=\"http://api.nn.nl/FindDocuments\"/></soapenv:Body></soapenv:Envelope>";
+		String expectedSoapHeader = "<MessageHeader xmlns=\"http://nn.nl/XSD/Generic/MessageHeader/1\" xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+				+ "<HeaderFields><MessageId>messageId</MessageId></HeaderFields></MessageHeader>";
+		assertEquals(expectedSoapHeader, soapWrapper.getHeader(soapMessage));
+	}
+
+	@Test
+	public void parseEnvelopeWithFault() throws Exception {
+		SoapWrapper soapWrapper = SoapWrapper.getInstance();
+		String soapMessage = soapWrapper.createSoapFaultMessage("soapenv:Client", "invalid request & more");
+		SoapEnvelopeParts envelope = soapWrapper.parseEnvelope(soapMessage);
+		assertEquals(SoapEnvelopeParser.SOAP11_NAMESPACE, envelope.getSoapNamespace());
+		assertEquals(1, envelope.getFaultCount());
+		assertEquals("soapenv:Client", envelope.getFaultCode());
+		assertEquals("invalid request & more", envelope.getFaultString());
+		assertEquals("", envelope.getHeader());
+		String expectedSoapBody = "<soapenv:Fault xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+				+ "<faultcode>soapenv:Client</faultcode><faultstring>invalid request &amp; more</faultstring></soapenv:Fault>";
+		assertEquals(expectedSoapBody, envelope.getBody());
+	}
+
+	@Test
+	public void parseNonSoapMessage() throws Exception {
+		SoapEnvelopeParts envelope = SoapWrapper.getInstance().parseEnvelope("<root><Body>text</Body></root>");
+		assertEquals(null, envelope.getSoapNamespace());
+		assertEquals("", envelope.getBody());
+		assertEquals(0, envelope.getFaultCount());
+	}
 }
@@ -0,0 +1,139 @@
+package nl.nn.adapterframework.statistics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class MessageTraceBufferTest {
+
+	/**
+	 * Returns a finished trace that took <code>duration</code> ms, all of which it waited in the queue.
+	 */
+	private MessageTrace createTrace(MessageTraceBuffer buffer, String messageId, long duration) {
+		MessageTrace trace = new MessageTrace(buffer, MessageTrace.KIND_RECEIVER, "receiver", messageId, duration, 100);
+		trace.endSpan(trace.getRoot());
+		return trace;
+	}
+
+	private String getMessageIds(List<MessageTrace> traces) {
+		StringBuilder result = new StringBuilder();
+		for (MessageTrace trace : traces) {
+			if (result.length() > 0) {
+				result.append(',');
+			}
+			result.append(trace.getMessageId());
+		}
+		return result.toString();
+	}
+
+	@Test
+	public void keepsSlowestTracesSlowestFirst() {
+		MessageTraceBuffer buffer = new MessageTraceBuffer(1, 0, 3);
+		long[] durations = { 30, 10, 50, 20, 40, 5 };
+		for (int i = 0; i < durations.length; i++) {
+			buffer.add(createTrace(buffer, "m" + durations[i], durations[i]));
+		}
+		assertEquals("m50,m40,m30", getMessageIds(buffer.getSlowestTraces()));
+		assertTrue(buffer.getRecentTraces().isEmpty());
+		// traces are counted, also when the ring buffer is switched off
+		assertEquals(6, buffer.getTraceCount());
+	}
+
+	@Test
+	public void recentTracesWrapAround() {
+		MessageTraceBuffer buffer = new MessageTraceBuffer(1, 3, 0);
+		for (int i = 0; i < 5; i++) {
+			buffer.add(createTrace(buffer, "m" + i, 0));
+		}
+		assertEquals("m4,m3,m2", getMessageIds(buffer.getRecentTraces()));
+		assertTrue(buffer.getSlowestTraces().isEmpty());
+	}
+
+	@Test
+	public void samplesEveryIntervalTrace() {
+		MessageTraceBuffer buffer = new MessageTraceBuffer(2, 10, 0);
+		for (int i = 1; i <= 5; i++) {
+			buffer.add(createTrace(buffer, "m" + i, 0));
+		}
+		assertEquals("m4,m2", getMessageIds(buffer.getRecentTraces()));
+		assertEquals(5, buffer.getTraceCount());
+	}
+
+	@Test
+	public void clearRemovesTraces() {
+		MessageTraceBuffer buffer = new MessageTraceBuffer(1, 3, 3);
+		buffer.add(createTrace(buffer, "m1", 20));
+		buffer.clear();
+		assertTrue(buffer.getRecentTraces().isEmpty());
+		assertTrue(buffer.getSlowestTraces().isEmpty());
+		buffer.add(createTrace(buffer, "m2", 10));
+		assertEquals("m2", getMessageIds(buffer.getSlowestTraces()));
+	}
+
+	@Test
+	public void spansAreNested() {
+		MessageTrace trace = new MessageTrace(null, MessageTrace.KIND_RECEIVER, "receiver", "m1", 0, 3);
+		MessageTrace.Span pipe = trace.startSpan(MessageTrace.KIND_PIPE, "pipe");
+		MessageTrace.Span sender = trace.startSpan(MessageTrace.KIND_SENDER, "sender");
+		assertNull(trace.startSpan(MessageTrace.KIND_STORAGE, "dropped"));
+		trace.endSpan(sender);
+		trace.endSpan(pipe);
+		trace.endSpan(trace.getRoot());
+
+		Map<String, Object> map = trace.toMap();
+		assertEquals("m1", map.get("messageId"));
+		assertEquals(1, map.get("droppedSpans"));
+		List<Map<String, Object>> spans = (List<Map<String, Object>>)map.get("spans");
+		assertEquals(3, spans.size());
+		assertEquals(0, spans.get(0).get("level"));
+		assertEquals("pipe", spans.get(1).get("name"));
+		assertEquals(1, spans.get(1).get("level"));
+		assertEquals("sender", spans.get(2).get("name"));
+		assertEquals(2, spans.get(2).get("level"));
+	}
+
+	@Test
+	public void exportsOtlp() {
+		MessageTrace trace = new MessageTrace(null, MessageTrace.KIND_RECEIVER, "receiver", "m1", 10, 100);
+		MessageTrace.Span sender = trace.startSpan(MessageTrace.KIND_SENDER, "sender");
+		sender.setError(true);
+		trace.endSpan(sender);
+		trace.endSpan(trace.getRoot());
+
+		Map<String, Object> otlp = MessageTraceBuffer.toOtlp("ibis", "adapter", Collections.singletonList(trace));
+		Map<String, Object> resourceSpans = ((List<Map<String, Object>>)otlp.get("resourceSpans")).get(0);
+		List<Map<String, Object>> resourceAttributes = (List<Map<String, Object>>)((Map<String, Object>)resourceSpans.get("resource")).get("attributes");
+		assertEquals("service.name", resourceAttributes.get(0).get("key"));
+		assertEquals("ibis", ((Map<String, Object>)resourceAttributes.get(0).get("value")).get("stringValue"));
+		Map<String, Object> scopeSpans = ((List<Map<String, Object>>)resourceSpans.get("scopeSpans")).get(0);
+		List<Map<String, Object>> spans = (List<Map<String, Object>>)scopeSpans.get("spans");
+
+		// receiver, queue and sender
+		assertEquals(3, spans.size());
+		Map<String, Object> root = spans.get(0);
+		Map<String, Object> queue = spans.get(1);
+		Map<String, Object> span = spans.get(2);
+		assertEquals(32, ((String)root.get("traceId")).length());
+		assertEquals(16, ((String)root.get("spanId")).length());
+		assertFalse(root.containsKey("parentSpanId"));
+		assertEquals(2, root.get("kind"));
+		assertEquals("receiver receiver", root.get("name"));
+		assertEquals("queue receiver", queue.get("name"));
+		assertEquals(root.get("spanId"), queue.get("parentSpanId"));
+		assertEquals(1, queue.get("kind"));
+		assertEquals(root.get("traceId"), span.get("traceId"));
+		assertEquals(root.get("spanId"), span.get("parentSpanId"));
+		assertEquals(3, span.get("kind"));
+		assertEquals(2, ((Map<String, Object>)span.get("status")).get("code"));
+		assertEquals(0, ((Map<String, Object>)root.get("status")).get("code"));
+		assertTrue(Long.parseLong((String)root.get("endTimeUnixNano")) >= Long.parseLong((String)span.get("endTimeUnixNano")));
+		assertTrue(Long.parseLong((String)queue.get("startTimeUnixNano")) <= Long.parseLong((String)span.get("startTimeUnixNano")));
+	}
+}
@@ -0,0 +1,89 @@
+package nl.nn.adapterframework.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class IbisTaskExecutorTest {
+
+	private String runInExecutor(IbisTaskExecutor executor) throws Exception {
+		return executor.submit(new Callable<String>() {
+			public String call() throws Exception {
+				return Thread.currentThread().getName();
+			}
+		}).get(10, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void runsTasksOnPlatformThreads() throws Exception {
+		IbisTaskExecutor executor = new IbisTaskExecutor();
+		executor.setThreadType(IbisTaskExecutor.THREAD_TYPE_PLATFORM);
+		executor.setThreadNamePrefix("test-");
+		executor.afterPropertiesSet();
+		assertFalse(executor.isVirtualThreads());
+		assertTrue(runInExecutor(executor).startsWith("test-"));
+		executor.destroy();
+	}
+
+	@Test
+	public void usesPlatformThreadsByDefault() throws Exception {
+		IbisTaskExecutor executor = new IbisTaskExecutor();
+		executor.afterPropertiesSet();
+		assertFalse(executor.isVirtualThreads());
+		executor.destroy();
+	}
+
+	@Test
+	public void runsTasksConcurrently() throws Exception {
+		IbisTaskExecutor executor = new IbisTaskExecutor();
+		executor.afterPropertiesSet();
+		final int tasks = 50;
+		final CountDownLatch started = new CountDownLatch(tasks);
+		final CountDownLatch release = new CountDownLatch(1);
+		for (int i = 0; i < tasks; i++) {
+			executor.execute(new Runnable() {
+				public void run() {
+					started.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+		}
+		// tasks are never queued, all of them run at the same time
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		release.countDown();
+		executor.destroy();
+	}
+
+	@Test
+	public void fallsBackToPlatformThreads() throws Exception {
+		IbisTaskExecutor executor = new IbisTaskExecutor();
+		executor.setThreadType(IbisTaskExecutor.THREAD_TYPE_VIRTUAL);
+		executor.afterPropertiesSet();
+		boolean supported = true;
+		try {
+			Thread.class.getMethod("ofVirtual");
+		} catch (NoSuchMethodException e) {
+			supported = false;
+		}
+		assertEquals(supported, executor.isVirtualThreads());
+		runInExecutor(executor);
+		executor.destroy();
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void rejectsUnknownThreadType() throws Exception {
+		IbisTaskExecutor executor = new IbisTaskExecutor();
+		executor.setThreadType("green");
+		executor.afterPropertiesSet();
+	}
+}
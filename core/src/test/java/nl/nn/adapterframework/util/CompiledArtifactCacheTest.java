@@ -0,0 +1,145 @@
+package nl.nn.adapterframework.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.io.StringReader;
+import java.util.ArrayList;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.xalan.processor.TransformerFactoryImpl;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CompiledArtifactCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void keyDependsOnContentAndSettings() throws Exception {
+		byte[] content = "<a/>".getBytes("UTF-8");
+		String key1 = CompiledArtifactCache.computeKey("xslt", this, "s1", content);
+		assertEquals(key1, CompiledArtifactCache.computeKey("xslt", this, "s1", content));
+		assertFalse(key1.equals(CompiledArtifactCache.computeKey("xslt", this, "s2", content)));
+		assertFalse(key1.equals(CompiledArtifactCache.computeKey("xslt", this, "s1", "<b/>".getBytes("UTF-8"))));
+		assertFalse(key1.equals(CompiledArtifactCache.computeKey("xslt", "otherProcessor", "s1", content)));
+	}
+
+	@Test
+	public void storeAndLoad() throws Exception {
+		CompiledArtifactCache cache = new CompiledArtifactCache(folder.getRoot());
+		ArrayList<String> artifact = new ArrayList<String>();
+		artifact.add("compiled");
+		cache.store("key", artifact);
+		assertEquals(artifact, cache.load("key", null));
+		assertEquals(1, cache.getHits());
+		assertNull(cache.load("otherKey", null));
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void corruptArtifactIsTreatedAsMiss() throws Exception {
+		CompiledArtifactCache cache = new CompiledArtifactCache(folder.getRoot());
+		File file = new File(folder.getRoot(), "key.ser");
+		FileOutputStream fos = new FileOutputStream(file);
+		fos.write("not a serialized object".getBytes());
+		fos.close();
+		assertNull(cache.load("key", null));
+		assertEquals(1, cache.getFailures());
+		assertFalse(file.exists());
+	}
+
+	@Test
+	public void tamperedArtifactIsTreatedAsMiss() throws Exception {
+		CompiledArtifactCache cache = new CompiledArtifactCache(folder.getRoot());
+		cache.store("key", "compiled");
+		File file = new File(folder.getRoot(), "key.ser");
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.seek(raf.length() - 1);
+		raf.write('X');
+		raf.close();
+		assertNull(cache.load("key", null));
+		assertEquals(1, cache.getFailures());
+		assertFalse(file.exists());
+	}
+
+	public static class NotAllowed implements Serializable {
+		private static final long serialVersionUID = 1L;
+	}
+
+	@Test
+	public void classesOutsideAllowedPackagesAreNotDeserialized() throws Exception {
+		CompiledArtifactCache cache = new CompiledArtifactCache(folder.getRoot());
+		ArrayList<Object> artifact = new ArrayList<Object>();
+		artifact.add(new NotAllowed());
+		cache.store("key", artifact);
+		assertNull(cache.load("key", null, "org.apache.xalan."));
+		assertEquals(1, cache.getFailures());
+		assertFalse(new File(folder.getRoot(), "key.ser").exists());
+
+		cache.store("key", artifact);
+		assertTrue(cache.load("key", null, "nl.nn.adapterframework.util.") instanceof ArrayList);
+	}
+
+	@Test
+	public void allowedClasses() throws Exception {
+		assertTrue(CompiledArtifactCache.isAllowed("java.lang.Integer"));
+		assertTrue(CompiledArtifactCache.isAllowed("java.util.HashMap"));
+		assertTrue(CompiledArtifactCache.isAllowed("[B"));
+		assertTrue(CompiledArtifactCache.isAllowed("[[Ljava.lang.Object;"));
+		assertTrue(CompiledArtifactCache.isAllowed("[Lorg.apache.xpath.Expression;", "org.apache.xpath."));
+		assertFalse(CompiledArtifactCache.isAllowed("java.lang.reflect.Proxy"));
+		assertFalse(CompiledArtifactCache.isAllowed("java.util.concurrent.ConcurrentHashMap"));
+		assertFalse(CompiledArtifactCache.isAllowed("[Lnl.nn.adapterframework.util.CompiledArtifactCacheTest$NotAllowed;", "org.apache.xpath."));
+	}
+
+	@Test
+	public void xalanTemplatesAreRestored() throws Exception {
+		CompiledArtifactCache cache = new CompiledArtifactCache(folder.getRoot());
+		String xslt = "<xsl:stylesheet xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\" version=\"1.0\"><xsl:template match=\"/\"><a><xsl:value-of select=\"count(//b)\"/></a></xsl:template></xsl:stylesheet>";
+		Templates templates = new TransformerFactoryImpl().newTemplates(new StreamSource(new StringReader(xslt)));
+		cache.store("key", templates);
+		Object loaded = cache.load("key", null, "org.apache.xalan.", "org.apache.xpath.", "org.apache.xml.");
+		assertTrue(loaded instanceof Templates);
+		assertEquals(0, cache.getFailures());
+	}
+
+	@Test
+	public void leastRecentlyUsedArtifactsAreRemoved() throws Exception {
+		new CompiledArtifactCache(folder.getRoot()).store("keya", "artifact");
+		File a = new File(folder.getRoot(), "keya.ser");
+		long length = a.length();
+		CompiledArtifactCache cache = new CompiledArtifactCache(folder.getRoot(), 2 * length + length / 2);
+		cache.store("keyb", "artifact");
+		File b = new File(folder.getRoot(), "keyb.ser");
+		long now = System.currentTimeMillis();
+		a.setLastModified(now - 20000);
+		b.setLastModified(now - 10000);
+		// using a makes b the least recently used artifact
+		assertEquals("artifact", cache.load("keya", null));
+		cache.store("keyc", "artifact");
+		assertTrue(a.exists());
+		assertFalse(b.exists());
+		assertTrue(new File(folder.getRoot(), "keyc.ser").exists());
+		assertEquals(1, cache.getEvictions());
+	}
+
+	@Test
+	public void artifactLargerThanCacheIsNotStored() throws Exception {
+		CompiledArtifactCache cache = new CompiledArtifactCache(folder.getRoot(), 10);
+		cache.store("key", "a compiled artifact that is larger than the cache");
+		assertFalse(new File(folder.getRoot(), "key.ser").exists());
+		assertEquals(0, cache.getStores());
+	}
+}
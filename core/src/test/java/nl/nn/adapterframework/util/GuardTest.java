@@ -0,0 +1,33 @@
+package nl.nn.adapterframework.util;
+
+import static org.junit.Assert.assertTrue;
+
+import nl.nn.adapterframework.core.TimeOutException;
+
+import org.junit.Test;
+
+public class GuardTest {
+
+	@Test
+	public void waitsForAllResources() throws Exception {
+		final Guard guard = new Guard();
+		guard.addResource();
+		guard.addResource();
+		for (int i = 0; i < 2; i++) {
+			new Thread() {
+				public void run() {
+					guard.releaseResource();
+				}
+			}.start();
+		}
+		guard.waitForAllResources(10000);
+		assertTrue(guard.isReleased());
+	}
+
+	@Test(expected=TimeOutException.class)
+	public void timesOutWhenResourcesAreNotReleased() throws Exception {
+		Guard guard = new Guard();
+		guard.addResource();
+		guard.waitForAllResources(100);
+	}
+}
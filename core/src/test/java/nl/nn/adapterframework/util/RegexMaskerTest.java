@@ -0,0 +1,79 @@
+package nl.nn.adapterframework.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class RegexMaskerTest {
+
+	private static final String PASSWORD_REGEX = "(?<=<Password>).*?(?=</Password>)";
+	private static final String PARTY_REGEX = "(?<=<Party>).*?(?=</Party>)";
+
+	@Test
+	public void hideAllWithMultipleExpressions() {
+		String input = "<a><Password>secret</Password><Party>John</Party></a>";
+		assertEquals("<a><Password>******</Password><Party>****</Party></a>", RegexMasker.hideAll(input, PASSWORD_REGEX, PARTY_REGEX));
+	}
+
+	@Test
+	public void hideFirstHalf() {
+		assertEquals("<Password>***ret</Password>", RegexMasker.hideFirstHalf("<Password>secret</Password>", PASSWORD_REGEX));
+		assertEquals("<Password>***ret</Password>", Misc.hideFirstHalf("<Password>secret</Password>", PASSWORD_REGEX));
+	}
+
+	@Test
+	public void inputWithoutMatchIsReturnedAsIs() {
+		String input = "<a>nothing to hide</a>";
+		assertSame(input, RegexMasker.hideAll(input, PASSWORD_REGEX, null, ""));
+	}
+
+	@Test
+	public void expressionsWithBackReferencesAreAppliedSeparately() {
+		assertEquals("** and ** b", RegexMasker.hideAll("aa and xx b", "(a)\\1", "(x)\\1"));
+	}
+
+	@Test
+	public void overlappingMatchesAreMaskedCompletely() {
+		assertEquals("****", RegexMasker.hideAll("abcd", "bcd", "ab"));
+		assertEquals("****", RegexMasker.hideAll("abcd", "ab", "bcd"));
+		assertEquals("x****y", RegexMasker.hideAll("xabcdy", "ab", "bcd", "c"));
+		// the first half of each match
+		assertEquals("***d", RegexMasker.hideFirstHalf("abcd", "bcd", "ab"));
+	}
+
+	@Test
+	public void findRequiredLiteral() {
+		assertEquals("</Password>", RegexMasker.findRequiredLiteral(PASSWORD_REGEX));
+		assertEquals("@x.nl", RegexMasker.findRequiredLiteral("[a-z]+@x\\.nl"));
+		assertEquals("a", RegexMasker.findRequiredLiteral("ab?c+d"));
+		assertNull(RegexMasker.findRequiredLiteral("foo|bar"));
+		assertNull(RegexMasker.findRequiredLiteral("(?i)secret"));
+		assertNull(RegexMasker.findRequiredLiteral("\\d{4}"));
+		// the inline flag follows an escaped backslash
+		assertNull(RegexMasker.findRequiredLiteral("\\\\(?i)secret"));
+	}
+
+	@Test
+	public void inlineFlagsAfterEscapedBackslashAreNotMissed() {
+		assertEquals("*******", RegexMasker.hideAll("\\SECRET", "\\\\(?i)secret"));
+		assertEquals("******* x", RegexMasker.hideAll("\\SECRET x", "\\\\(?i)secret", "y"));
+	}
+
+	@Test
+	public void expressionsWithSameGroupNameAreAppliedSeparately() {
+		assertEquals("****** ******", RegexMasker.hideAll("user=a pass=b", "user=(?<v>\\w)", "pass=(?<v>\\w)"));
+	}
+
+	@Test
+	public void expressionsInCommentsModeAreAppliedSeparately() {
+		// combined, the comment would swallow the closing parenthesis of the group
+		assertEquals("*** x ***", RegexMasker.hideAll("abc x def", "(?x) abc # comment", "def"));
+	}
+
+	@Test
+	public void quotedExpressionsAreAppliedSeparately() {
+		assertEquals("*** x ***", RegexMasker.hideAll("a.c x def", "\\Qa.c", "def"));
+	}
+}
@@ -1,9 +1,15 @@
 package nl.nn.adapterframework.util;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import java.net.URL;
 
+import javax.xml.transform.Transformer;
+
 import org.junit.Test;
 
 public class TransformerPoolTest {
@@ -68,4 +74,47 @@ public class TransformerPoolTest {
 		assertEquals(3, TransformerPool.getTransformerPoolsKeys().size());
 	}
 
+	@Test
+	public void releasedTransformerIsReused() throws Exception {
+		TransformerPool transformerPool = TransformerPool.getInstance(XmlUtils
+				.createXPathEvaluatorSource("root/message"));
+		Transformer t1 = transformerPool.getTransformer();
+		Transformer t2 = transformerPool.getTransformer();
+		assertNotSame(t1, t2);
+		transformerPool.releaseTransformer(t1);
+		assertSame(t1, transformerPool.getTransformer());
+		transformerPool.releaseTransformer(t2);
+		String result = transformerPool.transform("<root><message>hello</message></root>", null);
+		assertEquals("hello", result);
+	}
+
+	private boolean isCacheable(String stylesheet) throws Exception {
+		return TransformerPool.isCacheableStylesheet(stylesheet.getBytes("UTF-8"));
+	}
+
+	@Test
+	public void stylesheetsThatIncludeOthersAreNotCached() throws Exception {
+		assertTrue(isCacheable("<xsl:stylesheet xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\" version=\"1.0\"><xsl:template match=\"/\"><important/></xsl:template></xsl:stylesheet>"));
+		assertFalse(isCacheable("<xsl:stylesheet xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\" version=\"1.0\"><xsl:include href=\"other.xsl\"/></xsl:stylesheet>"));
+		assertFalse(isCacheable("<x:stylesheet xmlns:x=\"http://www.w3.org/1999/XSL/Transform\" version=\"1.0\"><x:import href=\"other.xsl\"/></x:stylesheet>"));
+		// XSLT as the default namespace
+		assertFalse(isCacheable("<stylesheet xmlns=\"http://www.w3.org/1999/XSL/Transform\" version=\"1.0\"><include href=\"other.xsl\"/></stylesheet>"));
+		assertFalse(isCacheable("<stylesheet xmlns=\"http://www.w3.org/1999/XSL/Transform\" version=\"1.0\"><import\thref=\"other.xsl\"/></stylesheet>"));
+		assertFalse(TransformerPool.isCacheableStylesheet(null));
+	}
+
+	@Test
+	public void sharedPoolIsCountedOnce() throws Exception {
+		TransformerPool.clearTransformerPools();
+		String xpathEvaluatorSource = XmlUtils.createXPathEvaluatorSource("root/counted");
+		long poolsCreated = TransformerPool.getPoolsCreated();
+		TransformerPool transformerPool = TransformerPool.getInstance(xpathEvaluatorSource, null, false, true);
+		assertSame(transformerPool, TransformerPool.getInstance(xpathEvaluatorSource, null, false, true));
+		assertEquals(poolsCreated + 1, TransformerPool.getPoolsCreated());
+		transformerPool.transform("<root><counted>1</counted></root>", null);
+		transformerPool.transform("<root><counted>2</counted></root>", null);
+		// the transformer created to check the stylesheet is reused
+		assertEquals(1, transformerPool.getTransformersCreated());
+	}
+
 }
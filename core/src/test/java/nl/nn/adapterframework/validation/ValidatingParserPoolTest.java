@@ -0,0 +1,109 @@
+package nl.nn.adapterframework.validation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import nl.nn.adapterframework.core.PipeLineSessionBase;
+import nl.nn.adapterframework.util.ClassUtils;
+import nl.nn.adapterframework.util.Misc;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.XMLReaderFactory;
+
+@RunWith(value = Parameterized.class)
+public class ValidatingParserPoolTest {
+
+	private static final String NAMESPACE = "http://www.ing.com/testxmlns";
+	private static final String XSD = "/Basic/xsd/A_correct.xsd";
+
+	private Class<? extends AbstractXmlValidator> implementation;
+
+	public ValidatingParserPoolTest(Class<? extends AbstractXmlValidator> implementation) {
+		this.implementation = implementation;
+	}
+
+	@Parameterized.Parameters
+	public static Collection<Object[]> data() {
+		Object[][] data = new Object[][]{
+			{XercesXmlValidator.class},
+			{JavaxXmlValidator.class}
+		};
+		return Arrays.asList(data);
+	}
+
+	private AbstractXmlValidator createValidator(String schemasId) throws Exception {
+		AbstractXmlValidator instance = implementation.newInstance();
+		instance.setSchemasProvider(new SchemasProviderImpl(schemasId, XSD));
+		instance.setIgnoreUnknownNamespaces(false);
+		return instance;
+	}
+
+	private String validate(AbstractXmlValidator instance, String input) throws Exception {
+		return instance.validate(input, new PipeLineSessionBase(), "test", null, null, false);
+	}
+
+	private ValidatingParserPool getParserPool(AbstractXmlValidator instance) throws Exception {
+		PipeLineSessionBase session = new PipeLineSessionBase();
+		return instance.getValidatingParserPool(instance.createValidationContext(session, null, null));
+	}
+
+	@Test
+	public void parserIsReused() throws Exception {
+		AbstractXmlValidator instance = createValidator(NAMESPACE);
+		instance.configure("test");
+		String ok = Misc.resourceToString(ClassUtils.getResourceURL(this, "/Basic/in/ok.xml"));
+		String withErrors = Misc.resourceToString(ClassUtils.getResourceURL(this, "/Basic/in/with_errors.xml"));
+		ValidatingParserPool parserPool = getParserPool(instance);
+
+		assertEquals("valid XML", validate(instance, ok));
+		assertEquals(1, parserPool.getIdleCount());
+		// invalid documents are parsed completely, the parser can be reused
+		assertEquals("Invalid XML: does not comply to XSD", validate(instance, withErrors));
+		assertEquals(1, parserPool.getIdleCount());
+		assertEquals("valid XML", validate(instance, ok));
+		assertEquals(1, parserPool.getIdleCount());
+	}
+
+	@Test
+	public void parserIsDiscardedWhenParsingStopsHalfway() throws Exception {
+		AbstractXmlValidator instance = createValidator(NAMESPACE);
+		instance.configure("test");
+		String ok = Misc.resourceToString(ClassUtils.getResourceURL(this, "/Basic/in/ok.xml"));
+		ValidatingParserPool parserPool = getParserPool(instance);
+
+		assertEquals("valid XML", validate(instance, ok));
+		assertEquals(1, parserPool.getIdleCount());
+		assertFalse("valid XML".equals(validate(instance, ok.substring(0, ok.length() / 2))));
+		assertEquals(0, parserPool.getIdleCount());
+		// a new parser is created for the next validation
+		assertEquals("valid XML", validate(instance, ok));
+		assertEquals(1, parserPool.getIdleCount());
+	}
+
+	@Test
+	public void parsersForSchemasPerSessionAreNotPooled() throws Exception {
+		AbstractXmlValidator instance = createValidator(null);
+		assertNull(instance.getValidatingParserPool(null));
+	}
+
+	@Test
+	public void discardedParserIsNotReturned() throws Exception {
+		ValidatingParserPool parserPool = new ValidatingParserPool();
+		XMLReader parser1 = XMLReaderFactory.createXMLReader();
+		XMLReader parser2 = XMLReaderFactory.createXMLReader();
+		parserPool.releaseParser(parser1);
+		parserPool.discardParser(parser2);
+		assertEquals(1, parserPool.getIdleCount());
+		assertSame(parser1, parserPool.borrowParser());
+		assertNull(parserPool.borrowParser());
+		assertEquals(0, parserPool.getIdleCount());
+	}
+}
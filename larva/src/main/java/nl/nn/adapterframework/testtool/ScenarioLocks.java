@@ -0,0 +1,70 @@
+/*
+   Copyright 2018 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.testtool;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Serialises scenarios that use the same resources, like a stubbed listener or a database
+ * table that is checked after the scenario.
+ * <p>
+ * A scenario acquires all of its resources at once, or waits until all of them are free, so
+ * scenarios cannot deadlock on each other. An exclusive scenario waits until no other scenario
+ * is running, and blocks all others while it runs; this is how scenarios behave when they are
+ * not run in parallel.
+ */
+public class ScenarioLocks {
+
+	private Set<String> resourcesInUse = new HashSet<String>();
+	private int running = 0;
+	private boolean exclusiveRunning = false;
+
+	public synchronized void acquire(Set<String> resources, boolean exclusive) throws InterruptedException {
+		while (!isAvailable(resources, exclusive)) {
+			wait();
+		}
+		running++;
+		if (exclusive) {
+			exclusiveRunning = true;
+		}
+		resourcesInUse.addAll(resources);
+	}
+
+	public synchronized void release(Set<String> resources, boolean exclusive) {
+		running--;
+		if (exclusive) {
+			exclusiveRunning = false;
+		}
+		resourcesInUse.removeAll(resources);
+		notifyAll();
+	}
+
+	private boolean isAvailable(Set<String> resources, boolean exclusive) {
+		if (exclusiveRunning) {
+			return false;
+		}
+		if (exclusive) {
+			return running == 0;
+		}
+		for (String resource : resources) {
+			if (resourcesInUse.contains(resource)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -20,6 +20,8 @@ import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -33,6 +35,11 @@ import java.util.Properties;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.ZipInputStream;
 
 import javax.servlet.ServletContext;
@@ -93,19 +100,32 @@ import com.sun.syndication.io.XmlReader;
 public class TestTool {
 	private static Logger logger = LogUtil.getLogger(TestTool.class);
 	private static final String LOG_LEVEL_ORDER = "[debug], [pipeline messages prepared for diff], [pipeline messages], [wrong pipeline messages prepared for diff], [wrong pipeline messages], [step passed/failed], [scenario passed/failed], [totals], [error]";
-	private static final String STEP_SYNCHRONIZER = "Step synchronizer";
+	private static final ScenarioLocks SCENARIO_LOCKS = new ScenarioLocks();
+	private static final List EXCLUSIVE_QUEUE_CLASSES = Arrays.asList(new String[] {
+			"nl.nn.adapterframework.jms.JmsListener",
+			"nl.nn.adapterframework.jdbc.FixedQuerySender",
+			"nl.nn.adapterframework.http.WebServiceListener",
+			"nl.nn.adapterframework.receivers.JavaListener",
+			"nl.nn.adapterframework.testtool.FileListener",
+			"nl.nn.adapterframework.testtool.XsltProviderListener"});
+	private static final int SLOWEST_SCENARIOS_REPORTED = 10;
 	protected static final int DEFAULT_TIMEOUT = 30000;
 	protected static final String TESTTOOL_CORRELATIONID = "Test Tool correlation id";
 	protected static final String TESTTOOL_BIFNAME = "Test Tool bif name";
 	protected static final String TESTTOOL_DUMMY_MESSAGE = "<TestTool>Dummy message</TestTool>";
 	protected static final String TESTTOOL_CLEAN_UP_REPLY = "<TestTool>Clean up reply</TestTool>";
-	private static final int RESULT_ERROR = 0;
-	private static final int RESULT_OK = 1;
-	private static final int RESULT_AUTOSAVED = 2;
+	static final int RESULT_ERROR = 0;
+	static final int RESULT_OK = 1;
+	static final int RESULT_AUTOSAVED = 2;
 	// dirty solution by Marco de Reus:
-	private static String zeefVijlNeem = "";
+	private static ThreadLocal<String> zeefVijlNeem = new ThreadLocal<String>() {
+		@Override
+		protected String initialValue() {
+			return "";
+		}
+	};
 	private static String windiffCommand;
-	private static Writer silentOut = null;
+	private static ThreadLocal<Writer> silentOut = new ThreadLocal<Writer>();
 	private static boolean autoSaveDiffs = false;
 	
 	public static void runScenarios(ServletContext application, HttpServletRequest request, Writer out) {
@@ -137,8 +157,11 @@ public class TestTool {
 			writers.put("uselogbuffer", "true");
 			writers.put("messagecounter", new Integer(0));
 			writers.put("scenariocounter", new Integer(1));
+		}
+		if (silent) {
+			silentOut.set(out);
 		} else {
-			silentOut = out;
+			silentOut.remove();
 		}
 
 		TestTool.debugMessage("Start logging to logbuffer until form is written", writers);
@@ -191,8 +214,18 @@ public class TestTool {
 				} catch(NumberFormatException e) {
 				}
 			}
+			debugMessage("Read threads parameter", writers);
+			String paramThreads = request.getParameter("threads");
+			debugMessage("Initialize 'threads' variable", writers);
+			int threads = appConstants.getInt("larva.parallel.threads", 1);
+			if (paramThreads != null) {
+				try {
+					threads = Integer.parseInt(paramThreads);
+				} catch(NumberFormatException e) {
+				}
+			}
 			debugMessage("Write html form", writers);
-			printHtmlForm(scenariosRootDirectories, scenariosRootDescriptions, currentScenariosRootDirectory, appConstants, allScenarioFiles, waitBeforeCleanUp, paramExecute, autoScroll, writers);
+			printHtmlForm(scenariosRootDirectories, scenariosRootDescriptions, currentScenariosRootDirectory, appConstants, allScenarioFiles, waitBeforeCleanUp, threads, paramExecute, autoScroll, writers);
 			debugMessage("Stop logging to logbuffer", writers);
 			if (writers!=null) {
 				writers.put("uselogbuffer", "stop");
@@ -225,115 +258,36 @@ public class TestTool {
 						debugMessage("Read all scenarios from directory '" + paramExecute + "'", writers);
 						scenarioFiles = readScenarioFiles(appConstants, paramExecute, writers);
 					}
-					boolean evenStep = false;
 					debugMessage("Initialize statistics variables", writers);
 					int scenariosPassed = 0;
 					int scenariosAutosaved = 0;
 					int scenariosFailed = 0;
 					long startTime = System.currentTimeMillis();
-					debugMessage("Execute scenario('s)", writers);
-					Iterator scenarioFilesIterator = scenarioFiles.iterator();
-					while (scenarioFilesIterator.hasNext()) {
-						int scenarioPassed = RESULT_ERROR;
-						File scenarioFile = (File)scenarioFilesIterator.next();
-				
-						String scenarioDirectory = scenarioFile.getParentFile().getAbsolutePath() + File.separator;
-						String longName = scenarioFile.getAbsolutePath();
-						String shortName = longName.substring(currentScenariosRootDirectory.length() - 1, longName.length() - ".properties".length());
-	
-						if (writers!=null) {
-							if (LOG_LEVEL_ORDER.indexOf("[" + (String)writers.get("loglevel") + "]") < LOG_LEVEL_ORDER.indexOf("[scenario passed/failed]")) {
-								writeHtml("<br/>", writers, false);
-								writeHtml("<br/>", writers, false);
-								writeHtml("<div class='scenario'>", writers, false);
-							}
-						}
-						debugMessage("Read property file " + scenarioFile.getName(), writers);
-						Properties properties = readProperties(appConstants, scenarioFile, writers);
-						List steps = null;
-	
-						if (properties != null) {
-							debugMessage("Read steps from property file", writers);
-							steps = getSteps(properties, writers);
-							if (steps != null) {
-								synchronized(STEP_SYNCHRONIZER) {
-									debugMessage("Open queues", writers);
-									Map queues = openQueues(scenarioDirectory, steps, properties, ibisContext, writers);
-									if (queues != null) {
-										debugMessage("Execute steps", writers);
-										boolean allStepsPassed = true;
-										boolean autoSaved = false;
-										Iterator iterator = steps.iterator();
-										while (allStepsPassed && iterator.hasNext()) {
-											if (evenStep) {
-												writeHtml("<div class='even'>", writers, false);
-												evenStep = false;
-											} else {
-												writeHtml("<div class='odd'>", writers, false);
-												evenStep = true;
-											}
-											String step = (String)iterator.next();
-											String stepDisplayName = shortName + " - " + step + " - " + properties.get(step);
-											debugMessage("Execute step '" + stepDisplayName + "'", writers);
-											int stepPassed = executeStep(step, properties, stepDisplayName, queues, writers);
-											if (stepPassed==RESULT_OK) {
-												stepPassedMessage("Step '" + stepDisplayName + "' passed", writers);
-											} else if (stepPassed==RESULT_AUTOSAVED) {
-												stepAutosavedMessage("Step '" + stepDisplayName + "' passed after autosave", writers);
-												autoSaved = true;
-											} else {
-												stepFailedMessage("Step '" + stepDisplayName + "' failed", writers);
-												allStepsPassed = false;
-											}
-											writeHtml("</div>", writers, false);
-										}
-										if (allStepsPassed) {
-											if (autoSaved) {
-												scenarioPassed = RESULT_AUTOSAVED;
-											} else {
-												scenarioPassed = RESULT_OK;
-											}
-										}
-										debugMessage("Wait " + waitBeforeCleanUp + " ms before clean up", writers);
-										try {
-											Thread.sleep(waitBeforeCleanUp);
-										} catch(InterruptedException e) {
-										}
-										debugMessage("Close queues", writers);
-										boolean remainingMessagesFound = closeQueues(queues, properties, writers);
-										if (remainingMessagesFound) {
-											stepFailedMessage("Found one or more messages on queues or in database after scenario executed", writers);
-											scenarioPassed = RESULT_ERROR;
-										}
-									}
-								}
-							}
+					if (threads > 1 && scenarioFiles.size() > 1) {
+						debugMessage("Execute scenario('s) with " + threads + " threads", writers);
+					} else {
+						debugMessage("Execute scenario('s)", writers);
+					}
+					final String scenariosRootDirectory = currentScenariosRootDirectory;
+					final AppConstants scenarioAppConstants = appConstants;
+					final IbisContext scenarioIbisContext = ibisContext;
+					final int scenarioWaitBeforeCleanUp = waitBeforeCleanUp;
+					final boolean scenarioSilent = silent;
+					ScenarioRunner scenarioRunner = new ScenarioRunner() {
+						public ScenarioResult run(File scenarioFile, boolean exclusive, Map scenarioWriters, Writer scenarioOut) {
+							return runScenario(scenarioFile, scenariosRootDirectory, scenarioAppConstants, scenarioIbisContext, scenarioWaitBeforeCleanUp, exclusive, scenarioWriters, scenarioOut, scenarioSilent);
 						}
-	
+					};
+					List scenarioResults = runScenarios(scenarioFiles, threads, scenarioRunner, writers, out, silent);
+					for (Iterator iterator = scenarioResults.iterator(); iterator.hasNext();) {
+						int scenarioPassed = ((ScenarioResult)iterator.next()).result;
 						if (scenarioPassed==RESULT_OK) {
-							scenarioPassedMessage("Scenario '" + shortName + " - " + properties.getProperty("scenario.description") + "' passed", writers);
-							if (silent) {
-								try {
-									out.write("[***PASSED***]");
-								} catch (IOException e) {
-								}
-							}
 							scenariosPassed++;
 						} else if (scenarioPassed==RESULT_AUTOSAVED) {
-							scenarioAutosavedMessage("Scenario '" + shortName + " - " + properties.getProperty("scenario.description") + "' passed after autosave", writers);
-							if (silent) {
-								try {
-									out.write("[***PASSED***]");
-								} catch (IOException e) {
-								}
-							}
 							scenariosAutosaved++;
 						} else {
-							scenarioFailedMessage("Scenario '" + shortName + " - " + properties.getProperty("scenario.description") + "' failed", writers);
 							scenariosFailed++;
 						}
-						
-						writeHtml("</div>", writers, false);
 					}
 					long executeTime = System.currentTimeMillis() - startTime;
 					debugMessage("Print statistics information", writers);
@@ -384,6 +338,9 @@ public class TestTool {
 								scenariosFailedTotalMessage(scenariosFailed + " scenarios failed", writers);
 							}
 						}
+						if (scenariosTotal > 1) {
+							scenarioTimingsMessage(scenarioResults, writers);
+						}
 					}
 					debugMessage("Start logging to htmlbuffer until form is written", writers);
 					if (writers!=null) {
@@ -391,7 +348,7 @@ public class TestTool {
 					}
 					writeHtml("<br/>", writers, false);
 					writeHtml("<br/>", writers, false);
-					printHtmlForm(scenariosRootDirectories, scenariosRootDescriptions, currentScenariosRootDirectory, appConstants, allScenarioFiles, waitBeforeCleanUp, paramExecute, autoScroll, writers);
+					printHtmlForm(scenariosRootDirectories, scenariosRootDescriptions, currentScenariosRootDirectory, appConstants, allScenarioFiles, waitBeforeCleanUp, threads, paramExecute, autoScroll, writers);
 					debugMessage("Stop logging to htmlbuffer", writers);
 					if (writers!=null) {
 						writers.put("usehtmlbuffer", "stop");
@@ -402,7 +359,293 @@ public class TestTool {
 		}
 	}
 
+	interface ScenarioRunner {
+		ScenarioResult run(File scenarioFile, boolean exclusive, Map writers, Writer out);
+	}
+
+	static class ScenarioResult {
+		String shortName;
+		int result;
+		long duration;
+		String output;
+
+		ScenarioResult(String shortName, int result, long duration) {
+			this.shortName = shortName;
+			this.result = result;
+			this.duration = duration;
+		}
+	}
+
+	/**
+	 * Executes the scenarios one after another, or on the given number of threads. Scenarios that
+	 * are executed in parallel write to their own buffers, also in silent mode, that are written to
+	 * the output by the calling thread in the order of the scenarios. This way the output of
+	 * scenarios is never interleaved.
+	 */
+	static List runScenarios(List scenarioFiles, int threads, final ScenarioRunner scenarioRunner, Map writers, Writer out, final boolean silent) {
+		List scenarioResults = new ArrayList();
+		if (threads > 1 && scenarioFiles.size() > 1) {
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			try {
+				List futures = new ArrayList();
+				for (int i = 0; i < scenarioFiles.size(); i++) {
+					final File scenarioFile = (File)scenarioFiles.get(i);
+					final Map scenarioWriters = createScenarioWriters(writers, i + 1);
+					futures.add(executor.submit(new Callable() {
+						public Object call() {
+							Writer scenarioOut = silent ? new StringWriter() : null;
+							silentOut.set(scenarioOut);
+							try {
+								ScenarioResult scenarioResult = scenarioRunner.run(scenarioFile, false, scenarioWriters, scenarioOut);
+								if (scenarioWriters != null) {
+									scenarioResult.output = scenarioWriters.get("out").toString();
+								} else if (scenarioOut != null) {
+									scenarioResult.output = scenarioOut.toString();
+								}
+								return scenarioResult;
+							} finally {
+								silentOut.remove();
+							}
+						}
+					}));
+				}
+				// write the results in the order of the scenarios, as soon as they are available
+				for (int i = 0; i < futures.size(); i++) {
+					ScenarioResult scenarioResult;
+					try {
+						scenarioResult = (ScenarioResult)((Future)futures.get(i)).get();
+					} catch (ExecutionException e) {
+						errorMessage("Exception executing scenario " + scenarioFiles.get(i) + ": " + e.getCause(), writers);
+						scenarioResult = new ScenarioResult(((File)scenarioFiles.get(i)).getName(), RESULT_ERROR, 0);
+					}
+					if (scenarioResult.output != null) {
+						if (writers != null) {
+							writeHtml(scenarioResult.output, writers, true);
+						} else {
+							try {
+								out.write(scenarioResult.output);
+							} catch (IOException e) {
+							}
+						}
+					}
+					scenarioResults.add(scenarioResult);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				errorMessage("Interrupted while executing scenarios", writers);
+			} finally {
+				executor.shutdownNow();
+			}
+		} else {
+			Iterator scenarioFilesIterator = scenarioFiles.iterator();
+			while (scenarioFilesIterator.hasNext()) {
+				File scenarioFile = (File)scenarioFilesIterator.next();
+				scenarioResults.add(scenarioRunner.run(scenarioFile, true, writers, out));
+			}
+		}
+		return scenarioResults;
+	}
+
+	/**
+	 * Returns a copy of the writers that buffers the output of one scenario, so scenarios can be
+	 * executed in parallel and their output written to the report one after another.
+	 */
+	private static Map createScenarioWriters(Map writers, int scenarioNumber) {
+		if (writers == null) {
+			return null;
+		}
+		Map scenarioWriters = new HashMap();
+		scenarioWriters.put("out", new StringWriter());
+		scenarioWriters.put("htmlbuffer", new StringWriter());
+		scenarioWriters.put("logbuffer", new StringWriter());
+		scenarioWriters.put("loglevel", writers.get("loglevel"));
+		scenarioWriters.put("autoscroll", "false");
+		scenarioWriters.put("usehtmlbuffer", "false");
+		scenarioWriters.put("uselogbuffer", "false");
+		// keep the ids of the message boxes unique within the report
+		scenarioWriters.put("messagecounter", new Integer(scenarioNumber * 100000));
+		scenarioWriters.put("scenariocounter", new Integer(scenarioNumber * 100000 + 1));
+		return scenarioWriters;
+	}
+
+	/**
+	 * Returns the resources a scenario cannot share with other scenarios that run at the same time:
+	 * the queues that stub a listener or are checked for remaining messages or records after the
+	 * scenario, the services and queues these stubs listen to, and the resources listed in the
+	 * scenario.locks property.
+	 */
+	public static Set getScenarioResources(Properties properties) {
+		Set resources = new TreeSet();
+		Iterator iterator = properties.keySet().iterator();
+		while (iterator.hasNext()) {
+			String key = (String)iterator.next();
+			if (key.endsWith(".className") && EXCLUSIVE_QUEUE_CLASSES.contains(properties.getProperty(key))) {
+				String queueName = key.substring(0, key.length() - ".className".length());
+				resources.add(queueName);
+				String[] addressProperties = {".queue", ".serviceName", ".serviceNamespaceURI"};
+				for (int i = 0; i < addressProperties.length; i++) {
+					String address = properties.getProperty(queueName + addressProperties[i]);
+					if (StringUtils.isNotEmpty(address)) {
+						resources.add(address);
+					}
+				}
+			}
+		}
+		String locks = properties.getProperty("scenario.locks");
+		if (locks != null) {
+			StringTokenizer tokenizer = new StringTokenizer(locks, " ,;");
+			while (tokenizer.hasMoreTokens()) {
+				resources.add(tokenizer.nextToken());
+			}
+		}
+		return resources;
+	}
+
+	private static ScenarioResult runScenario(File scenarioFile, String currentScenariosRootDirectory, AppConstants appConstants, IbisContext ibisContext, int waitBeforeCleanUp, boolean exclusive, Map writers, Writer out, boolean silent) {
+		long startTime = System.currentTimeMillis();
+		long waitForResourcesTime = 0;
+		int scenarioPassed = RESULT_ERROR;
+		boolean evenStep = false;
+
+		String scenarioDirectory = scenarioFile.getParentFile().getAbsolutePath() + File.separator;
+		String longName = scenarioFile.getAbsolutePath();
+		String shortName = longName.substring(currentScenariosRootDirectory.length() - 1, longName.length() - ".properties".length());
+
+		if (writers!=null) {
+			if (LOG_LEVEL_ORDER.indexOf("[" + (String)writers.get("loglevel") + "]") < LOG_LEVEL_ORDER.indexOf("[scenario passed/failed]")) {
+				writeHtml("<br/>", writers, false);
+				writeHtml("<br/>", writers, false);
+				writeHtml("<div class='scenario'>", writers, false);
+			}
+		}
+		debugMessage("Read property file " + scenarioFile.getName(), writers);
+		Properties properties = readProperties(appConstants, scenarioFile, writers);
+		List steps = null;
+
+		if (properties != null) {
+			debugMessage("Read steps from property file", writers);
+			steps = getSteps(properties, writers);
+			if (steps != null) {
+				Set resources = getScenarioResources(properties);
+				debugMessage("Wait for resources " + resources, writers);
+				boolean resourcesAcquired = false;
+				try {
+					SCENARIO_LOCKS.acquire(resources, exclusive);
+					resourcesAcquired = true;
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					errorMessage("Interrupted while waiting for resources " + resources, writers);
+				}
+				waitForResourcesTime = System.currentTimeMillis() - startTime;
+				if (resourcesAcquired) {
+					try {
+						debugMessage("Open queues", writers);
+						Map queues = openQueues(scenarioDirectory, steps, properties, ibisContext, writers);
+						if (queues != null) {
+							debugMessage("Execute steps", writers);
+							boolean allStepsPassed = true;
+							boolean autoSaved = false;
+							Iterator iterator = steps.iterator();
+							while (allStepsPassed && iterator.hasNext()) {
+								if (evenStep) {
+									writeHtml("<div class='even'>", writers, false);
+									evenStep = false;
+								} else {
+									writeHtml("<div class='odd'>", writers, false);
+									evenStep = true;
+								}
+								String step = (String)iterator.next();
+								String stepDisplayName = shortName + " - " + step + " - " + properties.get(step);
+								debugMessage("Execute step '" + stepDisplayName + "'", writers);
+								int stepPassed = executeStep(step, properties, stepDisplayName, queues, writers);
+								if (stepPassed==RESULT_OK) {
+									stepPassedMessage("Step '" + stepDisplayName + "' passed", writers);
+								} else if (stepPassed==RESULT_AUTOSAVED) {
+									stepAutosavedMessage("Step '" + stepDisplayName + "' passed after autosave", writers);
+									autoSaved = true;
+								} else {
+									stepFailedMessage("Step '" + stepDisplayName + "' failed", writers);
+									allStepsPassed = false;
+								}
+								writeHtml("</div>", writers, false);
+							}
+							if (allStepsPassed) {
+								if (autoSaved) {
+									scenarioPassed = RESULT_AUTOSAVED;
+								} else {
+									scenarioPassed = RESULT_OK;
+								}
+							}
+							debugMessage("Wait " + waitBeforeCleanUp + " ms before clean up", writers);
+							try {
+								Thread.sleep(waitBeforeCleanUp);
+							} catch(InterruptedException e) {
+							}
+							debugMessage("Close queues", writers);
+							boolean remainingMessagesFound = closeQueues(queues, properties, writers);
+							if (remainingMessagesFound) {
+								stepFailedMessage("Found one or more messages on queues or in database after scenario executed", writers);
+								scenarioPassed = RESULT_ERROR;
+							}
+						}
+					} finally {
+						SCENARIO_LOCKS.release(resources, exclusive);
+					}
+				}
+			}
+		}
+
+		long duration = System.currentTimeMillis() - startTime - waitForResourcesTime;
+		if (scenarioPassed==RESULT_OK) {
+			scenarioPassedMessage("Scenario '" + shortName + " - " + properties.getProperty("scenario.description") + "' passed (" + duration + " ms)", writers);
+			if (silent) {
+				try {
+					out.write("[***PASSED***]");
+				} catch (IOException e) {
+				}
+			}
+		} else if (scenarioPassed==RESULT_AUTOSAVED) {
+			scenarioAutosavedMessage("Scenario '" + shortName + " - " + properties.getProperty("scenario.description") + "' passed after autosave (" + duration + " ms)", writers);
+			if (silent) {
+				try {
+					out.write("[***PASSED***]");
+				} catch (IOException e) {
+				}
+			}
+		} else {
+			scenarioFailedMessage("Scenario '" + shortName + " - " + properties.getProperty("scenario.description") + "' failed (" + duration + " ms)", writers);
+		}
+
+		writeHtml("</div>", writers, false);
+		return new ScenarioResult(shortName, scenarioPassed, duration);
+	}
+
+	/**
+	 * Writes the scenarios that took longest to execute, excluding the time they waited for
+	 * resources used by other scenarios.
+	 */
+	private static void scenarioTimingsMessage(List scenarioResults, Map writers) {
+		List sortedResults = new ArrayList(scenarioResults);
+		Collections.sort(sortedResults, new Comparator() {
+			public int compare(Object o1, Object o2) {
+				long duration1 = ((ScenarioResult)o1).duration;
+				long duration2 = ((ScenarioResult)o2).duration;
+				return duration1 > duration2 ? -1 : duration1 < duration2 ? 1 : 0;
+			}
+		});
+		int count = Math.min(SLOWEST_SCENARIOS_REPORTED, sortedResults.size());
+		scenariosTotalMessage("Slowest scenarios:", writers);
+		for (int i = 0; i < count; i++) {
+			ScenarioResult scenarioResult = (ScenarioResult)sortedResults.get(i);
+			writeLog("<h2 class='total'>" + XmlUtils.encodeChars(scenarioResult.shortName + " (" + scenarioResult.duration + " ms)") + "</h2>", "totals", writers, false);
+		}
+	}
+
 	public static void printHtmlForm(List scenariosRootDirectories, List scenariosRootDescriptions, String scenariosRootDirectory, AppConstants appConstants, List scenarioFiles, int waitBeforeCleanUp, String paramExecute, String autoScroll, Map writers) {
+		printHtmlForm(scenariosRootDirectories, scenariosRootDescriptions, scenariosRootDirectory, appConstants, scenarioFiles, waitBeforeCleanUp, 1, paramExecute, autoScroll, writers);
+	}
+
+	public static void printHtmlForm(List scenariosRootDirectories, List scenariosRootDescriptions, String scenariosRootDirectory, AppConstants appConstants, List scenarioFiles, int waitBeforeCleanUp, int threads, String paramExecute, String autoScroll, Map writers) {
 		if (writers!=null) {
 			writeHtml("<form action=\"index.jsp\" method=\"post\">", writers, false);
 
@@ -503,6 +746,18 @@ public class TestTool {
 			writeHtml("</tr>", writers, false);
 			writeHtml("</table>", writers, false);
 
+			writeHtml("<span style=\"float: left; font-size: 10pt; width: 0px\">&nbsp; &nbsp; &nbsp;</span>", writers, false);
+			writeHtml("<table align=\"left\">", writers, false);
+			writeHtml("<tr>", writers, false);
+			writeHtml("<td>Threads</td>", writers, false);
+			writeHtml("</tr>", writers, false);
+			writeHtml("<tr>", writers, false);
+			writeHtml("<td>", writers, false);
+			writeHtml("<input type=\"text\" name=\"threads\" value=\"" + threads + "\">", writers, false);
+			writeHtml("</td>", writers, false);
+			writeHtml("</tr>", writers, false);
+			writeHtml("</table>", writers, false);
+
 			writeHtml("<span style=\"float: left; font-size: 10pt; width: 0px\">&nbsp; &nbsp; &nbsp;</span>", writers, false);
 			writeHtml("<table align=\"left\">", writers, false);
 			writeHtml("<tr>", writers, false);
@@ -685,7 +940,7 @@ public class TestTool {
 
 			writeLog("<div class='expectedContainer'>", method, writers, false);
 			writeLog(writeCommands(expectedBoxId, true, null), method, writers, true);
-			writeLog("<input type='hidden' name='expectedFileName' value='"+zeefVijlNeem+"' />", method, writers, false);
+			writeLog("<input type='hidden' name='expectedFileName' value='"+zeefVijlNeem.get()+"' />", method, writers, false);
 			writeLog("<input type='hidden' name='cmd' />", method, writers, false);
 			writeLog("<h5>Expected (raw):</h5>", method, writers, false);
 			writeLog("<textarea name='expectedBox' id='"+expectedBoxId+"'>" + XmlUtils.encodeChars(pipelineMessageExpected) + "</textarea>", method, writers, false);
@@ -723,9 +978,9 @@ public class TestTool {
 			scenarioCounter++;
 			writers.put("scenariocounter", new Integer(scenarioCounter));
 		} else {
-			if (silentOut!=null) {
+			if (silentOut.get()!=null) {
 				try {
-					silentOut.write(message);
+					silentOut.get().write(message);
 				} catch (IOException e) {
 				}
 			}
@@ -759,7 +1014,7 @@ public class TestTool {
 			messageCounter++;
 			writeLog("<div class='expectedContainer'>", method, writers, false);
 			writeLog(writeCommands(expectedBoxId, true, null), method, writers, false);
-			writeLog("<input type='hidden' name='expectedFileName' value='"+zeefVijlNeem+"' />", method, writers, false);
+			writeLog("<input type='hidden' name='expectedFileName' value='"+zeefVijlNeem.get()+"' />", method, writers, false);
 			writeLog("<input type='hidden' name='cmd' />", method, writers, false);
 			writeLog("<h5>Expected (prepared for diff):</h5>", method, writers, false);
 			writeLog("<textarea name='expectedBox' id='" + expectedBoxId + "'>" + XmlUtils.encodeChars(pipelineMessageExpectedPreparedForDiff) + "</textarea>", method, writers, false);
@@ -856,9 +1111,9 @@ public class TestTool {
 	public static void errorMessage(String message, Map writers) {
 		String method = "error";
 		writeLog("<h1 class='error'>" + XmlUtils.encodeChars(message) + "</h1>", method, writers, true);
-		if (silentOut!=null) {
+		if (silentOut.get()!=null) {
 			try {
-				silentOut.write(message);
+				silentOut.get().write(message);
 			} catch (IOException e) {
 			}
 		}
@@ -2761,7 +3016,7 @@ public class TestTool {
 		String queueName;
 		String fileContent;
 		// vul globale var
-		zeefVijlNeem = fileNameAbsolutePath;
+		zeefVijlNeem.set(fileNameAbsolutePath);
 		
 		//inlezen file voor deze stap
 		if ("".equals(fileName)) {
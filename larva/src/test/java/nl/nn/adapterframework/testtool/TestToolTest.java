@@ -0,0 +1,66 @@
+package nl.nn.adapterframework.testtool;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TestToolTest {
+
+	/**
+	 * Writes to the output in several steps, as scenarios do, and takes longer for the first scenarios
+	 * so that scenarios that run at the same time write in between each other.
+	 */
+	private TestTool.ScenarioRunner scenarioRunner = new TestTool.ScenarioRunner() {
+		public TestTool.ScenarioResult run(File scenarioFile, boolean exclusive, Map writers, Writer out) {
+			String name = scenarioFile.getName();
+			int number = Integer.parseInt(name.substring("scenario".length()));
+			try {
+				out.write("[" + name);
+				Thread.sleep((10 - number) * 10);
+				TestTool.errorMessage(" error", writers);
+				Thread.sleep(5);
+				out.write(" passed]");
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return new TestTool.ScenarioResult(name, TestTool.RESULT_OK, 0);
+		}
+	};
+
+	private List createScenarioFiles(int count) {
+		List scenarioFiles = new ArrayList();
+		for (int i = 1; i <= count; i++) {
+			scenarioFiles.add(new File("scenario" + i));
+		}
+		return scenarioFiles;
+	}
+
+	private String getExpectedOutput(int count) {
+		StringBuilder expected = new StringBuilder();
+		for (int i = 1; i <= count; i++) {
+			expected.append("[scenario" + i + " error passed]");
+		}
+		return expected.toString();
+	}
+
+	@Test
+	public void silentParallelOutputIsNotInterleaved() {
+		StringWriter out = new StringWriter();
+		List scenarioResults = TestTool.runScenarios(createScenarioFiles(8), 4, scenarioRunner, null, out, true);
+		assertEquals(getExpectedOutput(8), out.toString());
+		assertEquals(8, scenarioResults.size());
+		for (int i = 0; i < scenarioResults.size(); i++) {
+			assertEquals("scenario" + (i + 1), ((TestTool.ScenarioResult)scenarioResults.get(i)).shortName);
+		}
+	}
+}
@@ -761,7 +761,7 @@ angular.module('iaf.beheerconsole')
 	};
 }])
 
-.controller('AdapterStatisticsCtrl', ['$scope', 'Api', '$stateParams', 'SweetAlert', function($scope, Api, $stateParams, SweetAlert) {
+.controller('AdapterStatisticsCtrl', ['$scope', 'Api', '$stateParams', 'SweetAlert', 'Misc', function($scope, Api, $stateParams, SweetAlert, Misc) {
 	var adapterName = $stateParams.name;
 	if(!adapterName)
 		return SweetAlert.Warning("Adapter not found!");
@@ -771,6 +771,12 @@ angular.module('iaf.beheerconsole')
 	Api.Get("adapters/"+adapterName+"/statistics", function(data) {
 		$scope.stats = data;
 	});
+
+	$scope.traces = {};
+	$scope.otlpUrl = Misc.getServerPath() + "iaf/api/adapters/"+adapterName+"/traces/otlp";
+	Api.Get("adapters/"+adapterName+"/traces", function(data) {
+		$scope.traces = data;
+	});
 }])
 
 .controller('WebservicesCtrl', ['$scope', 'Api', 'Misc', function($scope, Api, Misc) {